@@ -0,0 +1,117 @@
+package picoded.dstack;
+
+import java.util.Comparator;
+
+/**
+ * Represents a single change of a DataObject, as returned by DataObjectMap.changedSince.
+ *
+ * Each change is either an update (or creation), or a removal (tombstone) of the object.
+ * Changes are ordered by their update time, followed by the object ID, where the
+ * cursor of the last change read can be used to resume the change feed.
+ **/
+public class DataObjectChange {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Constructor and values
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * The object ID which changed
+	 **/
+	protected final String oid;
+	
+	/**
+	 * Update timestamp in milliseconds
+	 **/
+	protected final long updateTime;
+	
+	/**
+	 * Indicates if the object was removed
+	 **/
+	protected final boolean removed;
+	
+	/**
+	 * Setup the change
+	 *
+	 * @param  oid         object ID which changed
+	 * @param  updateTime  update timestamp in milliseconds
+	 * @param  removed     true, if the object was removed
+	 **/
+	public DataObjectChange(String oid, long updateTime, boolean removed) {
+		this.oid = oid;
+		this.updateTime = updateTime;
+		this.removed = removed;
+	}
+	
+	/**
+	 * @return the object ID which changed
+	 **/
+	public String getObjectID() {
+		return oid;
+	}
+	
+	/**
+	 * @return the update timestamp in milliseconds
+	 **/
+	public long getUpdateTime() {
+		return updateTime;
+	}
+	
+	/**
+	 * @return true, if the object was removed (tombstone)
+	 **/
+	public boolean isRemoved() {
+		return removed;
+	}
+	
+	/**
+	 * @return the cursor to resume the change feed after this change
+	 **/
+	public String getCursor() {
+		return updateTime + ":" + oid;
+	}
+	
+	@Override
+	public String toString() {
+		return (removed ? "removed " : "updated ") + getCursor();
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Ordering and cursor utilities
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Change feed ordering, by update time, followed by the object ID
+	 **/
+	public static final Comparator<DataObjectChange> ORDER = (a, b) -> {
+		int cmp = Long.compare(a.updateTime, b.updateTime);
+		if (cmp != 0) {
+			return cmp;
+		}
+		return a.oid.compareTo(b.oid);
+	};
+	
+	/**
+	 * Parses the cursor, into a change (without a removal flag) used for seeking
+	 *
+	 * @param  cursor to parse, as returned by getCursor
+	 *
+	 * @return change representing the cursor position
+	 **/
+	public static DataObjectChange fromCursor(String cursor) {
+		int pos = (cursor != null) ? cursor.indexOf(':') : -1;
+		if (pos <= 0) {
+			throw new IllegalArgumentException("Invalid change cursor : " + cursor);
+		}
+		try {
+			return new DataObjectChange(cursor.substring(pos + 1), Long.parseLong(cursor.substring(0,
+				pos)), false);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid change cursor : " + cursor, e);
+		}
+	}
+}
@@ -2,6 +2,7 @@ package picoded.dstack;
 
 // Java imports
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -17,7 +18,9 @@ import picoded.core.struct.template.UnsupportedDefaultMap;
 import picoded.core.struct.query.Query;
 import picoded.core.struct.query.utils.CollectionQueryForIDInterface;
 import picoded.dstack.core.Core_DataObject;
+import picoded.dstack.core.Core_ReadOnlyDataObject;
 import picoded.core.struct.GenericConvertMap;
+import picoded.core.struct.GenericConvertHashMap;
 import picoded.core.struct.ProxyGenericConvertMap;
 
 /**
@@ -173,6 +176,78 @@ public interface DataObjectMap extends UnsupportedDefaultMap<String, DataObject>
 		return retArr;
 	}
 	
+	// Read only DataObject operations
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Get a read only DataObject, which wraps the fetched data directly.
+	 * Without delta tracking, or copying of values on get. Where nested maps / lists are
+	 * unmodifiable views, and all mutators throws an UnsupportedOperationException.
+	 *
+	 * @param  object GUID to fetch
+	 *
+	 * @return the read only DataObject, null if not exists
+	 **/
+	default DataObject getReadOnly(String oid) {
+		// Default implementation, copies the values of the normal DataObject
+		DataObject obj = get(oid);
+		if (obj == null) {
+			return null;
+		}
+		return new Core_ReadOnlyDataObject(oid, new HashMap<String, Object>(obj));
+	}
+	
+	/**
+	 * Performs a search query, and returns the respective read only DataObjects
+	 * (see getReadOnly). Objects removed after the query are excluded from the result.
+	 *
+	 * @param   where query statement
+	 * @param   where clause values array
+	 * @param   query string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The DataObject[] array
+	 **/
+	default DataObject[] queryReadOnly(String whereClause, Object[] whereValues,
+		String orderByStr, int offset, int limit) {
+		String[] idArray = query_id(whereClause, whereValues, orderByStr, offset, limit);
+		List<DataObject> retList = new ArrayList<DataObject>(idArray.length);
+		for (String oid : idArray) {
+			DataObject obj = getReadOnly(oid);
+			if (obj != null) {
+				retList.add(obj);
+			}
+		}
+		return retList.toArray(new DataObject[0]);
+	}
+	
+	/**
+	 * Performs a search query, and returns the respective read only DataObjects
+	 *
+	 * @param   where query statement
+	 * @param   where clause values array
+	 * @param   query string to sort the order by, use null to ignore
+	 *
+	 * @return  The DataObject[] array
+	 **/
+	default DataObject[] queryReadOnly(String whereClause, Object[] whereValues,
+		String orderByStr) {
+		return queryReadOnly(whereClause, whereValues, orderByStr, -1, -1);
+	}
+	
+	/**
+	 * Performs a search query, and returns the respective read only DataObjects
+	 *
+	 * @param   where query statement
+	 * @param   where clause values array
+	 *
+	 * @return  The DataObject[] array
+	 **/
+	default DataObject[] queryReadOnly(String whereClause, Object[] whereValues) {
+		return queryReadOnly(whereClause, whereValues, null, -1, -1);
+	}
+	
 	// Query and aggregation operations (to optimize on specific implementation)
 	// NOTE: Interface is inherited from CollectionQueryForIDInterface
 	//--------------------------------------------------------------------------
@@ -222,6 +297,65 @@ public interface DataObjectMap extends UnsupportedDefaultMap<String, DataObject>
 		return query_id(whereClause, whereValues, null).length;
 	}
 	
+	/**
+	 * Performs a search query, and returns a page of the respective DataObjects,
+	 * together with the total count for the query (across all pages).
+	 *
+	 * This is equivalent to calling both query and queryCount, which implementations
+	 * optimize into a single query (or filter pass).
+	 *
+	 * @param   where query statement
+	 * @param   where clause values array
+	 * @param   query string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The DataObjectPage, with the total count
+	 **/
+	default DataObjectPage queryPage(String whereClause, Object[] whereValues, String orderByStr,
+		int offset, int limit) {
+		return new DataObjectPage(this, query_id(whereClause, whereValues, orderByStr, offset, limit),
+			queryCount(whereClause, whereValues));
+	}
+	
+	/**
+	 * Explains how a search query is performed, for diagnostics and index tuning.
+	 * The query is executed as part of the explanation.
+	 *
+	 * The returned map includes the following (where supported by the implementation)
+	 *
+	 * + backend      : implementation class name
+	 * + strategy     : how the query is performed, such as "sql", "scan", "index", or "get"
+	 * + sql / args   : generated SQL statement, and its bound arguments
+	 * + plan         : database query plan for the generated SQL
+	 * + keyTypes     : inferred type of each queried key
+	 * + indexes      : indexed keys used by the query
+	 * + rowsExamined : number of objects examined
+	 * + resultCount  : number of objects returned
+	 * + planTime     : time taken to plan / build the query, in milliseconds
+	 * + executeTime  : time taken to execute the query, in milliseconds
+	 *
+	 * @param   where query statement
+	 * @param   where clause values array
+	 * @param   query string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The explanation map
+	 **/
+	default GenericConvertMap<String, Object> explain(String whereClause, Object[] whereValues,
+		String orderByStr, int offset, int limit) {
+		GenericConvertMap<String, Object> ret = new GenericConvertHashMap<String, Object>();
+		ret.put("backend", this.getClass().getSimpleName());
+		ret.put("strategy", "unknown");
+		
+		long start = System.nanoTime();
+		String[] result = query_id(whereClause, whereValues, orderByStr, offset, limit);
+		ret.put("executeTime", (System.nanoTime() - start) / 1000000.0);
+		ret.put("resultCount", result.length);
+		return ret;
+	}
+	
 	// Get from key names operations (to optimize on specific implementation)
 	//
 	// @TODO : REMOVAL
@@ -398,6 +532,43 @@ public interface DataObjectMap extends UnsupportedDefaultMap<String, DataObject>
 		return null;
 	}
 	
+	/**
+	 * Gets and return up to n distinct random object ID's,
+	 * or all object ID's (in random order) if there is less then n objects.
+	 *
+	 * By default this does a reservoir sampling over the keySet, which is O(n)
+	 * of the whole map, implementations are expected to override this if possible.
+	 *
+	 * @param  n number of object ID's to return
+	 *
+	 * @return  Random object ID's
+	 **/
+	default String[] randomSample(int n) {
+		if (n <= 0) {
+			return new String[0];
+		}
+		
+		// Reservoir sampling over the keyset
+		List<String> reservoir = new ArrayList<String>(n);
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		int seen = 0;
+		for (String idString : keySet()) {
+			if (seen < n) {
+				reservoir.add(idString);
+			} else {
+				int pos = rand.nextInt(seen + 1);
+				if (pos < n) {
+					reservoir.set(pos, idString);
+				}
+			}
+			seen++;
+		}
+		
+		// Shuffle, as the first n positions are otherwise in keySet order
+		Collections.shuffle(reservoir, rand);
+		return reservoir.toArray(new String[0]);
+	}
+	
 	/**
 	 * Gets and returns a random object,
 	 * Useful for random validation / checks
@@ -496,4 +667,35 @@ public interface DataObjectMap extends UnsupportedDefaultMap<String, DataObject>
 		return (retID != null) ? get(retID) : null;
 	}
 	
+	//--------------------------------------------------------------------------
+	//
+	// Change feed support
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Gets the objects which changed (updated, or removed) since the given timestamp,
+	 * in update order. Sorted by update time, followed by the object ID.
+	 *
+	 * Removed objects are returned as tombstones (see DataObjectChange.isRemoved),
+	 * which are kept for a limited time (`tombstoneRetention` config in milliseconds).
+	 *
+	 * The latest change of each object is always reported, while earlier (superseded)
+	 * changes of the same object may or may not be. Consumers should resume using the
+	 * cursor of the last change read, instead of its timestamp, to avoid missing
+	 * changes which occur within the same timestamp.
+	 *
+	 * Note that timestamp resolution is implementation dependent (JSql uses seconds).
+	 *
+	 * @param  timestamp in milliseconds to get changes from (inclusive), ignored if cursor is given
+	 * @param  limit     max number of changes to return, use -1 to ignore
+	 * @param  cursor    of the last change read (exclusive), can be null
+	 *
+	 * @return  list of changes, in update order
+	 **/
+	default List<DataObjectChange> changedSince(long timestamp, int limit, String cursor) {
+		throw new UnsupportedOperationException("changedSince is not supported by "
+			+ this.getClass().getName());
+	}
+	
 }
@@ -0,0 +1,75 @@
+package picoded.dstack;
+
+/**
+ * A single page of DataObjects from a query, together with the total number of
+ * objects matching the query (across all pages). As returned by DataObjectMap.queryPage.
+ **/
+public class DataObjectPage {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Constructor and values
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Object ID's in the page, in query order
+	 **/
+	protected final String[] oids;
+	
+	/**
+	 * DataObjects in the page, in query order
+	 **/
+	protected final DataObject[] objects;
+	
+	/**
+	 * Total number of objects matching the query
+	 **/
+	protected final long totalCount;
+	
+	/**
+	 * Setup the page, with the DataObjects fetched (unchecked) from the given map
+	 *
+	 * @param  dataObjectMap  to get the DataObjects from
+	 * @param  oids           object ID's in the page
+	 * @param  totalCount     total number of objects matching the query
+	 **/
+	public DataObjectPage(DataObjectMap dataObjectMap, String[] oids, long totalCount) {
+		this.oids = oids;
+		this.objects = dataObjectMap.getArrayFromID(oids, true);
+		this.totalCount = totalCount;
+	}
+	
+	/**
+	 * @return object ID's in the page, in query order
+	 **/
+	public String[] getObjectIDs() {
+		return oids;
+	}
+	
+	/**
+	 * @return DataObjects in the page, in query order
+	 **/
+	public DataObject[] getObjects() {
+		return objects;
+	}
+	
+	/**
+	 * @return number of DataObjects in the page
+	 **/
+	public int size() {
+		return oids.length;
+	}
+	
+	/**
+	 * @return total number of objects matching the query, across all pages
+	 **/
+	public long getTotalCount() {
+		return totalCount;
+	}
+	
+	@Override
+	public String toString() {
+		return "page of " + oids.length + " / " + totalCount;
+	}
+}
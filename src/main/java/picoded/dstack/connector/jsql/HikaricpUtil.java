@@ -168,6 +168,75 @@ class HikaricpUtil {
 		return new HikariDataSource(hconfig);
 	}
 	
+	/**
+	 * Loads a HikariDataSource for H2 given the config
+	 *
+	 * Unlike SQLite, every pooled connection to the same H2 database shares
+	 * its data. As such in memory mode is given a named database, which is
+	 * kept alive until the JSql connection is closed (see JSql_H2.close)
+	 *
+	 * @param  config map used
+	 *
+	 * @return HikariDataSource with the appropriate config loaded and initialized
+	 */
+	public static HikariDataSource h2(GenericConvertMap config) {
+		// Lets get the h2 path
+		String path = config.getString("path", ":memory:");
+		if (path == null || path.length() == 0) {
+			throw new RuntimeException("Missing path configuration for H2 connection");
+		}
+		
+		// The jdbc url to use for h2
+		String jdbcUrl = null;
+		
+		// In memory mode uses a named database, so that all pooled connections see the same data
+		if (path.equalsIgnoreCase(":memory:")) {
+			String name = config.getString("name", null);
+			if (name == null || name.length() == 0) {
+				name = "jsql_" + java.util.UUID.randomUUID().toString().replaceAll("-", "");
+			}
+			jdbcUrl = "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+		} else {
+			// Get the h2 file
+			File h2FileObj = new File(path);
+			String absolutePath = h2FileObj.getAbsolutePath();
+			
+			// Similar to sqlite, the path should not be a directory
+			if (h2FileObj.isDirectory()) {
+				throw new RuntimeException(
+					"Invalid file path found for h2 - found a directory instead : " + absolutePath);
+			}
+			jdbcUrl = "jdbc:h2:file:" + absolutePath;
+		}
+		
+		// MVStore with multi version concurrency, gives us row level locking
+		jdbcUrl += ";MV_STORE=TRUE;MVCC=TRUE";
+		
+		// Lock wait timeout (in milliseconds) for conflicting row level locks
+		jdbcUrl += ";LOCK_TIMEOUT=" + config.getLong("lockTimeout", 10000);
+		
+		// Load the common config
+		HikariConfig hconfig = commonConfigLoading(config);
+		
+		// Load the DB library
+		// This is only imported on demand, avoid preloading until needed
+		try {
+			Class.forName("org.h2.Driver");
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(
+				"Failed to load H2 JDBC driver - please ensure 'org.h2.Driver' jar is included");
+		}
+		
+		// Setup the configured
+		hconfig.setDriverClassName("org.h2.Driver");
+		hconfig.setJdbcUrl(jdbcUrl);
+		hconfig.setUsername(config.getString("user", "sa"));
+		hconfig.setPassword(config.getString("pass", ""));
+		
+		// Initialize the data source
+		return new HikariDataSource(hconfig);
+	}
+	
 	/**
 	 * Loads a HikariDataSource for Mysql given the config
 	 *
@@ -7,6 +7,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.Properties;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -65,6 +66,13 @@ public abstract class JSql implements StatementBuilderTableAndIndex, StatementBu
 		return new JSql_Mssql(config);
 	}
 	
+	/**
+	 * H2 static constructor, returns picoded.dstack.connector.jsql.JSql_H2
+	 **/
+	public static JSql h2(GenericConvertMap<String, Object> config) {
+		return new JSql_H2(config);
+	}
+	
 	// /**
 	//  * Oracle static constructor, returns picoded.dstack.connector.jsql.JSql_Oracle
 	//  **/
@@ -115,6 +123,9 @@ public abstract class JSql implements StatementBuilderTableAndIndex, StatementBu
 		if (type.equalsIgnoreCase("oracle")) {
 			return oracle(config);
 		}
+		if (type.equalsIgnoreCase("h2")) {
+			return h2(config);
+		}
 		
 		// Invalid / Unsupported db type
 		throw new IllegalArgumentException("Unsupported DB type in DB config object : " + type);
@@ -169,6 +180,59 @@ public abstract class JSql implements StatementBuilderTableAndIndex, StatementBu
 	 **/
 	public abstract void close();
 	
+	//-------------------------------------------------------------------------
+	//
+	// Statement timeout, per operation type
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Set the statement timeout (via setQueryTimeout) for the given operation type
+	 *
+	 * @param  type of operation
+	 * @param  seconds to timeout, 0 means no timeout
+	 **/
+	public abstract void setStatementTimeout(JSqlOperationType type, int seconds);
+	
+	/**
+	 * @param  type of operation
+	 *
+	 * @return statement timeout in seconds for the given operation type, 0 means no timeout
+	 **/
+	public abstract int getStatementTimeout(JSqlOperationType type);
+	
+	/**
+	 * Runs the given call, with all JSql statements made within it (on the current thread)
+	 * using the statement timeout of the given operation type.
+	 *
+	 * Statements made outside of this call, do not have any statement timeout applied.
+	 *
+	 * @param  type of operation
+	 * @param  call to run
+	 *
+	 * @return the call result
+	 **/
+	public abstract <T> T withOperationType(JSqlOperationType type, Supplier<T> call);
+	
+	//-------------------------------------------------------------------------
+	//
+	// Transaction support
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Runs the given call within a single transaction, where all JSql statements made
+	 * within it (on the current thread) share the same connection, and is commited
+	 * together when the call returns. Or rolled back if an exception is thrown.
+	 *
+	 * Nested transaction calls, simply joins the outer transaction.
+	 *
+	 * @param  call to run
+	 *
+	 * @return the call result
+	 **/
+	public abstract <T> T transaction(Supplier<T> call);
+	
 	/**
 	 * Just incase a user forgets to dispose "as per normal"
 	 **/
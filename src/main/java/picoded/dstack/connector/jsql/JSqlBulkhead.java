@@ -0,0 +1,173 @@
+package picoded.dstack.connector.jsql;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import picoded.core.struct.GenericConvertMap;
+
+/**
+ * Concurrency limit (bulkhead) for the JSql calls of a single data structure.
+ *
+ * All data structures of a JSqlStack share the same connection pool, as such a single
+ * slow query pattern on one structure can starve every other structure of connections.
+ * By limiting the number of concurrent calls per structure (to below the pool size),
+ * the remaining connections are kept available for the other structures.
+ *
+ * When the limit is reached, new calls wait up to the configured wait timeout,
+ * before failing fast with a JSqlBulkheadFullException.
+ *
+ * Supported config
+ *
+ * | keyname           | type      | default    | description                                       |
+ * |-------------------|-----------|------------|---------------------------------------------------|
+ * | maxConcurrency    | int       | 0          | max concurrent calls, 0 or less means no limit    |
+ * | waitTimeout       | long      | 0          | wait in milliseconds for a free slot, before fail |
+ **/
+public class JSqlBulkhead {
+	
+	//-------------------------------------------------------------------------
+	//
+	// Constructor and config
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Name of the bulkhead, used for error messages
+	 **/
+	protected final String name;
+	
+	/**
+	 * Max concurrent calls, 0 or less means no limit
+	 **/
+	protected final int maxConcurrency;
+	
+	/**
+	 * Time to wait for a free slot, in milliseconds
+	 **/
+	protected final long waitTimeout;
+	
+	/**
+	 * The permits, null if there is no limit
+	 **/
+	protected final Semaphore permits;
+	
+	/**
+	 * Bulkhead with the given limits
+	 *
+	 * @param  name of the bulkhead, used for error messages
+	 * @param  maxConcurrency max concurrent calls, 0 or less means no limit
+	 * @param  waitTimeout in milliseconds to wait for a free slot
+	 **/
+	public JSqlBulkhead(String name, int maxConcurrency, long waitTimeout) {
+		this.name = name;
+		this.maxConcurrency = maxConcurrency;
+		this.waitTimeout = Math.max(0, waitTimeout);
+		this.permits = (maxConcurrency > 0) ? new Semaphore(maxConcurrency, true) : null;
+	}
+	
+	/**
+	 * Bulkhead with the given config
+	 *
+	 * @param  name of the bulkhead, used for error messages
+	 * @param  config map, can be null (no limit)
+	 **/
+	public JSqlBulkhead(String name, GenericConvertMap<String, Object> config) {
+		this(name, (config != null) ? config.getInt("maxConcurrency", 0) : 0,
+			(config != null) ? config.getLong("waitTimeout", 0) : 0);
+	}
+	
+	/**
+	 * Bulkhead without any concurrency limit
+	 *
+	 * @param  name of the bulkhead, used for error messages
+	 **/
+	public JSqlBulkhead(String name) {
+		this(name, 0, 0);
+	}
+	
+	//-------------------------------------------------------------------------
+	//
+	// Status
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @return max concurrent calls, 0 or less means no limit
+	 **/
+	public int maxConcurrency() {
+		return maxConcurrency;
+	}
+	
+	/**
+	 * @return number of free slots, or -1 if there is no limit
+	 **/
+	public int availableSlots() {
+		return (permits != null) ? permits.availablePermits() : -1;
+	}
+	
+	//-------------------------------------------------------------------------
+	//
+	// Execution
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Runs the given JSql call within the bulkhead, with the operation type
+	 * statement timeout applied.
+	 *
+	 * @param  sql connection the call is made against
+	 * @param  type of operation, used for the statement timeout
+	 * @param  call to run
+	 *
+	 * @return the call result
+	 *
+	 * @throws JSqlBulkheadFullException if no slot is available within the wait timeout
+	 **/
+	public <T> T call(JSql sql, JSqlOperationType type, Supplier<T> call) {
+		// No limit, run it directly
+		if (permits == null) {
+			return sql.withOperationType(type, call);
+		}
+		
+		// Get a slot, or fail fast
+		boolean acquired = false;
+		try {
+			if (waitTimeout > 0) {
+				acquired = permits.tryAcquire(waitTimeout, TimeUnit.MILLISECONDS);
+			} else {
+				acquired = permits.tryAcquire();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JSqlBulkheadFullException("Interrupted while waiting for bulkhead : " + name, e);
+		}
+		if (!acquired) {
+			throw new JSqlBulkheadFullException("Bulkhead is full (" + maxConcurrency
+				+ " concurrent calls) for : " + name);
+		}
+		
+		// Run it, and release the slot
+		try {
+			return sql.withOperationType(type, call);
+		} finally {
+			permits.release();
+		}
+	}
+	
+	/**
+	 * Runs the given JSql call within the bulkhead, without a return value
+	 *
+	 * @param  sql connection the call is made against
+	 * @param  type of operation, used for the statement timeout
+	 * @param  call to run
+	 *
+	 * @throws JSqlBulkheadFullException if no slot is available within the wait timeout
+	 **/
+	public void run(JSql sql, JSqlOperationType type, Runnable call) {
+		call(sql, type, () -> {
+			call.run();
+			return null;
+		});
+	}
+}
@@ -0,0 +1,20 @@
+package picoded.dstack.connector.jsql;
+
+/**
+ * Thrown when a JSqlBulkhead has no free slot for a new operation,
+ * within its configured wait timeout.
+ *
+ * This is thrown before any connection is taken from the pool, and is
+ * safe to retry (or fail fast) at the caller.
+ **/
+public class JSqlBulkheadFullException extends JSqlException {
+	protected static final long serialVersionUID = 1L;
+	
+	public JSqlBulkheadFullException(String message) {
+		super(message);
+	}
+	
+	public JSqlBulkheadFullException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
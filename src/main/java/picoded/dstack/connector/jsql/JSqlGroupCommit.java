@@ -0,0 +1,343 @@
+package picoded.dstack.connector.jsql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+import picoded.core.struct.GenericConvertMap;
+
+/**
+ * Cross thread group commit, for upsert heavy data structures (such as KeyValueMap / KeyLongMap).
+ *
+ * Instead of every thread doing its own upsert (with its own connection and commit),
+ * upsert rows made by multiple threads within a small time window (or till the max batch size)
+ * are collected, and flushed together as a single multi row upsert within a single transaction.
+ *
+ * This is done without any background thread, the first thread to add a row into a batch
+ * without a leader becomes the "leader" for that batch. Waiting up to the window time for other
+ * rows, before doing the flush on behalf of all the other threads. Each row future is completed
+ * when the batch commits (or fails).
+ *
+ * Leadership is handed off once the leader takes its batch, so that under sustained load
+ * each leader only flushes a single batch, and the next row added leads the rows left over.
+ *
+ * Batches are flushed strictly in the order they are formed, and multiple rows for the
+ * same unique key within a batch are reduced to its last value. As such per key write order is kept.
+ *
+ * Supported config
+ *
+ * | keyname           | type      | default    | description                                       |
+ * |-------------------|-----------|------------|---------------------------------------------------|
+ * | window            | long      | 2          | time window in milliseconds to collect rows       |
+ * | maxBatchSize      | int       | 128        | max rows in a single batch                        |
+ **/
+public class JSqlGroupCommit {
+	
+	//-------------------------------------------------------------------------
+	//
+	// Constructor and config
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Time window in milliseconds, to collect rows for a batch
+	 **/
+	protected final long window;
+	
+	/**
+	 * Max number of rows in a single batch
+	 **/
+	protected final int maxBatchSize;
+	
+	/**
+	 * The actual flush call, with the unique values list and insert values list.
+	 * This is expected to do a multi row upsert within a single transaction.
+	 **/
+	protected final BiConsumer<List<Object[]>, List<Object[]>> flushCall;
+	
+	/**
+	 * Group commit with the given window and batch size
+	 *
+	 * @param  window in milliseconds to collect rows for a batch
+	 * @param  maxBatchSize of rows in a single batch
+	 * @param  flushCall to do the actual multi row upsert with (unique values list, insert values list)
+	 **/
+	public JSqlGroupCommit(long window, int maxBatchSize,
+		BiConsumer<List<Object[]>, List<Object[]>> flushCall) {
+		this.window = Math.max(0, window);
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+		this.flushCall = flushCall;
+	}
+	
+	/**
+	 * Group commit with the given config
+	 *
+	 * @param  config map, for window and maxBatchSize
+	 * @param  flushCall to do the actual multi row upsert with (unique values list, insert values list)
+	 **/
+	public JSqlGroupCommit(GenericConvertMap<String, Object> config,
+		BiConsumer<List<Object[]>, List<Object[]>> flushCall) {
+		this(config.getLong("window", 2), config.getInt("maxBatchSize", 128), flushCall);
+	}
+	
+	//-------------------------------------------------------------------------
+	//
+	// Batch state
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * A single row to upsert, and its future
+	 **/
+	protected static class Row {
+		final Object[] uniqueValues;
+		final Object[] insertValues;
+		final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+		
+		Row(Object[] uniqueValues, Object[] insertValues) {
+			this.uniqueValues = uniqueValues;
+			this.insertValues = insertValues;
+		}
+	}
+	
+	/**
+	 * Rows collected for the current (pending) batch, guarded by "this"
+	 **/
+	protected List<Row> pending = new ArrayList<Row>();
+	
+	/**
+	 * Indicates if the pending batch has a leader thread, guarded by "this"
+	 **/
+	protected boolean hasLeader = false;
+	
+	/**
+	 * Sequence number of the next batch to be formed, guarded by "this"
+	 **/
+	protected long nextBatchSeq = 0;
+	
+	/**
+	 * Sequence number of the next batch allowed to flush, guarded by flushOrder
+	 **/
+	protected long nextFlushSeq = 0;
+	
+	/**
+	 * Monitor used to flush batches in the order they are formed
+	 **/
+	protected final Object flushOrder = new Object();
+	
+	//-------------------------------------------------------------------------
+	//
+	// Upsert calls
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Adds a row to upsert into the current batch, the returned future
+	 * completes when the batch commits.
+	 *
+	 * Note that the calling thread may be used to flush the batch (as its leader),
+	 * and as such may block up to the window time, and the flush itself.
+	 *
+	 * @param  uniqueValues of the row
+	 * @param  insertValues of the row
+	 *
+	 * @return future which completes when the batch commits
+	 **/
+	public CompletableFuture<Boolean> upsert(Object[] uniqueValues, Object[] insertValues) {
+		Row row = new Row(uniqueValues, insertValues);
+		
+		// Add to the pending batch, the first row without a leader becomes its leader
+		boolean leader = false;
+		synchronized (this) {
+			pending.add(row);
+			if (!hasLeader) {
+				hasLeader = true;
+				leader = true;
+			} else if (pending.size() >= maxBatchSize) {
+				// Wake up the leader early, as the batch is full
+				notifyAll();
+			}
+		}
+		
+		// Leader does the flush for the whole batch
+		if (leader) {
+			leaderFlush();
+		}
+		return row.future;
+	}
+	
+	/**
+	 * Adds a row to upsert, and wait for its batch to commit.
+	 *
+	 * @param  uniqueValues of the row
+	 * @param  insertValues of the row
+	 *
+	 * @return true, if the batch upsert succeded
+	 **/
+	public boolean upsertAndWait(Object[] uniqueValues, Object[] insertValues) {
+		try {
+			return upsert(uniqueValues, insertValues).join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new JSqlException(cause);
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	//
+	// Flushing
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Waits for the window (or till the batch is full), takes the batch, and flushes it.
+	 *
+	 * Rows left over beyond the max batch size, are led by the next row added. Only if no
+	 * row was added during the flush, does the same leader continue with them.
+	 *
+	 * An interrupt does not fail the batch, it only cuts the window short, where the
+	 * interrupt status is restored once done.
+	 *
+	 * If the flush throws an Error, the rows left over without a new leader are failed
+	 * with it (instead of waiting for the next row added), before it is rethrown.
+	 **/
+	protected void leaderFlush() {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				List<Row> batch = null;
+				long batchSeq = 0;
+				
+				synchronized (this) {
+					// Wait for the window, or till the batch is full
+					long deadline = System.currentTimeMillis() + window;
+					long remaining = window;
+					while (!interrupted && pending.size() < maxBatchSize && remaining > 0) {
+						try {
+							wait(remaining);
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+						remaining = deadline - System.currentTimeMillis();
+					}
+					
+					// Take the batch (up to the max size), anything beyond is left for the next batch
+					if (pending.size() <= maxBatchSize) {
+						batch = pending;
+						pending = new ArrayList<Row>();
+					} else {
+						batch = new ArrayList<Row>(pending.subList(0, maxBatchSize));
+						pending = new ArrayList<Row>(pending.subList(maxBatchSize, pending.size()));
+					}
+					batchSeq = nextBatchSeq++;
+					
+					// Leadership is released, so that the next row added elects a new leader
+					hasLeader = false;
+				}
+				
+				// Flush in the order which the batches are formed
+				try {
+					synchronized (flushOrder) {
+						while (nextFlushSeq != batchSeq) {
+							try {
+								flushOrder.wait();
+							} catch (InterruptedException e) {
+								interrupted = true;
+							}
+						}
+					}
+					flushBatch(batch);
+				} finally {
+					synchronized (flushOrder) {
+						nextFlushSeq++;
+						flushOrder.notifyAll();
+					}
+				}
+				
+				// Rows left over, without a new leader (as no rows were added), are led by this thread
+				synchronized (this) {
+					if (hasLeader || pending.isEmpty()) {
+						return;
+					}
+					hasLeader = true;
+				}
+			}
+		} catch (Error e) {
+			List<Row> leftOver = null;
+			synchronized (this) {
+				if (!hasLeader && !pending.isEmpty()) {
+					leftOver = pending;
+					pending = new ArrayList<Row>();
+				}
+			}
+			if (leftOver != null) {
+				failBatch(leftOver, e);
+			}
+			throw e;
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Does the actual flush of the batch, and completes its futures
+	 *
+	 * @param  batch of rows to flush
+	 **/
+	protected void flushBatch(List<Row> batch) {
+		// Reduce multiple rows of the same unique key, to its last value
+		Map<List<Object>, Row> reduced = new LinkedHashMap<List<Object>, Row>();
+		for (Row row : batch) {
+			List<Object> key = Arrays.asList(row.uniqueValues);
+			reduced.remove(key);
+			reduced.put(key, row);
+		}
+		
+		List<Object[]> uniqueValuesList = new ArrayList<Object[]>();
+		List<Object[]> insertValuesList = new ArrayList<Object[]>();
+		for (Row row : reduced.values()) {
+			uniqueValuesList.add(row.uniqueValues);
+			insertValuesList.add(row.insertValues);
+		}
+		
+		// Flush it, and complete every row future (including those reduced).
+		// Errors (such as OutOfMemoryError) also fail the batch, so no caller waits forever
+		try {
+			flushCall.accept(uniqueValuesList, insertValuesList);
+		} catch (RuntimeException e) {
+			failBatch(batch, e);
+			return;
+		} catch (Throwable e) {
+			failBatch(batch, e);
+			throw e;
+		}
+		for (Row row : batch) {
+			row.future.complete(Boolean.TRUE);
+		}
+	}
+	
+	/**
+	 * Fails every row future in the batch
+	 *
+	 * @param  batch of rows
+	 * @param  e exception (or error) to fail with
+	 **/
+	protected void failBatch(List<Row> batch, Throwable e) {
+		for (Row row : batch) {
+			row.future.completeExceptionally(e);
+		}
+	}
+}
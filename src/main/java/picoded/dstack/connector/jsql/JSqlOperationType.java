@@ -0,0 +1,46 @@
+package picoded.dstack.connector.jsql;
+
+/**
+ * The various type of operations a data structure performs on JSql.
+ *
+ * This is used to apply the configured statement timeouts (see JSql.withOperationType),
+ * where each operation type can have its own timeout.
+ **/
+public enum JSqlOperationType {
+	
+	/**
+	 * Single row / object lookup, via its unique key
+	 **/
+	POINT_GET("pointGet"),
+	
+	/**
+	 * Multi row search / count queries, which may be expensive
+	 **/
+	QUERY("query"),
+	
+	/**
+	 * Insert, update, upsert, and delete of values
+	 **/
+	WRITE("write"),
+	
+	/**
+	 * Background maintenance / cleanup calls
+	 **/
+	MAINTENANCE("maintenance");
+	
+	/**
+	 * The config key name used for this operation type
+	 **/
+	private final String configKey;
+	
+	JSqlOperationType(String configKey) {
+		this.configKey = configKey;
+	}
+	
+	/**
+	 * @return the config key name used for this operation type
+	 **/
+	public String configKey() {
+		return configKey;
+	}
+}
@@ -36,7 +36,11 @@ public enum JSqlType {
 	/**
 	 * DB2 connection mode
 	 **/
-	DB2;
+	DB2,
+	/**
+	 * H2 embedded (file or in memory) mode
+	 **/
+	H2;
 	
 	/**
 	 * Get name and toString alias to name() varient
@@ -63,6 +67,7 @@ public enum JSqlType {
 		public static final JSqlType MYSQL = JSqlType.MYSQL;
 		public static final JSqlType ORACLE = JSqlType.ORACLE;
 		public static final JSqlType MSSQL = JSqlType.MSSQL;
+		public static final JSqlType H2 = JSqlType.H2;
 	}
 	
 	/**
@@ -86,6 +91,8 @@ public enum JSqlType {
 			return JSqlType.POSTGRESQL;
 		case 7:
 			return JSqlType.DB2;
+		case 8:
+			return JSqlType.H2;
 		}
 		return null;
 	}
@@ -111,6 +118,8 @@ public enum JSqlType {
 			return 6;
 		case DB2:
 			return 7;
+		case H2:
+			return 8;
 		}
 		return -1;
 	}
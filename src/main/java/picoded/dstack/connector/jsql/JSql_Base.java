@@ -13,6 +13,7 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -89,6 +90,197 @@ public abstract class JSql_Base extends JSql {
 		}
 	}
 	
+	//-------------------------------------------------------------------------
+	//
+	// Statement timeout, per operation type
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Statement timeout in seconds, for each operation type (by ordinal)
+	 **/
+	protected int[] statementTimeout = new int[JSqlOperationType.values().length];
+	
+	/**
+	 * The operation type of the current thread, if any
+	 **/
+	protected ThreadLocal<JSqlOperationType> currentOperationType = new ThreadLocal<JSqlOperationType>();
+	
+	/**
+	 * Loads the statement timeout configuration, used in the constructor_setup
+	 * of the respective implementation. For example
+	 *
+	 * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~{.json}
+	 * "statementTimeout" : { "pointGet" : 5, "query" : 60, "write" : 15, "maintenance" : 0 }
+	 * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	 *
+	 * @param  config map used
+	 **/
+	protected void statementTimeout_setup(GenericConvertMap<String, Object> config) {
+		GenericConvertMap<String, Object> timeoutConfig = config
+			.fetchGenericConvertStringMap("statementTimeout");
+		if (timeoutConfig == null) {
+			return;
+		}
+		for (JSqlOperationType type : JSqlOperationType.values()) {
+			setStatementTimeout(type, timeoutConfig.getInt(type.configKey(), 0));
+		}
+	}
+	
+	/**
+	 * Set the statement timeout (via setQueryTimeout) for the given operation type
+	 *
+	 * @param  type of operation
+	 * @param  seconds to timeout, 0 means no timeout
+	 **/
+	public void setStatementTimeout(JSqlOperationType type, int seconds) {
+		statementTimeout[type.ordinal()] = Math.max(0, seconds);
+	}
+	
+	/**
+	 * @param  type of operation
+	 *
+	 * @return statement timeout in seconds for the given operation type, 0 means no timeout
+	 **/
+	public int getStatementTimeout(JSqlOperationType type) {
+		return statementTimeout[type.ordinal()];
+	}
+	
+	/**
+	 * Runs the given call, with all JSql statements made within it (on the current thread)
+	 * using the statement timeout of the given operation type.
+	 *
+	 * Nested calls use the inner most operation type, till they return.
+	 *
+	 * @param  type of operation
+	 * @param  call to run
+	 *
+	 * @return the call result
+	 **/
+	public <T> T withOperationType(JSqlOperationType type, Supplier<T> call) {
+		JSqlOperationType prevType = currentOperationType.get();
+		currentOperationType.set(type);
+		try {
+			return call.get();
+		} finally {
+			if (prevType == null) {
+				currentOperationType.remove();
+			} else {
+				currentOperationType.set(prevType);
+			}
+		}
+	}
+	
+	/**
+	 * Applies the statement timeout of the current thread operation type (if any)
+	 *
+	 * @param  statement to apply the timeout to
+	 **/
+	protected void applyStatementTimeout(Statement stmt) throws SQLException {
+		JSqlOperationType type = currentOperationType.get();
+		if (type == null) {
+			return;
+		}
+		int timeout = statementTimeout[type.ordinal()];
+		if (timeout > 0) {
+			stmt.setQueryTimeout(timeout);
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	//
+	// Transaction support
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * The connection of the current thread transaction, if any
+	 **/
+	protected ThreadLocal<Connection> transactionConnection = new ThreadLocal<Connection>();
+	
+	/**
+	 * Runs the given call within a single transaction, where all JSql statements made
+	 * within it (on the current thread) share the same connection, and is commited
+	 * together when the call returns. Or rolled back if an exception is thrown.
+	 *
+	 * Nested transaction calls, simply joins the outer transaction.
+	 *
+	 * @param  call to run
+	 *
+	 * @return the call result
+	 **/
+	public <T> T transaction(Supplier<T> call) {
+		// Nested transaction, join the outer transaction
+		if (transactionConnection.get() != null) {
+			return call.get();
+		}
+		
+		// Get the connection to use
+		Connection conn = null;
+		try {
+			conn = datasource.getConnection();
+		} catch (Exception e) {
+			throw new JSqlException(e);
+		}
+		
+		// Run the call, and commit it (or rollback on failure)
+		boolean prevAutoCommit = true;
+		try {
+			prevAutoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			transactionConnection.set(conn);
+			
+			T ret = call.get();
+			conn.commit();
+			return ret;
+		} catch (Exception e) {
+			try {
+				conn.rollback();
+			} catch (Exception ex) {
+				JSql.LOGGER.log(Level.WARNING, ex.getMessage(), ex);
+			}
+			if (e instanceof RuntimeException) {
+				throw (RuntimeException) e;
+			}
+			throw new JSqlException(e);
+		} finally {
+			// Unbind, and release the connection back to the pool
+			transactionConnection.remove();
+			try {
+				conn.setAutoCommit(prevAutoCommit);
+				conn.close();
+			} catch (Exception ex) {
+				JSql.LOGGER.log(Level.WARNING, ex.getMessage(), ex);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the connection to use for a statement, which is the current thread
+	 * transaction connection if any, else a connection from the pool
+	 *
+	 * @return the connection to use
+	 **/
+	protected Connection getConnection() throws SQLException {
+		Connection conn = transactionConnection.get();
+		if (conn != null) {
+			return conn;
+		}
+		return datasource.getConnection();
+	}
+	
+	/**
+	 * Releases a connection from getConnection, back to the pool.
+	 * This does nothing for the current thread transaction connection
+	 *
+	 * @param  conn to release
+	 **/
+	protected void releaseConnection(Connection conn) throws SQLException {
+		if (conn != null && conn != transactionConnection.get()) {
+			conn.close();
+		}
+	}
+	
 	//-------------------------------------------------------------------------
 	//
 	// Internal utility functions
@@ -150,9 +342,7 @@ public abstract class JSql_Base extends JSql {
 				if (ps != null) {
 					ps.close();
 				}
-				if (sqlConn != null) {
-					sqlConn.close();
-				}
+				releaseConnection(sqlConn);
 			} catch (Exception ex) {
 				JSql.LOGGER.log(Level.WARNING, ex.getMessage(), ex);
 			}
@@ -191,10 +381,11 @@ public abstract class JSql_Base extends JSql {
 		// within a try-catch block
 		try {
 			// Getting the connection
-			conn = datasource.getConnection();
+			conn = getConnection();
 			
 			// Prepare the statement
 			sqlpstmt = prepareSqlStatment(conn, qString, values);
+			applyStatementTimeout(sqlpstmt);
 			System.out.println("JSql_Base query : " + qString);
 			for (Object value : values)
 				System.out.println("args : " + value.toString());
@@ -212,9 +403,7 @@ public abstract class JSql_Base extends JSql {
 				if (sqlpstmt != null) {
 					sqlpstmt.close();
 				}
-				if (conn != null) {
-					conn.close();
-				}
+				releaseConnection(conn);
 			} catch (Exception ex) {
 				JSql.LOGGER.log(Level.WARNING, ex.getMessage(), ex);
 			}
@@ -247,10 +436,11 @@ public abstract class JSql_Base extends JSql {
 		// within a try-catch block
 		try {
 			// Getting the connection
-			conn = datasource.getConnection();
+			conn = getConnection();
 			
 			// Prepare the statement
 			sqlpstmt = prepareSqlStatment(conn, qString, values);
+			applyStatementTimeout(sqlpstmt);
 			System.out.println("PREPARED SQL STATEMENT:");
 			System.out.println(sqlpstmt.toString());
 			System.out.println("------------>");
@@ -266,9 +456,7 @@ public abstract class JSql_Base extends JSql {
 				if (sqlpstmt != null) {
 					sqlpstmt.close();
 				}
-				if (conn != null) {
-					conn.close();
-				}
+				releaseConnection(conn);
 			} catch (Exception ex) {
 				JSql.LOGGER.log(Level.WARNING, ex.getMessage(), ex);
 			}
@@ -0,0 +1,412 @@
+package picoded.dstack.connector.jsql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+
+import picoded.core.struct.MutablePair;
+import picoded.core.struct.GenericConvertMap;
+import picoded.core.struct.GenericConvertList;
+import picoded.core.struct.GenericConvertHashMap;
+import picoded.dstack.connector.jsql.JSqlType;
+
+/**
+ * H2 implementation of JSql, in either embedded file, or in memory mode.
+ *
+ * Unlike SQLite, H2 (with its MVStore) supports row level locking via MVCC,
+ * and a native MERGE upsert. Making it much closer to the behaviour of a
+ * proper SQL server, while still being embeddable for unit tests / edge nodes.
+ **/
+public class JSql_H2 extends JSql_Base {
+	
+	//-------------------------------------------------------------------------
+	//
+	// Connection constructor
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Indicates if the current connection is an in memory database,
+	 * which needs to be explicitly shutdown on close
+	 **/
+	protected boolean inMemory = false;
+	
+	/**
+	 * H2 in memory mode
+	 **/
+	public JSql_H2() {
+		this(":memory:");
+	}
+	
+	/**
+	 * H2 at specified file path
+	 *
+	 * @param  h2Loc file path for the h2 file
+	 **/
+	public JSql_H2(String h2Loc) {
+		// Initialize new config object
+		GenericConvertMap<String, Object> config = new GenericConvertHashMap<String, Object>();
+		
+		// Pass in the h2 path
+		config.put("path", h2Loc);
+		
+		// Actual setup
+		constructor_setup(config);
+	}
+	
+	/**
+	 * H2 with the given config map
+	 *
+	 * @param  config map
+	 **/
+	public JSql_H2(GenericConvertMap<String, Object> config) {
+		constructor_setup(config);
+	}
+	
+	/**
+	 * Actual internal constructor setup function
+	 * (called internally by all other constructor types
+	 * used to work around call to constructor 'must be first statement')
+	 *
+	 * @param config  config map
+	 */
+	public void constructor_setup(GenericConvertMap<String, Object> config) {
+		sqlType = JSqlType.H2;
+		inMemory = config.getString("path", ":memory:").equalsIgnoreCase(":memory:");
+		datasource = HikaricpUtil.h2(config);
+		statementTimeout_setup(config);
+	}
+	
+	//-------------------------------------------------------------------------
+	//
+	// Connection closure / disposal
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Dispose of the respective SQL driver / connection
+	 *
+	 * In memory databases are kept alive across pooled connections,
+	 * as such it needs to be shutdown explicitly to free up its memory.
+	 **/
+	public void close() {
+		if (datasource != null && inMemory) {
+			try {
+				update_raw("SHUTDOWN");
+			} catch (Exception e) {
+				JSql.LOGGER.log(Level.WARNING, e.getMessage(), e);
+			}
+		}
+		super.close();
+	}
+	
+	//-------------------------------------------------------------------------
+	//
+	// Table type info fetching
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Executes and fetch a table column information as a map, note that due to the
+	 * HIGHLY different standards involved across SQL backends for this command,
+	 * it has been normalized to only return a map containing collumn name and types
+	 *
+	 * Furthermore due to the generic SQL conversion from known common types to SQL specific
+	 * type being applied on table create. The collumn type may not match the input collumn
+	 * type previously applied on table create. (Unless update_raw was used)
+	 *
+	 * This immediately executes a query, and process the information directly
+	 * (to normalize the results across SQL implementations).
+	 *
+	 * @param  tablename to get information on
+	 *
+	 * @return  Pair containing < collumn_name, collumn_type >
+	 **/
+	protected MutablePair<GenericConvertList<Object>, GenericConvertList<Object>> getTableColumnTypeMap_core(
+		String tablename) {
+		// Get the column information, note that unquoted table names are stored in upper case
+		JSqlResult tableInfo = query_raw(
+			"SELECT COLUMN_NAME, TYPE_NAME FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_NAME=?",
+			new Object[] { tablename.toUpperCase(Locale.ENGLISH) });
+		
+		// And return it as a list pair
+		return new MutablePair<>(tableInfo.get("COLUMN_NAME"), tableInfo.get("TYPE_NAME"));
+	}
+	
+	//-------------------------------------------------------------------------
+	//
+	// Generic SQL conversion, and error sanatization
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Internal parser that converts some of the common sql statements to h2
+	 * This converts one SQL convention to another as needed
+	 *
+	 * Similar to sqlite, all identifiers are normalized to upper case. Which is
+	 * required as H2 treats quoted identifiers in a case sensitive manner.
+	 *
+	 * @param  SQL query to "normalize"
+	 *
+	 * @return  SQL query that was converted
+	 **/
+	public String genericSqlParser(String inString) {
+		inString = inString.toUpperCase(Locale.ENGLISH);
+		inString = inString.trim().replaceAll("(\\s){1}", " ").replaceAll("\\s+", " ")
+			.replaceAll("`", "\"") //
+			.replaceAll("VARCHAR\\(MAX\\)", "VARCHAR") //
+			.replaceAll("PRIMARY KEY AUTOINCREMENT", "AUTO_INCREMENT PRIMARY KEY") //
+			.replaceAll("AUTOINCREMENT", "AUTO_INCREMENT");
+		return inString;
+	}
+	
+	//-------------------------------------------------------------------------
+	//
+	// UPSERT Query Builder
+	//
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * H2 specific UPSERT support, via its native MERGE statement
+	 *
+	 * Columns not listed in the MERGE statement are left untouched for existing rows,
+	 * as such misc columns are simply omitted. Default columns are handled with
+	 * COALESCE against its existing value.
+	 *
+	 * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~{.SQL}
+	 * MERGE INTO Employee (
+	 *	id,      // Unique Columns to check for upsert
+	 *	fname,   // Insert Columns to update
+	 *	lname,   // Insert Columns to update
+	 *	role     // Default Columns, that has default fallback value
+	 * ) KEY ( id ) VALUES (
+	 *	1,       // Unique value
+	 * 	'Tom',   // Insert value
+	 * 	'Hanks', // Insert value
+	 *	COALESCE((SELECT role FROM Employee WHERE id = 1), 'Benchwarmer') // Values with default
+	 * );
+	 * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	 *
+	 * @param  Table name to query        (eg: tableName)
+	 * @param  Unique column names        (eg: id)
+	 * @param  Unique column values       (eg: 1)
+	 * @param  Upsert column names        (eg: fname,lname)
+	 * @param  Upsert column values       (eg: 'Tom','Hanks')
+	 * @param  Default column to use existing values if exists   (eg: 'role')
+	 * @param  Default column values to use if not exists        (eg: 'Benchwarmer')
+	 * @param  All other column names to maintain existing value (eg: 'note')
+	 *
+	 * @return  A prepared upsert statement
+	 **/
+	public JSqlPreparedStatement upsertStatement( //
+		String tableName, // Table name to upsert on
+		//
+		String[] uniqueColumns, // The unique column names
+		Object[] uniqueValues, // The row unique identifier values
+		//
+		String[] insertColumns, // Columns names to update
+		Object[] insertValues, // Values to update
+		// Columns names to apply default value, if not exists
+		// Values to insert, that is not updated. Note that this is ignored if pre-existing values exists
+		String[] defaultColumns, //
+		Object[] defaultValues, //
+		// Various column names where its existing value needs to be maintained (if any),
+		// this is important as some SQL implementation will fallback to default table values, if not properly handled
+		String[] miscColumns // This is ignored in h2, as MERGE preserves unlisted columns
+	) {
+		
+		// Checks that unique collumn and values length to be aligned
+		if (uniqueColumns == null || uniqueValues == null
+			|| uniqueColumns.length != uniqueValues.length) {
+			throw new JSqlException(
+				"Upsert query requires unique column and values to be equal length");
+		}
+		
+		// Reuse the multi row builder, with a single row
+		List<Object[]> uniqueValuesList = new ArrayList<Object[]>();
+		List<Object[]> insertValuesList = new ArrayList<Object[]>();
+		List<Object[]> defaultValuesList = new ArrayList<Object[]>();
+		uniqueValuesList.add(uniqueValues);
+		insertValuesList.add(insertValues);
+		defaultValuesList.add(defaultValues);
+		
+		return mergeStatement(tableName, uniqueColumns, uniqueValuesList, insertColumns,
+			insertValuesList, defaultColumns, defaultValuesList);
+	}
+	
+	/**
+	 * Does multiple UPSERT as a single multi row MERGE statement.
+	 *
+	 * @param  Table name to query
+	 * @param  Unique column names
+	 * @param  Unique column values, as a list. Each item in a list represents the respecitve row record
+	 * @param  Upsert column names
+	 * @param  Upsert column values, as a list. Each item in a list represents the respecitve row record
+	 * @param  Default column to use existing values if exists
+	 * @param  Default column values to use if not exists, as a list. Each item in a list represents the respecitve row record
+	 * @param  All other column names to maintain existing value
+	 *
+	 * @return  true, if UPSERT statement executed succesfuly
+	 **/
+	public boolean multiUpsert( //
+		String tableName, // Table name to upsert on
+		//
+		String[] uniqueColumns, // The unique column names
+		List<Object[]> uniqueValuesList, // The row unique identifier values
+		//
+		String[] insertColumns, // Columns names to update
+		List<Object[]> insertValuesList, // Values to update
+		// Columns names to apply default value, if not exists
+		// Values to insert, that is not updated. Note that this is ignored if pre-existing values exists
+		String[] defaultColumns, //
+		List<Object[]> defaultValuesList, //
+		// Various column names where its existing value needs to be maintained (if any),
+		// this is important as some SQL implementation will fallback to default table values, if not properly handled
+		String[] miscColumns // This is ignored in h2, as MERGE preserves unlisted columns
+	) {
+		
+		// Checks that unique collumn and values
+		if (uniqueColumns == null || uniqueValuesList == null) {
+			throw new JSqlException("Upsert query requires unique column and values");
+		}
+		
+		// Nothing to upsert
+		if (uniqueValuesList.size() <= 0) {
+			return true;
+		}
+		
+		// Build and run it
+		return mergeStatement(tableName, uniqueColumns, uniqueValuesList, insertColumns,
+			insertValuesList, defaultColumns, defaultValuesList).update() >= 1;
+	}
+	
+	/**
+	 * Builds the MERGE statement, used by both upsert and multiUpsert
+	 *
+	 * @param  Table name to query
+	 * @param  Unique column names
+	 * @param  Unique column values, as a list. Each item in a list represents the respecitve row record
+	 * @param  Upsert column names
+	 * @param  Upsert column values, as a list. Each item in a list represents the respecitve row record
+	 * @param  Default column to use existing values if exists
+	 * @param  Default column values to use if not exists, as a list. Each item in a list represents the respecitve row record
+	 *
+	 * @return  A prepared merge statement
+	 **/
+	protected JSqlPreparedStatement mergeStatement( //
+		String tableName, //
+		String[] uniqueColumns, List<Object[]> uniqueValuesList, //
+		String[] insertColumns, List<Object[]> insertValuesList, //
+		String[] defaultColumns, List<Object[]> defaultValuesList //
+	) {
+		// Build the final, actual query args
+		StringBuilder queryBuilder = new StringBuilder();
+		ArrayList<Object> queryArgs = new ArrayList<Object>();
+		
+		// Prepare the prefix
+		queryBuilder.append("MERGE INTO ");
+		queryBuilder.append("`" + tableName + "`");
+		
+		// Column definition
+		//-----------------------------------------------------
+		queryBuilder.append(" ( ");
+		for (int i = 0; i < uniqueColumns.length; ++i) {
+			if (i > 0) {
+				queryBuilder.append(", ");
+			}
+			queryBuilder.append(uniqueColumns[i]);
+		}
+		if (insertColumns != null) {
+			for (int i = 0; i < insertColumns.length; ++i) {
+				queryBuilder.append(", ");
+				queryBuilder.append(insertColumns[i]);
+			}
+		}
+		if (defaultColumns != null) {
+			for (int i = 0; i < defaultColumns.length; ++i) {
+				queryBuilder.append(", ");
+				queryBuilder.append(defaultColumns[i]);
+			}
+		}
+		queryBuilder.append(" ) ");
+		
+		// Key definition
+		//-----------------------------------------------------
+		queryBuilder.append("KEY ( ");
+		for (int i = 0; i < uniqueColumns.length; ++i) {
+			if (i > 0) {
+				queryBuilder.append(", ");
+			}
+			queryBuilder.append(uniqueColumns[i]);
+		}
+		queryBuilder.append(" ) ");
+		
+		// Values definition
+		//-----------------------------------------------------
+		queryBuilder.append("VALUES ");
+		
+		// Iterate every row record to upsert
+		for (int r = 0; r < uniqueValuesList.size(); ++r) {
+			if (r > 0) { // Multiple row record, requires comma seperator
+				queryBuilder.append(", ");
+			}
+			queryBuilder.append("( ");
+			
+			// Unique values always assumed
+			Object[] uniqueValues = uniqueValuesList.get(r);
+			for (int i = 0; i < uniqueColumns.length; ++i) {
+				if (i > 0) {
+					queryBuilder.append(", ");
+				}
+				queryBuilder.append("?");
+				queryArgs.add(uniqueValues[i]);
+			}
+			
+			// Insert, and default values may or may not occur
+			Object[] insertValues = null;
+			Object[] defaultValues = null;
+			if (insertValuesList != null && r < insertValuesList.size()) {
+				insertValues = insertValuesList.get(r);
+			}
+			if (defaultValuesList != null && r < defaultValuesList.size()) {
+				defaultValues = defaultValuesList.get(r);
+			}
+			
+			// Insert values
+			if (insertColumns != null) {
+				for (int i = 0; i < insertColumns.length; ++i) {
+					queryBuilder.append(", ?");
+					queryArgs.add((insertValues != null && i < insertValues.length) ? insertValues[i]
+						: null);
+				}
+			}
+			
+			// Default values, which uses the existing value if present
+			if (defaultColumns != null) {
+				for (int i = 0; i < defaultColumns.length; ++i) {
+					queryBuilder.append(", COALESCE((SELECT ");
+					queryBuilder.append(defaultColumns[i]);
+					queryBuilder.append(" FROM `" + tableName + "` WHERE ");
+					for (int u = 0; u < uniqueColumns.length; ++u) {
+						if (u > 0) {
+							queryBuilder.append(" AND ");
+						}
+						queryBuilder.append(uniqueColumns[u] + " = ?");
+						queryArgs.add(uniqueValues[u]);
+					}
+					queryBuilder.append("), ?)");
+					queryArgs.add((defaultValues != null && i < defaultValues.length) ? defaultValues[i]
+						: null);
+				}
+			}
+			
+			// Close the row
+			queryBuilder.append(" ) ");
+		}
+		
+		// Builde the actual statement, to run!
+		return new JSqlPreparedStatement(queryBuilder.toString(), queryArgs.toArray(), this);
+	}
+	
+}
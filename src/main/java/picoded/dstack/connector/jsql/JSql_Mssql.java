@@ -79,6 +79,7 @@ public class JSql_Mssql extends JSql_Base {
 	public void constructor_setup(GenericConvertMap<String, Object> config) {
 		sqlType = JSqlType.MSSQL;
 		datasource = HikaricpUtil.mssql(config);
+		statementTimeout_setup(config);
 	}
 	
 	//-------------------------------------------------------------------------
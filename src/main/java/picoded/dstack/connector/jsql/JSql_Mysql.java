@@ -77,6 +77,7 @@ public class JSql_Mysql extends JSql_Base {
 	public void constructor_setup(GenericConvertMap<String, Object> config) {
 		sqlType = JSqlType.MYSQL;
 		datasource = HikaricpUtil.mysql(config);
+		statementTimeout_setup(config);
 	}
 	
 	//-------------------------------------------------------------------------
@@ -71,6 +71,7 @@ public class JSql_Oracle extends JSql_Base {
 	public void constructor_setup(GenericConvertMap<String, Object> config) {
 		sqlType = JSqlType.ORACLE;
 		datasource = HikaricpUtil.oracle(config);
+		statementTimeout_setup(config);
 	}
 	
 	// public JSql_Oracle(java.sql.Connection inSqlConn) {
@@ -70,6 +70,7 @@ public class JSql_Sqlite extends JSql_Base {
 	public void constructor_setup(GenericConvertMap<String, Object> config) {
 		sqlType = JSqlType.SQLITE;
 		datasource = HikaricpUtil.sqlite(config);
+		statementTimeout_setup(config);
 	}
 	
 	//-------------------------------------------------------------------------
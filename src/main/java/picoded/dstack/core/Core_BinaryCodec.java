@@ -0,0 +1,436 @@
+package picoded.dstack.core;
+
+// Java imports
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, versioned, binary codec for nested values (maps, lists, arrays), used
+ * in place of JSON for the storage of such values (see Core_DataType.PACKED).
+ *
+ * The encoded format is as followed
+ *
+ * + magic byte, and version byte
+ * + string table : varint count, followed by each (varint length, UTF-8 bytes)
+ * + the root value
+ *
+ * Where each value is a tag byte, followed by its data
+ *
+ * + NULL / FALSE / TRUE : no data
+ * + INT / LONG          : zigzag varint
+ * + DOUBLE / FLOAT      : fixed 8 / 4 bytes (little endian)
+ * + BIG_INTEGER         : varint length, followed by its two's complement bytes (big endian)
+ * + BIG_DECIMAL         : zigzag varint scale, followed by its unscaled value (as BIG_INTEGER data)
+ * + STRING              : varint string table index
+ * + BINARY              : varint length, followed by its bytes
+ * + LIST                : varint count, followed by each value
+ * + MAP                 : varint count, followed by each (varint string table key index, value)
+ *
+ * Strings (including map keys) are stored once in the string table, which keeps
+ * repeated keys within lists of maps compact. Non string map keys are stored as their
+ * string value (as per JSON), while null map keys are not supported.
+ *
+ * Unlike JSON, numeric types are preserved. So a decoded Integer / Long / Float / Double
+ * (or BigInteger / BigDecimal) is of the same type it was encoded as, where the JSON
+ * decoding may return a different number type for the same value. Callers should read
+ * nested numbers via Number (or GenericConvert), and not depend on their exact type.
+ * Other number types (such as AtomicLong) are not supported, as they cannot be preserved.
+ *
+ * Values which cannot be encoded throw an IllegalArgumentException,
+ * where the caller is expected to fallback to JSON.
+ **/
+public class Core_BinaryCodec {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Format constants
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Magic byte, and the current format version
+	 **/
+	public static final byte MAGIC = (byte) 0xB7;
+	public static final byte VERSION = 1;
+	
+	/**
+	 * Value tags
+	 **/
+	protected static final int TAG_NULL = 0;
+	protected static final int TAG_FALSE = 1;
+	protected static final int TAG_TRUE = 2;
+	protected static final int TAG_INT = 3;
+	protected static final int TAG_LONG = 4;
+	protected static final int TAG_DOUBLE = 5;
+	protected static final int TAG_FLOAT = 6;
+	protected static final int TAG_STRING = 7;
+	protected static final int TAG_BINARY = 8;
+	protected static final int TAG_LIST = 9;
+	protected static final int TAG_MAP = 10;
+	protected static final int TAG_BIG_INTEGER = 11;
+	protected static final int TAG_BIG_DECIMAL = 12;
+	
+	/**
+	 * @param  value to check
+	 *
+	 * @return true, if its a nested value (map, collection, or array) which this codec is meant for
+	 **/
+	public static boolean isNestedValue(Object value) {
+		return value instanceof Map || value instanceof Collection
+			|| (value != null && value.getClass().isArray() && !(value instanceof byte[]));
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Encoding
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Growable byte buffer, with varint support
+	 **/
+	protected static class Writer {
+		byte[] buf = new byte[64];
+		int len = 0;
+		
+		void ensure(int extra) {
+			if (len + extra > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+			}
+		}
+		
+		void writeByte(int b) {
+			ensure(1);
+			buf[len++] = (byte) b;
+		}
+		
+		void writeVarint(long val) {
+			ensure(10);
+			while ((val & ~0x7FL) != 0) {
+				buf[len++] = (byte) ((val & 0x7F) | 0x80);
+				val >>>= 7;
+			}
+			buf[len++] = (byte) val;
+		}
+		
+		void writeFixed(long val, int bytes) {
+			ensure(bytes);
+			for (int i = 0; i < bytes; ++i) {
+				buf[len++] = (byte) (val >>> (8 * i));
+			}
+		}
+		
+		void writeBytes(byte[] data) {
+			ensure(data.length);
+			System.arraycopy(data, 0, buf, len, data.length);
+			len += data.length;
+		}
+	}
+	
+	/**
+	 * Encodes the value
+	 *
+	 * @param  value to encode
+	 *
+	 * @return encoded bytes
+	 *
+	 * @throws IllegalArgumentException if the value (or its nested values) are not supported
+	 **/
+	public static byte[] encode(Object value) {
+		// Encode the value body, while building the string table
+		Map<String, Integer> stringTable = new HashMap<String, Integer>();
+		List<String> stringList = new ArrayList<String>();
+		Writer body = new Writer();
+		encodeValue(body, value, stringTable, stringList);
+		
+		// Write the header, string table, and body
+		Writer out = new Writer();
+		out.writeByte(MAGIC);
+		out.writeByte(VERSION);
+		out.writeVarint(stringList.size());
+		for (String str : stringList) {
+			byte[] strBytes = str.getBytes(StandardCharsets.UTF_8);
+			out.writeVarint(strBytes.length);
+			out.writeBytes(strBytes);
+		}
+		out.ensure(body.len);
+		System.arraycopy(body.buf, 0, out.buf, out.len, body.len);
+		out.len += body.len;
+		return Arrays.copyOf(out.buf, out.len);
+	}
+	
+	/**
+	 * Gets the string table index of the string, adding it if needed
+	 **/
+	protected static int stringIndex(String str, Map<String, Integer> stringTable,
+		List<String> stringList) {
+		Integer idx = stringTable.get(str);
+		if (idx == null) {
+			idx = stringList.size();
+			stringTable.put(str, idx);
+			stringList.add(str);
+		}
+		return idx;
+	}
+	
+	/**
+	 * Encodes a single value, recursively
+	 **/
+	protected static void encodeValue(Writer out, Object value, Map<String, Integer> stringTable,
+		List<String> stringList) {
+		if (value == null) {
+			out.writeByte(TAG_NULL);
+		} else if (value instanceof Boolean) {
+			out.writeByte(((Boolean) value) ? TAG_TRUE : TAG_FALSE);
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			int val = ((Number) value).intValue();
+			out.writeByte(TAG_INT);
+			out.writeVarint(((val << 1) ^ (val >> 31)) & 0xFFFFFFFFL);
+		} else if (value instanceof Long) {
+			long val = (Long) value;
+			out.writeByte(TAG_LONG);
+			out.writeVarint((val << 1) ^ (val >> 63));
+		} else if (value instanceof Float) {
+			out.writeByte(TAG_FLOAT);
+			out.writeFixed(Float.floatToRawIntBits((Float) value) & 0xFFFFFFFFL, 4);
+		} else if (value instanceof Double) {
+			out.writeByte(TAG_DOUBLE);
+			out.writeFixed(Double.doubleToRawLongBits((Double) value), 8);
+		} else if (value instanceof BigInteger) {
+			out.writeByte(TAG_BIG_INTEGER);
+			writeBigInteger(out, (BigInteger) value);
+		} else if (value instanceof BigDecimal) {
+			int scale = ((BigDecimal) value).scale();
+			out.writeByte(TAG_BIG_DECIMAL);
+			out.writeVarint(((scale << 1) ^ (scale >> 31)) & 0xFFFFFFFFL);
+			writeBigInteger(out, ((BigDecimal) value).unscaledValue());
+		} else if (value instanceof String) {
+			out.writeByte(TAG_STRING);
+			out.writeVarint(stringIndex((String) value, stringTable, stringList));
+		} else if (value instanceof byte[]) {
+			byte[] data = (byte[]) value;
+			out.writeByte(TAG_BINARY);
+			out.writeVarint(data.length);
+			out.writeBytes(data);
+		} else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			out.writeByte(TAG_MAP);
+			out.writeVarint(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				if (entry.getKey() == null) {
+					throw new IllegalArgumentException("Unsupported null map key for binary codec");
+				}
+				out.writeVarint(stringIndex(entry.getKey().toString(), stringTable, stringList));
+				encodeValue(out, entry.getValue(), stringTable, stringList);
+			}
+		} else if (value instanceof Collection) {
+			Collection<?> list = (Collection<?>) value;
+			out.writeByte(TAG_LIST);
+			out.writeVarint(list.size());
+			for (Object item : list) {
+				encodeValue(out, item, stringTable, stringList);
+			}
+		} else if (value.getClass().isArray()) {
+			int size = Array.getLength(value);
+			out.writeByte(TAG_LIST);
+			out.writeVarint(size);
+			for (int i = 0; i < size; ++i) {
+				encodeValue(out, Array.get(value, i), stringTable, stringList);
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported value type for binary codec : "
+				+ value.getClass().getName());
+		}
+	}
+	
+	/**
+	 * Writes a big integer, as its length prefixed two's complement bytes
+	 **/
+	protected static void writeBigInteger(Writer out, BigInteger value) {
+		byte[] data = value.toByteArray();
+		out.writeVarint(data.length);
+		out.writeBytes(data);
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Decoding
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Byte reader, with varint support
+	 **/
+	protected static class Reader {
+		final byte[] buf;
+		int pos = 0;
+		String[] strings = null;
+		
+		Reader(byte[] buf) {
+			this.buf = buf;
+		}
+		
+		int readByte() {
+			if (pos >= buf.length) {
+				throw new RuntimeException("Unexpected end of binary codec data");
+			}
+			return buf[pos++] & 0xFF;
+		}
+		
+		long readVarint() {
+			long ret = 0;
+			int shift = 0;
+			while (true) {
+				int b = readByte();
+				ret |= ((long) (b & 0x7F)) << shift;
+				if ((b & 0x80) == 0) {
+					return ret;
+				}
+				shift += 7;
+				if (shift > 63) {
+					throw new RuntimeException("Invalid varint in binary codec data");
+				}
+			}
+		}
+		
+		int readLength() {
+			long len = readVarint();
+			if (len < 0 || len > buf.length - pos) {
+				throw new RuntimeException("Invalid length in binary codec data : " + len);
+			}
+			return (int) len;
+		}
+		
+		long readFixed(int bytes) {
+			long ret = 0;
+			for (int i = 0; i < bytes; ++i) {
+				ret |= ((long) readByte()) << (8 * i);
+			}
+			return ret;
+		}
+		
+		String readString() {
+			long idx = readVarint();
+			if (idx < 0 || idx >= strings.length) {
+				throw new RuntimeException("Invalid string index in binary codec data : " + idx);
+			}
+			return strings[(int) idx];
+		}
+	}
+	
+	/**
+	 * Decodes the value
+	 *
+	 * @param  data to decode
+	 *
+	 * @return the decoded value, where maps are decoded as HashMap, and lists / arrays as ArrayList
+	 **/
+	public static Object decode(byte[] data) {
+		if (data == null) {
+			return null;
+		}
+		Reader in = new Reader(data);
+		
+		// Header validation
+		if ((byte) in.readByte() != MAGIC) {
+			throw new RuntimeException("Invalid binary codec data, missing magic byte");
+		}
+		int version = in.readByte();
+		if (version != VERSION) {
+			throw new RuntimeException("Unsupported binary codec version : " + version);
+		}
+		
+		// String table
+		int count = in.readLength();
+		in.strings = new String[count];
+		for (int i = 0; i < count; ++i) {
+			int len = in.readLength();
+			in.strings[i] = new String(data, in.pos, len, StandardCharsets.UTF_8);
+			in.pos += len;
+		}
+		
+		// The root value
+		return decodeValue(in);
+	}
+	
+	/**
+	 * Reads a big integer, from its length prefixed two's complement bytes
+	 **/
+	protected static BigInteger readBigInteger(Reader in) {
+		int len = in.readLength();
+		if (len <= 0) {
+			throw new RuntimeException("Invalid big integer length in binary codec data : " + len);
+		}
+		BigInteger ret = new BigInteger(Arrays.copyOfRange(in.buf, in.pos, in.pos + len));
+		in.pos += len;
+		return ret;
+	}
+	
+	/**
+	 * Decodes a single value, recursively
+	 **/
+	protected static Object decodeValue(Reader in) {
+		int tag = in.readByte();
+		switch (tag) {
+		case TAG_NULL:
+			return null;
+		case TAG_FALSE:
+			return Boolean.FALSE;
+		case TAG_TRUE:
+			return Boolean.TRUE;
+		case TAG_INT: {
+			int val = (int) in.readVarint();
+			return Integer.valueOf((val >>> 1) ^ -(val & 1));
+		}
+		case TAG_LONG: {
+			long val = in.readVarint();
+			return Long.valueOf((val >>> 1) ^ -(val & 1));
+		}
+		case TAG_DOUBLE:
+			return Double.valueOf(Double.longBitsToDouble(in.readFixed(8)));
+		case TAG_FLOAT:
+			return Float.valueOf(Float.intBitsToFloat((int) in.readFixed(4)));
+		case TAG_BIG_INTEGER:
+			return readBigInteger(in);
+		case TAG_BIG_DECIMAL: {
+			int scale = (int) in.readVarint();
+			return new BigDecimal(readBigInteger(in), (scale >>> 1) ^ -(scale & 1));
+		}
+		case TAG_STRING:
+			return in.readString();
+		case TAG_BINARY: {
+			int len = in.readLength();
+			byte[] ret = Arrays.copyOfRange(in.buf, in.pos, in.pos + len);
+			in.pos += len;
+			return ret;
+		}
+		case TAG_LIST: {
+			int size = in.readLength();
+			List<Object> ret = new ArrayList<Object>(size);
+			for (int i = 0; i < size; ++i) {
+				ret.add(decodeValue(in));
+			}
+			return ret;
+		}
+		case TAG_MAP: {
+			int size = in.readLength();
+			Map<String, Object> ret = new HashMap<String, Object>();
+			for (int i = 0; i < size; ++i) {
+				String key = in.readString();
+				ret.put(key, decodeValue(in));
+			}
+			return ret;
+		}
+		default:
+			throw new RuntimeException("Invalid tag in binary codec data : " + tag);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package picoded.dstack.core;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Picoded imports
+import picoded.dstack.DataObjectChange;
+
+/**
+ * In memory index of the latest change of each object, for struct based data structures.
+ *
+ * Changes are kept in a concurrent sorted set (in update order), with an object ID to
+ * latest change mapping. Allowing the change feed to be read from any timestamp or cursor
+ * in O(log n), and each change to be recorded in O(log n).
+ *
+ * Each change is recorded via an atomic compute of the object ID latest change, so changes
+ * of different objects are recorded concurrently, without any global lock.
+ * Reading the change feed is lock free, and weakly consistent.
+ **/
+public class Core_ChangeIndex {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Index storage
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Changes, in update order
+	 **/
+	protected final ConcurrentSkipListSet<DataObjectChange> changes = new ConcurrentSkipListSet<DataObjectChange>(
+		DataObjectChange.ORDER);
+	
+	/**
+	 * Object ID to its latest change
+	 **/
+	protected final ConcurrentHashMap<String, DataObjectChange> latestChange = new ConcurrentHashMap<String, DataObjectChange>();
+	
+	//--------------------------------------------------------------------------
+	//
+	// Index maintenance
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Records the change of an object, replacing its previous change (if any)
+	 *
+	 * @param  oid        object ID which changed
+	 * @param  updateTime update timestamp in milliseconds
+	 * @param  removed    true, if the object was removed
+	 **/
+	public void record(String oid, long updateTime, boolean removed) {
+		if (oid == null) {
+			return;
+		}
+		DataObjectChange change = new DataObjectChange(oid, updateTime, removed);
+		latestChange.compute(oid, (key, prev) -> {
+			if (prev != null) {
+				changes.remove(prev);
+			}
+			changes.add(change);
+			return change;
+		});
+	}
+	
+	/**
+	 * Removes the tombstones, with an update time before the given timestamp
+	 *
+	 * @param  before timestamp in milliseconds (exclusive)
+	 *
+	 * @return number of tombstones removed
+	 **/
+	public int purgeTombstones(long before) {
+		int[] count = new int[] { 0 };
+		for (DataObjectChange change : changes) {
+			if (change.getUpdateTime() >= before) {
+				break;
+			}
+			if (change.isRemoved()) {
+				// Only if it is still the latest change of the object
+				latestChange.computeIfPresent(change.getObjectID(), (key, latest) -> {
+					if (latest != change) {
+						return latest;
+					}
+					changes.remove(change);
+					count[0]++;
+					return null;
+				});
+			}
+		}
+		return count[0];
+	}
+	
+	/**
+	 * Removes all changes from the index, note that this is not atomic against concurrent changes
+	 **/
+	public void clear() {
+		changes.clear();
+		latestChange.clear();
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Change feed
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Gets the changes since the given timestamp, or after the given cursor, in update order.
+	 *
+	 * @param  timestamp in milliseconds to get changes from (inclusive), ignored if cursor is given
+	 * @param  limit     max number of changes to return, use -1 to ignore
+	 * @param  cursor    of the last change read (exclusive), can be null
+	 *
+	 * @return  list of changes, in update order
+	 **/
+	public List<DataObjectChange> changedSince(long timestamp, int limit, String cursor) {
+		NavigableSet<DataObjectChange> tail = null;
+		if (cursor != null) {
+			tail = changes.tailSet(DataObjectChange.fromCursor(cursor), false);
+		} else {
+			// Empty object ID, sorts before any other object ID of the same timestamp
+			tail = changes.tailSet(new DataObjectChange("", timestamp, false), true);
+		}
+		
+		List<DataObjectChange> ret = new ArrayList<DataObjectChange>();
+		for (DataObjectChange change : tail) {
+			if (limit >= 0 && ret.size() >= limit) {
+				break;
+			}
+			ret.add(change);
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,493 @@
+package picoded.dstack.core;
+
+// Java imports
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Picoded imports
+import picoded.core.struct.query.*;
+
+/**
+ * Reads a columnar snapshot file, as written by Core_ColumnarSnapshotWriter,
+ * and runs Query predicates against it.
+ *
+ * Only the columns requested, and used by the query, are loaded (column pruning).
+ * For queries which are a simple AND of conditions, row groups that cannot match are skipped
+ * using the chunk min / max, string dictionary, or the lack of values in the chunk.
+ *
+ * The remaining rows are then tested against the query as per normal.
+ **/
+public class Core_ColumnarSnapshotReader {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Constructor and header
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Snapshot file to read from
+	 **/
+	protected final File file;
+	
+	/**
+	 * Rows per row group, and the number of rows
+	 **/
+	protected int chunkSize = 0;
+	protected int rowCount = 0;
+	
+	/**
+	 * Column names, in file order
+	 **/
+	protected List<String> columnNames = null;
+	protected Set<String> columnNameSet = null;
+	
+	/**
+	 * Chunks scanned, and skipped, by the last query
+	 **/
+	protected int lastChunksScanned = 0;
+	protected int lastChunksSkipped = 0;
+	
+	/**
+	 * Setup the reader, and load the snapshot header
+	 *
+	 * @param  file  snapshot file to read from
+	 **/
+	public Core_ColumnarSnapshotReader(File file) {
+		this.file = file;
+		try (DataInputStream in = openAndReadHeader()) {
+			// Only the row count and column names are read, all chunks are skipped
+			columnNameSet = new LinkedHashSet<String>();
+			for (Group group : readGroups(in, new HashSet<String>(), columnNameSet)) {
+				rowCount += group.oids.length;
+			}
+			columnNames = new ArrayList<String>(columnNameSet);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read snapshot : " + file, e);
+		}
+	}
+	
+	/**
+	 * @return number of rows (objects) in the snapshot
+	 **/
+	public int getRowCount() {
+		return rowCount;
+	}
+	
+	/**
+	 * @return column names in the snapshot
+	 **/
+	public List<String> getColumnNames() {
+		return new ArrayList<String>(columnNames);
+	}
+	
+	/**
+	 * @return number of chunks scanned by the last query
+	 **/
+	public int getLastChunksScanned() {
+		return lastChunksScanned;
+	}
+	
+	/**
+	 * @return number of chunks skipped by the last query
+	 **/
+	public int getLastChunksSkipped() {
+		return lastChunksSkipped;
+	}
+	
+	/**
+	 * Opens the snapshot file, and reads its header
+	 **/
+	protected DataInputStream openAndReadHeader() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != Core_ColumnarSnapshotWriter.MAGIC) {
+				throw new IOException("Invalid snapshot header");
+			}
+			byte version = in.readByte();
+			if (version != Core_ColumnarSnapshotWriter.VERSION) {
+				throw new IOException("Unsupported snapshot version : " + version);
+			}
+			chunkSize = in.readInt();
+			return in;
+		} catch (IOException | RuntimeException e) {
+			in.close();
+			throw e;
+		}
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Chunk reading
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * A single column chunk, with its stats and (undecoded) data
+	 **/
+	protected static class Chunk {
+		int kind;
+		double numMin;
+		double numMax;
+		String strMin;
+		String strMax;
+		byte[] data;
+	}
+	
+	/**
+	 * A single row group, with its object ID's and loaded column chunks
+	 **/
+	protected static class Group {
+		String[] oids;
+		Map<String, Chunk> chunkMap = new HashMap<String, Chunk>();
+	}
+	
+	/**
+	 * Reads the row groups, loading the chunks only for the columns needed
+	 *
+	 * @param  in           stream positioned after the header
+	 * @param  needed       column names to load, null for all
+	 * @param  columnNames  set to add the column names into, can be null
+	 *
+	 * @return list of row groups, in row order
+	 **/
+	protected List<Group> readGroups(DataInputStream in, Set<String> needed,
+		Set<String> columnNames) throws IOException {
+		List<Group> ret = new ArrayList<Group>();
+		while (in.readByte() == Core_ColumnarSnapshotWriter.GROUP_MARKER) {
+			Group group = new Group();
+			group.oids = new String[(int) readVarint(in)];
+			for (int i = 0; i < group.oids.length; ++i) {
+				group.oids[i] = readString(in);
+			}
+			
+			int chunkCount = (int) readVarint(in);
+			for (int c = 0; c < chunkCount; ++c) {
+				String key = readString(in);
+				if (columnNames != null) {
+					columnNames.add(key);
+				}
+				
+				Chunk chunk = new Chunk();
+				chunk.kind = in.readByte();
+				if (chunk.kind == Core_ColumnarSnapshotWriter.KIND_NUMERIC) {
+					chunk.numMin = in.readDouble();
+					chunk.numMax = in.readDouble();
+				} else if (chunk.kind == Core_ColumnarSnapshotWriter.KIND_STRING) {
+					chunk.strMin = readString(in);
+					chunk.strMax = readString(in);
+				}
+				
+				int length = (int) readVarint(in);
+				if (needed == null || needed.contains(key)) {
+					chunk.data = new byte[length];
+					in.readFully(chunk.data);
+					group.chunkMap.put(key, chunk);
+				} else {
+					skipFully(in, length);
+				}
+			}
+			ret.add(group);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Decodes the chunk values
+	 *
+	 * @param  chunk  to decode
+	 * @param  rows   number of rows in the chunk
+	 *
+	 * @return the values, in row order
+	 **/
+	protected Object[] decodeChunk(Chunk chunk, int rows) throws IOException {
+		Object[] ret = new Object[rows];
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(chunk.data));
+		if (chunk.kind == Core_ColumnarSnapshotWriter.KIND_NUMERIC) {
+			for (int i = 0; i < rows; ++i) {
+				ret[i] = readNumber(data);
+			}
+		} else if (chunk.kind == Core_ColumnarSnapshotWriter.KIND_STRING) {
+			String[] dict = readDictionary(data);
+			for (int i = 0; i < rows; ++i) {
+				int idx = (int) readVarint(data);
+				ret[i] = (idx > 0) ? dict[idx - 1] : null;
+			}
+		} else {
+			for (int i = 0; i < rows; ++i) {
+				int length = (int) readVarint(data);
+				if (length > 0) {
+					byte[] encoded = new byte[length - 1];
+					data.readFully(encoded);
+					ret[i] = Core_BinaryCodec.decode(encoded);
+				}
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Reads the string dictionary, at the start of a STRING chunk data
+	 **/
+	protected String[] readDictionary(DataInputStream data) throws IOException {
+		String[] dict = new String[(int) readVarint(data)];
+		for (int i = 0; i < dict.length; ++i) {
+			dict[i] = readString(data);
+		}
+		return dict;
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Query
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Performs a search query against the snapshot
+	 *
+	 * @param   where query statement, null to get all
+	 * @param   where clause values array
+	 * @param   columns to return, null for all
+	 *
+	 * @return  list of matching rows, each containing the `_oid` and requested column values
+	 **/
+	public List<Map<String, Object>> query(String whereClause, Object[] whereValues,
+		Collection<String> columns) {
+		Query queryObj = (whereClause != null) ? Query.build(whereClause, whereValues) : null;
+		return query(queryObj, columns);
+	}
+	
+	/**
+	 * Performs a search query against the snapshot
+	 *
+	 * @param   queryClause, of where query statement and value, null to get all
+	 * @param   columns to return, null for all
+	 *
+	 * @return  list of matching rows, each containing the `_oid` and requested column values
+	 **/
+	public List<Map<String, Object>> query(Query queryClause, Collection<String> columns) {
+		// Columns to load, including those used by the query (nested fields use their root key)
+		Set<String> needed = null;
+		Map<String, List<Query>> fieldQueryMap = new HashMap<String, List<Query>>();
+		if (columns != null) {
+			needed = new HashSet<String>(columns);
+			if (queryClause != null) {
+				fieldQueryMap = queryClause.fieldQueryMap();
+				for (String field : fieldQueryMap.keySet()) {
+					needed.add(field);
+					int dot = field.indexOf('.');
+					if (dot > 0) {
+						needed.add(field.substring(0, dot));
+					}
+				}
+			}
+		} else if (queryClause != null) {
+			fieldQueryMap = queryClause.fieldQueryMap();
+		}
+		
+		// Only simple AND queries can skip row groups
+		boolean canSkip = false;
+		Map<String, Object> queryArgMap = null;
+		if (queryClause != null) {
+			canSkip = Core_StructIndex.isConjunctive(queryClause);
+			queryArgMap = queryClause.queryArgumentsMap();
+		}
+		
+		List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
+		int scanned = 0;
+		int skipped = 0;
+		try (DataInputStream in = openAndReadHeader()) {
+			for (Group group : readGroups(in, needed, null)) {
+				if (canSkip && canSkipChunk(group.chunkMap, fieldQueryMap, queryArgMap)) {
+					++skipped;
+					continue;
+				}
+				++scanned;
+				
+				// Decode the chunk values, for each column
+				int rows = group.oids.length;
+				Map<String, Object[]> valuesMap = new HashMap<String, Object[]>();
+				for (Map.Entry<String, Chunk> entry : group.chunkMap.entrySet()) {
+					valuesMap.put(entry.getKey(), decodeChunk(entry.getValue(), rows));
+				}
+				
+				// Build and test each row
+				for (int i = 0; i < rows; ++i) {
+					Map<String, Object> row = new HashMap<String, Object>();
+					for (Map.Entry<String, Object[]> entry : valuesMap.entrySet()) {
+						Object val = entry.getValue()[i];
+						if (val != null) {
+							row.put(entry.getKey(), val);
+						}
+					}
+					row.put("_oid", group.oids[i]);
+					if (queryClause != null && !queryClause.test(row)) {
+						continue;
+					}
+					if (columns != null) {
+						row.keySet().retainAll(columns);
+						row.put("_oid", group.oids[i]);
+					}
+					ret.add(row);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read snapshot : " + file, e);
+		}
+		
+		lastChunksScanned = scanned;
+		lastChunksSkipped = skipped;
+		return ret;
+	}
+	
+	/**
+	 * Checks if a row group cannot match an AND only query, from its chunk stats
+	 *
+	 * @param  chunkMap       of the row group loaded column chunks
+	 * @param  fieldQueryMap  of the query fields, to its conditions
+	 * @param  queryArgMap    of the query arguments
+	 *
+	 * @return true if the row group can be skipped
+	 **/
+	protected boolean canSkipChunk(Map<String, Chunk> chunkMap,
+		Map<String, List<Query>> fieldQueryMap, Map<String, Object> queryArgMap) throws IOException {
+		for (Map.Entry<String, List<Query>> entry : fieldQueryMap.entrySet()) {
+			if (!columnNameSet.contains(entry.getKey())) {
+				// Nested field, or a column not in the snapshot
+				continue;
+			}
+			Chunk chunk = chunkMap.get(entry.getKey());
+			
+			for (Query condition : entry.getValue()) {
+				String op = condition.operatorSymbol();
+				Object arg = queryArgMap.get(condition.argumentName());
+				if (arg == null || !isComparisonOperator(op)) {
+					continue;
+				}
+				
+				// No values in the row group, will never match a non null comparison
+				if (chunk == null) {
+					return true;
+				}
+				
+				if (chunk.kind == Core_ColumnarSnapshotWriter.KIND_NUMERIC && arg instanceof Number) {
+					double val = ((Number) arg).doubleValue();
+					if ((op.equals("=") && (val < chunk.numMin || val > chunk.numMax))
+						|| (op.equals("<") && chunk.numMin >= val)
+						|| (op.equals("<=") && chunk.numMin > val)
+						|| (op.equals(">") && chunk.numMax <= val)
+						|| (op.equals(">=") && chunk.numMax < val)) {
+						return true;
+					}
+				} else if (chunk.kind == Core_ColumnarSnapshotWriter.KIND_STRING && op.equals("=")
+					&& arg instanceof String) {
+					// String equality is checked against the chunk dictionary
+					String val = arg.toString();
+					boolean found = false;
+					String[] dict = readDictionary(new DataInputStream(
+						new ByteArrayInputStream(chunk.data)));
+					for (String str : dict) {
+						if (str.equalsIgnoreCase(val)) {
+							found = true;
+							break;
+						}
+					}
+					if (!found) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @return true if the operator is a simple comparison (which never matches a null value)
+	 **/
+	protected static boolean isComparisonOperator(String op) {
+		return op.equals("=") || op.equals("<") || op.equals("<=") || op.equals(">")
+			|| op.equals(">=");
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Decoding utilities
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Reads an unsigned varint
+	 **/
+	protected static long readVarint(DataInputStream data) throws IOException {
+		long ret = 0;
+		int shift = 0;
+		while (true) {
+			int b = data.readUnsignedByte();
+			ret |= ((long) (b & 0x7F)) << shift;
+			if ((b & 0x80) == 0) {
+				return ret;
+			}
+			shift += 7;
+			if (shift > 63) {
+				throw new IOException("Malformed varint");
+			}
+		}
+	}
+	
+	/**
+	 * Reads a length prefixed UTF-8 string
+	 **/
+	protected static String readString(DataInputStream data) throws IOException {
+		byte[] bytes = new byte[(int) readVarint(data)];
+		data.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Reads a number, with its type byte
+	 **/
+	protected static Number readNumber(DataInputStream data) throws IOException {
+		int type = data.readByte();
+		switch (type) {
+		case Core_ColumnarSnapshotWriter.NUM_NULL:
+			return null;
+		case Core_ColumnarSnapshotWriter.NUM_INT:
+			return data.readInt();
+		case Core_ColumnarSnapshotWriter.NUM_LONG:
+			return data.readLong();
+		case Core_ColumnarSnapshotWriter.NUM_FLOAT:
+			return data.readFloat();
+		case Core_ColumnarSnapshotWriter.NUM_DOUBLE:
+			return data.readDouble();
+		default:
+			throw new IOException("Unknown number type : " + type);
+		}
+	}
+	
+	/**
+	 * Skips the given number of bytes
+	 **/
+	protected static void skipFully(DataInputStream in, int length) throws IOException {
+		while (length > 0) {
+			int skipped = in.skipBytes(length);
+			if (skipped <= 0) {
+				throw new IOException("Unexpected end of snapshot");
+			}
+			length -= skipped;
+		}
+	}
+}
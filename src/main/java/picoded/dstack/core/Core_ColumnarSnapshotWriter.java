@@ -0,0 +1,341 @@
+package picoded.dstack.core;
+
+// Java imports
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes a columnar snapshot of a DataObjectMap, for analytics scans (see Core_ColumnarSnapshotReader).
+ *
+ * The snapshot is split into row groups of up to CHUNK_SIZE rows, where each group is column
+ * major, with each key written as a single column chunk. Rows are written one at a time
+ * (in row order), and only the current row group is held in memory. This allows a backend to
+ * stream its objects in a single ordered pass (such as JSql reading its data table ordered by oID).
+ *
+ * The file format is as followed
+ *
+ * + header : magic int, version byte, chunk size int
+ * + row groups : GROUP_MARKER, varint row count, each object ID (length prefixed string),
+ *                varint chunk count, followed by each chunk
+ * + END_MARKER
+ *
+ * Where columns without any values in the group are omitted, and each chunk consists of
+ *
+ * + key string, kind byte
+ * + stats : min / max (double for NUMERIC, string for STRING, none for PACKED)
+ * + varint data length, followed by the data
+ *
+ * And the chunk data for each kind is
+ *
+ * + NUMERIC : per row, number type byte (0 for null), followed by its value
+ * + STRING  : varint dictionary size, each dictionary string, then per row varint (dictionary index + 1, 0 for null)
+ * + PACKED  : per row, varint (length + 1, 0 for null), followed by the Core_BinaryCodec encoded value
+ **/
+public class Core_ColumnarSnapshotWriter {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Format constants
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Magic header int, and the current format version
+	 **/
+	public static final int MAGIC = 0x44534353; // "DSCS"
+	public static final byte VERSION = 2;
+	
+	/**
+	 * Default number of rows per row group (column chunk)
+	 **/
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+	
+	/**
+	 * Row group and end markers
+	 **/
+	protected static final int GROUP_MARKER = 1;
+	protected static final int END_MARKER = 0;
+	
+	/**
+	 * Chunk kinds
+	 **/
+	protected static final int KIND_NUMERIC = 1;
+	protected static final int KIND_STRING = 2;
+	protected static final int KIND_PACKED = 3;
+	
+	/**
+	 * Number types, within a NUMERIC chunk
+	 **/
+	protected static final int NUM_NULL = 0;
+	protected static final int NUM_INT = 1;
+	protected static final int NUM_LONG = 2;
+	protected static final int NUM_DOUBLE = 3;
+	protected static final int NUM_FLOAT = 4;
+	
+	//--------------------------------------------------------------------------
+	//
+	// Constructor
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Output stream to write into
+	 **/
+	protected final DataOutputStream out;
+	
+	/**
+	 * Number of rows per row group
+	 **/
+	protected final int chunkSize;
+	
+	/**
+	 * Object ID's, and column values (by key), of the current row group
+	 **/
+	protected final List<String> groupOids = new ArrayList<String>();
+	protected final Map<String, Object[]> groupColumns = new TreeMap<String, Object[]>();
+	
+	/**
+	 * Setup the writer, and write the header
+	 *
+	 * @param  outStream  to write the snapshot into
+	 * @param  chunkSize  number of rows per row group
+	 **/
+	public Core_ColumnarSnapshotWriter(OutputStream outStream, int chunkSize) {
+		this.out = new DataOutputStream(new BufferedOutputStream(outStream));
+		this.chunkSize = Math.max(1, chunkSize);
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(this.chunkSize);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to write snapshot header", e);
+		}
+	}
+	
+	/**
+	 * Setup the writer, with the default chunk size
+	 *
+	 * @param  outStream  to write the snapshot into
+	 **/
+	public Core_ColumnarSnapshotWriter(OutputStream outStream) {
+		this(outStream, DEFAULT_CHUNK_SIZE);
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Row writing
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Writes a single row (object), rows are read back in the order they are written
+	 *
+	 * @param  oid      object ID of the row
+	 * @param  dataMap  of the object values, null values (and the _oid) are ignored, can be null
+	 **/
+	public void writeRow(String oid, Map<String, Object> dataMap) {
+		int row = groupOids.size();
+		groupOids.add(oid);
+		if (dataMap != null) {
+			for (Map.Entry<String, Object> entry : dataMap.entrySet()) {
+				if (entry.getValue() == null || entry.getKey().equals("_oid")) {
+					continue;
+				}
+				Object[] column = groupColumns.get(entry.getKey());
+				if (column == null) {
+					column = new Object[chunkSize];
+					groupColumns.put(entry.getKey(), column);
+				}
+				column[row] = entry.getValue();
+			}
+		}
+		
+		if (groupOids.size() >= chunkSize) {
+			writeGroup();
+		}
+	}
+	
+	/**
+	 * Writes the current row group, if it has any rows
+	 **/
+	protected void writeGroup() {
+		int rows = groupOids.size();
+		if (rows <= 0) {
+			return;
+		}
+		
+		try {
+			out.writeByte(GROUP_MARKER);
+			writeVarint(out, rows);
+			for (String oid : groupOids) {
+				writeString(out, oid);
+			}
+			writeVarint(out, groupColumns.size());
+			for (Map.Entry<String, Object[]> entry : groupColumns.entrySet()) {
+				writeString(out, entry.getKey());
+				writeChunk(entry.getValue(), rows);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to write snapshot row group", e);
+		}
+		
+		groupOids.clear();
+		groupColumns.clear();
+	}
+	
+	/**
+	 * Writes a single column chunk, of the row group
+	 *
+	 * @param  values  of the column, in row order (null for rows without the key)
+	 * @param  rows    number of rows in the row group
+	 **/
+	protected void writeChunk(Object[] values, int rows) throws IOException {
+		// Detect the chunk kind
+		boolean allNumeric = true;
+		boolean allString = true;
+		for (int i = 0; i < rows; ++i) {
+			Object val = values[i];
+			if (val != null) {
+				allNumeric = allNumeric && (val instanceof Number);
+				allString = allString && (val instanceof String);
+			}
+		}
+		
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(buffer);
+		
+		if (allNumeric) {
+			// Numeric values, with min / max
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < rows; ++i) {
+				Number num = (Number) values[i];
+				if (num != null) {
+					min = Math.min(min, num.doubleValue());
+					max = Math.max(max, num.doubleValue());
+				}
+				writeNumber(data, num);
+			}
+			out.writeByte(KIND_NUMERIC);
+			out.writeDouble(min);
+			out.writeDouble(max);
+		} else if (allString) {
+			// Dictionary encoded strings, with min / max
+			Map<String, Integer> dictMap = new HashMap<String, Integer>();
+			List<String> dictList = new ArrayList<String>();
+			int[] idx = new int[rows];
+			String min = null;
+			String max = null;
+			for (int i = 0; i < rows; ++i) {
+				String str = (String) values[i];
+				if (str == null) {
+					continue;
+				}
+				Integer pos = dictMap.get(str);
+				if (pos == null) {
+					pos = dictList.size();
+					dictMap.put(str, pos);
+					dictList.add(str);
+				}
+				idx[i] = pos + 1;
+				min = (min == null || str.compareTo(min) < 0) ? str : min;
+				max = (max == null || str.compareTo(max) > 0) ? str : max;
+			}
+			writeVarint(data, dictList.size());
+			for (String str : dictList) {
+				writeString(data, str);
+			}
+			for (int i : idx) {
+				writeVarint(data, i);
+			}
+			out.writeByte(KIND_STRING);
+			writeString(out, min);
+			writeString(out, max);
+		} else {
+			// Mixed, or nested values
+			for (int i = 0; i < rows; ++i) {
+				if (values[i] == null) {
+					writeVarint(data, 0);
+				} else {
+					byte[] encoded = Core_BinaryCodec.encode(values[i]);
+					writeVarint(data, encoded.length + 1);
+					data.write(encoded);
+				}
+			}
+			out.writeByte(KIND_PACKED);
+		}
+		
+		data.flush();
+		writeVarint(out, buffer.size());
+		buffer.writeTo(out);
+	}
+	
+	/**
+	 * Writes the remaining rows, the end marker, and close the output stream
+	 **/
+	public void close() {
+		writeGroup();
+		try {
+			out.writeByte(END_MARKER);
+			out.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to close snapshot", e);
+		}
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Encoding utilities
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Writes an unsigned varint
+	 **/
+	protected static void writeVarint(DataOutputStream data, long val) throws IOException {
+		while ((val & ~0x7FL) != 0) {
+			data.writeByte((int) ((val & 0x7F) | 0x80));
+			val >>>= 7;
+		}
+		data.writeByte((int) val);
+	}
+	
+	/**
+	 * Writes a length prefixed UTF-8 string, where null is written as an empty string
+	 **/
+	protected static void writeString(DataOutputStream data, String str) throws IOException {
+		byte[] bytes = (str != null) ? str.getBytes(StandardCharsets.UTF_8) : new byte[0];
+		writeVarint(data, bytes.length);
+		data.write(bytes);
+	}
+	
+	/**
+	 * Writes a number, with its type byte
+	 **/
+	protected static void writeNumber(DataOutputStream data, Number num) throws IOException {
+		if (num == null) {
+			data.writeByte(NUM_NULL);
+		} else if (num instanceof Integer || num instanceof Short || num instanceof Byte) {
+			data.writeByte(NUM_INT);
+			data.writeInt(num.intValue());
+		} else if (num instanceof Long) {
+			data.writeByte(NUM_LONG);
+			data.writeLong(num.longValue());
+		} else if (num instanceof Float) {
+			data.writeByte(NUM_FLOAT);
+			data.writeFloat(num.floatValue());
+		} else {
+			data.writeByte(NUM_DOUBLE);
+			data.writeDouble(num.doubleValue());
+		}
+	}
+}
@@ -0,0 +1,398 @@
+package picoded.dstack.core;
+
+// Java imports
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+// Picoded imports
+import picoded.core.common.ObjectToken;
+
+/**
+ * Copy on write views, of nested map / list values which are shared (and never modified),
+ * such as the stored values of struct based DataObjectMap.
+ *
+ * Reads are done directly against the shared value, without copying it. The first
+ * mutation of a view makes a shallow copy of its own level (with its nested values
+ * wrapped in views as well). So only the levels which are actually mutated are copied.
+ *
+ * snapshot() is used to get the value to store. Where unmodified views returns the
+ * shared value as it is, and modified views are rebuilt reusing their unmodified parts.
+ **/
+public class Core_CopyOnWrite {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Utility functions
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * @return true, if the value is immutable (and can be shared as it is)
+	 **/
+	protected static boolean isImmutable(Object val) {
+		return val == null || val instanceof String || val instanceof Number
+			|| val instanceof Boolean || val instanceof Character || val instanceof ObjectToken;
+	}
+	
+	/**
+	 * Wraps a shared value for reading, without copying maps and lists
+	 *
+	 * @param  val shared value, which should not be modified
+	 *
+	 * @return copy on write view for maps / lists, the value itself if immutable,
+	 *         else a deep copy of the value (such as byte[])
+	 **/
+	@SuppressWarnings("unchecked")
+	public static Object wrap(Object val) {
+		if (val instanceof View || isImmutable(val)) {
+			return val;
+		}
+		if (val instanceof Map) {
+			return new MapView((Map<Object, Object>) val);
+		}
+		if (val instanceof List) {
+			return new ListView((List<Object>) val);
+		}
+		return Core_DataObjectMap.deepCopy(val);
+	}
+	
+	/**
+	 * Gets the value to store (or share), from a value which may be a copy on write view
+	 *
+	 * @param  val to snapshot
+	 *
+	 * @return the shared value of unmodified views, a rebuilt value for modified views,
+	 *         the value itself if immutable, else a deep copy of the value
+	 **/
+	public static Object snapshot(Object val) {
+		if (val instanceof View) {
+			return ((View) val).snapshot();
+		}
+		if (isImmutable(val)) {
+			return val;
+		}
+		return Core_DataObjectMap.deepCopy(val);
+	}
+	
+	/**
+	 * @return true, if the value is a view which was modified
+	 **/
+	protected static boolean isModified(Object val) {
+		return (val instanceof View) && ((View) val).isModified();
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Views
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Common interface of the copy on write views
+	 **/
+	protected interface View {
+		
+		/**
+		 * @return the value to store, see Core_CopyOnWrite.snapshot
+		 **/
+		Object snapshot();
+		
+		/**
+		 * @return true, if the view (or any of its nested views) was modified
+		 **/
+		boolean isModified();
+	}
+	
+	/**
+	 * Copy on write view of a shared map
+	 **/
+	protected static class MapView extends AbstractMap<Object, Object> implements View {
+		
+		/**
+		 * The shared map, and the local copy (null till the first mutation)
+		 **/
+		protected final Map<Object, Object> source;
+		protected Map<Object, Object> local = null;
+		
+		/**
+		 * Views of the nested values read, before the local copy is made
+		 **/
+		protected Map<Object, Object> children = null;
+		
+		protected MapView(Map<Object, Object> source) {
+			this.source = source;
+		}
+		
+		/**
+		 * Makes the local copy, if needed. Where nested maps / lists are wrapped as views.
+		 **/
+		protected Map<Object, Object> local() {
+			if (local == null) {
+				Map<Object, Object> copy = new HashMap<Object, Object>();
+				for (Map.Entry<Object, Object> entry : source.entrySet()) {
+					Object child = (children != null) ? children.get(entry.getKey()) : null;
+					copy.put(entry.getKey(), (child != null) ? child : wrap(entry.getValue()));
+				}
+				local = copy;
+				children = null;
+			}
+			return local;
+		}
+		
+		@Override
+		public Object get(Object key) {
+			if (local != null) {
+				return local.get(key);
+			}
+			Object val = source.get(key);
+			if (isImmutable(val)) {
+				return val;
+			}
+			
+			// Nested views are kept, so that its mutations are visible on the next get
+			if (children == null) {
+				children = new HashMap<Object, Object>();
+			}
+			Object child = children.get(key);
+			if (child == null) {
+				child = wrap(val);
+				children.put(key, child);
+			}
+			return child;
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			return (local != null) ? local.containsKey(key) : source.containsKey(key);
+		}
+		
+		@Override
+		public int size() {
+			return (local != null) ? local.size() : source.size();
+		}
+		
+		@Override
+		public Object put(Object key, Object value) {
+			return local().put(key, value);
+		}
+		
+		@Override
+		public Object remove(Object key) {
+			if (local == null && !source.containsKey(key)) {
+				return null;
+			}
+			return local().remove(key);
+		}
+		
+		@Override
+		public void clear() {
+			local = new HashMap<Object, Object>();
+			children = null;
+		}
+		
+		/**
+		 * Entry set, iterating the shared map (without copying) till the first mutation
+		 **/
+		@Override
+		public Set<Map.Entry<Object, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<Object, Object>>() {
+				@Override
+				public int size() {
+					return MapView.this.size();
+				}
+				
+				@Override
+				public Iterator<Map.Entry<Object, Object>> iterator() {
+					boolean isLocal = (local != null);
+					Iterator<Object> keys = (isLocal ? local : source).keySet().iterator();
+					return new Iterator<Map.Entry<Object, Object>>() {
+						Object lastKey = null;
+						
+						@Override
+						public boolean hasNext() {
+							return keys.hasNext();
+						}
+						
+						@Override
+						public Map.Entry<Object, Object> next() {
+							lastKey = keys.next();
+							Object key = lastKey;
+							return new AbstractMap.SimpleEntry<Object, Object>(key, get(key)) {
+								@Override
+								public Object setValue(Object value) {
+									super.setValue(value);
+									return put(key, value);
+								}
+							};
+						}
+						
+						@Override
+						public void remove() {
+							if (isLocal) {
+								keys.remove();
+							} else {
+								local().remove(lastKey);
+							}
+						}
+					};
+				}
+			};
+		}
+		
+		@Override
+		public boolean isModified() {
+			if (local != null) {
+				return true;
+			}
+			if (children != null) {
+				for (Object child : children.values()) {
+					if (Core_CopyOnWrite.isModified(child)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+		
+		@Override
+		public Object snapshot() {
+			if (!isModified()) {
+				return source;
+			}
+			Map<Object, Object> ret = new HashMap<Object, Object>();
+			if (local != null) {
+				for (Map.Entry<Object, Object> entry : local.entrySet()) {
+					ret.put(entry.getKey(), Core_CopyOnWrite.snapshot(entry.getValue()));
+				}
+			} else {
+				ret.putAll(source);
+				for (Map.Entry<Object, Object> entry : children.entrySet()) {
+					ret.put(entry.getKey(), Core_CopyOnWrite.snapshot(entry.getValue()));
+				}
+			}
+			return ret;
+		}
+	}
+	
+	/**
+	 * Copy on write view of a shared list
+	 **/
+	protected static class ListView extends AbstractList<Object> implements View, RandomAccess {
+		
+		/**
+		 * The shared list, and the local copy (null till the first mutation)
+		 **/
+		protected final List<Object> source;
+		protected List<Object> local = null;
+		
+		/**
+		 * Views of the nested values read, by index, before the local copy is made
+		 **/
+		protected Object[] children = null;
+		
+		protected ListView(List<Object> source) {
+			this.source = source;
+		}
+		
+		/**
+		 * Makes the local copy, if needed. Where nested maps / lists are wrapped as views.
+		 **/
+		protected List<Object> local() {
+			if (local == null) {
+				List<Object> copy = new ArrayList<Object>(source.size());
+				for (int i = 0; i < source.size(); ++i) {
+					Object child = (children != null) ? children[i] : null;
+					copy.add((child != null) ? child : wrap(source.get(i)));
+				}
+				local = copy;
+				children = null;
+			}
+			return local;
+		}
+		
+		@Override
+		public Object get(int index) {
+			if (local != null) {
+				return local.get(index);
+			}
+			Object val = source.get(index);
+			if (isImmutable(val)) {
+				return val;
+			}
+			
+			// Nested views are kept, so that its mutations are visible on the next get
+			if (children == null) {
+				children = new Object[source.size()];
+			}
+			if (children[index] == null) {
+				children[index] = wrap(val);
+			}
+			return children[index];
+		}
+		
+		@Override
+		public int size() {
+			return (local != null) ? local.size() : source.size();
+		}
+		
+		@Override
+		public Object set(int index, Object value) {
+			return local().set(index, value);
+		}
+		
+		@Override
+		public void add(int index, Object value) {
+			local().add(index, value);
+			++modCount;
+		}
+		
+		@Override
+		public Object remove(int index) {
+			Object ret = local().remove(index);
+			++modCount;
+			return ret;
+		}
+		
+		@Override
+		public boolean isModified() {
+			if (local != null) {
+				return true;
+			}
+			if (children != null) {
+				for (Object child : children) {
+					if (Core_CopyOnWrite.isModified(child)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+		
+		@Override
+		public Object snapshot() {
+			if (!isModified()) {
+				return source;
+			}
+			List<Object> ret = new ArrayList<Object>(size());
+			if (local != null) {
+				for (Object val : local) {
+					ret.add(Core_CopyOnWrite.snapshot(val));
+				}
+			} else {
+				for (int i = 0; i < source.size(); ++i) {
+					ret.add((children[i] != null) ? Core_CopyOnWrite.snapshot(children[i]) : source
+						.get(i));
+				}
+			}
+			return ret;
+		}
+	}
+}
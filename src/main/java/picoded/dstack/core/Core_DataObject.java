@@ -10,7 +10,6 @@ import java.util.Set;
 import picoded.dstack.DataObject;
 import picoded.dstack.DataObjectMap;
 import picoded.core.conv.ConvertJSON;
-import picoded.core.conv.GUID;
 import picoded.core.common.ObjectToken;
 
 /**
@@ -84,9 +83,9 @@ public class Core_DataObject implements DataObject {
 		
 		// Generates a GUID if not given
 		if (inOID == null) {
-			// Issue a GUID
+			// Issue a GUID, using the configured generator
 			if (_oid == null) {
-				_oid = GUID.base58();
+				_oid = mainTable.newObjectID();
 			}
 			
 			if (_oid.length() < 4) {
@@ -246,6 +245,37 @@ public class Core_DataObject implements DataObject {
 		deltaDataMap = new HashMap<String, Object>();
 	}
 	
+	/**
+	 * Gets the values to store for the given keys, where changed values (in the delta map)
+	 * are snapshotted via Core_CopyOnWrite. So that nested values which are not modified
+	 * are passed on as they are, without copying.
+	 *
+	 * The delta map is updated with the snapshotted values, so that they are the same
+	 * values held by the remote map once collapsed.
+	 *
+	 * @param  keys to store
+	 *
+	 * @return map of values to store, with null for removed keys
+	 **/
+	protected Map<String, Object> storageMap(Set<String> keys) {
+		Map<String, Object> ret = new HashMap<String, Object>();
+		for (String key : keys) {
+			if (!deltaDataMap.containsKey(key)) {
+				ret.put(key, Core_CopyOnWrite.snapshot(get(key)));
+				continue;
+			}
+			Object val = deltaDataMap.get(key);
+			if (val == null || val.equals(ObjectToken.NULL)) {
+				ret.put(key, null);
+			} else {
+				val = Core_CopyOnWrite.snapshot(val);
+				deltaDataMap.put(key, val);
+				ret.put(key, val);
+			}
+		}
+		return ret;
+	}
+	
 	/**
 	 * Save the delta changes to storage. This only push the changes made to the server
 	 * as such on heavy usage, it may create write sequence errors
@@ -263,7 +293,7 @@ public class Core_DataObject implements DataObject {
 			
 			// Lets sync up all the data !
 			ensureCompleteRemoteDataMap();
-			mainTable.DataObjectRemoteDataMap_update(_oid, this, deltaKeySet);
+			mainTable.DataObjectRemoteDataMap_update(_oid, storageMap(deltaKeySet), deltaKeySet);
 			
 			// Clear up the delta object, after sync
 			collapseDeltaToRemoteMap();
@@ -286,7 +316,7 @@ public class Core_DataObject implements DataObject {
 		ensureCompleteRemoteDataMap();
 		Set<String> keySet = new HashSet<String>(deltaDataMap.keySet());
 		keySet.addAll(remoteDataMap.keySet());
-		mainTable.DataObjectRemoteDataMap_update(_oid, this, keySet);
+		mainTable.DataObjectRemoteDataMap_update(_oid, storageMap(keySet), keySet);
 		
 		// Clear up the delta object, after sync
 		collapseDeltaToRemoteMap();
@@ -296,7 +326,10 @@ public class Core_DataObject implements DataObject {
 	//----------------------------------------------
 	
 	/**
-	 * Gets and return the requested current value
+	 * Gets and return the requested current value.
+	 *
+	 * Maps and lists are returned as copy on write views (see Core_CopyOnWrite), instead of
+	 * a deep copy. So modifying them does not affect the stored value, till it is put back.
 	 *
 	 * @param   key to use
 	 *
@@ -325,13 +358,23 @@ public class Core_DataObject implements DataObject {
 			ret = remoteDataMap.get(key);
 		}
 		
+		// Large values not loaded yet, load it on first access
+		if (ret instanceof Core_LazyValue) {
+			ret = ((Core_LazyValue) ret).load();
+			if (ret == null) {
+				remoteDataMap.remove(key);
+			} else {
+				remoteDataMap.put(key.toString(), ret);
+			}
+		}
+		
 		// Return null value
 		if (ret == null || ret.equals(ObjectToken.NULL)) {
 			return null;
 		}
 		
-		// Returns valid value
-		return Core_DataObjectMap.deepCopy(ret);
+		// Returns valid value, as a copy on write view (for maps / lists)
+		return Core_CopyOnWrite.wrap(ret);
 	}
 	
 	/**
@@ -408,6 +451,22 @@ public class Core_DataObject implements DataObject {
 		return unfilteredForNull;
 	}
 	
+	/**
+	 * Checks if the key has a value, without loading any lazy value (which are
+	 * only created for non null values), note that the remote map should be complete.
+	 *
+	 * @param  key to check
+	 *
+	 * @return true, if the key has a non null value
+	 **/
+	protected boolean hasValue(String key) {
+		Object ret = deltaDataMap.get(key);
+		if (ret == null && remoteDataMap != null) {
+			ret = remoteDataMap.get(key);
+		}
+		return ret != null && !ret.equals(ObjectToken.NULL);
+	}
+	
 	/**
 	 * Gets and return valid keySet()
 	 **/
@@ -425,7 +484,7 @@ public class Core_DataObject implements DataObject {
 			}
 			
 			// List final set ONLY, if it has value
-			if (get(key) != null) {
+			if (hasValue(key)) {
 				retSet.add(key);
 			}
 		}
@@ -1,6 +1,8 @@
 package picoded.dstack.core;
 
 // Java imports
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -10,9 +12,14 @@ import java.util.Map;
 import java.util.Set;
 
 // Picoded imports
+import picoded.core.conv.ConvertJSON;
 import picoded.core.conv.GenericConvert;
+import picoded.core.conv.StringConv;
+import picoded.core.conv.StringEscape;
 import picoded.core.conv.NestedObjectUtil;
 import picoded.core.common.ObjectToken;
+import picoded.core.struct.GenericConvertMap;
+import picoded.core.struct.GenericConvertHashMap;
 import picoded.core.struct.query.*;
 import picoded.dstack.*;
 
@@ -118,16 +125,7 @@ abstract public class Core_DataObjectMap extends Core_DataStructure<String, Data
 	public String[] query_id(Query queryClause, String orderByStr, int offset, int limit) {
 		
 		// The return list of DataObjects
-		List<DataObject> retList = null;
-		
-		// Setup the query, if needed
-		if (queryClause == null) {
-			// Null gets all
-			retList = new ArrayList<DataObject>(this.values());
-		} else {
-			// Performs a search query
-			retList = queryClause.search(this);
-		}
+		List<DataObject> retList = queryList(queryClause);
 		
 		// Sort, offset, convert to array, and return
 		retList = sortAndOffsetList(retList, orderByStr, offset, limit);
@@ -143,6 +141,165 @@ abstract public class Core_DataObjectMap extends Core_DataStructure<String, Data
 		return ret;
 	}
 	
+	/**
+	 * Performs a search query, and returns a page of the respective DataObjects,
+	 * together with the total count for the query.
+	 *
+	 * @param   where query statement
+	 * @param   where clause values array
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The DataObjectPage, with the total count
+	 **/
+	@Override
+	public DataObjectPage queryPage(String whereClause, Object[] whereValues, String orderByStr,
+		int offset, int limit) {
+		if (whereClause == null) {
+			return queryPage(null, orderByStr, offset, limit);
+		}
+		return queryPage(Query.build(whereClause, whereValues), orderByStr, offset, limit);
+	}
+	
+	/**
+	 * Performs a search query, and returns a page of the respective DataObjects,
+	 * together with the total count for the query.
+	 *
+	 * This is done with a single filter pass, where the total count is taken
+	 * before the sort, offset and limit is applied.
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The DataObjectPage, with the total count
+	 **/
+	public DataObjectPage queryPage(Query queryClause, String orderByStr, int offset, int limit) {
+		// Single filter pass
+		return pageFromList(queryList(queryClause), orderByStr, offset, limit);
+	}
+	
+	/**
+	 * Gets the unsorted list of DataObjects matching the query.
+	 *
+	 * The default implementation, performs a full scan of all objects
+	 *
+	 * @param   queryClause, of where query statement and value, null gets all
+	 *
+	 * @return  The list of DataObjects
+	 **/
+	protected List<DataObject> queryList(Query queryClause) {
+		// Null gets all
+		if (queryClause == null) {
+			return new ArrayList<DataObject>(this.values());
+		}
+		
+		// Performs a search query
+		return queryClause.search(this);
+	}
+	
+	/**
+	 * Builds the DataObjectPage, from the full list of matching DataObjects
+	 *
+	 * @param   retList of all the matching DataObjects
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The DataObjectPage, with the total count
+	 **/
+	protected DataObjectPage pageFromList(List<DataObject> retList, String orderByStr, int offset,
+		int limit) {
+		long totalCount = retList.size();
+		retList = sortAndOffsetList(retList, orderByStr, offset, limit);
+		
+		String[] ret = new String[retList.size()];
+		for (int a = 0; a < ret.length; ++a) {
+			ret[a] = retList.get(a)._oid();
+		}
+		return new DataObjectPage(this, ret, totalCount);
+	}
+	
+	/**
+	 * Explains how a search query is performed, for diagnostics and index tuning.
+	 * See DataObjectMap.explain for the returned values.
+	 *
+	 * @param   where query statement
+	 * @param   where clause values array
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The explanation map
+	 **/
+	@Override
+	public GenericConvertMap<String, Object> explain(String whereClause, Object[] whereValues,
+		String orderByStr, int offset, int limit) {
+		long start = System.nanoTime();
+		Query queryObj = (whereClause != null) ? Query.build(whereClause, whereValues) : null;
+		double planTime = (System.nanoTime() - start) / 1000000.0;
+		
+		GenericConvertMap<String, Object> ret = explain(queryObj, orderByStr, offset, limit);
+		Object buildTime = ret.get("planTime");
+		ret.put("planTime", planTime
+			+ ((buildTime instanceof Number) ? ((Number) buildTime).doubleValue() : 0.0));
+		return ret;
+	}
+	
+	/**
+	 * Explains how a search query is performed, for diagnostics and index tuning.
+	 *
+	 * The default implementation, performs a full scan of all objects
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The explanation map
+	 **/
+	public GenericConvertMap<String, Object> explain(Query queryClause, String orderByStr,
+		int offset, int limit) {
+		GenericConvertMap<String, Object> ret = explainSetup(queryClause);
+		ret.put("strategy", "scan");
+		
+		long start = System.nanoTime();
+		int rowsExamined = size();
+		List<DataObject> retList = queryList(queryClause);
+		retList = sortAndOffsetList(retList, orderByStr, offset, limit);
+		ret.put("executeTime", (System.nanoTime() - start) / 1000000.0);
+		
+		ret.put("rowsExamined", rowsExamined);
+		ret.put("resultCount", retList.size());
+		return ret;
+	}
+	
+	/**
+	 * Setup the explanation map, with the backend name, and the queried key types
+	 * (inferred from the query argument values)
+	 *
+	 * @param   queryClause, of where query statement and value, can be null
+	 *
+	 * @return  The explanation map
+	 **/
+	protected GenericConvertMap<String, Object> explainSetup(Query queryClause) {
+		GenericConvertMap<String, Object> ret = new GenericConvertHashMap<String, Object>();
+		ret.put("backend", this.getClass().getSimpleName());
+		
+		Map<String, String> keyTypes = new HashMap<String, String>();
+		if (queryClause != null) {
+			Map<String, List<Object>> queryMap = queryClause.keyValuesMap();
+			for (Map.Entry<String, List<Object>> entry : queryMap.entrySet()) {
+				Object val = (entry.getValue().size() > 0) ? entry.getValue().get(0) : null;
+				keyTypes.put(entry.getKey(), (val != null) ? val.getClass().getSimpleName() : "null");
+			}
+		}
+		ret.put("keyTypes", keyTypes);
+		return ret;
+	}
+	
 	/**
 	 * Performs a custom search by configured keyname
 	 *
@@ -169,6 +326,32 @@ abstract public class Core_DataObjectMap extends Core_DataStructure<String, Data
 		return sortAndOffsetList(retList, orderByStr, offset, limit).toArray(new DataObject[0]);
 	}
 	
+	//--------------------------------------------------------------------------
+	//
+	// Columnar snapshot export
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Exports all objects, into a columnar snapshot (see Core_ColumnarSnapshotWriter),
+	 * which can be queried offline via Core_ColumnarSnapshotReader.
+	 *
+	 * The default implementation, loads each object in object ID order, and writes it
+	 * as a row. Where only the current row group is held in memory by the writer.
+	 *
+	 * @param  outStream to write the snapshot into, which is closed on completion
+	 **/
+	public void exportSnapshot(OutputStream outStream) {
+		List<String> oids = new ArrayList<String>(keySet());
+		Collections.sort(oids);
+		
+		Core_ColumnarSnapshotWriter writer = new Core_ColumnarSnapshotWriter(outStream);
+		for (String oid : oids) {
+			writer.writeRow(oid, Core_LazyValue.resolveAll(DataObjectRemoteDataMap_get(oid)));
+		}
+		writer.close();
+	}
+	
 	//--------------------------------------------------------------------------
 	//
 	// Generic Utility functions
@@ -276,6 +459,44 @@ abstract public class Core_DataObjectMap extends Core_DataStructure<String, Data
 		return null;
 	}
 	
+	//--------------------------------------------------------------------------
+	//
+	// Object ID generation
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Object ID generator for new objects, null to use the `oidGenerator` config
+	 **/
+	protected Core_ObjectIDGenerator oidGenerator = null;
+	
+	/**
+	 * Sets the object ID generator used for new objects, overriding the `oidGenerator` config
+	 *
+	 * @param  generator to use, null to use the `oidGenerator` config
+	 **/
+	public void setObjectIDGenerator(Core_ObjectIDGenerator generator) {
+		oidGenerator = generator;
+	}
+	
+	/**
+	 * @return the object ID generator used for new objects. Either the one explicitly set,
+	 *         or the named strategy configured via `oidGenerator` ("random" by default)
+	 **/
+	public Core_ObjectIDGenerator getObjectIDGenerator() {
+		if (oidGenerator != null) {
+			return oidGenerator;
+		}
+		return Core_ObjectIDGenerator.fromName(configMap().getString("oidGenerator", null));
+	}
+	
+	/**
+	 * @return a new object ID, using the configured generator
+	 **/
+	public String newObjectID() {
+		return getObjectIDGenerator().generate();
+	}
+	
 	//--------------------------------------------------------------------------
 	//
 	// DataObject operations
@@ -341,6 +562,25 @@ abstract public class Core_DataObjectMap extends Core_DataStructure<String, Data
 		return new Core_DataObject(this, soid, fullRemote, true);
 	}
 	
+	/**
+	 * Get a read only DataObject, wrapping the remote data map directly
+	 *
+	 * @param  object GUID to fetch
+	 *
+	 * @return the read only DataObject, null if not exists
+	 **/
+	@Override
+	public DataObject getReadOnly(String oid) {
+		if (oid == null || oid.isEmpty()) {
+			return null;
+		}
+		Map<String, Object> fullRemote = DataObjectRemoteDataMap_get(oid);
+		if (fullRemote == null) {
+			return null;
+		}
+		return new Core_ReadOnlyDataObject(oid, fullRemote);
+	}
+	
 	//--------------------------------------------------------------------------
 	//
 	// Constructor and maintenance
@@ -357,4 +597,334 @@ abstract public class Core_DataObjectMap extends Core_DataStructure<String, Data
 	public void maintenance() {
 		// Does nothing
 	}
+	
+	/**
+	 * Default time in milliseconds to keep removal tombstones for changedSince (7 days)
+	 **/
+	public static final long DEFAULT_TOMBSTONE_RETENTION = 7L * 24L * 60L * 60L * 1000L;
+	
+	/**
+	 * @return time in milliseconds to keep removal tombstones for changedSince,
+	 *         configured via `tombstoneRetention`
+	 **/
+	protected long tombstoneRetention() {
+		return configMap().getLong("tombstoneRetention", DEFAULT_TOMBSTONE_RETENTION);
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Blob store offloading support
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Default size threshold (in bytes / characters) of values to offload into the blob store
+	 **/
+	public static final int DEFAULT_BLOB_THRESHOLD = 1024 * 1024;
+	
+	/**
+	 * Pointer map key, used to reference an offloaded value in the blob store.
+	 *
+	 * This key is reserved while the blob store is configured, where saving a
+	 * map value containing it is rejected (see blobOffload).
+	 **/
+	public static final String BLOB_REF = "$blobRef";
+	
+	/**
+	 * Companion blob store, where oversized values are offloaded into. null if disabled
+	 **/
+	protected FileWorkspaceMap blobStore = null;
+	
+	/**
+	 * Size threshold of values to offload into the blob store
+	 **/
+	protected int blobThreshold = DEFAULT_BLOB_THRESHOLD;
+	
+	/**
+	 * Configure the companion blob store, where values above the size threshold are stored
+	 * (one workspace per object), and referenced by a small pointer map in the object.
+	 *
+	 * Note that offloaded values cannot be queried against.
+	 *
+	 * @param  inBlobStore to offload into, null to disable
+	 * @param  threshold size threshold (in bytes / characters) of values to offload
+	 **/
+	public void setBlobStore(FileWorkspaceMap inBlobStore, int threshold) {
+		blobStore = inBlobStore;
+		blobThreshold = Math.max(1, threshold);
+	}
+	
+	/**
+	 * @return the configured blob store, null if disabled
+	 **/
+	public FileWorkspaceMap getBlobStore() {
+		return blobStore;
+	}
+	
+	/**
+	 * @param  key of the value
+	 *
+	 * @return file name of the offloaded value, within the object workspace
+	 **/
+	protected static String blobFileName(String key) {
+		return StringEscape.encodeURI(key) + ".blob";
+	}
+	
+	/**
+	 * Checks if the stored value is a blob pointer, for the given key. Where the pointer
+	 * must reference the blob file of its own key (see blobFileName).
+	 *
+	 * @param  key of the value
+	 * @param  val stored value
+	 *
+	 * @return true if its a blob pointer
+	 **/
+	@SuppressWarnings("unchecked")
+	protected static boolean isBlobPointer(String key, Object val) {
+		if (!(val instanceof Map)) {
+			return false;
+		}
+		Object ref = ((Map<String, Object>) val).get(BLOB_REF);
+		return ref != null && blobFileName(key).equals(ref.toString());
+	}
+	
+	/**
+	 * Offload the oversized values into the blob store, with the pointer map
+	 * (and any non oversized values) returned for the actual backend storage.
+	 *
+	 * Blobs of keys which are no longer oversized, are removed. Where only keys which currently
+	 * store a blob pointer (see blobPointerKeys) are checked for removal.
+	 *
+	 * @param  oid of the object
+	 * @param  fullMap of values to update
+	 * @param  keys to update, null for all
+	 *
+	 * @return fullMap if the blob store is disabled, else a new map with the keys to update
+	 *
+	 * @throws IllegalArgumentException if a value is a map containing the reserved BLOB_REF key
+	 **/
+	protected Map<String, Object> blobOffload(String oid, Map<String, Object> fullMap,
+		Set<String> keys) {
+		if (blobStore == null) {
+			return fullMap;
+		}
+		if (keys == null) {
+			keys = fullMap.keySet();
+		}
+		
+		Map<String, Object> ret = new HashMap<String, Object>();
+		FileWorkspace workspace = null;
+		FileWorkspace existingWorkspace = null;
+		Set<String> pointerKeys = null;
+		for (String key : keys) {
+			Object val = fullMap.get(key);
+			
+			// User maps cannot contain the pointer key, else they would be read as a blob pointer
+			if (val instanceof Map && ((Map<?, ?>) val).containsKey(BLOB_REF)) {
+				throw new IllegalArgumentException("Map value of key '" + key
+					+ "' cannot contain the reserved key: " + BLOB_REF);
+			}
+			
+			// Get the blob payload, if its oversized (ignoring reserved keys)
+			String type = null;
+			byte[] payload = null;
+			if (val != null && !key.startsWith("_")) {
+				if (val instanceof byte[]) {
+					if (((byte[]) val).length > blobThreshold) {
+						type = "binary";
+						payload = (byte[]) val;
+					}
+				} else if (val instanceof String) {
+					if (((String) val).length() > blobThreshold) {
+						type = "string";
+						payload = StringConv.toByteArray((String) val, "UTF-8");
+					}
+				} else if (!(val instanceof Number) && !(val instanceof Boolean)) {
+					// Only serialized, if its estimated to be oversized
+					if (jsonLengthEstimate(val, blobThreshold) > blobThreshold) {
+						String json = ConvertJSON.fromObject(val);
+						if (json.length() > blobThreshold) {
+							type = "json";
+							payload = StringConv.toByteArray(json, "UTF-8");
+						}
+					}
+				}
+			}
+			
+			// Not oversized, remove its previous blob (if it was offloaded)
+			if (payload == null) {
+				ret.put(key, val);
+				if (key.startsWith("_")) {
+					continue;
+				}
+				if (pointerKeys == null) {
+					pointerKeys = blobPointerKeys(oid, keys);
+					if (!pointerKeys.isEmpty()) {
+						existingWorkspace = blobStore.get(oid);
+					}
+				}
+				if (existingWorkspace != null && pointerKeys.contains(key)
+					&& existingWorkspace.fileExist(blobFileName(key))) {
+					existingWorkspace.removeFile(blobFileName(key));
+				}
+				continue;
+			}
+			
+			// Write the blob, and store its pointer instead
+			if (workspace == null) {
+				workspace = blobStore.get(oid, true);
+			}
+			workspace.writeByteArray(blobFileName(key), payload);
+			
+			Map<String, Object> ref = new HashMap<String, Object>();
+			ref.put(BLOB_REF, blobFileName(key));
+			ref.put("type", type);
+			ref.put("size", payload.length);
+			ret.put(key, ref);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Gets the keys which currently store a blob pointer, amongst the given keys.
+	 *
+	 * The default implementation, fetches the stored object (where any lazy value is treated
+	 * as a possible blob pointer). Implementations should override this, to check the stored
+	 * values directly.
+	 *
+	 * @param  oid of the object
+	 * @param  keys to check
+	 *
+	 * @return set of keys with a blob pointer
+	 **/
+	protected Set<String> blobPointerKeys(String oid, Set<String> keys) {
+		return blobPointerKeys(DataObjectRemoteDataMap_get(oid), keys);
+	}
+	
+	/**
+	 * Gets the keys which are blob pointers (or lazy values) in the stored values
+	 *
+	 * @param  storedMap of the object, can be null
+	 * @param  keys to check
+	 *
+	 * @return set of keys with a blob pointer
+	 **/
+	protected static Set<String> blobPointerKeys(Map<String, Object> storedMap, Set<String> keys) {
+		Set<String> ret = new HashSet<String>();
+		if (storedMap == null) {
+			return ret;
+		}
+		for (String key : keys) {
+			Object val = storedMap.get(key);
+			if (val instanceof Core_LazyValue || isBlobPointer(key, val)) {
+				ret.add(key);
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Estimates the JSON length of a value, without serializing it (ignoring any escaping).
+	 * Where the estimate stops early, once it exceeds the limit.
+	 *
+	 * @param  val to estimate
+	 * @param  limit to stop at
+	 *
+	 * @return the estimated length, which is above the limit if it was exceeded
+	 **/
+	protected static long jsonLengthEstimate(Object val, long limit) {
+		if (val == null || val instanceof Boolean) {
+			return 5;
+		}
+		if (val instanceof Number) {
+			return val.toString().length();
+		}
+		if (val instanceof CharSequence) {
+			return ((CharSequence) val).length() + 2;
+		}
+		if (val instanceof Map) {
+			long ret = 2;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) val).entrySet()) {
+				ret += String.valueOf(entry.getKey()).length() + 4;
+				ret += jsonLengthEstimate(entry.getValue(), limit - ret);
+				if (ret > limit) {
+					return ret;
+				}
+			}
+			return ret;
+		}
+		if (val instanceof Collection) {
+			long ret = 2;
+			for (Object item : (Collection<?>) val) {
+				ret += jsonLengthEstimate(item, limit - ret) + 1;
+				if (ret > limit) {
+					return ret;
+				}
+			}
+			return ret;
+		}
+		// Other values (such as arrays) are serialized as per normal
+		return ConvertJSON.fromObject(val).length();
+	}
+	
+	/**
+	 * Replace the blob pointers in the remote data map, with lazy values
+	 * which loads the blob on its first access.
+	 *
+	 * @param  oid of the object
+	 * @param  remoteMap to dereference (in place), can be null
+	 *
+	 * @return the same remoteMap
+	 **/
+	protected Map<String, Object> blobDereference(String oid, Map<String, Object> remoteMap) {
+		if (blobStore == null || remoteMap == null) {
+			return remoteMap;
+		}
+		for (Map.Entry<String, Object> entry : remoteMap.entrySet()) {
+			Object val = entry.getValue();
+			if (!isBlobPointer(entry.getKey(), val)) {
+				continue;
+			}
+			Map<String, Object> ref = (Map<String, Object>) val;
+			entry.setValue(new Core_LazyValue(() -> blobLoad(oid, ref), GenericConvert.toLong(ref
+				.get("size"))));
+		}
+		return remoteMap;
+	}
+	
+	/**
+	 * Load the offloaded value from the blob store
+	 *
+	 * @param  oid of the object
+	 * @param  ref blob pointer map
+	 *
+	 * @return the value, null if the blob is missing
+	 **/
+	protected Object blobLoad(String oid, Map<String, Object> ref) {
+		FileWorkspace workspace = blobStore.get(oid, true);
+		byte[] payload = workspace.readByteArray(GenericConvert.toString(ref.get(BLOB_REF), null));
+		if (payload == null) {
+			return null;
+		}
+		String type = GenericConvert.toString(ref.get("type"), null);
+		if ("binary".equals(type)) {
+			return payload;
+		}
+		String str = StringConv.fromByteArray(payload, "UTF-8");
+		if ("json".equals(type)) {
+			return ConvertJSON.toObject(str);
+		}
+		return str;
+	}
+	
+	/**
+	 * Removes all blobs of the object (if any)
+	 *
+	 * @param  oid of the object
+	 **/
+	protected void blobRemove(String oid) {
+		if (blobStore != null) {
+			blobStore.remove(oid);
+		}
+	}
 }
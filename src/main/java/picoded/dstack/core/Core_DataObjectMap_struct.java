@@ -13,6 +13,7 @@ import java.util.Set;
 import picoded.core.conv.GenericConvert;
 import picoded.core.conv.NestedObjectUtil;
 import picoded.core.common.ObjectToken;
+import picoded.core.struct.GenericConvertMap;
 import picoded.core.struct.query.*;
 import picoded.dstack.*;
 
@@ -27,6 +28,111 @@ abstract public class Core_DataObjectMap_struct extends Core_DataObjectMap {
 	 */
 	protected abstract Map<String, Map<String, Object>> backendMap();
 	
+	/**
+	 * Number of object lock stripes
+	 **/
+	protected static final int OBJECT_LOCK_STRIPES = 64;
+	
+	/**
+	 * Object lock stripes, see objectLocks()
+	 **/
+	protected final Object[] _objectLocks = newObjectLocks();
+	
+	/**
+	 * @return new object lock stripes
+	 */
+	protected static Object[] newObjectLocks() {
+		Object[] ret = new Object[OBJECT_LOCK_STRIPES];
+		for (int i = 0; i < OBJECT_LOCK_STRIPES; ++i) {
+			ret[i] = new Object();
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return Object lock stripes, used to serialize the update (or removal) of each object ID,
+	 *         together with its key index, secondary index and change feed updates.
+	 *         This is to be shared by all instances which share the same backend map.
+	 */
+	protected Object[] objectLocks() {
+		return _objectLocks;
+	}
+	
+	/**
+	 * @return the lock stripe of the object ID
+	 */
+	protected Object objectLock(String oid) {
+		Object[] locks = objectLocks();
+		return locks[(oid.hashCode() & 0x7fffffff) % locks.length];
+	}
+	
+	/**
+	 * In memory key index, used for random object selection
+	 **/
+	protected Core_KeyIndex _keyIndex = new Core_KeyIndex();
+	
+	/**
+	 * @return In memory key index of the backend map, used for random object selection.
+	 *         null if not supported, where random selection falls back to the keySet.
+	 */
+	protected Core_KeyIndex keyIndex() {
+		return _keyIndex;
+	}
+	
+	/**
+	 * In memory change index, used for changedSince
+	 **/
+	protected Core_ChangeIndex _changeIndex = new Core_ChangeIndex();
+	
+	/**
+	 * @return In memory change index of the backend map, used for changedSince.
+	 *         null if not supported, where recordChange and changedSince are to be overwritten.
+	 */
+	protected Core_ChangeIndex changeIndex() {
+		return _changeIndex;
+	}
+	
+	/**
+	 * In memory secondary index, used for queries (built on first use)
+	 **/
+	protected volatile Core_StructIndex _structIndex = null;
+	
+	/**
+	 * @return In memory secondary index of the backend map, used for queries.
+	 *         null if not supported, or if there is no configured `index` / `sortedIndex` keys,
+	 *         where queries falls back to a full scan.
+	 */
+	protected Core_StructIndex structIndex() {
+		if (_structIndex == null) {
+			synchronized (this) {
+				if (_structIndex == null) {
+					_structIndex = newStructIndex();
+				}
+			}
+		}
+		return _structIndex.isEmpty() ? null : _structIndex;
+	}
+	
+	/**
+	 * Builds the secondary index, from the `index` (hash) and `sortedIndex` keys configured.
+	 * Indexing any objects already in the backend map.
+	 *
+	 * @return the secondary index
+	 */
+	protected Core_StructIndex newStructIndex() {
+		Core_StructIndex ret = new Core_StructIndex( //
+			configMap().getStringArray("index", "[]"), //
+			configMap().getStringArray("sortedIndex", "[]") //
+		);
+		if (!ret.isEmpty()) {
+			Map<String, Map<String, Object>> backend = backendMap();
+			for (String oid : backend.keySet()) {
+				ret.reindex(oid, backend);
+			}
+		}
+		return ret;
+	}
+	
 	//--------------------------------------------------------------------------
 	//
 	// Backend system setup / teardown / maintenance (DStackCommon)
@@ -39,6 +145,32 @@ abstract public class Core_DataObjectMap_struct extends Core_DataObjectMap {
 	@Override
 	public void clear() {
 		backendMap().clear();
+		
+		Core_KeyIndex index = keyIndex();
+		if (index != null) {
+			index.clear();
+		}
+		
+		Core_ChangeIndex changes = changeIndex();
+		if (changes != null) {
+			changes.clear();
+		}
+		
+		Core_StructIndex secondary = structIndex();
+		if (secondary != null) {
+			secondary.clear();
+		}
+	}
+	
+	/**
+	 * Maintenance step call, removing expired tombstones from the change index
+	 **/
+	@Override
+	public void maintenance() {
+		Core_ChangeIndex changes = changeIndex();
+		if (changes != null) {
+			changes.purgeTombstones(System.currentTimeMillis() - tombstoneRetention());
+		}
 	}
 	
 	//--------------------------------------------------------------------------
@@ -58,12 +190,35 @@ abstract public class Core_DataObjectMap_struct extends Core_DataObjectMap {
 	 * @return  nothing
 	 **/
 	public void DataObjectRemoteDataMap_remove(String oid) {
-		backendMap().remove(oid);
+		// The removal and its index / change feed updates, are done as a single step per object
+		synchronized (objectLock(oid)) {
+			backendMap().remove(oid);
+			
+			Core_KeyIndex index = keyIndex();
+			if (index != null) {
+				index.remove(oid);
+			}
+			
+			Core_StructIndex secondary = structIndex();
+			if (secondary != null) {
+				secondary.reindex(oid, backendMap());
+			}
+			
+			// Tombstone for the change feed
+			recordChange(oid, true);
+		}
+		
+		// And its offloaded blobs
+		blobRemove(oid);
 	}
 	
 	/**
 	 * Gets the complete remote data map, for DataObject.
 	 * 
+	 * Only the top level map is copied, where its nested values are shared with the stored
+	 * value. As stored values are never modified in place, and DataObject only hands out
+	 * copy on write views of them (see Core_CopyOnWrite).
+	 * 
 	 * @param  ObjectID to get
 	 * 
 	 * @return null if not exists
@@ -73,7 +228,20 @@ abstract public class Core_DataObjectMap_struct extends Core_DataObjectMap {
 		if (storedValue == null) {
 			return null;
 		}
-		return (Map<String, Object>) deepCopy(storedValue);
+		return blobDereference(oid, new HashMap<String, Object>(storedValue));
+	}
+	
+	/**
+	 * Gets the keys which currently store a blob pointer, from the stored values directly
+	 *
+	 * @param  oid of the object
+	 * @param  keys to check
+	 *
+	 * @return set of keys with a blob pointer
+	 **/
+	@Override
+	protected Set<String> blobPointerKeys(String oid, Set<String> keys) {
+		return blobPointerKeys(backendMap().get(oid), keys);
 	}
 	
 	/**
@@ -92,13 +260,79 @@ abstract public class Core_DataObjectMap_struct extends Core_DataObjectMap {
 			keys = fullMap.keySet();
 		}
 		
-		// Makes a new map if needed
+		// Offload oversized values into the blob store (if configured)
+		fullMap = blobOffload(oid, fullMap, keys);
+		
+		// The update and its index / change feed updates, are done as a single step per object
+		synchronized (objectLock(oid)) {
+			// Store the values
+			backendMapUpdate(oid, fullMap, keys);
+			
+			// And indexed
+			Core_KeyIndex index = keyIndex();
+			if (index != null) {
+				index.add(oid);
+			}
+			
+			Core_StructIndex secondary = structIndex();
+			if (secondary != null) {
+				secondary.reindex(oid, backendMap());
+			}
+			
+			// And recorded for the change feed
+			recordChange(oid, false);
+		}
+	}
+	
+	/**
+	 * Removes a stale key from the key index, if the object does not exist (within its lock)
+	 *
+	 * @param  index to remove from
+	 * @param  oid   stale object ID
+	 **/
+	protected void removeStaleKey(Core_KeyIndex index, String oid) {
+		synchronized (objectLock(oid)) {
+			if (!backendMap().containsKey(oid)) {
+				index.remove(oid);
+			}
+		}
+	}
+	
+	/**
+	 * Stores the updated values, into the backend map
+	 * 
+	 * The updated values are applied on a new copy of the stored value map, which then
+	 * replaces it. As the stored value map may be concurrently read (without the object lock)
+	 * by DataObjectRemoteDataMap_get, and hence is never modified in place.
+	 * 
+	 * @param  ObjectID to update
+	 * @param  fullMap of values to apply update (after blob offloading)
+	 * @param  keys of parameters to update
+	 **/
+	protected void backendMapUpdate(String oid, Map<String, Object> fullMap, Set<String> keys) {
+		// Copy of the stored values (if any)
+		Map<String, Object> newValue = _newBlankStorageMap();
 		Map<String, Object> storedValue = backendMap().get(oid);
-		if (storedValue == null) {
-			storedValue = _newBlankStorageMap();
+		if (storedValue != null) {
+			newValue.putAll(storedValue);
 		}
 		
 		// Get and store the required values
+		applyValues(newValue, fullMap, keys);
+		
+		// Replaces the stored value map
+		backendMap().put(oid, newValue);
+	}
+	
+	/**
+	 * Applies the updated values, into the stored value map (removing null values)
+	 * 
+	 * @param  storedValue map to update
+	 * @param  fullMap of values to apply update
+	 * @param  keys of parameters to update
+	 **/
+	protected static void applyValues(Map<String, Object> storedValue, Map<String, Object> fullMap,
+		Set<String> keys) {
 		for (String key : keys) {
 			Object val = fullMap.get(key);
 			if (val == null) {
@@ -107,9 +341,6 @@ abstract public class Core_DataObjectMap_struct extends Core_DataObjectMap {
 				storedValue.put(key, val);
 			}
 		}
-		
-		// Ensure the value map is stored
-		backendMap().put(oid, storedValue);
 	}
 	
 	/**
@@ -138,4 +369,328 @@ abstract public class Core_DataObjectMap_struct extends Core_DataObjectMap {
 		return backendMap().keySet();
 	}
 	
-}
\ No newline at end of file
+	//--------------------------------------------------------------------------
+	//
+	// Query support
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Gets the unsorted list of DataObjects matching the query, using the secondary index
+	 * for conjunctive queries on an indexed key. Where only the candidates from the index
+	 * are tested against the query, instead of a full scan.
+	 *
+	 * @param   queryClause, of where query statement and value, null gets all
+	 *
+	 * @return  The list of DataObjects
+	 **/
+	@Override
+	protected List<DataObject> queryList(Query queryClause) {
+		Core_StructIndex secondary = structIndex();
+		Core_StructIndex.Plan plan = (secondary != null) ? secondary.plan(queryClause) : null;
+		if (plan == null) {
+			return super.queryList(queryClause);
+		}
+		return candidateList(queryClause, plan.candidates);
+	}
+	
+	/**
+	 * Gets the list of candidate DataObjects, which matches the query
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   candidates object ID's to test
+	 *
+	 * @return  The list of DataObjects
+	 **/
+	protected List<DataObject> candidateList(Query queryClause, Set<String> candidates) {
+		List<DataObject> ret = new ArrayList<DataObject>();
+		for (String oid : candidates) {
+			DataObject obj = get(oid);
+			if (obj == null) {
+				// Stale index entry (such as cache eviction)
+				structIndex().reindex(oid, backendMap());
+			} else if (queryClause.test(obj)) {
+				ret.add(obj);
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Performs a search query, and returns the respective DataObject keys.
+	 *
+	 * When ordered by a single sorted index key, with a limit, and no index can be used
+	 * for the query itself, the sorted index is iterated in order. Stopping once the
+	 * limit is reached, instead of sorting the full result.
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The String[] array
+	 **/
+	@Override
+	public String[] query_id(Query queryClause, String orderByStr, int offset, int limit) {
+		List<String> ret = orderedQuery(queryClause, orderByStr, offset, limit);
+		if (ret == null) {
+			return super.query_id(queryClause, orderByStr, offset, limit);
+		}
+		return ret.toArray(new String[0]);
+	}
+	
+	/**
+	 * Performs the query by iterating the sorted index, if possible
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   orderByStr string to sort the order by
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max
+	 *
+	 * @return  The list of object ID's, null if the sorted index cannot be used
+	 **/
+	protected List<String> orderedQuery(Query queryClause, String orderByStr, int offset, int limit) {
+		Core_StructIndex secondary = structIndex();
+		if (secondary == null || orderByStr == null || limit < 1) {
+			return null;
+		}
+		
+		// Single key order by, with an optional ASC / DESC
+		String[] orderBy = orderByStr.trim().split("\\s+");
+		boolean desc = orderBy.length == 2 && orderBy[1].equalsIgnoreCase("DESC");
+		if (orderBy.length > 2
+			|| (orderBy.length == 2 && !desc && !orderBy[1].equalsIgnoreCase("ASC"))) {
+			return null;
+		}
+		
+		// Prefer the index of the query itself, if any
+		if (secondary.plan(queryClause) != null) {
+			return null;
+		}
+		
+		Map<String, Map<String, Object>> backend = backendMap();
+		Iterable<String> ordered = secondary.orderedIDs(orderBy[0], desc, backend.size());
+		if (ordered == null) {
+			return null;
+		}
+		
+		// Iterate in order, till the limit is reached
+		List<String> ret = new ArrayList<String>();
+		int skip = Math.max(0, offset);
+		for (String oid : ordered) {
+			if (queryClause != null) {
+				DataObject obj = get(oid);
+				if (obj == null || !queryClause.test(obj)) {
+					continue;
+				}
+			} else if (!backend.containsKey(oid)) {
+				continue;
+			}
+			if (skip > 0) {
+				--skip;
+				continue;
+			}
+			ret.add(oid);
+			if (ret.size() >= limit) {
+				break;
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Explains how a search query is performed, reporting the secondary index used (if any)
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The explanation map
+	 **/
+	@Override
+	public GenericConvertMap<String, Object> explain(Query queryClause, String orderByStr,
+		int offset, int limit) {
+		Core_StructIndex secondary = structIndex();
+		if (secondary == null) {
+			return super.explain(queryClause, orderByStr, offset, limit);
+		}
+		GenericConvertMap<String, Object> ret = explainSetup(queryClause);
+		
+		// The index to use
+		long start = System.nanoTime();
+		Core_StructIndex.Plan plan = secondary.plan(queryClause);
+		List<String> indexes = new ArrayList<String>();
+		if (plan != null) {
+			indexes.add(plan.key);
+			ret.put("indexType", plan.type);
+		}
+		ret.put("indexes", indexes);
+		ret.put("planTime", (System.nanoTime() - start) / 1000000.0);
+		
+		// Execute the query
+		start = System.nanoTime();
+		List<DataObject> retList = (plan != null) ? candidateList(queryClause, plan.candidates)
+			: super.queryList(queryClause);
+		retList = sortAndOffsetList(retList, orderByStr, offset, limit);
+		ret.put("executeTime", (System.nanoTime() - start) / 1000000.0);
+		
+		ret.put("strategy", (plan != null) ? "index" : "scan");
+		ret.put("rowsExamined", (plan != null) ? plan.candidates.size() : size());
+		ret.put("resultCount", retList.size());
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Random selection support
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Number of stale keys (removed from the backend without going through this class,
+	 * such as cache eviction) to skip, before the key index is rebuilt
+	 **/
+	protected static final int STALE_KEY_RETRY = 8;
+	
+	/**
+	 * Gets and return a random object ID, in O(1) using the key index
+	 *
+	 * @return  Random object ID
+	 **/
+	@Override
+	public String randomObjectID() {
+		Core_KeyIndex index = keyIndex();
+		if (index == null) {
+			return super.randomObjectID();
+		}
+		
+		// Get a random key, skipping (and removing) stale keys
+		Map<String, Map<String, Object>> backend = backendMap();
+		for (int i = 0; i < STALE_KEY_RETRY; ++i) {
+			String oid = index.random();
+			if (oid == null || backend.containsKey(oid)) {
+				return oid;
+			}
+			removeStaleKey(index, oid);
+		}
+		
+		// Too many stale keys, rebuild the index
+		index.rebuild(backend.keySet());
+		return index.random();
+	}
+	
+	/**
+	 * Gets and return up to n distinct random object ID's, in O(n) using the key index
+	 *
+	 * @param  n number of object ID's to return
+	 *
+	 * @return  Random object ID's
+	 **/
+	@Override
+	public String[] randomSample(int n) {
+		Core_KeyIndex index = keyIndex();
+		if (index == null) {
+			return super.randomSample(n);
+		}
+		
+		// Get the sample, filtering out (and removing) stale keys
+		Map<String, Map<String, Object>> backend = backendMap();
+		List<String> ret = new ArrayList<String>();
+		int stale = 0;
+		for (String oid : index.randomSample(n)) {
+			if (backend.containsKey(oid)) {
+				ret.add(oid);
+			} else {
+				removeStaleKey(index, oid);
+				stale++;
+			}
+		}
+		
+		// Too many stale keys, rebuild the index and resample
+		if (stale > 0 && ret.size() < n && stale >= STALE_KEY_RETRY) {
+			index.rebuild(backend.keySet());
+			return index.randomSample(n).toArray(new String[0]);
+		}
+		return ret.toArray(new String[0]);
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Ordered iteration support
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Gets and return the next object ID key for iteration given the current ID,
+	 * in O(log n) using the sorted key index.
+	 *
+	 * Unlike the default implementation, if the current ID was removed mid iteration,
+	 * the iteration continues with the next ID in sorted order.
+	 *
+	 * @param   currentID, use NULL to get the first ID
+	 *
+	 * @return  Next object ID, if found, null if iteration is complete
+	 **/
+	@Override
+	public String looselyIterateObjectID(String currentID) {
+		Core_KeyIndex index = keyIndex();
+		if (index == null) {
+			return super.looselyIterateObjectID(currentID);
+		}
+		
+		// Get the next key, skipping (and removing) stale keys
+		Map<String, Map<String, Object>> backend = backendMap();
+		String oid = currentID;
+		for (int i = 0; i < STALE_KEY_RETRY; ++i) {
+			oid = index.higher(oid);
+			if (oid == null || backend.containsKey(oid)) {
+				return oid;
+			}
+			removeStaleKey(index, oid);
+		}
+		
+		// Too many stale keys, rebuild the index
+		index.rebuild(backend.keySet());
+		return index.higher(oid);
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Change feed support
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Records the change of an object, for changedSince
+	 *
+	 * @param  oid      object ID which changed
+	 * @param  removed  true, if the object was removed
+	 **/
+	protected void recordChange(String oid, boolean removed) {
+		Core_ChangeIndex changes = changeIndex();
+		if (changes != null) {
+			changes.record(oid, System.currentTimeMillis(), removed);
+		}
+	}
+	
+	/**
+	 * Gets the objects which changed (updated, or removed) since the given timestamp,
+	 * in update order, using the change index in O(log n + limit).
+	 *
+	 * @param  timestamp in milliseconds to get changes from (inclusive), ignored if cursor is given
+	 * @param  limit     max number of changes to return, use -1 to ignore
+	 * @param  cursor    of the last change read (exclusive), can be null
+	 *
+	 * @return  list of changes, in update order
+	 **/
+	@Override
+	public List<DataObjectChange> changedSince(long timestamp, int limit, String cursor) {
+		Core_ChangeIndex changes = changeIndex();
+		if (changes == null) {
+			return super.changedSince(timestamp, limit, cursor);
+		}
+		return changes.changedSince(timestamp, limit, cursor);
+	}
+	
+}
@@ -85,6 +85,11 @@ public enum Core_DataType {
 	 * explitcitely requested for.
 	 **/
 	BINARY(33),
+	/**
+	 * Packed type, nested values (map / list) stored in a compact binary format
+	 * (see Core_BinaryCodec), used in place of JSON where supported
+	 **/
+	PACKED(34),
 	
 	//
 	// Array based, varients of above
@@ -0,0 +1,308 @@
+package picoded.dstack.core;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * In memory index of the object keys, for struct based data structures.
+ *
+ * Keys are split into lock stripes by their hash. Where each stripe keeps its keys in an
+ * array list, with a key to position mapping, and removal is done by swapping the last key
+ * into the removed position. Allowing add, remove, and random selection of keys in O(1),
+ * and random sampling of n keys in O(n + stripes).
+ *
+ * Keys are also kept in a concurrent sorted set, allowing ordered iteration
+ * of keys in O(log n) per step (see `higher`).
+ *
+ * Modifying calls only lock the stripe of the key, and are kept to short critical sections.
+ * Random selection and ordered lookups are weakly consistent, against concurrent changes.
+ **/
+public class Core_KeyIndex {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Index storage
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Number of lock stripes
+	 **/
+	protected static final int STRIPES = 64;
+	
+	/**
+	 * Keys of a single stripe, all access is synchronized on the stripe
+	 **/
+	protected static class Stripe {
+		
+		/**
+		 * List of keys, in no particular order
+		 **/
+		protected final ArrayList<String> keyList = new ArrayList<String>();
+		
+		/**
+		 * Key to its position in keyList
+		 **/
+		protected final HashMap<String, Integer> keyPosition = new HashMap<String, Integer>();
+		
+		/**
+		 * Number of keys, readable without the stripe lock
+		 **/
+		protected volatile int size = 0;
+	}
+	
+	/**
+	 * Stripes, by key hash
+	 **/
+	protected final Stripe[] stripes = new Stripe[STRIPES];
+	
+	/**
+	 * Keys in sorted order, for ordered iteration
+	 **/
+	protected final ConcurrentSkipListSet<String> sortedKeys = new ConcurrentSkipListSet<String>();
+	
+	/**
+	 * Setup the index
+	 **/
+	public Core_KeyIndex() {
+		for (int i = 0; i < STRIPES; ++i) {
+			stripes[i] = new Stripe();
+		}
+	}
+	
+	/**
+	 * @return the stripe of the key
+	 **/
+	protected Stripe stripe(String key) {
+		return stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Index maintenance
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Adds the key into the index, does nothing if it already exists
+	 *
+	 * @param  key to add
+	 *
+	 * @return true, if the key was added
+	 **/
+	public boolean add(String key) {
+		if (key == null) {
+			return false;
+		}
+		Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			if (stripe.keyPosition.containsKey(key)) {
+				return false;
+			}
+			stripe.keyPosition.put(key, stripe.keyList.size());
+			stripe.keyList.add(key);
+			stripe.size = stripe.keyList.size();
+			sortedKeys.add(key);
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes the key from the index, does nothing if it does not exists
+	 *
+	 * @param  key to remove
+	 *
+	 * @return true, if the key was removed
+	 **/
+	public boolean remove(String key) {
+		if (key == null) {
+			return false;
+		}
+		Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			Integer pos = stripe.keyPosition.remove(key);
+			if (pos == null) {
+				return false;
+			}
+			sortedKeys.remove(key);
+			
+			// Swap the last key into the removed position
+			int lastPos = stripe.keyList.size() - 1;
+			String lastKey = stripe.keyList.remove(lastPos);
+			if (pos != lastPos) {
+				stripe.keyList.set(pos, lastKey);
+				stripe.keyPosition.put(lastKey, pos);
+			}
+			stripe.size = stripe.keyList.size();
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes all keys from the index, note that this is not atomic against concurrent adds
+	 **/
+	public void clear() {
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				for (String key : stripe.keyList) {
+					sortedKeys.remove(key);
+				}
+				stripe.keyList.clear();
+				stripe.keyPosition.clear();
+				stripe.size = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Rebuilds the index, from the given collection of keys
+	 *
+	 * @param  keys to rebuild the index with
+	 **/
+	public void rebuild(Collection<String> keys) {
+		clear();
+		for (String key : keys) {
+			add(key);
+		}
+	}
+	
+	/**
+	 * @return number of keys in the index
+	 **/
+	public int size() {
+		int ret = 0;
+		for (Stripe stripe : stripes) {
+			ret += stripe.size;
+		}
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Random selection
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Gets the key at the given position, across all stripes (using the given stripe sizes)
+	 *
+	 * @param  sizes of each stripe
+	 * @param  pos   position across all stripes
+	 *
+	 * @return the key, null if the stripe has since shrunk
+	 **/
+	protected String keyAt(int[] sizes, int pos) {
+		for (int i = 0; i < STRIPES; ++i) {
+			if (pos < sizes[i]) {
+				Stripe stripe = stripes[i];
+				synchronized (stripe) {
+					return (pos < stripe.keyList.size()) ? stripe.keyList.get(pos) : null;
+				}
+			}
+			pos -= sizes[i];
+		}
+		return null;
+	}
+	
+	/**
+	 * @return the current size of each stripe
+	 **/
+	protected int[] stripeSizes() {
+		int[] ret = new int[STRIPES];
+		for (int i = 0; i < STRIPES; ++i) {
+			ret[i] = stripes[i].size;
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return a random key, null if the index is empty
+	 **/
+	public String random() {
+		// Retried, in case the chosen stripe shrunk concurrently
+		for (int tries = 0; tries < 3; ++tries) {
+			int[] sizes = stripeSizes();
+			int total = 0;
+			for (int size : sizes) {
+				total += size;
+			}
+			if (total <= 0) {
+				return null;
+			}
+			String ret = keyAt(sizes, ThreadLocalRandom.current().nextInt(total));
+			if (ret != null) {
+				return ret;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Gets n distinct random keys, or all keys (in random order) if there is less then n keys.
+	 *
+	 * This is done using a partial Fisher-Yates shuffle of the positions across all stripes,
+	 * where the swaps are tracked separately. Without modifying the index itself.
+	 * Keys removed concurrently may result in less then n keys.
+	 *
+	 * @param  n number of keys to get
+	 *
+	 * @return list of random keys
+	 **/
+	public List<String> randomSample(int n) {
+		int[] sizes = stripeSizes();
+		int size = 0;
+		for (int stripeSize : sizes) {
+			size += stripeSize;
+		}
+		int count = Math.min(Math.max(n, 0), size);
+		Set<String> ret = new LinkedHashSet<String>();
+		
+		// Virtual swaps, of position to the key position swapped into it
+		Map<Integer, Integer> swapped = new HashMap<Integer, Integer>();
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		for (int i = 0; i < count; ++i) {
+			int j = i + rand.nextInt(size - i);
+			Integer jPos = swapped.get(j);
+			Integer iPos = swapped.get(i);
+			String key = keyAt(sizes, (jPos != null) ? jPos : j);
+			if (key != null) {
+				ret.add(key);
+			}
+			swapped.put(j, (iPos != null) ? iPos : i);
+		}
+		return new ArrayList<String>(ret);
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Ordered iteration
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Gets the next key in sorted order, in O(log n). This is lock free.
+	 *
+	 * @param  key to get the next key from (exclusive), null for the first key
+	 *
+	 * @return the next key, null if there is none
+	 **/
+	public String higher(String key) {
+		if (key == null) {
+			try {
+				return sortedKeys.first();
+			} catch (NoSuchElementException e) {
+				return null;
+			}
+		}
+		return sortedKeys.higher(key);
+	}
+}
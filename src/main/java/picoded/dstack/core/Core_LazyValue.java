@@ -0,0 +1,74 @@
+package picoded.dstack.core;
+
+// Java imports
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Placeholder for a large value within a remote data map, which is not loaded yet.
+ *
+ * This is used by backends which support lazy loading of large values (such as JSql), where
+ * only the value size is fetched with the rest of the object. And the actual value is loaded
+ * on its first access via Core_DataObject.get.
+ *
+ * NOTE: This should never be exposed outside of the remote data map, or stored into a backend.
+ *       Use `resolveAll` when passing a remote data map across data layers.
+ **/
+public class Core_LazyValue {
+	
+	/**
+	 * Loader of the actual value
+	 **/
+	protected final Supplier<Object> loader;
+	
+	/**
+	 * Size of the value (in bytes, or characters), as reported by the backend
+	 **/
+	protected final long size;
+	
+	/**
+	 * Setup the lazy value
+	 *
+	 * @param  loader of the actual value
+	 * @param  size of the value, as reported by the backend
+	 **/
+	public Core_LazyValue(Supplier<Object> loader, long size) {
+		this.loader = loader;
+		this.size = size;
+	}
+	
+	/**
+	 * @return size of the value, as reported by the backend
+	 **/
+	public long size() {
+		return size;
+	}
+	
+	/**
+	 * Loads the actual value from the backend, note that this is not cached
+	 *
+	 * @return the actual value
+	 **/
+	public Object load() {
+		return loader.get();
+	}
+	
+	/**
+	 * Loads all lazy values within the map (in place)
+	 *
+	 * @param  map to resolve, can be null
+	 *
+	 * @return the same map
+	 **/
+	public static Map<String, Object> resolveAll(Map<String, Object> map) {
+		if (map == null) {
+			return null;
+		}
+		for (Map.Entry<String, Object> entry : map.entrySet()) {
+			if (entry.getValue() instanceof Core_LazyValue) {
+				entry.setValue(((Core_LazyValue) entry.getValue()).load());
+			}
+		}
+		return map;
+	}
+}
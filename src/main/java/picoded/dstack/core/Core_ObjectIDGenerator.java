@@ -0,0 +1,55 @@
+package picoded.dstack.core;
+
+// Picoded imports
+import picoded.core.conv.GUID;
+
+/**
+ * Object ID generation strategy, used by DataObjectMap for new objects.
+ *
+ * The following strategies are provided, and can be configured by name
+ * via the DataObjectMap `oidGenerator` config
+ *
+ * + random      : fully random base58 GUID (default)
+ * + timeOrdered : time prefixed, lexicographically sortable, base58 ID (see Core_TimeOrderedID)
+ **/
+@FunctionalInterface
+public interface Core_ObjectIDGenerator {
+	
+	/**
+	 * @return a new object ID
+	 **/
+	String generate();
+	
+	//--------------------------------------------------------------------------
+	//
+	// Named strategies
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Fully random base58 GUID
+	 **/
+	Core_ObjectIDGenerator RANDOM = GUID::base58;
+	
+	/**
+	 * Time prefixed, lexicographically sortable, base58 ID
+	 **/
+	Core_ObjectIDGenerator TIME_ORDERED = Core_TimeOrderedID::generate;
+	
+	/**
+	 * Gets the generator strategy by its name
+	 *
+	 * @param  name of the strategy, either "random" or "timeOrdered" (case insensitive), null for random
+	 *
+	 * @return the generator
+	 **/
+	static Core_ObjectIDGenerator fromName(String name) {
+		if (name == null || name.isEmpty() || name.equalsIgnoreCase("random")) {
+			return RANDOM;
+		}
+		if (name.equalsIgnoreCase("timeOrdered")) {
+			return TIME_ORDERED;
+		}
+		throw new IllegalArgumentException("Unknown object ID generator : " + name);
+	}
+}
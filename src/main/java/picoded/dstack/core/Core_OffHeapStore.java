@@ -0,0 +1,917 @@
+package picoded.dstack.core;
+
+// Java imports
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Off heap key to value store, of raw bytes with an expiry timestamp. Used by the struct
+ * based off heap data structures, to keep large numbers of small entries out of the java heap
+ * (and hence out of the GC scanning cost).
+ *
+ * The store is split into segments by the key hash, where each segment has its own read/write lock,
+ * slabs and hash index. Both of which are direct ByteBuffer's. Reads only use absolute positions
+ * (or a duplicate view of the buffer), so that they can run concurrently with each other.
+ *
+ * + slabs : append only entries, of (int keyLength, int valueLength, long expiry, key, value)
+ * + index : open addressing (linear probing) slots, of (int hash, long entry address)
+ *
+ * Overwritten or removed entries are marked as dead in their header. Slabs which has enough
+ * dead entries are compacted in place, when space is needed. Updates of the same value length
+ * (such as the expiry, or long values) are done in place, without allocating a new entry.
+ *
+ * Slab and index memory is accounted against a MemoryBudget, which can be shared across
+ * multiple stores. Writes which cannot fit within the budget (after compaction) throws an
+ * IllegalStateException.
+ **/
+public class Core_OffHeapStore {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Format constants
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Entry header size : int keyLength, int valueLength, long expiry
+	 **/
+	protected static final int HEADER_SIZE = 16;
+	
+	/**
+	 * Index slot size : int hash, long address (0 means empty)
+	 **/
+	protected static final int SLOT_SIZE = 12;
+	
+	/**
+	 * Initial number of index slots per segment, must be a power of 2
+	 **/
+	protected static final int INITIAL_SLOTS = 1024;
+	
+	/**
+	 * Default slab size, and segment count
+	 **/
+	public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+	public static final int DEFAULT_SEGMENTS = 16;
+	
+	//--------------------------------------------------------------------------
+	//
+	// Memory budget, and entry
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Off heap memory limit, which can be shared across multiple stores
+	 **/
+	public static class MemoryBudget {
+		
+		/**
+		 * Maximum memory in bytes, 0 means no limit
+		 **/
+		protected final long maxMemory;
+		
+		/**
+		 * Memory currently allocated in bytes
+		 **/
+		protected long usedMemory = 0;
+		
+		/**
+		 * @param  maxMemory in bytes, 0 means no limit
+		 **/
+		public MemoryBudget(long maxMemory) {
+			this.maxMemory = Math.max(0, maxMemory);
+		}
+		
+		/**
+		 * @return maximum memory in bytes, 0 means no limit
+		 **/
+		public long maxMemory() {
+			return maxMemory;
+		}
+		
+		/**
+		 * @return memory currently allocated in bytes
+		 **/
+		public synchronized long usedMemory() {
+			return usedMemory;
+		}
+		
+		/**
+		 * Reserve the given amount of memory, if it is within the limit
+		 *
+		 * @return true if reserved
+		 **/
+		protected synchronized boolean reserve(long bytes) {
+			if (maxMemory > 0 && usedMemory + bytes > maxMemory) {
+				return false;
+			}
+			usedMemory += bytes;
+			return true;
+		}
+		
+		/**
+		 * Release the given amount of reserved memory
+		 **/
+		protected synchronized void release(long bytes) {
+			usedMemory -= bytes;
+		}
+	}
+	
+	/**
+	 * A single entry, as read from (or to be written into) the store
+	 **/
+	public static class Entry {
+		public final byte[] key;
+		public final byte[] value;
+		public final long expiry;
+		
+		/**
+		 * @param  key     bytes
+		 * @param  value   bytes
+		 * @param  expiry  timestamp in milliseconds, 0 means no expiry
+		 **/
+		public Entry(byte[] key, byte[] value, long expiry) {
+			this.key = key;
+			this.value = value;
+			this.expiry = (expiry > 0) ? expiry : 0;
+		}
+		
+		/**
+		 * @return true if the entry is still valid at the given timestamp
+		 **/
+		public boolean isValid(long now) {
+			return expiry == 0 || expiry >= now;
+		}
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Constructor
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Memory budget used for slabs and index
+	 **/
+	protected final MemoryBudget budget;
+	
+	/**
+	 * Slab size in bytes
+	 **/
+	protected final int slabSize;
+	
+	/**
+	 * Segments of the store, by the key hash
+	 **/
+	protected final Segment[] segments;
+	
+	/**
+	 * Setup the store
+	 *
+	 * @param  budget        memory budget to allocate against
+	 * @param  slabSize      size of each slab in bytes
+	 * @param  segmentCount  number of segments (rounded up to a power of 2)
+	 **/
+	public Core_OffHeapStore(MemoryBudget budget, int slabSize, int segmentCount) {
+		this.budget = budget;
+		this.slabSize = Math.max(HEADER_SIZE, slabSize);
+		int count = 1;
+		while (count < segmentCount && count < 256) {
+			count <<= 1;
+		}
+		segments = new Segment[count];
+		for (int i = 0; i < count; ++i) {
+			segments[i] = new Segment();
+		}
+	}
+	
+	/**
+	 * Setup the store, without a memory limit, and the default slab size / segment count
+	 **/
+	public Core_OffHeapStore() {
+		this(new MemoryBudget(0), DEFAULT_SLAB_SIZE, DEFAULT_SEGMENTS);
+	}
+	
+	/**
+	 * @return the memory budget used
+	 **/
+	public MemoryBudget budget() {
+		return budget;
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Store operations
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Hash of the key bytes, with its bits mixed (murmur3 finalizer)
+	 **/
+	protected static int hash(byte[] key) {
+		int h = 1;
+		for (byte b : key) {
+			h = 31 * h + b;
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+	
+	/**
+	 * @return the segment of the given hash (using its high bits, as slots uses the low bits)
+	 **/
+	protected Segment segment(int hash) {
+		return segments[(hash >>> 24) & (segments.length - 1)];
+	}
+	
+	/**
+	 * Returns the entry of the key
+	 *
+	 * @param  key  bytes
+	 * @param  now  timestamp, 0 = no timestamp so skip expiry checks
+	 *
+	 * @return entry if found and valid, else null
+	 **/
+	public Entry get(byte[] key, long now) {
+		int hash = hash(key);
+		return segment(hash).get(key, hash, now);
+	}
+	
+	/**
+	 * Atomically computes the new entry of the key, from its current entry
+	 *
+	 * The function is called within the segment write lock, and should not call the store.
+	 * Where it returns the new entry (the same entry for no change), or null for removal.
+	 *
+	 * @param  key  bytes
+	 * @param  now  timestamp, entries expired by then are passed as null
+	 * @param  fn   function of the current entry (or null), to the new entry
+	 *
+	 * @return the new entry, null if removed
+	 **/
+	public Entry compute(byte[] key, long now, Function<Entry, Entry> fn) {
+		int hash = hash(key);
+		return segment(hash).compute(key, hash, now, fn);
+	}
+	
+	/**
+	 * Stores (and overwrites if needed) the key value
+	 *
+	 * @param  key     bytes
+	 * @param  value   bytes
+	 * @param  expiry  timestamp in milliseconds, 0 means no expiry
+	 **/
+	public void put(byte[] key, byte[] value, long expiry) {
+		Entry entry = new Entry(key, value, expiry);
+		compute(key, 0, (current) -> entry);
+	}
+	
+	/**
+	 * Removes the key, if present
+	 *
+	 * @param  key  bytes
+	 **/
+	public void remove(byte[] key) {
+		compute(key, 0, (current) -> null);
+	}
+	
+	/**
+	 * Iterate all the valid entries, note that the entries are read one segment at a time.
+	 * As such changes made during the iteration, may or may not be visible.
+	 *
+	 * @param  now       timestamp, 0 = no timestamp so skip expiry checks
+	 * @param  consumer  to call for each entry
+	 **/
+	public void forEach(long now, Consumer<Entry> consumer) {
+		for (Segment seg : segments) {
+			for (Entry entry : seg.entries(now)) {
+				consumer.accept(entry);
+			}
+		}
+	}
+	
+	/**
+	 * Iterate the keys of all the valid entries with the given value. Where the value is
+	 * compared against the stored bytes in place, and only the matching keys are copied.
+	 * Note that the keys are read one segment at a time, similar to forEach.
+	 *
+	 * @param  value     bytes to match, null matches all entries
+	 * @param  now       timestamp, 0 = no timestamp so skip expiry checks
+	 * @param  consumer  to call for each matching key
+	 **/
+	public void forEachKey(byte[] value, long now, Consumer<byte[]> consumer) {
+		for (Segment seg : segments) {
+			for (byte[] key : seg.keys(value, now)) {
+				consumer.accept(key);
+			}
+		}
+	}
+	
+	/**
+	 * Removes all entries which expired before the given timestamp
+	 *
+	 * @param  now  timestamp
+	 **/
+	public void removeExpired(long now) {
+		for (Segment seg : segments) {
+			seg.removeExpired(now);
+		}
+	}
+	
+	/**
+	 * @return number of entries stored (including expired entries, till they are removed)
+	 **/
+	public long size() {
+		long ret = 0;
+		for (Segment seg : segments) {
+			ret += seg.size();
+		}
+		return ret;
+	}
+	
+	/**
+	 * Removes all entries, releasing all memory
+	 **/
+	public void clear() {
+		for (Segment seg : segments) {
+			seg.clear();
+		}
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Segment implementation
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Slab of entries, which are appended up to its used size
+	 **/
+	protected static class Slab {
+		protected final ByteBuffer buffer;
+		protected int used = 0;
+		protected int garbage = 0;
+		
+		protected Slab(int capacity) {
+			buffer = ByteBuffer.allocateDirect(capacity);
+		}
+		
+		protected int free() {
+			return buffer.capacity() - used;
+		}
+	}
+	
+	/**
+	 * A single segment, with its own slabs and index. Guarded by its read/write lock,
+	 * where reads (get, entries, size) can run concurrently, while writes are exclusive.
+	 **/
+	protected class Segment {
+		
+		/**
+		 * Segment lock
+		 **/
+		protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		
+		/**
+		 * Slabs, and the slab last written to
+		 **/
+		protected final List<Slab> slabs = new ArrayList<Slab>();
+		protected int writeSlab = 0;
+		
+		/**
+		 * Index slots buffer (null till the first write), the slot count, and used slots
+		 **/
+		protected ByteBuffer index = null;
+		protected int slotCount = 0;
+		protected int count = 0;
+		
+		//
+		// Address and slot handling
+		//
+		
+		protected long address(int slab, int offset) {
+			return (((long) slab + 1) << 32) | (offset & 0xFFFFFFFFL);
+		}
+		
+		protected Slab slabOf(long address) {
+			return slabs.get((int) (address >>> 32) - 1);
+		}
+		
+		protected int offsetOf(long address) {
+			return (int) address;
+		}
+		
+		protected int slotHash(int slot) {
+			return index.getInt(slot * SLOT_SIZE);
+		}
+		
+		protected long slotAddress(int slot) {
+			return index.getLong(slot * SLOT_SIZE + 4);
+		}
+		
+		protected void setSlot(int slot, int hash, long address) {
+			index.putInt(slot * SLOT_SIZE, hash);
+			index.putLong(slot * SLOT_SIZE + 4, address);
+		}
+		
+		/**
+		 * @return slot of the key, -1 if not found
+		 **/
+		protected int find(byte[] key, int hash) {
+			if (index == null) {
+				return -1;
+			}
+			int mask = slotCount - 1;
+			for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+				long address = slotAddress(slot);
+				if (address == 0) {
+					return -1;
+				}
+				if (slotHash(slot) == hash && keyEquals(address, key)) {
+					return slot;
+				}
+			}
+		}
+		
+		/**
+		 * @return true, if the entry at the address has the given key
+		 **/
+		protected boolean keyEquals(long address, byte[] key) {
+			ByteBuffer buffer = slabOf(address).buffer;
+			int offset = offsetOf(address);
+			if (buffer.getInt(offset) != key.length) {
+				return false;
+			}
+			for (int i = 0; i < key.length; ++i) {
+				if (buffer.get(offset + HEADER_SIZE + i) != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Ensure the index has capacity for the given number of entries
+		 **/
+		protected void ensureIndex(int needed) {
+			if (index != null && needed <= slotCount / 4 * 3) {
+				return;
+			}
+			int newCount = (index == null) ? INITIAL_SLOTS : slotCount * 2;
+			while (needed > newCount / 4 * 3) {
+				newCount *= 2;
+			}
+			if (!budget.reserve((long) newCount * SLOT_SIZE)) {
+				throw memoryLimitException();
+			}
+			
+			// Rebuild the index, using the stored hash
+			ByteBuffer oldIndex = index;
+			int oldCount = slotCount;
+			index = ByteBuffer.allocateDirect(newCount * SLOT_SIZE);
+			slotCount = newCount;
+			for (int slot = 0; slot < oldCount; ++slot) {
+				long address = oldIndex.getLong(slot * SLOT_SIZE + 4);
+				if (address != 0) {
+					insertSlot(oldIndex.getInt(slot * SLOT_SIZE), address);
+				}
+			}
+			if (oldIndex != null) {
+				budget.release((long) oldCount * SLOT_SIZE);
+			}
+		}
+		
+		/**
+		 * Inserts into the first empty slot, of the given hash
+		 **/
+		protected void insertSlot(int hash, long address) {
+			int mask = slotCount - 1;
+			int slot = hash & mask;
+			while (slotAddress(slot) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			setSlot(slot, hash, address);
+		}
+		
+		/**
+		 * Removes the slot, and its entry. Using backward shift deletion,
+		 * so that no tombstones are needed for linear probing.
+		 **/
+		protected void removeSlot(int slot) {
+			markDead(slotAddress(slot));
+			int mask = slotCount - 1;
+			int hole = slot;
+			for (int next = (hole + 1) & mask; slotAddress(next) != 0; next = (next + 1) & mask) {
+				int home = slotHash(next) & mask;
+				
+				// Skip entries whose home slot is cyclically within (hole, next]
+				boolean inRange = (hole <= next) ? (hole < home && home <= next)
+					: (hole < home || home <= next);
+				if (inRange) {
+					continue;
+				}
+				setSlot(hole, slotHash(next), slotAddress(next));
+				hole = next;
+			}
+			setSlot(hole, 0, 0);
+			--count;
+		}
+		
+		/**
+		 * Updates the slot pointing to the old address, to the new address
+		 **/
+		protected void moveSlot(int hash, long oldAddress, long newAddress) {
+			int mask = slotCount - 1;
+			for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+				long address = slotAddress(slot);
+				if (address == oldAddress) {
+					setSlot(slot, hash, newAddress);
+					return;
+				}
+				if (address == 0) {
+					return;
+				}
+			}
+		}
+		
+		//
+		// Entry handling
+		//
+		
+		/**
+		 * @return the entry at the address, reusing the given key bytes if provided
+		 *
+		 * This is called under the read lock, and does not change the shared buffer position
+		 * (by reading the bytes via a duplicate view of the buffer)
+		 **/
+		protected Entry readEntry(long address, byte[] key) {
+			ByteBuffer buffer = slabOf(address).buffer;
+			int offset = offsetOf(address);
+			int keyLength = buffer.getInt(offset);
+			byte[] value = new byte[buffer.getInt(offset + 4)];
+			long expiry = buffer.getLong(offset + 8);
+			
+			ByteBuffer view = buffer.duplicate();
+			if (key == null) {
+				key = new byte[keyLength];
+				view.position(offset + HEADER_SIZE);
+				view.get(key);
+			}
+			view.position(offset + HEADER_SIZE + keyLength);
+			view.get(value);
+			return new Entry(key, value, expiry);
+		}
+		
+		/**
+		 * @return true, if the entry at the address is valid, and has the given value (null matches all)
+		 *
+		 * This is called under the read lock, comparing the value in place using absolute reads
+		 **/
+		protected boolean entryMatches(long address, byte[] value, long now) {
+			ByteBuffer buffer = slabOf(address).buffer;
+			int offset = offsetOf(address);
+			long expiry = buffer.getLong(offset + 8);
+			if (now > 0 && expiry > 0 && expiry < now) {
+				return false;
+			}
+			if (value == null) {
+				return true;
+			}
+			if (buffer.getInt(offset + 4) != value.length) {
+				return false;
+			}
+			int valueOffset = offset + HEADER_SIZE + buffer.getInt(offset);
+			for (int i = 0; i < value.length; ++i) {
+				if (buffer.get(valueOffset + i) != value[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * @return the key bytes of the entry at the address (via a duplicate view of the buffer)
+		 **/
+		protected byte[] readKey(long address) {
+			ByteBuffer buffer = slabOf(address).buffer;
+			int offset = offsetOf(address);
+			byte[] key = new byte[buffer.getInt(offset)];
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset + HEADER_SIZE);
+			view.get(key);
+			return key;
+		}
+		
+		/**
+		 * Writes the entry at the address
+		 **/
+		protected void writeEntry(long address, Entry entry) {
+			ByteBuffer buffer = slabOf(address).buffer;
+			int offset = offsetOf(address);
+			buffer.putInt(offset, entry.key.length);
+			buffer.putInt(offset + 4, entry.value.length);
+			buffer.putLong(offset + 8, entry.expiry);
+			buffer.position(offset + HEADER_SIZE);
+			buffer.put(entry.key);
+			buffer.put(entry.value);
+		}
+		
+		/**
+		 * Marks the entry at the address as dead, freeing the slab if its fully dead
+		 **/
+		protected void markDead(long address) {
+			Slab slab = slabOf(address);
+			int offset = offsetOf(address);
+			int keyLength = slab.buffer.getInt(offset);
+			slab.buffer.putInt(offset, ~keyLength);
+			slab.garbage += HEADER_SIZE + keyLength + slab.buffer.getInt(offset + 4);
+			if (slab.garbage >= slab.used) {
+				slab.used = 0;
+				slab.garbage = 0;
+			}
+		}
+		
+		/**
+		 * Allocates space for an entry of the given size, compacting or adding slabs as needed
+		 *
+		 * @return address of the allocated space
+		 **/
+		protected long allocate(int size) {
+			long ret = allocateFromSlabs(size);
+			if (ret != 0) {
+				return ret;
+			}
+			
+			// Compact slabs which are mostly dead, before allocating a new slab
+			if (compact(false)) {
+				ret = allocateFromSlabs(size);
+				if (ret != 0) {
+					return ret;
+				}
+			}
+			
+			// New slab, oversized for entries larger then the slab size
+			int capacity = Math.max(slabSize, size);
+			if (budget.reserve(capacity)) {
+				Slab slab = new Slab(capacity);
+				slabs.add(slab);
+				writeSlab = slabs.size() - 1;
+				slab.used = size;
+				return address(writeSlab, 0);
+			}
+			
+			// Out of memory, compact everything as a last resort
+			if (compact(true)) {
+				ret = allocateFromSlabs(size);
+				if (ret != 0) {
+					return ret;
+				}
+			}
+			throw memoryLimitException();
+		}
+		
+		/**
+		 * @return address of the allocated space, within the existing slabs, 0 if there is no space
+		 **/
+		protected long allocateFromSlabs(int size) {
+			int slabCount = slabs.size();
+			for (int i = 0; i < slabCount; ++i) {
+				int pos = (writeSlab + i) % slabCount;
+				Slab slab = slabs.get(pos);
+				if (slab.free() >= size) {
+					writeSlab = pos;
+					int offset = slab.used;
+					slab.used += size;
+					return address(pos, offset);
+				}
+			}
+			return 0;
+		}
+		
+		/**
+		 * Compacts the slabs with dead entries
+		 *
+		 * @param  all  compact every slab with dead entries, else only slabs which are mostly dead
+		 *
+		 * @return true if any slab was compacted
+		 **/
+		protected boolean compact(boolean all) {
+			boolean ret = false;
+			for (int i = 0; i < slabs.size(); ++i) {
+				Slab slab = slabs.get(i);
+				if (slab.garbage > 0 && (all || slab.garbage * 2 >= slab.used)) {
+					compactSlab(i);
+					ret = true;
+				}
+			}
+			return ret;
+		}
+		
+		/**
+		 * Compacts a slab in place, moving its live entries to the front (and updating the index)
+		 **/
+		protected void compactSlab(int slabIndex) {
+			Slab slab = slabs.get(slabIndex);
+			ByteBuffer buffer = slab.buffer;
+			int pos = 0;
+			int write = 0;
+			while (pos < slab.used) {
+				int keyLength = buffer.getInt(pos);
+				boolean live = (keyLength >= 0);
+				int size = HEADER_SIZE + (live ? keyLength : ~keyLength) + buffer.getInt(pos + 4);
+				if (live) {
+					if (pos != write) {
+						byte[] data = new byte[size];
+						buffer.position(pos);
+						buffer.get(data);
+						buffer.position(write);
+						buffer.put(data);
+						
+						byte[] key = new byte[keyLength];
+						System.arraycopy(data, HEADER_SIZE, key, 0, keyLength);
+						moveSlot(hash(key), address(slabIndex, pos), address(slabIndex, write));
+					}
+					write += size;
+				}
+				pos += size;
+			}
+			slab.used = write;
+			slab.garbage = 0;
+		}
+		
+		//
+		// Segment operations
+		//
+		
+		protected Entry get(byte[] key, int hash, long now) {
+			lock.readLock().lock();
+			try {
+				int slot = find(key, hash);
+				if (slot < 0) {
+					return null;
+				}
+				Entry entry = readEntry(slotAddress(slot), key);
+				return (now > 0 && !entry.isValid(now)) ? null : entry;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+		
+		protected Entry compute(byte[] key, int hash, long now, Function<Entry, Entry> fn) {
+			lock.writeLock().lock();
+			try {
+				return computeLocked(key, hash, now, fn);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+		
+		/**
+		 * compute implementation, called under the write lock
+		 **/
+		protected Entry computeLocked(byte[] key, int hash, long now, Function<Entry, Entry> fn) {
+			int slot = find(key, hash);
+			Entry current = (slot >= 0) ? readEntry(slotAddress(slot), key) : null;
+			if (current != null && now > 0 && !current.isValid(now)) {
+				current = null;
+			}
+			
+			Entry updated = fn.apply(current);
+			if (updated == current && current != null) {
+				return current;
+			}
+			
+			// Removal (including of expired entries)
+			if (updated == null) {
+				if (slot >= 0) {
+					removeSlot(slot);
+				}
+				return null;
+			}
+			
+			// Same value length, update in place
+			if (slot >= 0) {
+				long address = slotAddress(slot);
+				Slab slab = slabOf(address);
+				if (slab.buffer.getInt(offsetOf(address) + 4) == updated.value.length) {
+					writeEntry(address, updated);
+					return updated;
+				}
+			} else {
+				ensureIndex(count + 1);
+			}
+			
+			// Write a new entry, note that allocate may compact (and move) the current entry
+			int size = HEADER_SIZE + updated.key.length + updated.value.length;
+			long address = allocate(size);
+			writeEntry(address, updated);
+			if (slot >= 0) {
+				markDead(slotAddress(slot));
+				setSlot(slot, hash, address);
+			} else {
+				insertSlot(hash, address);
+				++count;
+			}
+			return updated;
+		}
+		
+		protected List<Entry> entries(long now) {
+			lock.readLock().lock();
+			try {
+				List<Entry> ret = new ArrayList<Entry>();
+				for (int slot = 0; slot < slotCount; ++slot) {
+					long address = slotAddress(slot);
+					if (address != 0) {
+						Entry entry = readEntry(address, null);
+						if (now <= 0 || entry.isValid(now)) {
+							ret.add(entry);
+						}
+					}
+				}
+				return ret;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+		
+		protected List<byte[]> keys(byte[] value, long now) {
+			lock.readLock().lock();
+			try {
+				List<byte[]> ret = new ArrayList<byte[]>();
+				for (int slot = 0; slot < slotCount; ++slot) {
+					long address = slotAddress(slot);
+					if (address != 0 && entryMatches(address, value, now)) {
+						ret.add(readKey(address));
+					}
+				}
+				return ret;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+		
+		protected void removeExpired(long now) {
+			lock.writeLock().lock();
+			try {
+				int slot = 0;
+				while (slot < slotCount) {
+					long address = slotAddress(slot);
+					if (address != 0) {
+						long expiry = slabOf(address).buffer.getLong(offsetOf(address) + 8);
+						if (expiry > 0 && expiry < now) {
+							// Backward shift may move another entry into this slot, so check it again
+							removeSlot(slot);
+							continue;
+						}
+					}
+					++slot;
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+		
+		protected int size() {
+			lock.readLock().lock();
+			try {
+				return count;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+		
+		protected void clear() {
+			lock.writeLock().lock();
+			try {
+				for (Slab slab : slabs) {
+					budget.release(slab.buffer.capacity());
+				}
+				slabs.clear();
+				writeSlab = 0;
+				if (index != null) {
+					budget.release((long) slotCount * SLOT_SIZE);
+				}
+				index = null;
+				slotCount = 0;
+				count = 0;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+	
+	/**
+	 * @return the exception thrown, when the memory budget is exceeded
+	 **/
+	protected IllegalStateException memoryLimitException() {
+		return new IllegalStateException("Off heap memory limit exceeded : " + budget.maxMemory()
+			+ " bytes");
+	}
+}
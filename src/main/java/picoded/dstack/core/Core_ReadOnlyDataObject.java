@@ -0,0 +1,278 @@
+package picoded.dstack.core;
+
+// Java imports
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+// Picoded imports
+import picoded.dstack.DataObject;
+import picoded.core.conv.ConvertJSON;
+import picoded.core.common.ObjectToken;
+
+/**
+ * Read only DataObject, which wraps the fetched data map directly.
+ *
+ * Unlike Core_DataObject, there is no delta tracking, and values are not copied on get.
+ * Instead nested maps and lists are returned as unmodifiable views. All mutators
+ * (put, remove, save) throws an UnsupportedOperationException.
+ *
+ * This is intended for query results which are only read (such as for rendering),
+ * and is returned by DataObjectMap.getReadOnly / queryReadOnly.
+ *
+ * NOTE: This class should not be initialized directly, but through DataObjectMap class
+ **/
+public class Core_ReadOnlyDataObject implements DataObject {
+	
+	// Core variables
+	//----------------------------------------------
+	
+	/**
+	 * GUID used for the object
+	 **/
+	protected final String _oid;
+	
+	/**
+	 * The fetched data map, which is never modified
+	 **/
+	protected final Map<String, Object> dataMap;
+	
+	/**
+	 * Large values which were loaded, from Core_LazyValue (null if none)
+	 **/
+	protected Map<String, Object> loadedMap = null;
+	
+	// Constructor
+	//----------------------------------------------
+	
+	/**
+	 * Setup a read only DataObject, over the fetched data map
+	 *
+	 * @param  inOID   GUID of the object
+	 * @param  inData  data map fetched from the backend, which is never modified
+	 **/
+	public Core_ReadOnlyDataObject(String inOID, Map<String, Object> inData) {
+		_oid = inOID;
+		dataMap = inData;
+	}
+	
+	// DataObject ID
+	//----------------------------------------------
+	
+	/**
+	 * The object ID
+	 **/
+	@Override
+	public String _oid() {
+		return _oid;
+	}
+	
+	// Read operations
+	//----------------------------------------------
+	
+	/**
+	 * Gets and return the requested current value, as an unmodifiable view for maps / lists
+	 *
+	 * @param   key to use
+	 *
+	 * @return  Value if present, NULL if not found
+	 **/
+	@Override
+	public Object get(Object key) {
+		if ("_oid".equalsIgnoreCase(key.toString())) {
+			return _oid;
+		}
+		
+		Object ret = dataMap.get(key);
+		
+		// Large values not loaded yet, load it on first access
+		if (ret instanceof Core_LazyValue) {
+			if (loadedMap == null) {
+				loadedMap = new HashMap<String, Object>();
+			}
+			if (loadedMap.containsKey(key)) {
+				ret = loadedMap.get(key);
+			} else {
+				ret = ((Core_LazyValue) ret).load();
+				loadedMap.put(key.toString(), ret);
+			}
+		}
+		
+		if (ret == null || ret.equals(ObjectToken.NULL)) {
+			return null;
+		}
+		return readOnly(ret);
+	}
+	
+	/**
+	 * Gets and return valid keySet(), without fetching each value
+	 **/
+	@Override
+	public Set<String> keySet() {
+		Set<String> ret = new HashSet<String>(dataMap.keySet());
+		ret.add("_oid");
+		return Collections.unmodifiableSet(ret);
+	}
+	
+	// Unsupported write operations
+	//----------------------------------------------
+	
+	/**
+	 * @return the exception thrown by all mutators
+	 **/
+	protected UnsupportedOperationException readOnlyException() {
+		return new UnsupportedOperationException("Read only DataObject : " + _oid);
+	}
+	
+	/**
+	 * Unsupported, throws an UnsupportedOperationException
+	 **/
+	@Override
+	public Object put(String key, Object value) {
+		throw readOnlyException();
+	}
+	
+	/**
+	 * Unsupported, throws an UnsupportedOperationException
+	 **/
+	@Override
+	public Object remove(Object key) {
+		throw readOnlyException();
+	}
+	
+	/**
+	 * Unsupported, throws an UnsupportedOperationException
+	 **/
+	@Override
+	public void saveDelta() {
+		throw readOnlyException();
+	}
+	
+	/**
+	 * Unsupported, throws an UnsupportedOperationException
+	 **/
+	@Override
+	public void saveAll() {
+		throw readOnlyException();
+	}
+	
+	// Unmodifiable nested views
+	//----------------------------------------------
+	
+	/**
+	 * Wraps the value as an unmodifiable view (for maps and lists), without copying it
+	 *
+	 * @param  val to wrap
+	 *
+	 * @return unmodifiable view for maps / lists, a copy for byte[], else the value itself
+	 **/
+	@SuppressWarnings("unchecked")
+	protected static Object readOnly(Object val) {
+		if (val instanceof Map) {
+			return new ReadOnlyMap((Map<Object, Object>) val);
+		}
+		if (val instanceof List) {
+			return new ReadOnlyList((List<Object>) val);
+		}
+		if (val instanceof byte[]) {
+			return ((byte[]) val).clone();
+		}
+		return val;
+	}
+	
+	/**
+	 * Unmodifiable view of a nested map, where nested values are wrapped as views on get
+	 **/
+	protected static class ReadOnlyMap extends AbstractMap<Object, Object> {
+		
+		protected final Map<Object, Object> source;
+		
+		protected ReadOnlyMap(Map<Object, Object> source) {
+			this.source = source;
+		}
+		
+		@Override
+		public Object get(Object key) {
+			return readOnly(source.get(key));
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			return source.containsKey(key);
+		}
+		
+		@Override
+		public int size() {
+			return source.size();
+		}
+		
+		@Override
+		public Set<Map.Entry<Object, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<Object, Object>>() {
+				@Override
+				public int size() {
+					return source.size();
+				}
+				
+				@Override
+				public Iterator<Map.Entry<Object, Object>> iterator() {
+					Iterator<Map.Entry<Object, Object>> entries = source.entrySet().iterator();
+					return new Iterator<Map.Entry<Object, Object>>() {
+						@Override
+						public boolean hasNext() {
+							return entries.hasNext();
+						}
+						
+						@Override
+						public Map.Entry<Object, Object> next() {
+							Map.Entry<Object, Object> entry = entries.next();
+							return new AbstractMap.SimpleImmutableEntry<Object, Object>(entry.getKey(),
+								readOnly(entry.getValue()));
+						}
+					};
+				}
+			};
+		}
+	}
+	
+	/**
+	 * Unmodifiable view of a nested list, where nested values are wrapped as views on get
+	 **/
+	protected static class ReadOnlyList extends AbstractList<Object> implements RandomAccess {
+		
+		protected final List<Object> source;
+		
+		protected ReadOnlyList(List<Object> source) {
+			this.source = source;
+		}
+		
+		@Override
+		public Object get(int index) {
+			return readOnly(source.get(index));
+		}
+		
+		@Override
+		public int size() {
+			return source.size();
+		}
+	}
+	
+	// To string operation : aids debugging
+	//----------------------------------------------
+	
+	/**
+	 * Converts the map into a string, via JSON format. Which is to aid debugging.
+	 **/
+	@Override
+	public String toString() {
+		return ConvertJSON.fromMap(this);
+	}
+}
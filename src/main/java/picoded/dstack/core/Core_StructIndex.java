@@ -0,0 +1,536 @@
+package picoded.dstack.core;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Picoded imports
+import picoded.core.struct.query.*;
+
+/**
+ * Secondary in memory indexes, of the top level keys of struct based DataObjectMap.
+ *
+ * + index       : hash indexes, used for equality lookups
+ * + sortedIndex : sorted indexes of numeric values, used for range lookups, and orderBy
+ *
+ * Indexes are used to get a superset of candidate object ID's for a query,
+ * where each candidate is still tested against the full query. As such string equality
+ * is indexed case insensitively, and numeric strings are indexed by their numeric value.
+ * Values which cannot be indexed (such as nested maps, or non numeric values in a sorted
+ * index) are kept as "residual" object ID's, which are always included as candidates.
+ *
+ * The indexes are updated per object ID, in a striped lock. Where the currently stored value
+ * is read again within the lock, so that concurrent updates of the same object always
+ * leaves the index with its latest value. New values are added before the old values are
+ * removed, so that a concurrent query never misses an unchanged match.
+ **/
+public class Core_StructIndex {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Constructor
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Number of lock stripes, used for updates
+	 **/
+	protected static final int LOCK_STRIPES = 64;
+	
+	/**
+	 * Lock stripes, by object ID hash
+	 **/
+	protected final Object[] locks = new Object[LOCK_STRIPES];
+	
+	/**
+	 * Hash indexes, of key, to normalized value, to object ID's
+	 **/
+	protected final Map<String, Map<String, Set<String>>> hashIndexes = new HashMap<String, Map<String, Set<String>>>();
+	
+	/**
+	 * Sorted indexes, of key, to numeric value, to object ID's
+	 **/
+	protected final Map<String, ConcurrentSkipListMap<Double, Set<String>>> sortedIndexes = new HashMap<String, ConcurrentSkipListMap<Double, Set<String>>>();
+	
+	/**
+	 * Residual object ID's, which cannot be indexed, by key
+	 **/
+	protected final Map<String, Set<String>> hashResiduals = new HashMap<String, Set<String>>();
+	protected final Map<String, Set<String>> sortedResiduals = new HashMap<String, Set<String>>();
+	
+	/**
+	 * Object ID's without a value for the sorted key, these are never query candidates,
+	 * but are needed to know if the sorted index covers every object for ordering.
+	 **/
+	protected final Map<String, Set<String>> sortedMissing = new HashMap<String, Set<String>>();
+	
+	/**
+	 * The indexed values of each object ID, used to remove the old values on update
+	 **/
+	protected final Map<String, Map<String, Object>> indexedValues = new ConcurrentHashMap<String, Map<String, Object>>();
+	
+	/**
+	 * Setup the index, with the keys to index
+	 *
+	 * @param  hashKeys    to use hash indexes for
+	 * @param  sortedKeys  to use sorted indexes for
+	 **/
+	public Core_StructIndex(String[] hashKeys, String[] sortedKeys) {
+		for (int i = 0; i < LOCK_STRIPES; ++i) {
+			locks[i] = new Object();
+		}
+		for (String key : hashKeys) {
+			hashIndexes.put(key, new ConcurrentHashMap<String, Set<String>>());
+			hashResiduals.put(key, ConcurrentHashMap.newKeySet());
+		}
+		for (String key : sortedKeys) {
+			sortedIndexes.put(key, new ConcurrentSkipListMap<Double, Set<String>>());
+			sortedResiduals.put(key, ConcurrentHashMap.newKeySet());
+			sortedMissing.put(key, ConcurrentHashMap.newKeySet());
+		}
+	}
+	
+	/**
+	 * @return true, if there is no keys to index
+	 **/
+	public boolean isEmpty() {
+		return hashIndexes.isEmpty() && sortedIndexes.isEmpty();
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Value normalization
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * @return the numeric value of a number, or numeric string, null if not numeric
+	 **/
+	protected static Double numericValue(Object val) {
+		if (val instanceof Number) {
+			double ret = ((Number) val).doubleValue();
+			if (Double.isNaN(ret)) {
+				return null;
+			}
+			// Treats -0.0 as 0.0
+			return (ret == 0.0) ? 0.0 : ret;
+		}
+		if (val instanceof String) {
+			String str = ((String) val).trim();
+			if (str.isEmpty()) {
+				return null;
+			}
+			char c = str.charAt(0);
+			if (!(Character.isDigit(c) || c == '-' || c == '+' || c == '.')) {
+				return null;
+			}
+			try {
+				return numericValue(Double.parseDouble(str));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Normalize a value for the hash index, null if it cannot be indexed
+	 *
+	 * @param  val to normalize
+	 *
+	 * @return canonical number string for numeric values, lower case for other strings
+	 **/
+	protected static String hashValue(Object val) {
+		Double num = numericValue(val);
+		if (num != null) {
+			double d = num.doubleValue();
+			if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 9.0E15) {
+				return Long.toString((long) d);
+			}
+			return num.toString();
+		}
+		if (val instanceof String || val instanceof Boolean || val instanceof Character) {
+			return val.toString().toLowerCase();
+		}
+		return null;
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Index updates
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Updates the index of the object ID, with its currently stored value
+	 *
+	 * @param  oid      object ID to update
+	 * @param  backend  storage map, to get the currently stored value from
+	 **/
+	public void reindex(String oid, Map<String, Map<String, Object>> backend) {
+		synchronized (locks[(oid.hashCode() & 0x7fffffff) % LOCK_STRIPES]) {
+			Map<String, Object> stored = backend.get(oid);
+			Map<String, Object> oldValues = indexedValues.get(oid);
+			Map<String, Object> newValues = null;
+			
+			// Values of the indexed keys
+			if (stored != null) {
+				newValues = new HashMap<String, Object>();
+				for (String key : hashIndexes.keySet()) {
+					putIfNotNull(newValues, key, stored.get(key));
+				}
+				for (String key : sortedIndexes.keySet()) {
+					putIfNotNull(newValues, key, stored.get(key));
+				}
+			}
+			
+			// Add the new values, before removing the old values
+			if (newValues != null) {
+				indexValues(oid, newValues, oldValues, true);
+				indexedValues.put(oid, newValues);
+			} else {
+				indexedValues.remove(oid);
+			}
+			if (oldValues != null) {
+				indexValues(oid, oldValues, newValues, false);
+			}
+		}
+	}
+	
+	/**
+	 * Puts the value into the map, if its not null
+	 **/
+	private static void putIfNotNull(Map<String, Object> map, String key, Object val) {
+		if (val != null) {
+			map.put(key, val);
+		}
+	}
+	
+	/**
+	 * Adds, or removes the given values from the index. Where on removal, values which
+	 * are still indexed in the same way by the unchanged values are skipped.
+	 *
+	 * @param  oid        object ID to index
+	 * @param  values     of indexed keys, to add or remove
+	 * @param  unchanged  values of indexed keys to skip on removal, can be null
+	 * @param  add        true to add, false to remove
+	 **/
+	protected void indexValues(String oid, Map<String, Object> values, Map<String, Object> unchanged,
+		boolean add) {
+		
+		// Hash index
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			String key = entry.getKey();
+			Map<String, Set<String>> hashIndex = hashIndexes.get(key);
+			if (hashIndex == null) {
+				continue;
+			}
+			Object other = (unchanged != null) ? unchanged.get(key) : null;
+			String hash = hashValue(entry.getValue());
+			boolean same = other != null && Objects.equals(hash, hashValue(other));
+			if (add || !same) {
+				if (hash == null) {
+					updateSet(hashResiduals.get(key), oid, add);
+				} else {
+					updateIndex(hashIndex, hash, oid, add);
+				}
+			}
+		}
+		
+		// Sorted index, only for numbers (numeric strings are treated as residuals,
+		// as they are not sorted numerically by orderBy)
+		for (Map.Entry<String, ConcurrentSkipListMap<Double, Set<String>>> entry : sortedIndexes
+			.entrySet()) {
+			String key = entry.getKey();
+			Object val = values.get(key);
+			Object other = (unchanged != null) ? unchanged.get(key) : null;
+			
+			// Objects without the key
+			if (val == null) {
+				if (add || unchanged == null || other != null) {
+					updateSet(sortedMissing.get(key), oid, add);
+				}
+				continue;
+			}
+			
+			Double num = sortedValue(val);
+			boolean same = other != null && Objects.equals(num, sortedValue(other));
+			if (add || !same) {
+				if (num == null) {
+					updateSet(sortedResiduals.get(key), oid, add);
+				} else {
+					updateIndex(entry.getValue(), num, oid, add);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the sorted index value, null if it cannot be indexed
+	 **/
+	protected static Double sortedValue(Object val) {
+		return (val instanceof Number) ? numericValue(val) : null;
+	}
+	
+	/**
+	 * Adds or removes the object ID from the index value set
+	 **/
+	private static <K> void updateIndex(Map<K, Set<String>> index, K value, String oid, boolean add) {
+		if (add) {
+			index.computeIfAbsent(value, (k) -> ConcurrentHashMap.newKeySet()).add(oid);
+		} else {
+			index.computeIfPresent(value, (k, set) -> {
+				set.remove(oid);
+				return set.isEmpty() ? null : set;
+			});
+		}
+	}
+	
+	/**
+	 * Adds or removes the object ID from the set
+	 **/
+	private static void updateSet(Set<String> set, String oid, boolean add) {
+		if (add) {
+			set.add(oid);
+		} else {
+			set.remove(oid);
+		}
+	}
+	
+	/**
+	 * Removes all indexed values
+	 **/
+	public void clear() {
+		indexedValues.clear();
+		for (Map<String, Set<String>> index : hashIndexes.values()) {
+			index.clear();
+		}
+		for (ConcurrentSkipListMap<Double, Set<String>> index : sortedIndexes.values()) {
+			index.clear();
+		}
+		for (Set<String> residual : hashResiduals.values()) {
+			residual.clear();
+		}
+		for (Set<String> residual : sortedResiduals.values()) {
+			residual.clear();
+		}
+		for (Set<String> missing : sortedMissing.values()) {
+			missing.clear();
+		}
+	}
+	
+	/**
+	 * @return number of object ID's indexed
+	 **/
+	public int size() {
+		return indexedValues.size();
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Query planning
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * The index lookup chosen for a query
+	 **/
+	public static class Plan {
+		
+		/**
+		 * Key of the index used, and its index type ("hash", or "sorted")
+		 **/
+		public final String key;
+		public final String type;
+		
+		/**
+		 * Superset of candidate object ID's, to test against the query
+		 **/
+		public final Set<String> candidates;
+		
+		protected Plan(String key, String type, Set<String> candidates) {
+			this.key = key;
+			this.type = type;
+			this.candidates = candidates;
+		}
+	}
+	
+	/**
+	 * Plans the index lookup for the query, picking the index with the least candidates,
+	 * amongst the conditions of a conjunctive (AND only) query.
+	 *
+	 * @param  queryClause to plan
+	 *
+	 * @return the plan, null if no index can be used (where a full scan is needed)
+	 **/
+	public Plan plan(Query queryClause) {
+		if (queryClause == null || isEmpty()) {
+			return null;
+		}
+		
+		// Only AND queries can use a single index
+		if (!isConjunctive(queryClause)) {
+			return null;
+		}
+		
+		Map<String, Object> queryArgMap = queryClause.queryArgumentsMap();
+		Plan ret = null;
+		for (Map.Entry<String, List<Query>> entry : queryClause.fieldQueryMap().entrySet()) {
+			String key = entry.getKey();
+			for (Query condition : entry.getValue()) {
+				Object arg = queryArgMap.get(condition.argumentName());
+				Plan plan = planCondition(key, condition.operatorSymbol(), arg);
+				if (plan != null && (ret == null || plan.candidates.size() < ret.candidates.size())) {
+					ret = plan;
+				}
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param  queryClause to check
+	 *
+	 * @return true, if the query is a single condition, or only AND of such conditions
+	 **/
+	public static boolean isConjunctive(Query queryClause) {
+		if (queryClause.isBasicOperator()) {
+			return true;
+		}
+		if (queryClause.type() != QueryType.AND) {
+			return false;
+		}
+		for (Query child : queryClause.childrenQuery()) {
+			if (!isConjunctive(child)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Plans the index lookup of a single condition
+	 *
+	 * @param  key  of the condition
+	 * @param  op   operator symbol
+	 * @param  arg  argument value
+	 *
+	 * @return the plan, null if no index can be used
+	 **/
+	protected Plan planCondition(String key, String op, Object arg) {
+		if (arg == null) {
+			return null;
+		}
+		
+		// Equality using the hash index
+		Map<String, Set<String>> hashIndex = hashIndexes.get(key);
+		if (op.equals("=") && hashIndex != null) {
+			String hash = hashValue(arg);
+			if (hash != null) {
+				Set<String> ret = new HashSet<String>(hashResiduals.get(key));
+				Set<String> matched = hashIndex.get(hash);
+				if (matched != null) {
+					ret.addAll(matched);
+				}
+				return new Plan(key, "hash", ret);
+			}
+		}
+		
+		// Equality, and ranges using the sorted index
+		ConcurrentSkipListMap<Double, Set<String>> sortedIndex = sortedIndexes.get(key);
+		Double num = numericValue(arg);
+		if (sortedIndex == null || num == null) {
+			return null;
+		}
+		NavigableMap<Double, Set<String>> range = null;
+		if (op.equals("=")) {
+			range = sortedIndex.subMap(num, true, num, true);
+		} else if (op.equals("<")) {
+			range = sortedIndex.headMap(num, false);
+		} else if (op.equals("<=")) {
+			range = sortedIndex.headMap(num, true);
+		} else if (op.equals(">")) {
+			range = sortedIndex.tailMap(num, false);
+		} else if (op.equals(">=")) {
+			range = sortedIndex.tailMap(num, true);
+		} else {
+			return null;
+		}
+		Set<String> ret = new HashSet<String>(sortedResiduals.get(key));
+		for (Set<String> matched : range.values()) {
+			ret.addAll(matched);
+		}
+		return new Plan(key, "sorted", ret);
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Ordered iteration
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Gets the object ID's in the order of the sorted index, with ties ordered by the
+	 * object ID. This is only possible if every object ID has a numeric value for the key,
+	 * where objects without the key, or with a non numeric value, are not in the sorted index.
+	 *
+	 * @param  key    of the sorted index
+	 * @param  desc   true for descending order
+	 * @param  total  total number of objects, in the backend map
+	 *
+	 * @return iterable object ID's, null if the sorted index cannot be used
+	 **/
+	public Iterable<String> orderedIDs(String key, boolean desc, int total) {
+		ConcurrentSkipListMap<Double, Set<String>> sortedIndex = sortedIndexes.get(key);
+		if (sortedIndex == null || !sortedResiduals.get(key).isEmpty()
+			|| !sortedMissing.get(key).isEmpty() || size() != total) {
+			return null;
+		}
+		NavigableMap<Double, Set<String>> ordered = desc ? sortedIndex.descendingMap() : sortedIndex;
+		
+		// Lazily sorts each tied value set, as its reached
+		return () -> new Iterator<String>() {
+			Iterator<Set<String>> valueIterator = ordered.values().iterator();
+			Iterator<String> tieIterator = Collections.<String> emptyList().iterator();
+			
+			@Override
+			public boolean hasNext() {
+				while (!tieIterator.hasNext() && valueIterator.hasNext()) {
+					List<String> ties = new ArrayList<String>(valueIterator.next());
+					Collections.sort(ties);
+					tieIterator = ties.iterator();
+				}
+				return tieIterator.hasNext();
+			}
+			
+			@Override
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return tieIterator.next();
+			}
+		};
+	}
+	
+	/**
+	 * @return set of hash indexed keys, followed by sorted indexed keys
+	 **/
+	public Set<String> indexedKeys() {
+		Set<String> ret = new LinkedHashSet<String>(hashIndexes.keySet());
+		ret.addAll(sortedIndexes.keySet());
+		return ret;
+	}
+}
@@ -0,0 +1,107 @@
+package picoded.dstack.core;
+
+// Java imports
+import java.security.SecureRandom;
+
+/**
+ * Time ordered object ID, similar to ULID, but in base58. Consisting of a fixed length
+ * millisecond timestamp prefix, followed by a random suffix. With the same length as GUID.base58().
+ *
+ * IDs generated in different milliseconds sort in time order, while IDs within the
+ * same millisecond are in random order. This keeps index inserts (mostly) append only,
+ * and allows time range scans on the object ID (see `timePrefix`).
+ *
+ * Note that the sort order only holds for case sensitive (binary) comparisons,
+ * such as java string comparison, or a binary SQL collation.
+ **/
+public class Core_TimeOrderedID {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Format constants
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Base58 characters, in ascending ASCII order (so that string ordering matches numeric ordering)
+	 **/
+	public static final String BASE58_CHARS = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+	
+	/**
+	 * Number of characters used for the millisecond timestamp prefix (58^9 > 2^48),
+	 * and the random suffix (58^13 > 2^76). Matching the length of GUID.base58()
+	 **/
+	public static final int TIME_PREFIX_LENGTH = 9;
+	public static final int RANDOM_SUFFIX_LENGTH = 13;
+	
+	/**
+	 * Random source for the ID suffix
+	 **/
+	protected static final SecureRandom RANDOM = new SecureRandom();
+	
+	/**
+	 * @return a new time ordered ID, for the current time
+	 **/
+	public static String generate() {
+		return generate(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Generates a time ordered ID, for the given timestamp
+	 *
+	 * @param  timestamp in milliseconds
+	 *
+	 * @return a new time ordered ID
+	 **/
+	public static String generate(long timestamp) {
+		StringBuilder ret = new StringBuilder(TIME_PREFIX_LENGTH + RANDOM_SUFFIX_LENGTH);
+		ret.append(timePrefix(timestamp));
+		for (int i = 0; i < RANDOM_SUFFIX_LENGTH; ++i) {
+			ret.append(BASE58_CHARS.charAt(RANDOM.nextInt(58)));
+		}
+		return ret.toString();
+	}
+	
+	/**
+	 * Gets the time prefix for the given timestamp. Which can be used for time range
+	 * scans of time ordered IDs (eg: `_oid >= timePrefix(start)`)
+	 *
+	 * @param  timestamp in milliseconds
+	 *
+	 * @return the fixed length time prefix
+	 **/
+	public static String timePrefix(long timestamp) {
+		if (timestamp < 0) {
+			throw new IllegalArgumentException("Invalid negative timestamp : " + timestamp);
+		}
+		char[] ret = new char[TIME_PREFIX_LENGTH];
+		long val = timestamp;
+		for (int i = TIME_PREFIX_LENGTH - 1; i >= 0; --i) {
+			ret[i] = BASE58_CHARS.charAt((int) (val % 58));
+			val /= 58;
+		}
+		return new String(ret);
+	}
+	
+	/**
+	 * Gets the timestamp of a time ordered ID
+	 *
+	 * @param  oid generated by `generate`
+	 *
+	 * @return timestamp in milliseconds
+	 **/
+	public static long timestampOf(String oid) {
+		if (oid == null || oid.length() < TIME_PREFIX_LENGTH) {
+			throw new IllegalArgumentException("Invalid time ordered object ID : " + oid);
+		}
+		long ret = 0;
+		for (int i = 0; i < TIME_PREFIX_LENGTH; ++i) {
+			int digit = BASE58_CHARS.indexOf(oid.charAt(i));
+			if (digit < 0) {
+				throw new IllegalArgumentException("Invalid time ordered object ID : " + oid);
+			}
+			ret = ret * 58 + digit;
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,404 @@
+package picoded.dstack.core;
+
+// Java imports
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchical timing wheel, used to track the expiry of keys in struct based data structures.
+ *
+ * Time is divided into ticks (of tickMillis), with LEVELS wheels of 64 slots each. Where each
+ * level covers 64 times the range of the level below it. Scheduling a key is O(1), and
+ * advancing the wheel only touches the slots which are due (with its keys cascading down to
+ * the lower levels as time passes). As such, the cost of expiry is proportional to the number
+ * of expirations, and not to the number of keys tracked.
+ *
+ * Only the latest timer of each key is returned by advance(), where rescheduling a key
+ * leaves its previous timer as a stale entry in place. Stale entries are discarded lazily
+ * when they are due, or compacted once they exceed half of the wheel (see COMPACT_THRESHOLD).
+ * So that the wheel is bounded by the number of keys tracked, and not the number of refreshes.
+ * The caller is still expected to validate each key returned by advance() against its
+ * current expiry, as keys may be removed (or have its expiry cleared) without the wheel.
+ *
+ * Empty wheel levels are skipped ahead on advance(), so that long idle gaps (or far timers)
+ * do not step through every tick.
+ *
+ * All calls are synchronized, and are kept to short critical sections.
+ **/
+public class Core_TimingWheel {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Wheel structure
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Number of bits, and slots, per wheel level
+	 **/
+	protected static final int SLOT_BITS = 6;
+	protected static final int SLOT_COUNT = 1 << SLOT_BITS;
+	protected static final int SLOT_MASK = SLOT_COUNT - 1;
+	
+	/**
+	 * Number of wheel levels, covering 2^36 ticks
+	 **/
+	protected static final int LEVELS = 6;
+	
+	/**
+	 * Minimum number of stale timers, before the wheel is compacted
+	 **/
+	protected static final int COMPACT_THRESHOLD = 1024;
+	
+	/**
+	 * Default tick size, in milliseconds
+	 **/
+	public static final long DEFAULT_TICK_MILLIS = 1000;
+	
+	/**
+	 * A single scheduled key, and its deadline
+	 **/
+	public static class Timer {
+		
+		/**
+		 * Key which is scheduled
+		 **/
+		public final String key;
+		
+		/**
+		 * Deadline timestamp in milliseconds
+		 **/
+		public final long deadline;
+		
+		/**
+		 * Tick at (or after) the deadline
+		 **/
+		protected final long dueTick;
+		
+		protected Timer(String key, long deadline, long dueTick) {
+			this.key = key;
+			this.deadline = deadline;
+			this.dueTick = dueTick;
+		}
+	}
+	
+	/**
+	 * Tick size in milliseconds
+	 **/
+	protected final long tickMillis;
+	
+	/**
+	 * Wheel slots, by level then slot index
+	 **/
+	protected final List<List<Timer>> slots = new ArrayList<List<Timer>>();
+	
+	/**
+	 * Timers which are already due, and timers beyond the range of the wheel
+	 **/
+	protected List<Timer> dueList = new ArrayList<Timer>();
+	protected List<Timer> overflowList = new ArrayList<Timer>();
+	
+	/**
+	 * Number of timers in the slots of each level
+	 **/
+	protected final int[] levelCount = new int[LEVELS];
+	
+	/**
+	 * Latest timer of each key, and the number of stale timers (of rescheduled keys)
+	 **/
+	protected final Map<String, Timer> latest = new HashMap<String, Timer>();
+	protected int staleCount = 0;
+	
+	/**
+	 * Current tick of the wheel, and the number of timers scheduled
+	 **/
+	protected long currentTick = -1;
+	protected int count = 0;
+	
+	/**
+	 * Setup the timing wheel
+	 *
+	 * @param  tickMillis tick size in milliseconds
+	 **/
+	public Core_TimingWheel(long tickMillis) {
+		this.tickMillis = Math.max(1, tickMillis);
+		for (int i = 0; i < LEVELS * SLOT_COUNT; ++i) {
+			slots.add(null);
+		}
+	}
+	
+	/**
+	 * Setup the timing wheel, with the default tick size
+	 **/
+	public Core_TimingWheel() {
+		this(DEFAULT_TICK_MILLIS);
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Scheduling
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Schedule the key for its deadline
+	 *
+	 * @param  key       to schedule
+	 * @param  deadline  timestamp in milliseconds
+	 **/
+	public synchronized void schedule(String key, long deadline) {
+		// Rounded up, so that the key is never returned before its deadline
+		long dueTick = (deadline + tickMillis - 1) / tickMillis;
+		if (count == 0) {
+			// Empty wheel, skip ahead to the current time
+			currentTick = Math.max(currentTick, System.currentTimeMillis() / tickMillis);
+		}
+		Timer timer = new Timer(key, deadline, dueTick);
+		if (latest.put(key, timer) != null) {
+			++staleCount;
+		}
+		place(timer);
+		++count;
+		
+		// Too many stale timers, compact the wheel
+		if (staleCount >= COMPACT_THRESHOLD && staleCount * 2 >= count) {
+			compact();
+		}
+	}
+	
+	/**
+	 * Places the timer into its wheel slot, for the current tick
+	 **/
+	protected void place(Timer timer) {
+		if (timer.dueTick <= currentTick) {
+			dueList.add(timer);
+			return;
+		}
+		
+		// The lowest level, where the due tick shares the same higher slots as the current tick
+		for (int level = 0; level < LEVELS; ++level) {
+			int shift = SLOT_BITS * (level + 1);
+			if ((timer.dueTick >>> shift) == (currentTick >>> shift)) {
+				int slot = (int) ((timer.dueTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+				slotList(level, slot, true).add(timer);
+				++levelCount[level];
+				return;
+			}
+		}
+		overflowList.add(timer);
+	}
+	
+	/**
+	 * @return the list for the given slot, null if empty and create is false
+	 **/
+	protected List<Timer> slotList(int level, int slot, boolean create) {
+		int pos = level * SLOT_COUNT + slot;
+		List<Timer> ret = slots.get(pos);
+		if (ret == null && create) {
+			ret = new ArrayList<Timer>();
+			slots.set(pos, ret);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Removes and return the timers in the given slot
+	 **/
+	protected List<Timer> takeSlot(int level, int slot) {
+		int pos = level * SLOT_COUNT + slot;
+		List<Timer> ret = slots.get(pos);
+		slots.set(pos, null);
+		if (ret != null) {
+			levelCount[level] -= ret.size();
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return true, if the timer is the latest timer of its key
+	 **/
+	protected boolean isLatest(Timer timer) {
+		return latest.get(timer.key) == timer;
+	}
+	
+	/**
+	 * Removes the stale timers from the list
+	 *
+	 * @return number of timers removed
+	 **/
+	protected int removeStale(List<Timer> list) {
+		int removed = 0;
+		Iterator<Timer> iter = list.iterator();
+		while (iter.hasNext()) {
+			if (!isLatest(iter.next())) {
+				iter.remove();
+				++removed;
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * Removes all stale timers from the wheel
+	 **/
+	protected void compact() {
+		int removed = removeStale(dueList) + removeStale(overflowList);
+		for (int level = 0; level < LEVELS; ++level) {
+			for (int slot = 0; slot < SLOT_COUNT; ++slot) {
+				List<Timer> list = slotList(level, slot, false);
+				if (list == null) {
+					continue;
+				}
+				int levelRemoved = removeStale(list);
+				levelCount[level] -= levelRemoved;
+				removed += levelRemoved;
+				if (list.isEmpty()) {
+					slots.set(level * SLOT_COUNT + slot, null);
+				}
+			}
+		}
+		count -= removed;
+		staleCount = 0;
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Advancing
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Advance the wheel to the given timestamp, returning the timers which are due
+	 *
+	 * @param  now timestamp in milliseconds
+	 *
+	 * @return list of timers (the latest of each key), with a deadline up to the given timestamp
+	 **/
+	public synchronized List<Timer> advance(long now) {
+		return latestOf(advanceTimers(now / tickMillis));
+	}
+	
+	/**
+	 * Filters out the stale timers, from the timers which are due
+	 *
+	 * @param  due timers
+	 *
+	 * @return latest timers of each key
+	 **/
+	protected List<Timer> latestOf(List<Timer> due) {
+		List<Timer> ret = new ArrayList<Timer>();
+		for (Timer timer : due) {
+			if (isLatest(timer)) {
+				latest.remove(timer.key);
+				ret.add(timer);
+			} else if (staleCount > 0) {
+				--staleCount;
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Advance the wheel to the given tick, returning all the timers which are due (including stale)
+	 *
+	 * @param  nowTick to advance to
+	 *
+	 * @return list of timers due
+	 **/
+	protected List<Timer> advanceTimers(long nowTick) {
+		List<Timer> ret = dueList;
+		dueList = new ArrayList<Timer>();
+		
+		// Nothing scheduled, skip ahead
+		if (count <= ret.size() || currentTick < 0) {
+			currentTick = Math.max(currentTick, nowTick);
+			count -= ret.size();
+			return ret;
+		}
+		
+		while (currentTick < nowTick) {
+			// Skip ahead across empty levels, to the last tick before the next
+			// slot boundary of the lowest non empty level (or the overflow list)
+			int emptyLevels = 0;
+			while (emptyLevels < LEVELS && levelCount[emptyLevels] == 0) {
+				++emptyLevels;
+			}
+			if (emptyLevels > 0) {
+				long skipTo = Math.min(nowTick, currentTick | ((1L << (SLOT_BITS * emptyLevels)) - 1));
+				if (skipTo > currentTick) {
+					currentTick = skipTo;
+					continue;
+				}
+			}
+			++currentTick;
+			
+			// Cascade the higher level slots, which the current tick has reached
+			for (int level = LEVELS - 1; level > 0; --level) {
+				long levelMask = (1L << (SLOT_BITS * level)) - 1;
+				if ((currentTick & levelMask) != 0) {
+					continue;
+				}
+				if (level == LEVELS - 1 && !overflowList.isEmpty()) {
+					List<Timer> overflow = overflowList;
+					overflowList = new ArrayList<Timer>();
+					for (Timer timer : overflow) {
+						place(timer);
+					}
+				}
+				int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+				List<Timer> cascade = takeSlot(level, slot);
+				if (cascade != null) {
+					for (Timer timer : cascade) {
+						place(timer);
+					}
+				}
+			}
+			
+			// Timers due on the current tick
+			List<Timer> due = takeSlot(0, (int) (currentTick & SLOT_MASK));
+			if (due != null) {
+				ret.addAll(due);
+			}
+			if (!dueList.isEmpty()) {
+				ret.addAll(dueList);
+				dueList = new ArrayList<Timer>();
+			}
+			
+			// Everything is due, skip ahead
+			if (count <= ret.size()) {
+				currentTick = nowTick;
+				break;
+			}
+		}
+		
+		count -= ret.size();
+		return ret;
+	}
+	
+	/**
+	 * @return number of timers scheduled (including stale timers, till they are discarded)
+	 **/
+	public synchronized int size() {
+		return count;
+	}
+	
+	/**
+	 * Removes all scheduled timers
+	 **/
+	public synchronized void clear() {
+		for (int i = 0; i < slots.size(); ++i) {
+			slots.set(i, null);
+		}
+		dueList = new ArrayList<Timer>();
+		overflowList = new ArrayList<Timer>();
+		for (int level = 0; level < LEVELS; ++level) {
+			levelCount[level] = 0;
+		}
+		latest.clear();
+		staleCount = 0;
+		count = 0;
+	}
+}
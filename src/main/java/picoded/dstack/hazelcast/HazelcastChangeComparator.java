@@ -0,0 +1,33 @@
+package picoded.dstack.hazelcast;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.Map;
+
+import picoded.core.conv.GenericConvert;
+
+/**
+ * Serializable comparator of hazelcast change map entries, by its update time (uTm),
+ * followed by its string key in natural order.
+ * 
+ * This is used with PagingPredicate, for the change feed (see changedSince).
+ * As it is sent to the cluster members, it needs to be serializable, and in the classpath of all members.
+ */
+public class HazelcastChangeComparator implements
+	Comparator<Map.Entry<String, Map<String, Object>>>, Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Compare the entry update time, followed by the keys
+	 */
+	public int compare(Map.Entry<String, Map<String, Object>> a,
+		Map.Entry<String, Map<String, Object>> b) {
+		int cmp = Long.compare(GenericConvert.toLong(a.getValue().get("uTm")),
+			GenericConvert.toLong(b.getValue().get("uTm")));
+		if (cmp != 0) {
+			return cmp;
+		}
+		return a.getKey().compareTo(b.getKey());
+	}
+}
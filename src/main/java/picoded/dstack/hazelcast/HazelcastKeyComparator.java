@@ -0,0 +1,25 @@
+package picoded.dstack.hazelcast;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Serializable comparator of hazelcast map entries, by its string key in natural order.
+ * 
+ * This is used with PagingPredicate, for ordered iteration of keys (see looselyIterateObjectID).
+ * As it is sent to the cluster members, it needs to be serializable, and in the classpath of all members.
+ */
+public class HazelcastKeyComparator implements Comparator<Map.Entry<String, Map<String, Object>>>,
+	Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Compare the entry keys
+	 */
+	public int compare(Map.Entry<String, Map<String, Object>> a,
+		Map.Entry<String, Map<String, Object>> b) {
+		return a.getKey().compareTo(b.getKey());
+	}
+}
@@ -2,12 +2,15 @@ package picoded.dstack.hazelcast;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 // Java imports
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 // Picoded imports
@@ -15,6 +18,7 @@ import picoded.core.conv.ConvertJSON;
 import picoded.core.conv.GenericConvert;
 import picoded.core.conv.NestedObjectFetch;
 import picoded.core.conv.StringEscape;
+import picoded.core.struct.GenericConvertMap;
 import picoded.core.struct.query.Query;
 import picoded.core.common.ObjectToken;
 import picoded.dstack.*;
@@ -24,7 +28,12 @@ import picoded.dstack.core.*;
 import com.hazelcast.core.*;
 import com.hazelcast.config.*;
 import com.hazelcast.map.eviction.LRUEvictionPolicy;
+import com.hazelcast.query.PagingPredicate;
+import com.hazelcast.query.PartitionPredicate;
+import com.hazelcast.query.Predicate;
+import com.hazelcast.query.Predicates;
 import com.hazelcast.query.SqlPredicate;
+import com.hazelcast.query.TruePredicate;
 import com.hazelcast.query.extractor.ValueCollector;
 import com.hazelcast.query.extractor.ValueExtractor;
 
@@ -171,9 +180,8 @@ public class Hazelcast_DataObjectMap extends Core_DataObjectMap_struct {
 		// Add in the default _oid
 		mConfig.addMapIndexConfig(new MapIndexConfig("self[_oid]", true));
 		
-		// Enable query index for specific fields
-		String[] indexArray = configMap().getStringArray("index", "[]");
-		for (String indexName : indexArray) {
+		// Enable query index for specific fields, and flattened nested paths
+		for (String indexName : indexedKeys()) {
 			// Skip _oid index, as its always defined
 			if (indexName.equals("_oid")) {
 				continue;
@@ -190,6 +198,17 @@ public class Hazelcast_DataObjectMap extends Core_DataObjectMap_struct {
 		// and apply it to the instance
 		// see : https://docs.hazelcast.org/docs/latest-development/manual/html/Understanding_Configuration/Dynamically_Adding_Configuration_on_a_Cluster.html
 		hazelcast.getConfig().addMapConfig(mConfig);
+		
+		// Setup the change feed map config, with the same backup count
+		// and an ordered index on the update time
+		MapConfig cConfig = new MapConfig(changeMapName());
+		cConfig.setBackupCount(mConfig.getBackupCount());
+		cConfig.setAsyncBackupCount(mConfig.getAsyncBackupCount());
+		cConfig.setReadBackupData(mConfig.isReadBackupData());
+		cConfig.addMapIndexConfig(new MapIndexConfig("self[uTm]", true));
+		cConfig.addMapAttributeConfig(new MapAttributeConfig("self",
+			"picoded.dstack.hazelcast.HazelcastStorageExtractor"));
+		hazelcast.getConfig().addMapConfig(cConfig);
 	}
 	
 	/**
@@ -200,6 +219,31 @@ public class Hazelcast_DataObjectMap extends Core_DataObjectMap_struct {
 		// Since we do not have a proper map remove command,
 		// the closest equivalent is to "clear"
 		backendMap().clear();
+		changeIMap().clear();
+	}
+	
+	/**
+	 * Removes all data, without tearing down setup
+	 **/
+	@Override
+	public void clear() {
+		super.clear();
+		changeIMap().clear();
+	}
+	
+	/**
+	 * Maintenance step call, removing expired tombstones from the change feed map
+	 **/
+	@Override
+	public void maintenance() {
+		long before = System.currentTimeMillis() - tombstoneRetention();
+		Set<String> expired = changeIMap().keySet(Predicates.and( //
+			Predicates.equal("self[del]", Boolean.TRUE), //
+			Predicates.lessThan("self[uTm]", before) //
+			)); //
+		for (String oid : expired) {
+			changeIMap().delete(oid);
+		}
 	}
 	
 	//--------------------------------------------------------------------------
@@ -273,26 +317,7 @@ public class Hazelcast_DataObjectMap extends Core_DataObjectMap_struct {
 	 **/
 	public String[] query_id(Query queryClause, String orderByStr, int offset, int limit) {
 		// The return list of DataObjects
-		List<DataObject> retList = null;
-		
-		// Setup the query, if needed
-		if (queryClause == null) {
-			// Null gets all
-			retList = new ArrayList<DataObject>(this.values());
-		} else {
-			// Converts query to sqlPredicate query
-			SqlPredicate sqlQuery = new SqlPredicate(queryStringify(queryClause));
-			
-			// Get the list of _oid that passes the query
-			Set<String> idSet = backendIMap().keySet(sqlQuery);
-			String[] idArr = idSet.toArray(new String[0]);
-			
-			// DataObject[] from idArr
-			DataObject[] doArr = getArrayFromID(idArr, true);
-			
-			// Converts to a list
-			retList = new ArrayList(Arrays.asList(doArr));
-		}
+		List<DataObject> retList = queryList(queryClause);
 		
 		// Sort, offset, convert to array, and return
 		retList = sortAndOffsetList(retList, orderByStr, offset, limit);
@@ -308,4 +333,405 @@ public class Hazelcast_DataObjectMap extends Core_DataObjectMap_struct {
 		return ret;
 	}
 	
+	/**
+	 * Performs a search query, and returns a page of the respective DataObjects,
+	 * together with the total count for the query. Using a single predicate query.
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The DataObjectPage, with the total count
+	 **/
+	@Override
+	public DataObjectPage queryPage(Query queryClause, String orderByStr, int offset, int limit) {
+		return pageFromList(queryList(queryClause), orderByStr, offset, limit);
+	}
+	
+	/**
+	 * Gets the keys to index, configured via `index`. Including the nested paths configured
+	 * via `flattenPaths` (eg: address.city), which are resolved by the HazelcastStorageExtractor
+	 *
+	 * @return set of indexed keys
+	 **/
+	protected Set<String> indexedKeys() {
+		Set<String> ret = new LinkedHashSet<String>();
+		ret.addAll(Arrays.asList(configMap().getStringArray("index", "[]")));
+		for (String path : configMap().getStringArray("flattenPaths", "[]")) {
+			if (path.indexOf('.') > 0) {
+				ret.add(path);
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Explains how a search query is performed, reporting the hazelcast predicate used,
+	 * and if the queried keys are indexed (configured via `index`).
+	 *
+	 * Hazelcast does not report the number of entries examined, as such it is estimated as
+	 * the result size when all queried keys are indexed, else the full map size (scan).
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The explanation map
+	 **/
+	@Override
+	public GenericConvertMap<String, Object> explain(Query queryClause, String orderByStr,
+		int offset, int limit) {
+		GenericConvertMap<String, Object> ret = explainSetup(queryClause);
+		
+		// The predicate, and the indexed keys it uses
+		long start = System.nanoTime();
+		List<String> indexes = new ArrayList<String>();
+		boolean allIndexed = true;
+		if (queryClause != null) {
+			ret.put("predicate", queryStringify(queryClause));
+			Set<String> indexSet = indexedKeys();
+			indexSet.add("_oid");
+			for (String field : queryClause.fieldQueryMap().keySet()) {
+				if (indexSet.contains(field)) {
+					indexes.add(field);
+				} else {
+					allIndexed = false;
+				}
+			}
+		}
+		ret.put("indexes", indexes);
+		ret.put("planTime", (System.nanoTime() - start) / 1000000.0);
+		
+		// Execute the query
+		start = System.nanoTime();
+		List<DataObject> retList = queryList(queryClause);
+		int matchCount = retList.size();
+		retList = sortAndOffsetList(retList, orderByStr, offset, limit);
+		ret.put("executeTime", (System.nanoTime() - start) / 1000000.0);
+		
+		// Index, or scan usage
+		boolean useIndex = queryClause != null && allIndexed;
+		ret.put("strategy", useIndex ? "index" : "scan");
+		ret.put("rowsExamined", useIndex ? matchCount : backendIMap().size());
+		ret.put("resultCount", retList.size());
+		return ret;
+	}
+	
+	/**
+	 * Gets the unsorted list of DataObjects matching the query, using the hazelcast predicate
+	 *
+	 * @param   queryClause, of where query statement and value, null gets all
+	 *
+	 * @return  The list of DataObjects
+	 **/
+	@Override
+	protected List<DataObject> queryList(Query queryClause) {
+		// Null gets all
+		if (queryClause == null) {
+			return new ArrayList<DataObject>(this.values());
+		}
+		
+		// Converts query to sqlPredicate query
+		SqlPredicate sqlQuery = new SqlPredicate(queryStringify(queryClause));
+		
+		// Get the list of _oid that passes the query
+		Set<String> idSet = backendIMap().keySet(sqlQuery);
+		String[] idArr = idSet.toArray(new String[0]);
+		
+		// DataObject[] from idArr
+		DataObject[] doArr = getArrayFromID(idArr, true);
+		
+		// Converts to a list
+		return new ArrayList<DataObject>(Arrays.asList(doArr));
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Random selection support
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * @return null, as a local key index is not possible for a distributed map.
+	 *         Random selection is done via partition sampling instead.
+	 */
+	@Override
+	protected Core_KeyIndex keyIndex() {
+		return null;
+	}
+	
+	/**
+	 * @return null, as a local secondary index is not possible for a distributed map.
+	 *         Queries use the hazelcast map indexes (configured via `index`) instead.
+	 */
+	@Override
+	protected Core_StructIndex structIndex() {
+		return null;
+	}
+	
+	/**
+	 * Number of random partitions to sample, before giving up on finding an object
+	 **/
+	protected static final int PARTITION_SAMPLE_RETRY = 16;
+	
+	/**
+	 * Get the keys of a random partition, this is done by using a random partition key
+	 * which maps to one of the partitions (by its hash)
+	 *
+	 * @return keys in a random partition
+	 **/
+	protected Set<String> randomPartitionKeySet() {
+		String partitionKey = Long.toString(ThreadLocalRandom.current().nextLong());
+		return backendIMap().keySet(new PartitionPredicate<String, Map<String, Object>>(partitionKey,
+			TruePredicate.INSTANCE));
+	}
+	
+	/**
+	 * Gets and return a random object ID, by sampling a random partition.
+	 *
+	 * Note that as partition sizes may differ slightly, this is approximately random
+	 *
+	 * @return  Random object ID
+	 **/
+	@Override
+	public String randomObjectID() {
+		for (int i = 0; i < PARTITION_SAMPLE_RETRY; ++i) {
+			Set<String> keys = randomPartitionKeySet();
+			if (keys.size() > 0) {
+				return pickRandom(keys);
+			}
+		}
+		
+		// Possibly a very sparse, or empty map
+		if (backendIMap().isEmpty()) {
+			return null;
+		}
+		return super.randomObjectID();
+	}
+	
+	/**
+	 * Gets and return up to n distinct random object ID's, by sampling random partitions
+	 *
+	 * @param  n number of object ID's to return
+	 *
+	 * @return  Random object ID's
+	 **/
+	@Override
+	public String[] randomSample(int n) {
+		if (n <= 0) {
+			return new String[0];
+		}
+		
+		// Small maps, just sample the whole map
+		int size = backendIMap().size();
+		if (size <= n) {
+			List<String> all = new ArrayList<String>(backendIMap().keySet());
+			Collections.shuffle(all, ThreadLocalRandom.current());
+			return all.toArray(new String[0]);
+		}
+		
+		// Sample random partitions, picking at most half of each partition to spread the sample
+		Set<String> ret = new LinkedHashSet<String>();
+		int misses = 0;
+		while (ret.size() < n && misses < PARTITION_SAMPLE_RETRY) {
+			List<String> keys = new ArrayList<String>(randomPartitionKeySet());
+			keys.removeAll(ret);
+			if (keys.size() == 0) {
+				misses++;
+				continue;
+			}
+			Collections.shuffle(keys, ThreadLocalRandom.current());
+			int take = Math.min(n - ret.size(), Math.max(1, keys.size() / 2));
+			ret.addAll(keys.subList(0, take));
+		}
+		return ret.toArray(new String[0]);
+	}
+	
+	/**
+	 * @param  keys to pick from
+	 *
+	 * @return a random key from the set
+	 **/
+	protected String pickRandom(Set<String> keys) {
+		int chosen = ThreadLocalRandom.current().nextInt(keys.size());
+		int idx = 0;
+		for (String key : keys) {
+			if (idx >= chosen) {
+				return key;
+			}
+			idx++;
+		}
+		return null;
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Ordered iteration support
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Fetch a page of object ID's in sorted order, after the given ID.
+	 *
+	 * This uses a range query on the (ordered) _oid index, limited to the page size
+	 * by a paging predicate sorted by the key.
+	 *
+	 * @param  afterID to fetch from (exclusive), null for the first page
+	 * @param  limit number of ID's to fetch
+	 *
+	 * @return list of ID's, in ascending order
+	 **/
+	protected List<String> fetchIterationPage(String afterID, int limit) {
+		PagingPredicate<String, Map<String, Object>> pagingPredicate = null;
+		if (afterID == null) {
+			pagingPredicate = new PagingPredicate<String, Map<String, Object>>(
+				new HazelcastKeyComparator(), limit);
+		} else {
+			pagingPredicate = new PagingPredicate<String, Map<String, Object>>( //
+				Predicates.greaterThan("self[_oid]", afterID), //
+				new HazelcastKeyComparator(), limit //
+			); //
+		}
+		
+		// Sorted again locally, as a safety net for the result set ordering
+		List<String> ret = new ArrayList<String>(backendIMap().keySet(pagingPredicate));
+		Collections.sort(ret);
+		return ret;
+	}
+	
+	/**
+	 * Gets and return the next object ID key for iteration given the current ID.
+	 *
+	 * Instead of sorting the whole keySet on every call, the next ID is fetched with a
+	 * single entry range query on the _oid index. Without any state shared across calls,
+	 * so concurrent iterations do not affect each other, and removed ID's are not returned.
+	 *
+	 * @param   currentID, use NULL to get the first ID
+	 *
+	 * @return  Next object ID, if found, null if iteration is complete
+	 **/
+	@Override
+	public String looselyIterateObjectID(String currentID) {
+		List<String> page = fetchIterationPage(currentID, 1);
+		if (page.size() <= 0) {
+			return null;
+		}
+		return page.get(0);
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Change feed support
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * @return null, as a local change index is not possible for a distributed map.
+	 *         Changes are recorded into a companion distributed map instead.
+	 */
+	@Override
+	protected Core_ChangeIndex changeIndex() {
+		return null;
+	}
+	
+	/**
+	 * @return the companion change feed map name
+	 */
+	protected String changeMapName() {
+		return name() + "_changes";
+	}
+	
+	/**
+	 * @return change feed map memoizer
+	 */
+	private IMap<String, Map<String, Object>> _changeIMap = null;
+	
+	/**
+	 * @return Companion map of object ID, to its latest change (uTm, and del flag).
+	 */
+	protected IMap<String, Map<String, Object>> changeIMap() {
+		if (_changeIMap != null) {
+			return _changeIMap;
+		}
+		_changeIMap = hazelcast.getMap(changeMapName());
+		return _changeIMap;
+	}
+	
+	/**
+	 * Records the change of an object, into the change feed map
+	 *
+	 * Note that the update time is based on the local clock,
+	 * as such the ordering across members is only as accurate as their clock sync.
+	 *
+	 * @param  oid      object ID which changed
+	 * @param  removed  true, if the object was removed
+	 **/
+	@Override
+	protected void recordChange(String oid, boolean removed) {
+		HazelcastStorageMap change = new HazelcastStorageMap();
+		change.put("uTm", System.currentTimeMillis());
+		change.put("del", removed);
+		changeIMap().set(oid, change);
+	}
+	
+	/**
+	 * Gets the objects which changed (updated, or removed) since the given timestamp,
+	 * in update order.
+	 *
+	 * This uses a range query on the (ordered) uTm index of the change feed map,
+	 * limited by a paging predicate sorted by the update time and key.
+	 *
+	 * @param  timestamp in milliseconds to get changes from (inclusive), ignored if cursor is given
+	 * @param  limit     max number of changes to return, use -1 to ignore
+	 * @param  cursor    of the last change read (exclusive), can be null
+	 *
+	 * @return  list of changes, in update order
+	 **/
+	@Override
+	public List<DataObjectChange> changedSince(long timestamp, int limit, String cursor) {
+		if (limit == 0) {
+			return new ArrayList<DataObjectChange>();
+		}
+		
+		// The range predicate
+		Predicate<String, Map<String, Object>> range = null;
+		if (cursor != null) {
+			DataObjectChange from = DataObjectChange.fromCursor(cursor);
+			range = Predicates.or( //
+				Predicates.greaterThan("self[uTm]", from.getUpdateTime()), //
+				Predicates.and( //
+					Predicates.equal("self[uTm]", from.getUpdateTime()), //
+					Predicates.greaterThan("__key", from.getObjectID()) //
+					) //
+				); //
+		} else {
+			range = Predicates.greaterEqual("self[uTm]", timestamp);
+		}
+		
+		// Fetch the changes, limited with a paging predicate if needed
+		Set<Map.Entry<String, Map<String, Object>>> entries = null;
+		if (limit >= 0) {
+			entries = changeIMap().entrySet(
+				new PagingPredicate<String, Map<String, Object>>(range,
+					new HazelcastChangeComparator(), Math.max(1, limit)));
+		} else {
+			entries = changeIMap().entrySet(range);
+		}
+		
+		// Convert and sort (again) locally, as a safety net for the result set ordering
+		List<DataObjectChange> ret = new ArrayList<DataObjectChange>();
+		for (Map.Entry<String, Map<String, Object>> entry : entries) {
+			Map<String, Object> change = entry.getValue();
+			ret.add(new DataObjectChange(entry.getKey(), GenericConvert.toLong(change.get("uTm")),
+				Boolean.TRUE.equals(change.get("del"))));
+		}
+		Collections.sort(ret, DataObjectChange.ORDER);
+		if (limit >= 0 && ret.size() > limit) {
+			ret = new ArrayList<DataObjectChange>(ret.subList(0, limit));
+		}
+		return ret;
+	}
+	
 }
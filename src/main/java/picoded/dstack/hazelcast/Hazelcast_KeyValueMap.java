@@ -135,6 +135,13 @@ public class Hazelcast_KeyValueMap extends Core_KeyValueMap {
 		// and apply it to the instance
 		// see : https://docs.hazelcast.org/docs/latest-development/manual/html/Understanding_Configuration/Dynamically_Adding_Configuration_on_a_Cluster.html
 		hazelcast.getConfig().addMapConfig(mConfig);
+		
+		// Index the values, for keySet(value) lookups (unless disabled via `valueIndex`).
+		// This is added on the live map (which is idempotent), so that maps which already
+		// exist on a running cluster are indexed as well
+		if (configMap().getBoolean("valueIndex", true)) {
+			backendMap().addIndex("this", false);
+		}
 	}
 	
 	/**
@@ -174,7 +181,8 @@ public class Hazelcast_KeyValueMap extends Core_KeyValueMap {
 	/**
 	 * Search using the value, all the relevent key mappings
 	 *
-	 * Handles re-entrant lock where applicable
+	 * This uses the `this` map index (configured on systemSetup), for an indexed lookup
+	 * instead of a cluster wide scan.
 	 *
 	 * @param key, note that null matches ALL
 	 *
@@ -4,6 +4,7 @@ import picoded.core.struct.GenericConvertMap;
 import picoded.dstack.core.*;
 import picoded.dstack.*;
 import picoded.dstack.connector.jsql.JSql;
+import picoded.dstack.connector.jsql.JSqlBulkhead;
 
 /**
  * [Internal use only]
@@ -46,13 +47,32 @@ public class JSqlStack extends CoreStack {
 	protected Core_DataStructure initDataStructure(String name, String type) {
 		// Initialize for the respective type
 		if (type.equalsIgnoreCase("DataObjectMap")) {
-			return new JSql_DataObjectMap(conn, name);
+			JSql_DataObjectMap ret = new JSql_DataObjectMap(conn, name);
+			ret.setBulkhead(setupBulkhead(name));
+			GenericConvertMap<String, Object> bsConfig = structureConfig("blobStore", name);
+			if (bsConfig != null) {
+				ret.setBlobStore(fileWorkspaceMap(bsConfig.getString("fileWorkspaceMap", name + "_BLOB")),
+					bsConfig.getInt("threshold", Core_DataObjectMap.DEFAULT_BLOB_THRESHOLD));
+			}
+			return ret;
 		}
 		if (type.equalsIgnoreCase("KeyValueMap")) {
-			return new JSql_KeyValueMap(conn, name);
+			JSql_KeyValueMap ret = new JSql_KeyValueMap(conn, name);
+			ret.setBulkhead(setupBulkhead(name));
+			GenericConvertMap<String, Object> gcConfig = structureConfig("groupCommit", name);
+			if (gcConfig != null) {
+				ret.enableGroupCommit(gcConfig.getLong("window", 2), gcConfig.getInt("maxBatchSize", 128));
+			}
+			return ret;
 		}
 		if (type.equalsIgnoreCase("KeyLongMap")) {
-			return new JSql_KeyLongMap(conn, name);
+			JSql_KeyLongMap ret = new JSql_KeyLongMap(conn, name);
+			ret.setBulkhead(setupBulkhead(name));
+			GenericConvertMap<String, Object> gcConfig = structureConfig("groupCommit", name);
+			if (gcConfig != null) {
+				ret.enableGroupCommit(gcConfig.getLong("window", 2), gcConfig.getInt("maxBatchSize", 128));
+			}
+			return ret;
 		}
 		if (type.equalsIgnoreCase("FileWorkspaceMap")) {
 			return new JSql_FileWorkspaceMap(conn, name);
@@ -60,4 +80,62 @@ public class JSqlStack extends CoreStack {
 		// No valid type, return null
 		return null;
 	}
+	
+	/**
+	 * Get the structure specific config object, for the given config key. Where the
+	 * structure name config (case insensitive) takes priority over the "default" config.
+	 *
+	 * @param  configKey  of the config object in the stack config (eg: bulkhead)
+	 * @param  name       name of the datastructure
+	 *
+	 * @return structure config to use, null if not configured
+	 */
+	protected GenericConvertMap<String, Object> structureConfig(String configKey, String name) {
+		GenericConvertMap<String, Object> keyConfig = config.fetchGenericConvertStringMap(configKey);
+		if (keyConfig == null) {
+			return null;
+		}
+		
+		// Get the structure specific config (case insensitive), else the default
+		for (String key : keyConfig.keySet()) {
+			if (key.equalsIgnoreCase(name)) {
+				return keyConfig.fetchGenericConvertStringMap(key);
+			}
+		}
+		return keyConfig.fetchGenericConvertStringMap("default");
+	}
+	
+	/**
+	 * Setup the bulkhead (concurrency limit) for the given structure name.
+	 *
+	 * Using the "bulkhead" config object, where the structure name config takes priority
+	 * over the "default" config. For example
+	 *
+	 * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~{.json}
+	 * "bulkhead" : {
+	 *	"default" : { "maxConcurrency" : 8, "waitTimeout" : 100 },
+	 *	"session" : { "maxConcurrency" : 4 }
+	 * }
+	 * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	 *
+	 * maxConcurrency should be kept below the connection pool size, so that a slow
+	 * structure can never hold all the connections used by the other structures.
+	 *
+	 * Similarly, the "groupCommit" config object (with window, and maxBatchSize)
+	 * enables group commit for KeyValueMap, and KeyLongMap. See JSqlGroupCommit.
+	 *
+	 * And the "blobStore" config object (with fileWorkspaceMap name, and threshold) enables
+	 * offloading of oversized DataObjectMap values into the named FileWorkspaceMap.
+	 *
+	 * @param  name  name of the datastructure
+	 *
+	 * @return bulkhead to use, null if not configured
+	 */
+	protected JSqlBulkhead setupBulkhead(String name) {
+		GenericConvertMap<String, Object> structConfig = structureConfig("bulkhead", name);
+		if (structConfig == null) {
+			return null;
+		}
+		return new JSqlBulkhead(name, structConfig);
+	}
 }
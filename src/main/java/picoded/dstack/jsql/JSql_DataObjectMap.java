@@ -1,8 +1,15 @@
 package picoded.dstack.jsql;
 
+import java.io.OutputStream;
 import java.util.logging.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -11,11 +18,15 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import picoded.core.security.NxtCrypt;
 import picoded.dstack.DataObjectMap;
 import picoded.dstack.DataObject;
+import picoded.dstack.DataObjectChange;
+import picoded.dstack.DataObjectPage;
+import picoded.dstack.core.Core_ColumnarSnapshotWriter;
 import picoded.dstack.core.Core_DataObjectMap;
 import picoded.core.struct.GenericConvertMap;
 import picoded.core.struct.query.Query;
 import picoded.core.struct.GenericConvertHashMap;
 import picoded.dstack.connector.jsql.*;
+import picoded.core.conv.GenericConvert;
 import picoded.core.conv.ListValueConv;
 
 /**
@@ -46,6 +57,17 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 	 **/
 	protected String primaryKeyTable = null;
 	
+	/**
+	 * The tablename for the removal tombstones, used by changedSince
+	 **/
+	protected String tombstoneTable = null;
+	
+	/**
+	 * Bulkhead (concurrency limit) and statement timeouts used for the JSql calls
+	 * of this structure, defaults to no concurrency limit. See JSqlStack for its config.
+	 **/
+	protected JSqlBulkhead bulkhead = null;
+	
 	/**
 	 * JSql setup
 	 *
@@ -57,6 +79,17 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 		sqlObj = inJSql;
 		primaryKeyTable = "DP_" + tablename;
 		dataStorageTable = "DD_" + tablename;
+		tombstoneTable = "DT_" + tablename;
+		bulkhead = new JSqlBulkhead(primaryKeyTable);
+	}
+	
+	/**
+	 * Set the bulkhead (concurrency limit) to use for all JSql calls of this structure
+	 *
+	 * @param  inBulkhead to use, null for no limit
+	 **/
+	public void setBulkhead(JSqlBulkhead inBulkhead) {
+		bulkhead = (inBulkhead != null) ? inBulkhead : new JSqlBulkhead(primaryKeyTable);
 	}
 	
 	//--------------------------------------------------------------------------
@@ -155,6 +188,27 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 			} //
 			);
 		
+		// TOMBSTONE Table constructor
+		//----------------------------
+		sqlObj.createTable( //
+			tombstoneTable, //
+			new String[] { //
+			// Primary key, as classic int
+				"pKy", //
+				// Removal time stamp
+				"uTm", //object removed time
+				// Object keys
+				"oID" //_oid
+			}, //
+			new String[] { //
+			pKeyColumnType, //Primary key
+				// Time stamps
+				tStampColumnType, //
+				// Object keys
+				objColumnType //
+			} //
+			);
+		
 		// DATA Table constructor
 		//----------------------------
 		sqlObj.createTable( //
@@ -207,6 +261,12 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 			primaryKeyTable, "oID", "UNIQUE", "unq" //
 		); //
 		
+		// This optimizes tombstone upsert by object keys
+		// + oID
+		sqlObj.createIndex( //
+			tombstoneTable, "oID", "UNIQUE", "unq" //
+		); //
+		
 		// This optimizes query by object keys,
 		// with the following combinations
 		// + oID
@@ -247,6 +307,18 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 			dataStorageTable, "kID, sVl", null, "ksIdx" //
 		); //
 		
+		// Change feed index, for changedSince index range scans
+		//------------------------------------------------
+		
+		// + uTm
+		// + uTm, oID
+		sqlObj.createIndex( //
+			primaryKeyTable, "uTm, oID", null, "uTmIdx" //
+		); //
+		sqlObj.createIndex( //
+			tombstoneTable, "uTm, oID", null, "uTmIdx" //
+		); //
+		
 		// Full text index, for textual data
 		// @TODO FULLTEXT index support
 		//------------------------------------------------
@@ -301,6 +373,7 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 	public void systemDestroy() {
 		sqlObj.dropTable(dataStorageTable);
 		sqlObj.dropTable(primaryKeyTable);
+		sqlObj.dropTable(tombstoneTable);
 	}
 	
 	/**
@@ -310,6 +383,17 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 	public void clear() {
 		sqlObj.delete(dataStorageTable);
 		sqlObj.delete(primaryKeyTable);
+		sqlObj.delete(tombstoneTable);
+	}
+	
+	/**
+	 * Maintenance step call, removing expired tombstones
+	 **/
+	@Override
+	public void maintenance() {
+		long before = (System.currentTimeMillis() - tombstoneRetention()) / 1000L;
+		bulkhead.run(sqlObj, JSqlOperationType.MAINTENANCE,
+			() -> sqlObj.delete(tombstoneTable, "uTm < ?", new Object[] { before }));
 	}
 	
 	//--------------------------------------------------------------------------
@@ -329,19 +413,115 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 	 * @return  nothing
 	 **/
 	public void DataObjectRemoteDataMap_remove(String oid) {
-		// Delete the data
-		sqlObj.delete(dataStorageTable, "oID = ?", new Object[] { oid });
+		// Curent timestamp
+		long now = JSql_DataObjectMapUtil.getCurrentTimestamp();
 		
-		// Delete the parent key
-		sqlObj.delete(primaryKeyTable, "oID = ?", new Object[] { oid });
+		bulkhead.run(sqlObj, JSqlOperationType.WRITE, () -> {
+			// Delete the data
+			sqlObj.delete(dataStorageTable, "oID = ?", new Object[] { oid });
+			
+			// Delete the parent key
+			sqlObj.delete(primaryKeyTable, "oID = ?", new Object[] { oid });
+			
+			// Tombstone for the change feed
+			sqlObj.upsert( //
+				tombstoneTable, //
+				new String[] { "oID" }, //
+				new Object[] { oid }, //
+				new String[] { "uTm" }, //
+				new Object[] { now } //
+				);
+		});
+		
+		// And its offloaded blobs
+		blobRemove(oid);
+	}
+	
+	/**
+	 * Default size threshold (in bytes / characters) of large tVl / rVl values, to lazy load
+	 **/
+	public static final int DEFAULT_LAZY_LOAD_THRESHOLD = 64 * 1024;
+	
+	/**
+	 * @return size threshold of large tVl / rVl values, which are only loaded on first access.
+	 *         configured via `lazyLoadThreshold`, where 0 or less disables lazy loading.
+	 **/
+	protected int lazyLoadThreshold() {
+		return configMap().getInt("lazyLoadThreshold", DEFAULT_LAZY_LOAD_THRESHOLD);
+	}
+	
+	/**
+	 * @return true, if nested values (map / list) are stored using the packed binary format
+	 *         (Core_BinaryCodec) instead of JSON, configured via `packedEncoding` (default true).
+	 *         Existing JSON values remain readable regardless of this setting, and it can be
+	 *         disabled to keep writing JSON values readable by older versions.
+	 *
+	 *         Note that packed values preserve their nested number types (see Core_BinaryCodec),
+	 *         which may differ from the number types decoded from the equivalent JSON value.
+	 **/
+	protected boolean packedEncoding() {
+		return configMap().getBoolean("packedEncoding", true);
+	}
+	
+	/**
+	 * Memoized `flattenPaths` config, as it is used on every write and query
+	 **/
+	protected volatile Set<String> _flattenPaths = null;
+	
+	/**
+	 * @return nested paths (eg: address.city) to flatten into their own rows, for querying.
+	 *         configured via `flattenPaths`, paths without a "." are ignored.
+	 *
+	 * Note that existing objects are only flattened, when their root key is next updated.
+	 **/
+	protected Set<String> flattenPaths() {
+		if (_flattenPaths == null) {
+			Set<String> ret = new HashSet<String>();
+			for (String path : configMap().getStringArray("flattenPaths", "[]")) {
+				if (path.indexOf('.') > 0 && path.length() <= 64) {
+					ret.add(path);
+				}
+			}
+			_flattenPaths = Collections.unmodifiableSet(ret);
+		}
+		return _flattenPaths;
 	}
 	
 	/**
 	 * Gets the complete remote data map, for DataObject.
 	 * Returns null if not exists
+	 *
+	 * Large tVl / rVl values (see lazyLoadThreshold) are not fetched, but
+	 * loaded on its first access via Core_DataObject.get instead.
 	 **/
 	public Map<String, Object> DataObjectRemoteDataMap_get(String _oid) {
-		return JSql_DataObjectMapUtil.jSqlObjectMapFetch(sqlObj, dataStorageTable, _oid, null);
+		Map<String, Object> ret = bulkhead.call(sqlObj, JSqlOperationType.POINT_GET,
+			() -> JSql_DataObjectMapUtil.jSqlObjectMapFetch(sqlObj, dataStorageTable, _oid, null,
+				lazyLoadThreshold(), //
+				(key) -> bulkhead.call(sqlObj, JSqlOperationType.POINT_GET, () -> //
+					JSql_DataObjectMapUtil.jSqlObjectMapFetchKey(sqlObj, dataStorageTable, _oid, key) //
+					) //
+				));
+		
+		// Blob pointers are dereferenced on first access
+		return blobDereference(_oid, ret);
+	}
+	
+	/**
+	 * Gets the keys which currently store a blob pointer, from the stored values
+	 * (without dereferencing them). Where large values are not fetched, and are treated
+	 * as a possible blob pointer instead.
+	 *
+	 * @param  oid of the object
+	 * @param  keys to check
+	 *
+	 * @return set of keys with a blob pointer
+	 **/
+	@Override
+	protected Set<String> blobPointerKeys(String oid, Set<String> keys) {
+		return blobPointerKeys(bulkhead.call(sqlObj, JSqlOperationType.POINT_GET,
+			() -> JSql_DataObjectMapUtil.jSqlObjectMapFetch(sqlObj, dataStorageTable, oid, null,
+				lazyLoadThreshold(), (key) -> null)), keys);
 	}
 	
 	/**
@@ -354,21 +534,42 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 		// Curent timestamp
 		long now = JSql_DataObjectMapUtil.getCurrentTimestamp();
 		
-		// Ensure GUID is registered
-		sqlObj.upsert( //
-			primaryKeyTable, //
-			new String[] { "oID" }, //
-			new Object[] { _oid }, //
-			new String[] { "uTm" }, //
-			new Object[] { now }, //
-			new String[] { "cTm", "eTm" }, //
-			new Object[] { now, 0 }, //
-			null // The only misc col, is pKy, which is being handled by DB
-			);
+		// Offload oversized values into the blob store (if configured)
+		Map<String, Object> storeMap = blobOffload(_oid, fullMap, keys);
 		
-		// Does the data append
-		JSql_DataObjectMapUtil.jSqlObjectMapAppend(sqlObj, dataStorageTable, _oid, fullMap, keys,
-			true);
+		// Flattened nested paths, if any
+		Set<String> paths = flattenPaths();
+		
+		bulkhead.run(sqlObj, JSqlOperationType.WRITE, () -> {
+			// Ensure GUID is registered
+			sqlObj.upsert( //
+				primaryKeyTable, //
+				new String[] { "oID" }, //
+				new Object[] { _oid }, //
+				new String[] { "uTm" }, //
+				new Object[] { now }, //
+				new String[] { "cTm", "eTm" }, //
+				new Object[] { now, 0 }, //
+				null // The only misc col, is pKy, which is being handled by DB
+				);
+			
+			// Does the data append only, if there is nothing to flatten
+			if (paths.size() <= 0) {
+				JSql_DataObjectMapUtil.jSqlObjectMapAppend(sqlObj, dataStorageTable, _oid, storeMap,
+					keys, true, packedEncoding());
+				return;
+			}
+			
+			// Does the data append, with the flattened nested paths (from the full non offloaded
+			// values) in the same transaction, so they cannot be out of sync with the values
+			sqlObj.transaction(() -> {
+				JSql_DataObjectMapUtil.jSqlObjectMapAppend(sqlObj, dataStorageTable, _oid, storeMap,
+					keys, true, packedEncoding());
+				JSql_DataObjectMapUtil.jSqlObjectMapFlatten(sqlObj, dataStorageTable, _oid, fullMap,
+					keys, paths);
+				return null;
+			});
+		});
 	}
 	
 	//--------------------------------------------------------------------------
@@ -378,19 +579,21 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 	//--------------------------------------------------------------------------
 	
 	/**
-	 * Get and returns all the GUID's, note that due to its
-	 * potential of returning a large data set, production use
-	 * should be avoided.
+	 * Number of object ID's fetched per page, for keySet iteration and looselyIterateObjectID
+	 **/
+	protected int keySetPageSize = JSql_KeySet.DEFAULT_PAGE_SIZE;
+	
+	/**
+	 * Get and returns all the GUID's, as a lazy read only set view.
+	 *
+	 * Iteration is done in pages (via oID keyset seeks), while size()
+	 * and contains() are done using count, and exists queries.
 	 *
 	 * @return set of keys
 	 **/
 	@Override
 	public Set<String> keySet() {
-		JSqlResult r = sqlObj.select(primaryKeyTable, "oID");
-		if (r == null || r.get("oID") == null) {
-			return new HashSet<String>();
-		}
-		return ListValueConv.toStringSet(r.getObjectList("oID"));
+		return new JSql_KeySet(sqlObj, bulkhead, primaryKeyTable, "oID", null, null, keySetPageSize);
 	}
 	
 	//--------------------------------------------------------------------------
@@ -412,19 +615,21 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 	 * @return  The String[] array
 	 **/
 	public String[] query_id(Query queryClause, String orderByStr, int offset, int limit) {
-		if (queryClause == null) {
+		return bulkhead.call(sqlObj, JSqlOperationType.QUERY, () -> {
+			if (queryClause == null) {
+				return JSql_DataObjectMapUtil.dataObjectMapQuery_id( //
+					this, sqlObj, dataStorageTable, //
+					null, null, //
+					orderByStr, offset, limit //
+					);
+			}
 			return JSql_DataObjectMapUtil.dataObjectMapQuery_id( //
 				this, sqlObj, dataStorageTable, //
-				null, null, //
+				queryClause.toSqlString(), //
+				queryClause.queryArgumentsArray(), //
 				orderByStr, offset, limit //
 				);
-		}
-		return JSql_DataObjectMapUtil.dataObjectMapQuery_id( //
-			this, sqlObj, dataStorageTable, //
-			queryClause.toSqlString(), //
-			queryClause.queryArgumentsArray(), //
-			orderByStr, offset, limit //
-			);
+		});
 	}
 	
 	/**
@@ -437,8 +642,96 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 	 */
 	@Override
 	public long queryCount(String whereClause, Object[] whereValues) {
-		return JSql_DataObjectMapUtil.dataObjectMapCount(this, sqlObj, dataStorageTable, whereClause,
-			whereValues, null, -1, -1);
+		return bulkhead.call(sqlObj, JSqlOperationType.QUERY, () -> JSql_DataObjectMapUtil
+			.dataObjectMapCount(this, sqlObj, dataStorageTable, whereClause, whereValues, null, -1, -1));
+	}
+	
+	/**
+	 * Indicates if the COUNT(*) OVER() window function is supported, for queryPage.
+	 * null if it is not probed yet, see windowCountSupported()
+	 **/
+	protected volatile Boolean _windowCountSupported = null;
+	
+	/**
+	 * Probes (once) if the COUNT(*) OVER() window function is supported, for queryPage.
+	 * H2 (as of 1.4.197) has no window function support, while for other databases (and older
+	 * versions without it) a trivial window count query is tried.
+	 *
+	 * Support is only ruled out, if the window count query fails while the same query
+	 * without the window function succeeds. Any other failure is rethrown, without caching.
+	 *
+	 * @return true, if the window count is supported
+	 **/
+	protected boolean windowCountSupported() {
+		if (_windowCountSupported != null) {
+			return _windowCountSupported;
+		}
+		if (sqlObj.sqlType() == JSqlType.H2) {
+			_windowCountSupported = false;
+			return false;
+		}
+		
+		String probe = "SELECT COUNT(*) OVER () AS rowCount FROM " + primaryKeyTable + " WHERE 1 = 0";
+		String plain = "SELECT COUNT(*) AS rowCount FROM " + primaryKeyTable + " WHERE 1 = 0";
+		try {
+			bulkhead.call(sqlObj, JSqlOperationType.QUERY, () -> sqlObj.query(probe));
+			_windowCountSupported = true;
+		} catch (JSqlBulkheadFullException e) {
+			throw e;
+		} catch (JSqlException e) {
+			// Rethrows, if its not the window function which failed
+			bulkhead.call(sqlObj, JSqlOperationType.QUERY, () -> sqlObj.query(plain));
+			JSql_DataObjectMapUtil.LOGGER.log(Level.WARNING,
+				"queryPage window count is not supported, using fallback", e);
+			_windowCountSupported = false;
+		}
+		return _windowCountSupported;
+	}
+	
+	/**
+	 * Performs a search query, and returns a page of the respective DataObjects,
+	 * together with the total count for the query. Using a single statement.
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The DataObjectPage, with the total count
+	 **/
+	@Override
+	public DataObjectPage queryPage(Query queryClause, String orderByStr, int offset, int limit) {
+		String whereClause = (queryClause != null) ? queryClause.toSqlString() : null;
+		Object[] whereValues = (queryClause != null) ? queryClause.queryArgumentsArray() : null;
+		
+		// Single statement with the window count if supported, else the count is a separate query
+		boolean windowCount = windowCountSupported();
+		return bulkhead.call(sqlObj, JSqlOperationType.QUERY, () -> JSql_DataObjectMapUtil
+			.dataObjectMapQueryPage(this, sqlObj, dataStorageTable, whereClause, whereValues,
+				orderByStr, offset, limit, windowCount));
+	}
+	
+	/**
+	 * Explains how a search query is performed, with the generated SQL, its arguments,
+	 * the dialect query plan, inferred key types, and timings.
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The explanation map
+	 **/
+	@Override
+	public GenericConvertMap<String, Object> explain(Query queryClause, String orderByStr,
+		int offset, int limit) {
+		GenericConvertMap<String, Object> ret = explainSetup(queryClause);
+		String whereClause = (queryClause != null) ? queryClause.toSqlString() : null;
+		Object[] whereValues = (queryClause != null) ? queryClause.queryArgumentsArray() : null;
+		bulkhead.run(sqlObj, JSqlOperationType.QUERY, () -> JSql_DataObjectMapUtil
+			.dataObjectMapExplain(this, sqlObj, dataStorageTable, whereClause, whereValues,
+				orderByStr, offset, limit, ret));
+		return ret;
 	}
 	
 	//--------------------------------------------------------------------------
@@ -460,7 +753,8 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 	 **/
 	@Override
 	public Set<String> getKeyNames(int seekDepth) {
-		JSqlResult r = sqlObj.select(dataStorageTable, "DISTINCT kID");
+		JSqlResult r = bulkhead.call(sqlObj, JSqlOperationType.QUERY,
+			() -> sqlObj.select(dataStorageTable, "DISTINCT kID", "idx = ?", new Object[] { 0 }));
 		if (r == null || r.get("kID") == null) {
 			return new HashSet<String>();
 		}
@@ -470,28 +764,281 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 	
 	//--------------------------------------------------------------------------
 	//
-	// Special iteration support
+	// Columnar snapshot export
 	//
 	//--------------------------------------------------------------------------
 	
 	/**
-	 * Gets and return a random object ID
+	 * Number of objects fetched per page, for exportSnapshot
+	 **/
+	protected int exportPageSize = 1000;
+	
+	/**
+	 * Exports all objects, into a columnar snapshot (see Core_ColumnarSnapshotWriter).
 	 *
-	 * @return  Random object ID
+	 * This is done in a single pass in object ID order, where for each page of object ID's
+	 * (from the paged keySet) its data rows are fetched as a single oID range scan, using the
+	 * (oID, kID, idx) unique index. Only the current page, and the writer row group, are held
+	 * in memory at any point in time, instead of fetching each object individually.
+	 *
+	 * @param  outStream to write the snapshot into, which is closed on completion
 	 **/
-	public String randomObjectID() {
-		// Get a random ID
-		JSqlResult r = sqlObj.randomSelect(primaryKeyTable, "oID", null, null, 1);
+	@Override
+	public void exportSnapshot(OutputStream outStream) {
+		Core_ColumnarSnapshotWriter writer = new Core_ColumnarSnapshotWriter(outStream);
+		List<String> page = new ArrayList<String>();
+		for (String oid : keySet()) {
+			page.add(oid);
+			if (page.size() >= exportPageSize) {
+				exportPage(writer, page);
+				page.clear();
+			}
+		}
+		exportPage(writer, page);
+		writer.close();
+	}
+	
+	/**
+	 * Exports a single page of objects, as rows into the snapshot writer
+	 *
+	 * @param  writer  to write the rows into
+	 * @param  page    object ID's, in oID order
+	 **/
+	protected void exportPage(Core_ColumnarSnapshotWriter writer, List<String> page) {
+		if (page.isEmpty()) {
+			return;
+		}
 		
-		// No result : NULL
+		// Data rows, within the page object ID range
+		Object[] pageArgs = new Object[] { 0, page.get(0), page.get(page.size() - 1) };
+		JSqlResult r = bulkhead.call(sqlObj, JSqlOperationType.QUERY, () -> sqlObj.select(
+			dataStorageTable, "*", "idx = ? AND oID >= ? AND oID <= ?", pageArgs));
+		int rows = (r != null && r.get("kID") != null) ? r.rowCount() : 0;
+		
+		Map<String, Map<String, Object>> pageData = new HashMap<String, Map<String, Object>>();
+		for (String oid : page) {
+			pageData.put(oid, new HashMap<String, Object>());
+		}
+		for (int i = 0; i < rows; ++i) {
+			String oid = r.get("oID").get(i).toString();
+			Map<String, Object> dataMap = pageData.get(oid);
+			
+			// Skip rows of objects not in the page (written after it was fetched)
+			if (dataMap == null) {
+				continue;
+			}
+			String key = r.get("kID").get(i).toString();
+			dataMap.put(key, exportValue(oid, key,
+				JSql_DataObjectMapUtil.extractNonArrayValueFromPos(r, i)));
+		}
+		
+		for (String oid : page) {
+			writer.writeRow(oid, pageData.get(oid));
+		}
+	}
+	
+	/**
+	 * Resolves blob pointers, for the exported value
+	 **/
+	@SuppressWarnings("unchecked")
+	protected Object exportValue(String oid, String key, Object value) {
+		if (blobStore != null && isBlobPointer(key, value)) {
+			return blobLoad(oid, (Map<String, Object>) value);
+		}
+		return value;
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Special iteration support
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Number of random pKy seeks (missing due to gaps) to retry,
+	 * before falling back to a ">=" seek (which is slightly biased after gaps)
+	 **/
+	protected int randomSeekRetries = 4;
+	
+	/**
+	 * Max number of random pKy values to lookup in a single query
+	 **/
+	protected int randomSeekBatchSize = 256;
+	
+	/**
+	 * Gets the current pKy range of the primary key table, using its primary key index
+	 *
+	 * @return [min, max] pKy, null if the table is empty
+	 **/
+	protected long[] primaryKeyRange() {
+		JSqlResult r = sqlObj.select(primaryKeyTable, "MIN(pKy) AS minKey, MAX(pKy) AS maxKey");
+		if (r == null || r.rowCount() <= 0 || r.get("minKey") == null
+			|| r.get("minKey").get(0) == null) {
+			return null;
+		}
+		return new long[] { GenericConvert.toLong(r.get("minKey").get(0)),
+			GenericConvert.toLong(r.get("maxKey").get(0)) };
+	}
+	
+	/**
+	 * Seeks the first object ID, with a pKy greater or equal to the given value
+	 *
+	 * @param  pKy to seek from
+	 *
+	 * @return  object ID, null if none
+	 **/
+	protected String seekObjectID(long pKy) {
+		JSqlResult r = sqlObj.select(primaryKeyTable, "oID", "pKy >= ?", new Object[] { pKy },
+			"pKy ASC", 1, 0);
 		if (r == null || r.get("oID") == null || r.rowCount() <= 0) {
 			return null;
 		}
-		
-		// Return the result
 		return r.getStringArray("oID")[0];
 	}
 	
+	/**
+	 * Fills up the sample to n object ID's (or all object ID's if there is less), with a
+	 * scan in pKy order from the given pKy, which wraps around to the min pKy.
+	 *
+	 * @param  ret     sample to fill up
+	 * @param  n       number of object ID's to fill up to
+	 * @param  minKey  min pKy of the table
+	 * @param  start   pKy to scan from
+	 **/
+	protected void fillSample(Set<String> ret, int n, long minKey, long start) {
+		long cursor = start;
+		boolean wrapped = false;
+		while (ret.size() < n) {
+			JSqlResult r = null;
+			if (wrapped) {
+				r = sqlObj.select(primaryKeyTable, "pKy, oID", "pKy >= ? AND pKy < ?", new Object[] {
+					cursor, start }, "pKy ASC", n, 0);
+			} else {
+				r = sqlObj.select(primaryKeyTable, "pKy, oID", "pKy >= ?", new Object[] { cursor },
+					"pKy ASC", n, 0);
+			}
+			
+			// Add the ID's, and move the cursor past the last row
+			int rows = (r == null || r.get("oID") == null) ? 0 : r.rowCount();
+			for (int i = 0; i < rows && ret.size() < n; ++i) {
+				ret.add(r.get("oID").get(i).toString());
+				cursor = GenericConvert.toLong(r.get("pKy").get(i)) + 1;
+			}
+			
+			// End of the pKy range reached, wrap around once
+			if (rows < n) {
+				if (wrapped) {
+					return;
+				}
+				wrapped = true;
+				cursor = minKey;
+			}
+		}
+	}
+	
+	/**
+	 * Gets and return a random object ID.
+	 *
+	 * This is done via random pKy lookups within its [min, max] range (retrying on gaps),
+	 * which are O(log n) using the primary key index. Instead of a full table random sort.
+	 *
+	 * @return  Random object ID
+	 **/
+	public String randomObjectID() {
+		String[] sample = randomSample(1);
+		if (sample.length <= 0) {
+			return null;
+		}
+		return sample[0];
+	}
+	
+	/**
+	 * Gets and return up to n distinct random object ID's.
+	 *
+	 * This is done via batches of random pKy lookups within its [min, max] range, retrying on gaps.
+	 * Falling back to ">=" seeks (which is slightly biased for objects after gaps) for sparse tables.
+	 * Where the sample is filled up (if still short) by a scan from a random pKy, so that
+	 * n object ID's are returned, or all object ID's if there is less.
+	 *
+	 * @param  n number of object ID's to return
+	 *
+	 * @return  Random object ID's
+	 **/
+	@Override
+	public String[] randomSample(int n) {
+		if (n <= 0) {
+			return new String[0];
+		}
+		return bulkhead.call(sqlObj, JSqlOperationType.QUERY, () -> {
+			// Get the current pKy range
+			long[] range = primaryKeyRange();
+			if (range == null) {
+				return new String[0];
+			}
+			long minKey = range[0];
+			long span = range[1] - range[0] + 1;
+			ThreadLocalRandom rand = ThreadLocalRandom.current();
+			
+			// Small tables, just shuffle the whole table
+			if (span <= n) {
+				JSqlResult r = sqlObj.select(primaryKeyTable, "oID");
+				if (r == null || r.get("oID") == null) {
+					return new String[0];
+				}
+				List<String> all = new ArrayList<String>(ListValueConv.toStringSet(r.getObjectList("oID")));
+				Collections.shuffle(all, rand);
+				return all.subList(0, Math.min(n, all.size())).toArray(new String[0]);
+			}
+			
+			// Random pKy lookups, in batches, retrying on gaps
+			Set<String> ret = new LinkedHashSet<String>();
+			int misses = 0;
+			while (ret.size() < n && misses < randomSeekRetries) {
+				// Over sample by 2x, to account for gaps
+				int batch = (int) Math.min(span, Math.min((n - ret.size()) * 2L, randomSeekBatchSize));
+				Set<Long> pKeys = new HashSet<Long>();
+				while (pKeys.size() < batch) {
+					pKeys.add(minKey + (long) (rand.nextDouble() * span));
+				}
+				
+				// Lookup the random pKy
+				StringBuilder where = new StringBuilder("pKy IN (");
+				for (int i = 0; i < batch; ++i) {
+					where.append((i > 0) ? ",?" : "?");
+				}
+				where.append(")");
+				JSqlResult r = sqlObj.select(primaryKeyTable, "oID", where.toString(), pKeys.toArray());
+				
+				// Add in the result (shuffled, as its returned in pKy order)
+				List<String> found = new ArrayList<String>();
+				if (r != null && r.get("oID") != null) {
+					found.addAll(ListValueConv.toStringSet(r.getObjectList("oID")));
+				}
+				found.removeAll(ret);
+				if (found.size() == 0) {
+					misses++;
+					continue;
+				}
+				Collections.shuffle(found, rand);
+				ret.addAll(found.subList(0, Math.min(n - ret.size(), found.size())));
+			}
+			
+			// Sparse table, fallback to ">=" seeks
+			for (int i = 0; ret.size() < n && i < n * 2; ++i) {
+				String oid = seekObjectID(minKey + (long) (rand.nextDouble() * span));
+				if (oid != null) {
+					ret.add(oid);
+				}
+			}
+			
+			// Very sparse (or small) table, fill up the sample with a scan
+			if (ret.size() < n) {
+				fillSample(ret, n, minKey, minKey + (long) (rand.nextDouble() * span));
+			}
+			return ret.toArray(new String[0]);
+		});
+	}
+	
 	/**
 	 * Gets and return the next object ID key for iteration given the current ID,
 	 * null gets the first object in iteration.
@@ -524,22 +1071,123 @@ public class JSql_DataObjectMap extends Core_DataObjectMap {
 	 * @return  Next object ID, if found
 	 **/
 	public String looselyIterateObjectID(String currentID) {
-		// Result set to fetch next ID
-		JSqlResult r = null;
-		if (currentID == null) {
-			r = sqlObj.select(primaryKeyTable, "oID", null, null, "oID ASC", 1, 0);
-		} else {
-			r = sqlObj.select(primaryKeyTable, "oID", "oID > ?", new Object[] { currentID },
-				"oID ASC", 1, 0);
+		// Next ID from the calling thread page, if the current ID is its last returned ID
+		IterationCursor cursor = iterationCursor.get();
+		if (currentID != null && cursor.page != null && cursor.pos + 1 < cursor.page.size()
+			&& currentID.equals(cursor.page.get(cursor.pos))) {
+			cursor.pos++;
+			return cursor.page.get(cursor.pos);
 		}
 		
-		// No result : NULL
-		if (r == null || r.get("oID") == null || r.rowCount() <= 0) {
+		// Fetch the next page of ID's (oID > ? ORDER BY oID LIMIT n), and return its first ID
+		List<String> page = ((JSql_KeySet) keySet()).fetchPage(currentID, keySetPageSize);
+		if (page.size() <= 0) {
+			cursor.page = null;
 			return null;
 		}
+		cursor.page = page;
+		cursor.pos = 0;
+		return page.get(0);
+	}
+	
+	/**
+	 * Page of object ID's fetched by looselyIterateObjectID, and the position last returned from it
+	 **/
+	protected static class IterationCursor {
+		protected List<String> page = null;
+		protected int pos = 0;
+	}
+	
+	/**
+	 * Iteration cursor of each calling thread, so that concurrent iterations (on different
+	 * threads) do not replace each other's page. A step which does not continue from the last
+	 * returned ID (such as interleaved iterations on the same thread) fetches a new page.
+	 **/
+	protected ThreadLocal<IterationCursor> iterationCursor = ThreadLocal
+		.withInitial(IterationCursor::new);
+	
+	//--------------------------------------------------------------------------
+	//
+	// Change feed support
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Fetch the changes from a single table (DP_ or DT_), using an index range scan on uTm, oID
+	 *
+	 * @param  table     to fetch from
+	 * @param  removed   true, if the table is the tombstone table
+	 * @param  where     range where clause
+	 * @param  args      range where arguments
+	 * @param  limit     max number of changes to return, use -1 to ignore
+	 *
+	 * @return list of changes, in update order
+	 **/
+	protected List<DataObjectChange> fetchChanges(String table, boolean removed, String where,
+		Object[] args, int limit) {
+		JSqlResult r = sqlObj.select(table, "oID, uTm", where, args, "uTm ASC, oID ASC", limit, 0);
+		List<DataObjectChange> ret = new ArrayList<DataObjectChange>();
+		if (r == null || r.rowCount() <= 0) {
+			return ret;
+		}
+		String[] oidArr = r.getStringArray("oID");
+		List<Object> uTmList = r.get("uTm");
+		for (int i = 0; i < oidArr.length; ++i) {
+			// Timestamps are stored in seconds
+			ret.add(new DataObjectChange(oidArr[i], GenericConvert.toLong(uTmList.get(i)) * 1000L,
+				removed));
+		}
+		return ret;
+	}
+	
+	/**
+	 * Gets the objects which changed (updated, or removed) since the given timestamp,
+	 * in update order.
+	 *
+	 * This is done with index range scans on uTm (of the DP_ table, and DT_ tombstone table),
+	 * merged together. Note that timestamps are stored with a resolution of seconds.
+	 *
+	 * @param  timestamp in milliseconds to get changes from (inclusive), ignored if cursor is given
+	 * @param  limit     max number of changes to return, use -1 to ignore
+	 * @param  cursor    of the last change read (exclusive), can be null
+	 *
+	 * @return  list of changes, in update order
+	 **/
+	@Override
+	public List<DataObjectChange> changedSince(long timestamp, int limit, String cursor) {
+		if (limit == 0) {
+			return new ArrayList<DataObjectChange>();
+		}
 		
-		// Return the result
-		return r.getStringArray("oID")[0];
+		// The range where clause
+		String where = null;
+		Object[] args = null;
+		if (cursor != null) {
+			DataObjectChange from = DataObjectChange.fromCursor(cursor);
+			long fromTm = from.getUpdateTime() / 1000L;
+			where = "uTm > ? OR (uTm = ? AND oID > ?)";
+			args = new Object[] { fromTm, fromTm, from.getObjectID() };
+		} else {
+			where = "uTm >= ?";
+			args = new Object[] { timestamp / 1000L };
+		}
+		final String rangeWhere = where;
+		final Object[] rangeArgs = args;
+		
+		// Fetch from both the object, and tombstone table
+		List<DataObjectChange> ret = bulkhead.call(sqlObj, JSqlOperationType.QUERY, () -> {
+			List<DataObjectChange> merged = fetchChanges(primaryKeyTable, false, rangeWhere, rangeArgs,
+				limit);
+			merged.addAll(fetchChanges(tombstoneTable, true, rangeWhere, rangeArgs, limit));
+			return merged;
+		});
+		
+		// Merge them in update order, and apply the limit
+		Collections.sort(ret, DataObjectChange.ORDER);
+		if (limit >= 0 && ret.size() > limit) {
+			ret = new ArrayList<DataObjectChange>(ret.subList(0, limit));
+		}
+		return ret;
 	}
 	
 }
@@ -2,6 +2,7 @@ package picoded.dstack.jsql;
 
 // Java imports
 import java.util.*;
+import java.util.function.Function;
 import java.util.logging.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -162,6 +163,19 @@ public class JSql_DataObjectMapUtil {
 	 * @return  valueTypeSet
 	 **/
 	public static Object[] valueToValueTypeSet(Object value) {
+		return valueToValueTypeSet(value, true);
+	}
+	
+	/**
+	 * Values to option set conversion used by JSql
+	 *
+	 * @param  Value to store
+	 * @param  packedEncoding, to store nested values (map / list) using the packed binary
+	 *         format (Core_BinaryCodec) instead of JSON
+	 *
+	 * @return  valueTypeSet
+	 **/
+	public static Object[] valueToValueTypeSet(Object value, boolean packedEncoding) {
 		// Type flag to use
 		int type = 0;
 		
@@ -200,6 +214,16 @@ public class JSql_DataObjectMapUtil {
 			return valueTypeSet(Core_DataType.BINARY.getValue(), null, null, null, (byte[]) value);
 		}
 		
+		// Packed binary support, for nested values
+		if (packedEncoding && Core_BinaryCodec.isNestedValue(value)) {
+			try {
+				return valueTypeSet(Core_DataType.PACKED.getValue(), null, null, null,
+					Core_BinaryCodec.encode(value));
+			} catch (IllegalArgumentException e) {
+				// Unsupported nested value, fallback to JSON
+			}
+		}
+		
 		// Fallback JSON support
 		String jsonString = ConvertJSON.fromObject(value);
 		return valueTypeSet(Core_DataType.JSON.getValue(), null, null, jsonString.toString(),
@@ -259,25 +283,7 @@ public class JSql_DataObjectMapUtil {
 		if (baseType == Core_DataType.BINARY.getValue()) {
 			// Older base64 stroage format
 			// return (Base64.getDecoder().decode((String) (r.get("tVl").get(pos))));
-			
-			Object rawValue = r.get("rVl").get(pos);
-			if (rawValue instanceof java.sql.Blob) {
-				java.sql.Blob blobData = (java.sql.Blob) rawValue;
-				try {
-					// GetBytes is 1 indexed??
-					// See: https://docs.oracle.com/javase/7/docs/api/java/sql/Blob.html#length()
-					return blobData.getBytes(1, (int) (blobData.length()));
-				} catch (SQLException e) {
-					throw new JSqlException(e);
-				} finally {
-					try {
-						blobData.free();
-					} catch (SQLException e) {
-						throw new JSqlException(e);
-					}
-				}
-			}
-			return (byte[]) rawValue;
+			return extractRawValueFromPos(r, pos);
 		}
 		
 		//
@@ -287,12 +293,48 @@ public class JSql_DataObjectMapUtil {
 			return ConvertJSON.toObject(r.get("tVl").getString(pos));
 		}
 		
+		//
+		// Packed value support
+		//
+		if (baseType == Core_DataType.PACKED.getValue()) {
+			return Core_BinaryCodec.decode(extractRawValueFromPos(r, pos));
+		}
+		
 		throw new RuntimeException("Object type not yet supported: oID = " + r.get("oID").get(pos)
 			+ ", kID = " + r.get("kID").get(pos) + ", BaseType = " + baseType);
 		
 		//throw new RuntimeException("Object type not yet supported: Pos = "+pos+", BaseType = "+ baseType);
 	}
 	
+	/**
+	 * Extracts the raw binary value (rVl) at the given position
+	 *
+	 * @param  The jsql result set from a select call
+	 * @param  Row position to fetch values from result
+	 *
+	 * @return  The raw bytes
+	 **/
+	protected static byte[] extractRawValueFromPos(JSqlResult r, int pos) {
+		Object rawValue = r.get("rVl").get(pos);
+		if (rawValue instanceof java.sql.Blob) {
+			java.sql.Blob blobData = (java.sql.Blob) rawValue;
+			try {
+				// GetBytes is 1 indexed??
+				// See: https://docs.oracle.com/javase/7/docs/api/java/sql/Blob.html#length()
+				return blobData.getBytes(1, (int) (blobData.length()));
+			} catch (SQLException e) {
+				throw new JSqlException(e);
+			} finally {
+				try {
+					blobData.free();
+				} catch (SQLException e) {
+					throw new JSqlException(e);
+				}
+			}
+		}
+		return (byte[]) rawValue;
+	}
+	
 	/**
 	 * Same as extractNonArrayValueFromPos, however returns oid, and row key names as well
 	 *
@@ -348,12 +390,31 @@ public class JSql_DataObjectMapUtil {
 	 * @param {Set<String>} keyList       - keylist to limit append load
 	 * @param {boolean} optimizeAppend    - Used to indicate if batch mode should be used as optimization (not used)
 	 **/
-	@SuppressWarnings("unchecked")
 	public static void jSqlObjectMapAppend( //
 		JSql sql, String tName, String _oid, //
 		Map<String, Object> objMap, Set<String> keyList, //
 		boolean batchMode //
 	) throws JSqlException {
+		jSqlObjectMapAppend(sql, tName, _oid, objMap, keyList, batchMode, true);
+	}
+	
+	/**
+	 * Values map to SQL appending, with the packed encoding option
+	 *
+	 * @param {JSql} sql                  - sql connection to write into the table
+	 * @param {String} tName              - table name to setup, this holds the actual meta table data
+	 * @param {String} _oid               - object id to store the key value pairs into
+	 * @param {Map<String,Object>} objMap - map to extract values to store from
+	 * @param {Set<String>} keyList       - keylist to limit append load
+	 * @param {boolean} optimizeAppend    - Used to indicate if batch mode should be used as optimization (not used)
+	 * @param {boolean} packedEncoding    - store nested values packed (Core_BinaryCodec), instead of JSON
+	 **/
+	@SuppressWarnings("unchecked")
+	public static void jSqlObjectMapAppend( //
+		JSql sql, String tName, String _oid, //
+		Map<String, Object> objMap, Set<String> keyList, //
+		boolean batchMode, boolean packedEncoding //
+	) throws JSqlException {
 		
 		// Nothing to update, nothing to do
 		if (keyList == null) {
@@ -405,7 +466,7 @@ public class JSql_DataObjectMapUtil {
 					sql.delete(tName, "oID=? AND kID=?", new Object[] { _oid, k });
 				} else {
 					// Converts it into a type set, and store it
-					Object[] typSet = valueToValueTypeSet(v);
+					Object[] typSet = valueToValueTypeSet(v, packedEncoding);
 					
 					// Setup the multiUpsert
 					uniqueValuesList.add(new Object[] { _oid, k, 0 });
@@ -445,6 +506,96 @@ public class JSql_DataObjectMapUtil {
 		}
 	}
 	
+	/**
+	 * idx used for the flattened nested path rows (see jSqlObjectMapFlatten),
+	 * which are ignored when extracting the object map, as they are not 0-indexed
+	 **/
+	public static final int FLATTEN_IDX = -1;
+	
+	/**
+	 * Stores an additional (FLATTEN_IDX) row for each configured nested path, whose root key was updated.
+	 * Allowing queries on the nested path (eg: address.city = ?) to use the kID,nVl / kID,sVl indexes.
+	 *
+	 * Only numeric, and string nested values are flattened, other values (or missing paths)
+	 * removes the flattened row. This is to be called within the same transaction as
+	 * jSqlObjectMapAppend, so that the flattened rows are updated together with the values.
+	 *
+	 * @param {JSql} sql                  - sql connection to setup the table
+	 * @param {String} tName              - table name to setup, this holds the actual meta table data
+	 * @param {String} _oid               - object id to store the key value pairs into
+	 * @param {Map<String,Object>} objMap - map to extract values to store from
+	 * @param {Set<String>} keyList       - keylist of updated root keys
+	 * @param {Set<String>} flattenPaths  - configured nested paths to flatten
+	 **/
+	public static void jSqlObjectMapFlatten( //
+		JSql sql, String tName, String _oid, //
+		Map<String, Object> objMap, Set<String> keyList, //
+		Set<String> flattenPaths //
+	) throws JSqlException {
+		
+		// Nothing to flatten, nothing to do
+		if (keyList == null || flattenPaths == null || flattenPaths.size() <= 0) {
+			return;
+		}
+		
+		long now = getCurrentTimestamp();
+		List<Object[]> uniqueValuesList = new ArrayList<Object[]>();
+		List<Object[]> insertValuesList = new ArrayList<Object[]>();
+		List<Object[]> defaultValuesList = new ArrayList<Object[]>();
+		List<Object> removedPaths = new ArrayList<Object>();
+		
+		for (String path : flattenPaths) {
+			// Skip paths, whose root key was not updated
+			String rootKey = path.substring(0, path.indexOf('.'));
+			if (!keyList.contains(rootKey)) {
+				continue;
+			}
+			
+			// Flatten numeric / string values, else remove the flattened row
+			Object v = NestedObjectFetch.fetchObject(objMap, path, null);
+			if (v instanceof Number || v instanceof String) {
+				Object[] typSet = valueToValueTypeSet(v);
+				uniqueValuesList.add(new Object[] { _oid, path, FLATTEN_IDX });
+				insertValuesList.add(new Object[] { typSet[0], typSet[1], typSet[2], typSet[3],
+					typSet[4], now, 0 });
+				defaultValuesList.add(new Object[] { now });
+			} else {
+				removedPaths.add(path);
+			}
+		}
+		
+		// Removes the flattened rows, in a single delete
+		if (removedPaths.size() > 0) {
+			StringBuilder where = new StringBuilder("oID=? AND idx=? AND kID IN (");
+			for (int i = 0; i < removedPaths.size(); ++i) {
+				where.append((i > 0) ? ",?" : "?");
+			}
+			where.append(")");
+			
+			List<Object> args = new ArrayList<Object>();
+			args.add(_oid);
+			args.add(FLATTEN_IDX);
+			args.addAll(removedPaths);
+			sql.delete(tName, where.toString(), args.toArray(new Object[0]));
+		}
+		
+		// Nothing to update, nothing to do
+		if (insertValuesList.size() <= 0) {
+			return;
+		}
+		
+		// Does the actual multi upsert
+		sql.multiUpsert(tName, //
+			new String[] { "oID", "kID", "idx" }, //
+			uniqueValuesList, //
+			new String[] { "typ", "nVl", "sVl", "tVl", "rVl", "uTm", "eTm" }, //
+			insertValuesList, //
+			new String[] { "cTm" }, //
+			defaultValuesList, //
+			null //
+			);
+	}
+	
 	/**
 	 * Extracts and build the map stored under an _oid
 	 *
@@ -462,6 +613,146 @@ public class JSql_DataObjectMapUtil {
 		return extractObjectMapFromJSqlResult(r, _oid, ret);
 	}
 	
+	/**
+	 * Extracts and build the map stored under an _oid, where large tVl / rVl values
+	 * (above the size threshold) are not fetched. But represented as a Core_LazyValue instead,
+	 * which is loaded on its first access via the given loader.
+	 *
+	 * @param {JSql} sql                  - sql connection to setup the table
+	 * @param {String} sqlTableName       - table name to setup, this holds the actual meta table data
+	 * @param {String} _oid               - object id to store the key value pairs into
+	 * @param {Map<String,Object>} ret    - map to populate, and return, created if null if there is data
+	 * @param {int} lazyThreshold         - size threshold of large values, 0 or less to disable
+	 * @param {Function} lazyLoader       - loader of a single key value, for the lazy values
+	 **/
+	public static Map<String, Object> jSqlObjectMapFetch( //
+		JSql sql, //
+		String sqlTableName, String _oid, //
+		Map<String, Object> ret, //
+		int lazyThreshold, Function<String, Object> lazyLoader //
+	) {
+		// Lazy loading disabled
+		if (lazyThreshold <= 0 || lazyLoader == null) {
+			return jSqlObjectMapFetch(sql, sqlTableName, _oid, ret);
+		}
+		
+		// Select the small columns, and the size of the large columns
+		String tLen = valueLengthFunction(sql, "tVl", false);
+		String rLen = valueLengthFunction(sql, "rVl", true);
+		String selectCols = "oID, kID, idx, typ, nVl, sVl, " + //
+			"CASE WHEN " + tLen + " > " + lazyThreshold + " THEN NULL ELSE tVl END AS tVl, " + //
+			"CASE WHEN " + rLen + " > " + lazyThreshold + " THEN NULL ELSE rVl END AS rVl, " + //
+			tLen + " AS tLn, " + rLen + " AS rLn";
+		JSqlResult r = sql.select(sqlTableName, selectCols, "oID=?", new Object[] { _oid });
+		
+		// No result means no data to extract
+		if (r == null || r.get("kID") == null || r.get("kID").size() <= 0) {
+			return ret;
+		}
+		
+		// Iterate the keys
+		GenericConvertList<Object> kID_list = r.get("kID");
+		int lim = kID_list.size();
+		for (int i = 0; i < lim; ++i) {
+			// Ignore non 0-indexed value (array support not added yet)
+			if (r.get("idx").getInt(i) != 0) {
+				continue;
+			}
+			
+			if (ret == null) {
+				ret = new HashMap<String, Object>();
+			}
+			
+			// Large value which was not fetched, is loaded lazily
+			String key = kID_list.get(i).toString();
+			long size = lazyValueSize(r, i, lazyThreshold);
+			if (size > 0) {
+				ret.put(key, new Core_LazyValue(() -> lazyLoader.apply(key), size));
+				continue;
+			}
+			
+			// Add in value
+			ret.put(key, extractNonArrayValueFromPos(r, i));
+		}
+		return ret;
+	}
+	
+	/**
+	 * Fetch a single key value stored under an _oid, used to load lazy values
+	 *
+	 * @param {JSql} sql                  - sql connection to setup the table
+	 * @param {String} sqlTableName       - table name to setup, this holds the actual meta table data
+	 * @param {String} _oid               - object id of the key value pair
+	 * @param {String} key                - key to fetch
+	 *
+	 * @return the value, null if not found
+	 **/
+	public static Object jSqlObjectMapFetchKey( //
+		JSql sql, //
+		String sqlTableName, String _oid, String key //
+	) {
+		JSqlResult r = sql.select(sqlTableName, "*", "oID=? AND kID=? AND idx=?", new Object[] {
+			_oid, key, 0 });
+		if (r == null || r.rowCount() <= 0) {
+			return null;
+		}
+		return extractNonArrayValueFromPos(r, 0);
+	}
+	
+	/**
+	 * Gets the size of the large value (tVl / rVl) that was not fetched, at the given position
+	 *
+	 * @param  r the jsql result set, with the tLn / rLn size columns
+	 * @param  pos row position
+	 * @param  lazyThreshold size threshold of large values
+	 *
+	 * @return size of the value if it was not fetched, else 0
+	 **/
+	protected static long lazyValueSize(JSqlResult r, int pos, int lazyThreshold) {
+		int baseType = ((Number) (r.get("typ").get(pos))).intValue();
+		String sizeCol = null;
+		String valueCol = null;
+		if (baseType == Core_DataType.STRING.getValue() || baseType == Core_DataType.TEXT.getValue()
+			|| baseType == Core_DataType.JSON.getValue()) {
+			sizeCol = "tLn";
+			valueCol = "tVl";
+		} else if (baseType == Core_DataType.BINARY.getValue()
+			|| baseType == Core_DataType.PACKED.getValue()) {
+			sizeCol = "rLn";
+			valueCol = "rVl";
+		} else {
+			return 0;
+		}
+		
+		Object size = r.get(sizeCol).get(pos);
+		if (size == null || r.get(valueCol).get(pos) != null) {
+			return 0;
+		}
+		long sizeVal = GenericConvert.toLong(size);
+		return (sizeVal > lazyThreshold) ? sizeVal : 0;
+	}
+	
+	/**
+	 * Gets the SQL function (for the respective SQL dialect), to get the size of a value column
+	 *
+	 * @param  sql connection, used to detect the SQL dialect
+	 * @param  column name
+	 * @param  isBinary true, if its a binary column
+	 *
+	 * @return the size function call
+	 **/
+	protected static String valueLengthFunction(JSql sql, String column, boolean isBinary) {
+		JSqlType type = sql.sqlType();
+		if (type == JSqlType.MSSQL) {
+			return "DATALENGTH(" + column + ")";
+		} else if (type == JSqlType.ORACLE) {
+			return "DBMS_LOB.GETLENGTH(" + column + ")";
+		} else if (type == JSqlType.H2 && isBinary) {
+			return "OCTET_LENGTH(" + column + ")";
+		}
+		return "LENGTH(" + column + ")";
+	}
+	
 	/**
 	 * Extracts and build the map stored under an _oid, from the JSqlResult
 	 *
@@ -632,6 +923,24 @@ public class JSql_DataObjectMapUtil {
 	 **/
 	protected static StringBuilder complexQueryView(JSql sql, String tableName,
 		Map<String, Core_DataType> mtm, List<Object> queryArgs) {
+		return complexQueryView(sql, tableName, mtm, queryArgs, null);
+	}
+	
+	/**
+	 * Same as complexQueryView, with the flattened nested paths, which are
+	 * resolved against their FLATTEN_IDX rows instead.
+	 *
+	 * @param  sql connection used, this is used to detect vendor specific logic =(
+	 * @param  meta table name, used to pull the actual data the view is based on
+	 * @param  type mapping to build the complex view from
+	 * @param  additional arguments needed to build the query,
+	 *          this serves as an additional return value and is hence required
+	 * @param  flattened nested paths, can be null
+	 *
+	 * @return StringBuilder for the view building statement, this can be used for creating permenant view / queries
+	 **/
+	protected static StringBuilder complexQueryView(JSql sql, String tableName,
+		Map<String, Core_DataType> mtm, List<Object> queryArgs, Set<String> flattenPaths) {
 		//
 		// Vendor specific customization
 		//-----------------------------------------
@@ -692,6 +1001,9 @@ public class JSql_DataObjectMapUtil {
 			String safeKey = escapeQueryKey(rawKey);
 			Core_DataType type = e.getValue();
 			
+			// Flattened nested paths, uses their own row idx
+			int idx = (flattenPaths != null && flattenPaths.contains(rawKey)) ? FLATTEN_IDX : 0;
+			
 			if ( //
 			type == Core_DataType.INTEGER || //
 				type == Core_DataType.FLOAT || //
@@ -711,7 +1023,8 @@ public class JSql_DataObjectMapUtil {
 				from.append(" " + joinType + " JOIN " + tableName + " AS N" + joinCount);
 				from.append(" ON B.oID = N" + joinCount + ".oID");
 				// and is not an array, while matching raw key
-				from.append(" AND N" + joinCount + ".idx = 0 AND N" + joinCount + ".kID = ?");
+				from.append(" AND N" + joinCount + ".idx = " + idx + " AND N" + joinCount
+					+ ".kID = ?");
 				queryArgs.add(rawKey);
 				
 			} else if (type == Core_DataType.STRING) {
@@ -730,7 +1043,8 @@ public class JSql_DataObjectMapUtil {
 				from.append(" " + joinType + " JOIN " + tableName + " AS S" + joinCount);
 				from.append(" ON B.oID = S" + joinCount + ".oID");
 				// and is not an array, while matching raw key
-				from.append(" AND S" + joinCount + ".idx = 0 AND S" + joinCount + ".kID = ?");
+				from.append(" AND S" + joinCount + ".idx = " + idx + " AND S" + joinCount
+					+ ".kID = ?");
 				queryArgs.add(rawKey);
 				
 			} else {
@@ -779,12 +1093,73 @@ public class JSql_DataObjectMapUtil {
 		// Quick optimal lookup : Does not do any complext building
 		// Runs the query and exit immediately
 		//----------------------------------------------------------------------
-		if (whereClause == null && orderByStr == null && offset <= 0 && limit <= 0
-			&& (selectedCols.equals(oid_distinctCount) || selectedCols.equals(oid_distinct))) {
+		if (isQuickQuery(selectedCols, whereClause, orderByStr, offset, limit)) {
 			// Blank search, quick and easy
 			return sql.select(tablename, selectedCols);
 		}
 		
+		// Build the complex query, and its args
+		List<Object> queryArgs = new ArrayList<Object>();
+		String queryString = buildComplexQuery(sql, tablename, selectedCols, whereClause,
+			whereValues, orderByStr, offset, limit, queryArgs, null, flattenPaths(dataObjectMapObj));
+		
+		// Execute and get the result
+		return sql.query(queryString, queryArgs.toArray(new Object[0]));
+	}
+	
+	/**
+	 * @param   DataObjectMap object to refrence from
+	 *
+	 * @return  flattened nested paths configured for the DataObjectMap, null if not supported
+	 **/
+	protected static Set<String> flattenPaths(DataObjectMap dataObjectMapObj) {
+		if (dataObjectMapObj instanceof JSql_DataObjectMap) {
+			return ((JSql_DataObjectMap) dataObjectMapObj).flattenPaths();
+		}
+		return null;
+	}
+	
+	/**
+	 * Checks if the search query is a blank search, which can skip the complex query building
+	 *
+	 * @param   The selected columns to query
+	 * @param   where query statement
+	 * @param   query string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max
+	 *
+	 * @return  true, if its a blank search
+	 **/
+	protected static boolean isQuickQuery(String selectedCols, String whereClause,
+		String orderByStr, int offset, int limit) {
+		return whereClause == null && orderByStr == null && offset <= 0 && limit <= 0
+			&& (selectedCols.equals(oid_distinctCount) || selectedCols.equals(oid_distinct));
+	}
+	
+	/**
+	 * Builds the complex query statement, used by runComplexQuery. Without executing it.
+	 *
+	 * @param   JSql connection to use
+	 * @param   JSql table name to use
+	 * @param   The selected columns to query
+	 * @param   where query statement
+	 * @param   where clause values array
+	 * @param   query string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max
+	 * @param   query arguments list, this serves as an additional return value and is hence required
+	 * @param   inferred key types map, this serves as an additional return value, can be null
+	 * @param   flattened nested paths, can be null
+	 *
+	 * @return  The query statement
+	 **/
+	protected static String buildComplexQuery( //
+		JSql sql, String tablename, String selectedCols, //
+		String whereClause, Object[] whereValues, String orderByStr, int offset, int limit, //
+		List<Object> complexQueryArgs, Map<String, Core_DataType> keyTypes, //
+		Set<String> flattenPaths //
+	) { //
+	
 		//----------------------------------------------------------------------
 		// Sadly looks like things must be done the hardway, initialize the vars
 		//----------------------------------------------------------------------
@@ -792,10 +1167,6 @@ public class JSql_DataObjectMapUtil {
 		// Query string, for either a newly constructed view, or cached view
 		StringBuilder queryBuilder = new StringBuilder();
 		
-		// The actual args to use
-		List<Object> complexQueryArgs = new ArrayList<Object>();
-		Object[] queryArgs = null;
-		
 		// Result ordering by
 		OrderBy<DataObject> orderByObj = null;
 		
@@ -952,7 +1323,7 @@ public class JSql_DataObjectMapUtil {
 		// to actually query thee data against. This somewhat represents the actual table,
 		// you would have quried against in traditional fixed SQL view
 		StringBuilder innerJoinQuery = complexQueryView(sql, tablename, queryTypeMap,
-			complexQueryArgs);
+			complexQueryArgs, flattenPaths);
 		
 		// Building the complex inner join query
 		//
@@ -977,10 +1348,7 @@ public class JSql_DataObjectMapUtil {
 		}
 		
 		//logger.log( Level.WARNING, queryBuilder.toString() );
-		//logger.log( Level.WARNING, Arrays.asList(queryArgs).toString() );
-		
-		// Finalize query args
-		queryArgs = complexQueryArgs.toArray(new Object[0]);
+		//logger.log( Level.WARNING, complexQueryArgs.toString() );
 		
 		// Limit and offset clause handling
 		if (limit > 0) {
@@ -998,8 +1366,11 @@ public class JSql_DataObjectMapUtil {
 		// System.out.println(">>> TABLE DUMP");
 		// System.out.println( ConvertJSON.fromMap( sql.select(tablename).readRow(0) ) );
 		
-		// Execute and get the result
-		return sql.query(queryBuilder.toString(), queryArgs);
+		// Inferred key types, for diagnostics
+		if (keyTypes != null) {
+			keyTypes.putAll(queryTypeMap);
+		}
+		return queryBuilder.toString();
 	}
 	
 	/**
@@ -1038,6 +1409,153 @@ public class JSql_DataObjectMapUtil {
 		return new String[0];
 	}
 	
+	/**
+	 * Gets the dialect specific statement prefix, used to get the query plan
+	 *
+	 * Note that MSSQL (showplan) and Oracle (explain plan for) are not supported,
+	 * as they require session level settings, or plan tables.
+	 *
+	 * @param   JSql connection to use
+	 *
+	 * @return  The explain prefix, null if not supported
+	 **/
+	protected static String explainPrefix(JSql sql) {
+		JSqlType type = sql.sqlType();
+		if (type == JSqlType.SQLITE) {
+			return "EXPLAIN QUERY PLAN ";
+		}
+		if (type == JSqlType.MYSQL || type == JSqlType.H2 || type == JSqlType.POSTGRESQL) {
+			return "EXPLAIN ";
+		}
+		return null;
+	}
+	
+	/**
+	 * Explains how a search query is performed, for diagnostics and index tuning.
+	 * Returning the generated SQL, its arguments, the dialect query plan, inferred key types,
+	 * and the time taken to build and execute the query.
+	 *
+	 * @param   DataObjectMap object to refrence from
+	 * @param   JSql connection to use
+	 * @param   JSql table name to use
+	 * @param   where query statement
+	 * @param   where clause values array
+	 * @param   query string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max
+	 * @param   explanation map to populate
+	 **/
+	public static void dataObjectMapExplain( //
+		// The meta table / sql configs
+		DataObjectMap dataObjectMapObj, JSql sql, String tablename, //
+		// The actual query
+		String whereClause, Object[] whereValues, String orderByStr, int offset, int limit, //
+		// The explanation map
+		Map<String, Object> ret //
+	) { //
+		String selectedCols = "DISTINCT \"oID\"";
+		ret.put("strategy", "sql");
+		
+		// Build the query
+		long start = System.nanoTime();
+		List<Object> queryArgs = new ArrayList<Object>();
+		Map<String, Core_DataType> keyTypes = new HashMap<String, Core_DataType>();
+		String queryString = null;
+		if (isQuickQuery(selectedCols, whereClause, orderByStr, offset, limit)) {
+			queryString = "SELECT " + selectedCols + " FROM " + tablename;
+		} else {
+			queryString = buildComplexQuery(sql, tablename, selectedCols, whereClause, whereValues,
+				orderByStr, offset, limit, queryArgs, keyTypes, flattenPaths(dataObjectMapObj));
+		}
+		Object[] args = queryArgs.toArray(new Object[0]);
+		ret.put("planTime", (System.nanoTime() - start) / 1000000.0);
+		ret.put("sql", queryString);
+		ret.put("args", queryArgs);
+		ret.put("dialect", sql.sqlType().toString());
+		
+		Map<String, String> keyTypeNames = new HashMap<String, String>();
+		for (Map.Entry<String, Core_DataType> entry : keyTypes.entrySet()) {
+			keyTypeNames.put(entry.getKey(), entry.getValue().toString());
+		}
+		ret.put("keyTypes", keyTypeNames);
+		
+		// Dialect query plan
+		String prefix = explainPrefix(sql);
+		if (prefix != null) {
+			try {
+				JSqlResult planResult = sql.query(prefix + queryString, args);
+				List<Map<String, Object>> plan = new ArrayList<Map<String, Object>>();
+				for (int i = 0; i < planResult.rowCount(); ++i) {
+					plan.add(planResult.readRow(i));
+				}
+				ret.put("plan", plan);
+			} catch (JSqlException e) {
+				ret.put("planError", e.getMessage());
+			}
+		}
+		
+		// Execute the query
+		start = System.nanoTime();
+		JSqlResult r = sql.query(queryString, args);
+		ret.put("executeTime", (System.nanoTime() - start) / 1000000.0);
+		ret.put("resultCount", r.rowCount());
+	}
+	
+	/**
+	 * Performs a search query, and returns a page of the respective DataObjects,
+	 * together with the total count for the query. Using a single statement.
+	 *
+	 * When windowCount is supported, the total count is fetched alongside each row using
+	 * `COUNT(*) OVER()`. Otherwise the full (ordered) id result is fetched once, and shared
+	 * for both the count and the page.
+	 *
+	 * @param   DataObjectMap object to refrence from
+	 * @param   JSql connection to use
+	 * @param   JSql table name to use
+	 * @param   where query statement
+	 * @param   where clause values array
+	 * @param   query string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max
+	 * @param   windowCount, use the COUNT(*) OVER() window function
+	 *
+	 * @return  The DataObjectPage
+	 **/
+	public static DataObjectPage dataObjectMapQueryPage( //
+		// The meta table / sql configs
+		DataObjectMap dataObjectMapObj, JSql sql, String tablename, //
+		// The actual query
+		String whereClause, Object[] whereValues, String orderByStr, int offset, int limit, //
+		// Window function support
+		boolean windowCount //
+	) { //
+		
+		// Shared result, for the count and the page
+		if (!windowCount || limit <= 0) {
+			String[] allID = dataObjectMapQuery_id(dataObjectMapObj, sql, tablename, whereClause,
+				whereValues, orderByStr, 0, 0);
+			int start = Math.min(Math.max(offset, 0), allID.length);
+			int end = (limit > 0) ? Math.min(start + limit, allID.length) : allID.length;
+			return new DataObjectPage(dataObjectMapObj, Arrays.copyOfRange(allID, start, end),
+				allID.length);
+		}
+		
+		// Window count, alongside the page rows
+		JSqlResult r = runComplexQuery(dataObjectMapObj, sql, tablename,
+			"\"oID\", COUNT(*) OVER() AS rcount", whereClause, whereValues, orderByStr, offset, limit);
+		List<Object> oID_list = r.getObjectList("oID");
+		String[] pageID = (oID_list != null) ? ListValueConv.objectListToStringArray(oID_list)
+			: new String[0];
+		
+		// Page is out of range, so there is no row to get the count from
+		if (pageID.length <= 0) {
+			long count = (offset > 0) ? dataObjectMapCount(dataObjectMapObj, sql, tablename,
+				whereClause, whereValues, null, -1, -1) : 0;
+			return new DataObjectPage(dataObjectMapObj, pageID, count);
+		}
+		return new DataObjectPage(dataObjectMapObj, pageID, r.get("rcount").getLong(0));
+	}
+	
 	// /**
 	//  * Performs a search query, and returns the respective DataObjects
 	//  *
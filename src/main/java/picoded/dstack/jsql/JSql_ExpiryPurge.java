@@ -0,0 +1,183 @@
+package picoded.dstack.jsql;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import picoded.dstack.connector.jsql.*;
+
+/**
+ * Incremental purge of expired rows (eTm), for JSql tables with an expiry timestamp
+ * column such as JSql_KeyValueMap, and JSql_KeyLongMap.
+ *
+ * Instead of a single unbounded DELETE, rows are deleted in bounded batches
+ * (using LIMIT / TOP / ROWNUM, or a pKy subquery, according to the SQL dialect).
+ * Each batch is a separate statement (and bulkhead call), yielding in between batches,
+ * and stopping once the time budget is exceeded. The remaining rows are then purged
+ * on the next run.
+ *
+ * This relies on the eTm index, to avoid a full table scan for every batch.
+ **/
+public class JSql_ExpiryPurge {
+	
+	/**
+	 * Logger to use, for the purge progress
+	 **/
+	protected static final Logger LOGGER = Logger.getLogger(JSql_ExpiryPurge.class.getName());
+	
+	/**
+	 * Default number of rows deleted per batch
+	 **/
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	
+	/**
+	 * Default time budget of a single purge run, in milliseconds
+	 **/
+	public static final long DEFAULT_TIME_BUDGET = 10000;
+	
+	//--------------------------------------------------------------------------
+	//
+	// Constructor
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * The inner sql object
+	 **/
+	protected final JSql sqlObj;
+	
+	/**
+	 * Table name to purge
+	 **/
+	protected final String tableName;
+	
+	/**
+	 * Setup the purge helper
+	 *
+	 * @param  sqlObj     JSql connection to use
+	 * @param  tableName  table to purge, with its eTm and pKy columns
+	 **/
+	public JSql_ExpiryPurge(JSql sqlObj, String tableName) {
+		this.sqlObj = sqlObj;
+		this.tableName = tableName;
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Progress of the last run
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Number of rows deleted, and batches executed, in the last run
+	 **/
+	protected volatile long lastDeleted = 0;
+	protected volatile int lastBatches = 0;
+	
+	/**
+	 * Indicates if the last run purged all expired rows (false if stopped by its time budget)
+	 **/
+	protected volatile boolean lastComplete = true;
+	
+	/**
+	 * @return number of rows deleted in the last run
+	 **/
+	public long lastDeleted() {
+		return lastDeleted;
+	}
+	
+	/**
+	 * @return number of batches executed in the last run
+	 **/
+	public int lastBatches() {
+		return lastBatches;
+	}
+	
+	/**
+	 * @return true if the last run purged all expired rows
+	 **/
+	public boolean lastComplete() {
+		return lastComplete;
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Purge
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Delete statement of a single batch, for the SQL dialect
+	 *
+	 * @param  batchSize maximum number of rows to delete
+	 *
+	 * @return delete statement, with the (now, 0) eTm arguments
+	 **/
+	protected String batchDeleteStatement(int batchSize) {
+		String expired = "eTm <= ? AND eTm > ?";
+		JSqlType type = sqlObj.sqlType();
+		if (type == JSqlType.MYSQL || type == JSqlType.H2) {
+			return "DELETE FROM " + tableName + " WHERE " + expired + " LIMIT " + batchSize;
+		}
+		if (type == JSqlType.MSSQL) {
+			return "DELETE TOP (" + batchSize + ") FROM " + tableName + " WHERE " + expired;
+		}
+		if (type == JSqlType.ORACLE) {
+			return "DELETE FROM " + tableName + " WHERE " + expired + " AND ROWNUM <= " + batchSize;
+		}
+		// SQLite (without SQLITE_ENABLE_UPDATE_DELETE_LIMIT), PostgreSQL, and others
+		return "DELETE FROM " + tableName + " WHERE pKy IN (SELECT pKy FROM " + tableName
+			+ " WHERE " + expired + " LIMIT " + batchSize + ")";
+	}
+	
+	/**
+	 * Purge the expired rows in batches, till there is no more expired rows,
+	 * or the time budget is exceeded.
+	 *
+	 * @param  bulkhead    to run each batch with
+	 * @param  now         current timestamp, rows with eTm up to it are purged
+	 * @param  batchSize   maximum number of rows deleted per batch
+	 * @param  timeBudget  in milliseconds, 0 or less for no limit
+	 *
+	 * @return number of rows deleted
+	 **/
+	public long purge(JSqlBulkhead bulkhead, long now, int batchSize, long timeBudget) {
+		int limit = Math.max(1, batchSize);
+		String statement = batchDeleteStatement(limit);
+		long start = System.currentTimeMillis();
+		long deleted = 0;
+		int batches = 0;
+		boolean complete = false;
+		
+		while (true) {
+			int count = bulkhead.call(sqlObj, JSqlOperationType.MAINTENANCE,
+				() -> sqlObj.update_raw(statement, now, 0));
+			deleted += Math.max(0, count);
+			++batches;
+			
+			if (count < limit) {
+				complete = true;
+				break;
+			}
+			
+			long elapsed = System.currentTimeMillis() - start;
+			LOGGER.fine(tableName + " expiry purge : " + deleted + " rows deleted, in " + batches
+				+ " batches (" + elapsed + "ms)");
+			if (timeBudget > 0 && elapsed >= timeBudget) {
+				break;
+			}
+			
+			// Yield between batches, for other statements
+			Thread.yield();
+		}
+		
+		lastDeleted = deleted;
+		lastBatches = batches;
+		lastComplete = complete;
+		
+		if (!complete) {
+			LOGGER.log(Level.INFO, tableName + " expiry purge stopped at its time budget, after "
+				+ deleted + " rows deleted (to continue on the next run)");
+		}
+		return deleted;
+	}
+}
@@ -6,7 +6,11 @@ import picoded.core.struct.MutablePair;
 import picoded.dstack.KeyLong;
 import picoded.dstack.core.Core_KeyLongMap;
 import picoded.dstack.connector.jsql.JSql;
+import picoded.dstack.connector.jsql.JSqlBulkhead;
+import picoded.dstack.connector.jsql.JSqlBulkheadFullException;
+import picoded.dstack.connector.jsql.JSqlOperationType;
 import picoded.dstack.connector.jsql.JSqlException;
+import picoded.dstack.connector.jsql.JSqlGroupCommit;
 import picoded.dstack.connector.jsql.JSqlResult;
 
 import java.util.HashSet;
@@ -30,6 +34,12 @@ public class JSql_KeyLongMap extends Core_KeyLongMap {
 	 **/
 	protected String keyLongMapName = null;
 	
+	/**
+	 * Bulkhead (concurrency limit) and statement timeouts used for the JSql calls
+	 * of this structure, defaults to no concurrency limit. See JSqlStack for its config.
+	 **/
+	protected JSqlBulkhead bulkhead = null;
+	
 	/**
 	 * JSql setup
 	 *
@@ -40,6 +50,54 @@ public class JSql_KeyLongMap extends Core_KeyLongMap {
 		super();
 		sqlObj = inJSql;
 		keyLongMapName = "KL_" + tablename;
+		bulkhead = new JSqlBulkhead(keyLongMapName);
+	}
+	
+	/**
+	 * Set the bulkhead (concurrency limit) to use for all JSql calls of this structure
+	 *
+	 * @param  inBulkhead to use, null for no limit
+	 **/
+	public void setBulkhead(JSqlBulkhead inBulkhead) {
+		bulkhead = (inBulkhead != null) ? inBulkhead : new JSqlBulkhead(keyLongMapName);
+	}
+	
+	/**
+	 * Group commit used for setValueRaw, if enabled (null if disabled)
+	 **/
+	protected JSqlGroupCommit groupCommit = null;
+	
+	/**
+	 * Enables the cross thread group commit of setValueRaw calls, where writes made by
+	 * multiple threads within the window are flushed together as a single multi row
+	 * upsert in one transaction. Each setValueRaw call still blocks till its batch commits.
+	 *
+	 * @param  window in milliseconds to collect writes for a batch
+	 * @param  maxBatchSize of writes in a single batch
+	 **/
+	public void enableGroupCommit(long window, int maxBatchSize) {
+		groupCommit = new JSqlGroupCommit(window, maxBatchSize, (uniqueValuesList,
+			insertValuesList) -> {
+			bulkhead.run(sqlObj, JSqlOperationType.WRITE, () -> {
+				sqlObj.transaction(() -> sqlObj.multiUpsert( //
+					keyLongMapName, //
+					new String[] { "kID" }, //unique cols
+					uniqueValuesList, //unique values
+					//
+					new String[] { "cTm", "eTm", "kVl" }, //insert cols
+					insertValuesList, //insert values
+					//
+					null, null, null //
+					));
+			});
+		});
+	}
+	
+	/**
+	 * Disables the group commit of setValueRaw calls (default)
+	 **/
+	public void disableGroupCommit() {
+		groupCommit = null;
 	}
 	
 	//--------------------------------------------------------------------------
@@ -96,15 +154,26 @@ public class JSql_KeyLongMap extends Core_KeyLongMap {
 			return null;
 		}
 		
+		// Group commit (if enabled)
+		JSqlGroupCommit gc = groupCommit;
+		if (gc != null) {
+			gc.upsertAndWait(new Object[] { key }, new Object[] { now, expire, value.longValue() });
+			return null;
+		}
+		
 		try {
-			sqlObj.upsert( //
-				keyLongMapName, //
-				new String[] { "kID" }, //unique cols
-				new Object[] { key }, //unique value
-				//
-				new String[] { "cTm", "eTm", "kVl" }, //insert cols
-				new Object[] { now, expire, value.longValue() } //insert values
-				);
+			bulkhead.run(sqlObj, JSqlOperationType.WRITE, () -> {
+				sqlObj.upsert( //
+					keyLongMapName, //
+					new String[] { "kID" }, //unique cols
+					new Object[] { key }, //unique value
+					//
+					new String[] { "cTm", "eTm", "kVl" }, //insert cols
+					new Object[] { now, expire, value.longValue() } //insert values
+					);
+			});
+		} catch (JSqlBulkheadFullException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -125,7 +194,8 @@ public class JSql_KeyLongMap extends Core_KeyLongMap {
 	 * @return long
 	 **/
 	public void setExpiryRaw(String key, long expire) {
-		sqlObj.update("UPDATE " + keyLongMapName + " SET eTm=? WHERE kID=?", expire, key);
+		bulkhead.run(sqlObj, JSqlOperationType.WRITE,
+			() -> sqlObj.update("UPDATE " + keyLongMapName + " SET eTm=? WHERE kID=?", expire, key));
 	}
 	
 	/**
@@ -142,7 +212,8 @@ public class JSql_KeyLongMap extends Core_KeyLongMap {
 	 **/
 	public MutablePair<Long, Long> getValueExpiryRaw(String key, long now) {
 		// Search for the key
-		JSqlResult r = sqlObj.select(keyLongMapName, "*", "kID = ?", new Object[] { key });
+		JSqlResult r = bulkhead.call(sqlObj, JSqlOperationType.POINT_GET,
+			() -> sqlObj.select(keyLongMapName, "*", "kID = ?", new Object[] { key }));
 		long expiry = getExpiryRaw(r);
 		
 		if (expiry != 0 && expiry < now) {
@@ -188,17 +259,21 @@ public class JSql_KeyLongMap extends Core_KeyLongMap {
 			// Does a blank upsert, with default values (No actual insert)
 			long now = System.currentTimeMillis();
 			try {
-				sqlObj.upsert( //
-					keyLongMapName, // unique key
-					new String[] { "kID" }, //unique cols
-					new Object[] { key }, //unique value
-					// insert (ignore)
-					null, null,
-					// default value
-					new String[] { "cTm", "eTm", "kVl" }, //insert cols
-					new Object[] { now, 0l, 0l }, //insert values
-					// misc (ignore)
-					null);
+				bulkhead.run(sqlObj, JSqlOperationType.WRITE, () -> {
+					sqlObj.upsert( //
+						keyLongMapName, // unique key
+						new String[] { "kID" }, //unique cols
+						new Object[] { key }, //unique value
+						// insert (ignore)
+						null, null,
+						// default value
+						new String[] { "cTm", "eTm", "kVl" }, //insert cols
+						new Object[] { now, 0l, 0l }, //insert values
+						// misc (ignore)
+						null);
+				});
+			} catch (JSqlBulkheadFullException e) {
+				throw e;
 			} catch (JSqlException e) {
 				// silenced exception, if value already exists,
 				// the update call will work anyway
@@ -208,8 +283,9 @@ public class JSql_KeyLongMap extends Core_KeyLongMap {
 		}
 		
 		// Does the update from 0
-		return sqlObj.update("UPDATE " + keyLongMapName + " SET kVl= ? WHERE kID = ? AND kVl = ?",
-			update, key, expect) > 0;
+		final Long expectVal = expect;
+		return bulkhead.call(sqlObj, JSqlOperationType.WRITE, () -> sqlObj.update("UPDATE "
+			+ keyLongMapName + " SET kVl= ? WHERE kID = ? AND kVl = ?", update, key, expectVal)) > 0;
 	}
 	
 	//--------------------------------------------------------------------------
@@ -258,6 +334,12 @@ public class JSql_KeyLongMap extends Core_KeyLongMap {
 				keyLongMapName, "kID", "UNIQUE", "unq" //
 			);
 			
+			// Expiry index, for the purge of expired values
+			//------------------------------------------------
+			sqlObj.createIndex( //
+				keyLongMapName, "eTm", null, "eTmIdx" //
+			);
+			
 			// Value search index
 			//------------------------------------------------
 			sqlObj.createIndex( //
@@ -284,24 +366,56 @@ public class JSql_KeyLongMap extends Core_KeyLongMap {
 	 **/
 	@Override
 	public void maintenance() {
-		long currentTime = System.currentTimeMillis();
-		sqlObj.delete( //
-			keyLongMapName, //
-			"eTm <= ? AND eTm > ?", //
-			new Object[] { currentTime, 0 });
+		purgeExpired();
+	}
+	
+	/**
+	 * Expiry purge helper, for the eTm index
+	 **/
+	protected JSql_ExpiryPurge expiryPurge = null;
+	
+	/**
+	 * Purge the expired values, in bounded batches (see JSql_ExpiryPurge). Configured via
+	 * `purgeBatchSize` (rows per batch) and `purgeTimeBudget` (milliseconds per run).
+	 *
+	 * @return number of values purged
+	 **/
+	public long purgeExpired() {
+		if (expiryPurge == null) {
+			expiryPurge = new JSql_ExpiryPurge(sqlObj, keyLongMapName);
+		}
+		return expiryPurge.purge(bulkhead, System.currentTimeMillis(), //
+			configMap().getInt("purgeBatchSize", JSql_ExpiryPurge.DEFAULT_BATCH_SIZE), //
+			configMap().getLong("purgeTimeBudget", JSql_ExpiryPurge.DEFAULT_TIME_BUDGET) //
+			);
+	}
+	
+	/**
+	 * Get and returns all the (non expired) keys, as a lazy read only set view.
+	 *
+	 * Iteration is done in pages (via kID keyset seeks), while size()
+	 * and contains() are done using count, and exists queries.
+	 *
+	 * @return set of keys
+	 **/
+	@Override
+	public Set<String> keySet() {
+		return new JSql_KeySet(sqlObj, bulkhead, keyLongMapName, "kID", "eTm <= ? OR eTm > ?",
+			() -> new Object[] { 0, System.currentTimeMillis() }, JSql_KeySet.DEFAULT_PAGE_SIZE);
 	}
 	
 	@Override
 	public Set<String> keySet(Long value) {
-		long now = System.currentTimeMillis();
-		JSqlResult r = null;
+		// Null matches all, which uses the lazy keySet
 		if (value == null) {
-			r = sqlObj.select(keyLongMapName, "kID", "eTm <= ? OR eTm > ?", new Object[] { 0, now });
-		} else {
-			r = sqlObj.select(keyLongMapName, "kID", "kVl = ? AND (eTm <= ? OR eTm > ?)",
-				new Object[] { value.longValue(), 0, now });
+			return keySet();
 		}
 		
+		long now = System.currentTimeMillis();
+		JSqlResult r = bulkhead.call(sqlObj, JSqlOperationType.QUERY, () -> sqlObj.select(
+			keyLongMapName, "kID", "kVl = ? AND (eTm <= ? OR eTm > ?)", new Object[] {
+				value.longValue(), 0, now }));
+		
 		if (r == null || r.get("kID") == null) {
 			return new HashSet<String>();
 		}
@@ -347,7 +461,8 @@ public class JSql_KeyLongMap extends Core_KeyLongMap {
 			throw new IllegalArgumentException("delete 'key' cannot be null");
 		}
 		String keyStr = key.toString();
-		sqlObj.delete(keyLongMapName, "kID = ?", new Object[] { keyStr });
+		bulkhead.run(sqlObj, JSqlOperationType.WRITE,
+			() -> sqlObj.delete(keyLongMapName, "kID = ?", new Object[] { keyStr }));
 		return null;
 	}
 	
@@ -0,0 +1,249 @@
+package picoded.dstack.jsql;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+import picoded.core.conv.GenericConvert;
+import picoded.dstack.connector.jsql.*;
+
+/**
+ * Lazy, read only, keySet view of a JSql table key column.
+ *
+ * Instead of loading every key into memory, iteration is done in pages using keyset seeks
+ * (WHERE key > ? ORDER BY key LIMIT n). While size() and contains() are done using
+ * count and exists queries respectively.
+ *
+ * As each page is a separate query, iteration is weakly consistent. Keys added or removed
+ * during an iteration may or may not be reflected in the iteration.
+ **/
+public class JSql_KeySet extends AbstractSet<String> {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Constructor
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Default number of keys fetched per page
+	 **/
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+	
+	/**
+	 * The inner sql object
+	 **/
+	protected final JSql sqlObj;
+	
+	/**
+	 * Bulkhead to run the queries with
+	 **/
+	protected final JSqlBulkhead bulkhead;
+	
+	/**
+	 * Table name, and the key column name
+	 **/
+	protected final String tableName;
+	protected final String keyColumn;
+	
+	/**
+	 * Additional where clause filter (without the key condition), can be null
+	 * and its arguments supplier (evaluated on every query), can be null
+	 **/
+	protected final String whereClause;
+	protected final Supplier<Object[]> whereArgs;
+	
+	/**
+	 * Number of keys fetched per page
+	 **/
+	protected final int pageSize;
+	
+	/**
+	 * Setup the keyset view
+	 *
+	 * @param  sqlObj       JSql connection to use
+	 * @param  bulkhead     to run the queries with
+	 * @param  tableName    table to query
+	 * @param  keyColumn    key column name
+	 * @param  whereClause  additional where clause filter, can be null
+	 * @param  whereArgs    additional where clause arguments supplier, can be null
+	 * @param  pageSize     number of keys per page
+	 **/
+	public JSql_KeySet(JSql sqlObj, JSqlBulkhead bulkhead, String tableName, String keyColumn,
+		String whereClause, Supplier<Object[]> whereArgs, int pageSize) {
+		this.sqlObj = sqlObj;
+		this.bulkhead = bulkhead;
+		this.tableName = tableName;
+		this.keyColumn = keyColumn;
+		this.whereClause = whereClause;
+		this.whereArgs = whereArgs;
+		this.pageSize = Math.max(1, pageSize);
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Query utilities
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Builds the where clause, with the key condition (if any) and additional filter
+	 *
+	 * @param  keyCondition  key condition (eg: oID > ?), can be null
+	 *
+	 * @return where clause, null if there is no condition
+	 **/
+	protected String buildWhere(String keyCondition) {
+		if (keyCondition == null) {
+			return whereClause;
+		}
+		if (whereClause == null) {
+			return keyCondition;
+		}
+		return keyCondition + " AND (" + whereClause + ")";
+	}
+	
+	/**
+	 * Builds the where arguments, with the key argument (if any) and additional filter arguments
+	 *
+	 * @param  keyArg  key argument, can be null
+	 *
+	 * @return where arguments
+	 **/
+	protected Object[] buildArgs(Object keyArg) {
+		Object[] extra = (whereArgs != null) ? whereArgs.get() : null;
+		int extraLen = (extra != null) ? extra.length : 0;
+		int keyLen = (keyArg != null) ? 1 : 0;
+		
+		Object[] ret = new Object[keyLen + extraLen];
+		if (keyArg != null) {
+			ret[0] = keyArg;
+		}
+		for (int i = 0; i < extraLen; ++i) {
+			ret[keyLen + i] = extra[i];
+		}
+		return ret;
+	}
+	
+	/**
+	 * Fetch a page of keys, after the given key
+	 *
+	 * @param  afterKey  to seek from (exclusive), null for the first page
+	 * @param  limit     number of keys to fetch
+	 *
+	 * @return list of keys, in ascending order
+	 **/
+	public List<String> fetchPage(String afterKey, int limit) {
+		JSqlResult r = bulkhead.call(sqlObj, JSqlOperationType.QUERY, () -> sqlObj.select( //
+			tableName, keyColumn, //
+			buildWhere((afterKey != null) ? keyColumn + " > ?" : null), //
+			buildArgs(afterKey), //
+			keyColumn + " ASC", limit, 0 //
+			));
+		List<String> ret = new ArrayList<String>();
+		if (r == null || r.get(keyColumn) == null) {
+			return ret;
+		}
+		for (Object key : r.get(keyColumn)) {
+			if (key != null) {
+				ret.add(key.toString());
+			}
+		}
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Set implementation
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * @return number of keys, using a count query
+	 **/
+	@Override
+	public int size() {
+		JSqlResult r = bulkhead.call(sqlObj, JSqlOperationType.QUERY, () -> sqlObj.select(tableName,
+			"COUNT(*) AS rcount", buildWhere(null), buildArgs(null)));
+		if (r == null || r.rowCount() <= 0 || r.get("rcount") == null) {
+			return 0;
+		}
+		Object countObj = r.get("rcount").get(0);
+		long count = (countObj != null) ? GenericConvert.toLong(countObj) : 0l;
+		return (int) Math.min(count, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * @return true, if there is no keys. Using a single row lookup
+	 **/
+	@Override
+	public boolean isEmpty() {
+		return fetchPage(null, 1).size() <= 0;
+	}
+	
+	/**
+	 * @param  key to check
+	 *
+	 * @return true, if the key exists. Using a single row lookup
+	 **/
+	@Override
+	public boolean contains(Object key) {
+		if (key == null) {
+			return false;
+		}
+		String keyStr = key.toString();
+		JSqlResult r = bulkhead.call(sqlObj, JSqlOperationType.POINT_GET, () -> sqlObj.select(
+			tableName, keyColumn, buildWhere(keyColumn + " = ?"), buildArgs(keyStr), null, 1, 0));
+		return r != null && r.rowCount() > 0;
+	}
+	
+	/**
+	 * @return iterator, which lazily pages through the keys
+	 **/
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			// Current page, and position within it
+			List<String> page = null;
+			int pos = 0;
+			
+			// Last key of the previous page, and if the last page was reached
+			String lastKey = null;
+			boolean lastPage = false;
+			
+			/**
+			 * Fetch the next page if needed
+			 **/
+			private void ensurePage() {
+				if ((page == null || pos >= page.size()) && !lastPage) {
+					page = fetchPage(lastKey, pageSize);
+					pos = 0;
+					if (page.size() < pageSize) {
+						lastPage = true;
+					}
+					if (page.size() > 0) {
+						lastKey = page.get(page.size() - 1);
+					}
+				}
+			}
+			
+			@Override
+			public boolean hasNext() {
+				ensurePage();
+				return page != null && pos < page.size();
+			}
+			
+			@Override
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return page.get(pos++);
+			}
+		};
+	}
+	
+}
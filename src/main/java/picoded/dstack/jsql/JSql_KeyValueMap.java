@@ -1,5 +1,6 @@
 package picoded.dstack.jsql;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -33,6 +34,12 @@ public class JSql_KeyValueMap extends Core_KeyValueMap {
 	 **/
 	protected String sqlTableName = null;
 	
+	/**
+	 * Bulkhead (concurrency limit) and statement timeouts used for the JSql calls
+	 * of this structure, defaults to no concurrency limit. See JSqlStack for its config.
+	 **/
+	protected JSqlBulkhead bulkhead = null;
+	
 	/**
 	 * [internal use] JSql setup with a SQL connection and tablename
 	 **/
@@ -40,6 +47,54 @@ public class JSql_KeyValueMap extends Core_KeyValueMap {
 		super();
 		sqlTableName = "KV_" + tablename;
 		sqlObj = inJSql;
+		bulkhead = new JSqlBulkhead(sqlTableName);
+	}
+	
+	/**
+	 * Set the bulkhead (concurrency limit) to use for all JSql calls of this structure
+	 *
+	 * @param  inBulkhead to use, null for no limit
+	 **/
+	public void setBulkhead(JSqlBulkhead inBulkhead) {
+		bulkhead = (inBulkhead != null) ? inBulkhead : new JSqlBulkhead(sqlTableName);
+	}
+	
+	/**
+	 * Group commit used for setValueRaw, if enabled (null if disabled)
+	 **/
+	protected JSqlGroupCommit groupCommit = null;
+	
+	/**
+	 * Enables the cross thread group commit of setValueRaw calls, where writes made by
+	 * multiple threads within the window are flushed together as a single multi row
+	 * upsert in one transaction. Each setValueRaw call still blocks till its batch commits.
+	 *
+	 * @param  window in milliseconds to collect writes for a batch
+	 * @param  maxBatchSize of writes in a single batch
+	 **/
+	public void enableGroupCommit(long window, int maxBatchSize) {
+		groupCommit = new JSqlGroupCommit(window, maxBatchSize, (uniqueValuesList,
+			insertValuesList) -> {
+			bulkhead.run(sqlObj, JSqlOperationType.WRITE, () -> {
+				sqlObj.transaction(() -> sqlObj.multiUpsert( //
+					sqlTableName, //
+					new String[] { "kID" }, //unique cols
+					uniqueValuesList, //unique values
+					//
+					new String[] { "cTm", "eTm", "kVl", "kHs" }, //insert cols
+					insertValuesList, //insert values
+					//
+					null, null, null //
+					));
+			});
+		});
+	}
+	
+	/**
+	 * Disables the group commit of setValueRaw calls (default)
+	 **/
+	public void disableGroupCommit() {
+		groupCommit = null;
 	}
 	
 	//--------------------------------------------------------------------------
@@ -62,14 +117,26 @@ public class JSql_KeyValueMap extends Core_KeyValueMap {
 	 **/
 	public String setValueRaw(String key, String value, long expire) {
 		long now = System.currentTimeMillis();
-		sqlObj.upsert( //
-			sqlTableName, //
-			new String[] { "kID" }, //unique cols
-			new Object[] { key }, //unique value
-			//
-			new String[] { "cTm", "eTm", "kVl" }, //insert cols
-			new Object[] { now, expire, value } //insert values
-			);
+		
+		// Group commit (if enabled)
+		JSqlGroupCommit gc = groupCommit;
+		if (gc != null) {
+			gc.upsertAndWait(new Object[] { key }, new Object[] { now, expire, value,
+				valueHash(value) });
+			return null;
+		}
+		
+		// Does the upsert directly
+		bulkhead.run(sqlObj, JSqlOperationType.WRITE, () -> {
+			sqlObj.upsert( //
+				sqlTableName, //
+				new String[] { "kID" }, //unique cols
+				new Object[] { key }, //unique value
+				//
+				new String[] { "cTm", "eTm", "kVl", "kHs" }, //insert cols
+				new Object[] { now, expire, value, valueHash(value) } //insert values
+				);
+		});
 		return null;
 	}
 	
@@ -87,7 +154,8 @@ public class JSql_KeyValueMap extends Core_KeyValueMap {
 	 **/
 	public MutablePair<String, Long> getValueExpiryRaw(String key, long now) {
 		// Search for the key
-		JSqlResult r = sqlObj.select(sqlTableName, "*", "kID=?", new Object[] { key });
+		JSqlResult r = bulkhead.call(sqlObj, JSqlOperationType.POINT_GET,
+			() -> sqlObj.select(sqlTableName, "*", "kID=?", new Object[] { key }));
 		long expiry = fetchExpiryRaw(r);
 		
 		// No valid value found , return null
@@ -157,7 +225,8 @@ public class JSql_KeyValueMap extends Core_KeyValueMap {
 	 * @return long
 	 **/
 	public void setExpiryRaw(String key, long time) {
-		sqlObj.update("UPDATE " + sqlTableName + " SET eTm=? WHERE kID=?", time, key);
+		bulkhead.run(sqlObj, JSqlOperationType.WRITE,
+			() -> sqlObj.update("UPDATE " + sqlTableName + " SET eTm=? WHERE kID=?", time, key));
 	}
 	
 	//--------------------------------------------------------------------------
@@ -186,6 +255,11 @@ public class JSql_KeyValueMap extends Core_KeyValueMap {
 	 **/
 	protected String valueColumnType = "VARCHAR(MAX)";
 	
+	/**
+	 * Value hash field type
+	 **/
+	protected String hashColumnType = "BIGINT";
+	
 	/**
 	 * Setsup the backend storage table, etc. If needed
 	 **/
@@ -205,7 +279,9 @@ public class JSql_KeyValueMap extends Core_KeyValueMap {
 				// Storage keys
 				"kID", //
 				// Value storage
-				"kVl" //
+				"kVl", //
+				// Value hash, for reverse lookups
+				"kHs" //
 			}, //
 			new String[] { //
 			pKeyColumnType, //Primary key
@@ -214,7 +290,9 @@ public class JSql_KeyValueMap extends Core_KeyValueMap {
 				// Storage keys
 				keyColumnType, //
 				// Value storage
-				valueColumnType //
+				valueColumnType, //
+				// Value hash
+				hashColumnType //
 			} //
 			);
 		
@@ -224,6 +302,27 @@ public class JSql_KeyValueMap extends Core_KeyValueMap {
 			sqlTableName, "kID", "UNIQUE", "unq" //
 		);
 		
+		// Value hash column, for tables created before it was added
+		// (existing rows are backfilled via backfillValueHash)
+		//------------------------------------------------
+		try {
+			sqlObj.update_raw("ALTER TABLE " + sqlTableName + " ADD kHs " + hashColumnType);
+		} catch (Exception e) {
+			// Silence exception, as the column already exists
+		}
+		
+		// Value hash search index, used by keySet(value)
+		//------------------------------------------------
+		sqlObj.createIndex( //
+			sqlTableName, "kHs", null, "valHsh" //
+		);
+		
+		// Expiry index, for the purge of expired values
+		//------------------------------------------------
+		sqlObj.createIndex( //
+			sqlTableName, "eTm", null, "eTmIdx" //
+		);
+		
 		// Value search index
 		//------------------------------------------------
 		if (sqlObj.sqlType() == JSqlType.MYSQL) {
@@ -250,11 +349,33 @@ public class JSql_KeyValueMap extends Core_KeyValueMap {
 	 * Perform maintenance, mainly removing of expired data if applicable
 	 **/
 	public void maintenance() {
-		long currentTime = System.currentTimeMillis();
-		sqlObj.delete( //
-			sqlTableName, //
-			"eTm <= ? AND eTm > ?", //
-			new Object[] { currentTime, 0 });
+		purgeExpired();
+		
+		// Backfill a single batch of missing value hashes (if any)
+		if (!valueHashComplete) {
+			backfillValueHash(DEFAULT_BACKFILL_BATCH_SIZE);
+		}
+	}
+	
+	/**
+	 * Expiry purge helper, for the eTm index
+	 **/
+	protected JSql_ExpiryPurge expiryPurge = null;
+	
+	/**
+	 * Purge the expired values, in bounded batches (see JSql_ExpiryPurge). Configured via
+	 * `purgeBatchSize` (rows per batch) and `purgeTimeBudget` (milliseconds per run).
+	 *
+	 * @return number of values purged
+	 **/
+	public long purgeExpired() {
+		if (expiryPurge == null) {
+			expiryPurge = new JSql_ExpiryPurge(sqlObj, sqlTableName);
+		}
+		return expiryPurge.purge(bulkhead, System.currentTimeMillis(), //
+			configMap().getInt("purgeBatchSize", JSql_ExpiryPurge.DEFAULT_BATCH_SIZE), //
+			configMap().getLong("purgeTimeBudget", JSql_ExpiryPurge.DEFAULT_TIME_BUDGET) //
+			);
 	}
 	
 	/**
@@ -265,12 +386,113 @@ public class JSql_KeyValueMap extends Core_KeyValueMap {
 		sqlObj.delete(sqlTableName);
 	}
 	
+	//--------------------------------------------------------------------------
+	//
+	// Value hash support
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Default number of rows to backfill per batch
+	 **/
+	public static final int DEFAULT_BACKFILL_BATCH_SIZE = 1000;
+	
+	/**
+	 * Indicates if all values are known to have their hash (kHs) filled
+	 **/
+	protected volatile boolean valueHashComplete = false;
+	
+	/**
+	 * Computes the fixed width hash of the value (64 bit FNV-1a, of its UTF-8 bytes),
+	 * as stored in the kHs column. This is used only to narrow down the lookup,
+	 * with the value compared exactly after.
+	 *
+	 * @param  value to hash
+	 *
+	 * @return the hash, null if the value is null
+	 **/
+	protected static Long valueHash(String value) {
+		if (value == null) {
+			return null;
+		}
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= (b & 0xff);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	/**
+	 * @return true if there are values without its hash, which are yet to be backfilled
+	 **/
+	protected boolean hasPendingValueHash() {
+		if (valueHashComplete) {
+			return false;
+		}
+		JSqlResult r = bulkhead.call(sqlObj, JSqlOperationType.QUERY, () -> sqlObj.select(
+			sqlTableName, "kID", "kHs IS NULL AND kVl IS NOT NULL", null, null, 1, 0));
+		if (r == null || r.rowCount() <= 0) {
+			valueHashComplete = true;
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Backfill the value hash (kHs) of a single batch of existing rows, which were
+	 * written before the hash column was added. This is called by maintenance,
+	 * and can be called repeatedly till it returns 0.
+	 *
+	 * @param  batchSize maximum number of rows to update
+	 *
+	 * @return number of rows updated
+	 **/
+	public int backfillValueHash(int batchSize) {
+		JSqlResult r = bulkhead.call(sqlObj, JSqlOperationType.MAINTENANCE, () -> sqlObj.select(
+			sqlTableName, "kID, kVl", "kHs IS NULL AND kVl IS NOT NULL", null, null, batchSize, 0));
+		int rows = (r != null && r.get("kID") != null) ? r.rowCount() : 0;
+		if (rows <= 0) {
+			valueHashComplete = true;
+			return 0;
+		}
+		
+		// Update the batch in a single transaction, where the value is matched again
+		// in case it was concurrently changed (which would have set its own hash)
+		bulkhead.run(sqlObj, JSqlOperationType.MAINTENANCE, () -> {
+			sqlObj.transaction(() -> {
+				for (int i = 0; i < rows; ++i) {
+					String key = r.get("kID").get(i).toString();
+					String value = r.get("kVl").get(i).toString();
+					sqlObj.update("UPDATE " + sqlTableName + " SET kHs=? WHERE kID=? AND kVl=?",
+						valueHash(value), key, value);
+				}
+				return null;
+			});
+		});
+		return rows;
+	}
+	
 	//--------------------------------------------------------------------------
 	//
 	// SQL specific KeySet / remove optimization
 	//
 	//--------------------------------------------------------------------------
 	
+	/**
+	 * Get and returns all the (non expired) keys, as a lazy read only set view.
+	 *
+	 * Iteration is done in pages (via kID keyset seeks), while size()
+	 * and contains() are done using count, and exists queries.
+	 *
+	 * @return set of keys
+	 **/
+	@Override
+	public Set<String> keySet() {
+		return new JSql_KeySet(sqlObj, bulkhead, sqlTableName, "kID", "eTm <= ? OR eTm > ?",
+			() -> new Object[] { 0, System.currentTimeMillis() }, JSql_KeySet.DEFAULT_PAGE_SIZE);
+	}
+	
 	/**
 	 * Search using the value, all the relevent key mappings
 	 *
@@ -282,15 +504,20 @@ public class JSql_KeyValueMap extends Core_KeyValueMap {
 	 **/
 	@Override
 	public Set<String> keySet(String value) {
-		long now = System.currentTimeMillis();
-		JSqlResult r = null;
+		// Null matches all, which uses the lazy keySet
 		if (value == null) {
-			r = sqlObj.select(sqlTableName, "kID", "eTm <= ? OR eTm > ?", new Object[] { 0, now });
-		} else {
-			r = sqlObj.select(sqlTableName, "kID", "kVl = ? AND (eTm <= ? OR eTm > ?)", new Object[] {
-				value, 0, now });
+			return keySet();
 		}
 		
+		// Lookup by the value hash, then compare exactly. Rows without a hash
+		// are included till the backfill is completed.
+		long now = System.currentTimeMillis();
+		long hash = valueHash(value);
+		String hashWhere = hasPendingValueHash() ? "(kHs = ? OR kHs IS NULL)" : "kHs = ?";
+		JSqlResult r = bulkhead.call(sqlObj, JSqlOperationType.QUERY, () -> sqlObj.select(
+			sqlTableName, "kID", hashWhere + " AND kVl = ? AND (eTm <= ? OR eTm > ?)", new Object[] {
+				hash, value, 0, now }));
+		
 		if (r == null || r.get("kID") == null) {
 			return new HashSet<String>();
 		}
@@ -328,7 +555,8 @@ public class JSql_KeyValueMap extends Core_KeyValueMap {
 			throw new IllegalArgumentException("delete 'key' cannot be null");
 		}
 		String keyStr = key.toString();
-		sqlObj.delete(sqlTableName, "kID = ?", new Object[] { keyStr });
+		bulkhead.run(sqlObj, JSqlOperationType.WRITE,
+			() -> sqlObj.delete(sqlTableName, "kID = ?", new Object[] { keyStr }));
 		return null;
 	}
 	
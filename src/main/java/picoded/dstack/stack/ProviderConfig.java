@@ -11,6 +11,7 @@ import picoded.dstack.file.layered.FileLayeredStack;
 import picoded.dstack.file.simple.FileSimpleStack;
 import picoded.dstack.struct.simple.StructSimpleStack;
 import picoded.dstack.struct.cache.StructCacheStack;
+import picoded.dstack.struct.offheap.StructOffHeapStack;
 import picoded.dstack.core.CoreStack;
 import picoded.dstack.jsql.JSqlStack;
 
@@ -154,7 +155,7 @@ public class ProviderConfig {
 	/**
 	 * Initialize a new stack object based on the given type
 	 *
-	 * @param  type of stack to initialize ( StructSimple / JSql / JConfig / Stack )
+	 * @param  type of stack to initialize ( StructSimple / StructCache / StructOffHeap / JSql / JConfig / Stack )
 	 */
 	protected CoreStack initStack(String type, GenericConvertMap<String, Object> config) {
 		if (type.equalsIgnoreCase("StructSimple")) {
@@ -163,6 +164,9 @@ public class ProviderConfig {
 		if (type.equalsIgnoreCase("StructCache")) {
 			return new StructCacheStack(config);
 		}
+		if (type.equalsIgnoreCase("StructOffHeap")) {
+			return new StructOffHeapStack(config);
+		}
 		if (type.equalsIgnoreCase("JSql")) {
 			return new JSqlStack(config);
 		}
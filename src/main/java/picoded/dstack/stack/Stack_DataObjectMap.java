@@ -1,7 +1,11 @@
 package picoded.dstack.stack;
 
 // Java imports
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -9,6 +13,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 // Picoded imports
 import picoded.core.conv.ConvertJSON;
+import picoded.core.struct.GenericConvertMap;
 import picoded.core.struct.query.Query;
 import picoded.core.common.EmptyArray;
 import picoded.core.common.ObjectToken;
@@ -108,7 +113,10 @@ public class Stack_DataObjectMap extends Core_DataObjectMap implements Stack_Com
 		for (int i = 0; i < dataLayers.length; ++i) {
 			Map<String, Object> res = dataLayers[i].DataObjectRemoteDataMap_get(oid);
 			if (res != null) {
-				// Populate the data back upwards
+				// Populate the data back upwards, with any lazy values loaded
+				if (i > 0) {
+					Core_LazyValue.resolveAll(res);
+				}
 				Set<String> resKeySet = res.keySet();
 				for (i = i - 1; i >= 0; --i) {
 					dataLayers[i].DataObjectRemoteDataMap_update(oid, res, resKeySet);
@@ -240,6 +248,75 @@ public class Stack_DataObjectMap extends Core_DataObjectMap implements Stack_Com
 		return queryLayer.query_id(queryClause, orderByStr, offset, limit);
 	}
 	
+	/**
+	 * Performs a search query, and returns a page of the respective DataObjects,
+	 * together with the total count for the query.
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The DataObjectPage, with the total count
+	 **/
+	@Override
+	public DataObjectPage queryPage(Query queryClause, String orderByStr, int offset, int limit) {
+		
+		// Optimize for _oid = ? without or clauses
+		DataObject[] singleQueryCheck = singleObjectQuery(queryClause);
+		if (singleQueryCheck != null) {
+			List<DataObject> singleList = new ArrayList<DataObject>(Arrays.asList(singleQueryCheck));
+			return pageFromList(singleList, orderByStr, offset, limit);
+		}
+		
+		// Standard call against query layer, with the page DataObjects from this stack
+		DataObjectPage layerPage = queryLayer.queryPage(queryClause, orderByStr, offset, limit);
+		return new DataObjectPage(this, layerPage.getObjectIDs(), layerPage.getTotalCount());
+	}
+	
+	/**
+	 * Explains how a search query is performed, against the query layer
+	 *
+	 * @param   queryClause, of where query statement and value
+	 * @param   orderByStr string to sort the order by, use null to ignore
+	 * @param   offset of the result to display, use -1 to ignore
+	 * @param   number of objects to return max, use -1 to ignore
+	 *
+	 * @return  The explanation map
+	 **/
+	@Override
+	public GenericConvertMap<String, Object> explain(Query queryClause, String orderByStr,
+		int offset, int limit) {
+		
+		// Optimize for _oid = ? without or clauses
+		long start = System.nanoTime();
+		DataObject[] singleQueryCheck = singleObjectQuery(queryClause);
+		if (singleQueryCheck != null) {
+			GenericConvertMap<String, Object> ret = explainSetup(queryClause);
+			ret.put("executeTime", (System.nanoTime() - start) / 1000000.0);
+			ret.put("strategy", "get");
+			ret.put("rowsExamined", 1);
+			ret.put("resultCount", singleQueryCheck.length);
+			return ret;
+		}
+		
+		// Standard call against query layer
+		GenericConvertMap<String, Object> ret = queryLayer.explain(queryClause, orderByStr, offset,
+			limit);
+		ret.put("stack", this.getClass().getSimpleName());
+		return ret;
+	}
+	
+	/**
+	 * Exports all objects, into a columnar snapshot, from the query layer
+	 *
+	 * @param  outStream to write the snapshot into, which is closed on completion
+	 **/
+	@Override
+	public void exportSnapshot(OutputStream outStream) {
+		queryLayer.exportSnapshot(outStream);
+	}
+	
 	/**
 	 * Performs a search query, and returns the respective DataObjects
 	 *
@@ -288,6 +365,18 @@ public class Stack_DataObjectMap extends Core_DataObjectMap implements Stack_Com
 		return queryLayer.randomObjectID();
 	}
 	
+	/**
+	 * Gets and return up to n distinct random object ID's
+	 *
+	 * @param  n number of object ID's to return
+	 *
+	 * @return  Random object ID's
+	 **/
+	@Override
+	public String[] randomSample(int n) {
+		return queryLayer.randomSample(n);
+	}
+	
 	/**
 	 * Gets and return the next object ID key for iteration given the current ID,
 	 * null gets the first object in iteration.
@@ -300,6 +389,21 @@ public class Stack_DataObjectMap extends Core_DataObjectMap implements Stack_Com
 		return queryLayer.looselyIterateObjectID(currentID);
 	}
 	
+	/**
+	 * Gets the objects which changed (updated, or removed) since the given timestamp,
+	 * in update order, from the query layer.
+	 *
+	 * @param  timestamp in milliseconds to get changes from (inclusive), ignored if cursor is given
+	 * @param  limit     max number of changes to return, use -1 to ignore
+	 * @param  cursor    of the last change read (exclusive), can be null
+	 *
+	 * @return  list of changes, in update order
+	 **/
+	@Override
+	public List<DataObjectChange> changedSince(long timestamp, int limit, String cursor) {
+		return queryLayer.changedSince(timestamp, limit, cursor);
+	}
+	
 	//--------------------------------------------------------------------------
 	//
 	// Copy pasta code, I wished could have worked in an interface
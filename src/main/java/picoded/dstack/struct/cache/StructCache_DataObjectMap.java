@@ -58,6 +58,30 @@ public class StructCache_DataObjectMap extends Core_DataObjectMap_struct {
 	 */
 	protected volatile static Map<String, Cache<String, Map<String, Object>>> globalCacheMap = new ConcurrentHashMap<String, Cache<String, Map<String, Object>>>();
 	
+	/**
+	 * Global static key index map, by cache name.
+	 * As the cache itself is shared across instances of the same name.
+	 */
+	protected volatile static Map<String, Core_KeyIndex> globalKeyIndexMap = new ConcurrentHashMap<String, Core_KeyIndex>();
+	
+	/**
+	 * Global static change index map, by cache name.
+	 * As the cache itself is shared across instances of the same name.
+	 */
+	protected volatile static Map<String, Core_ChangeIndex> globalChangeIndexMap = new ConcurrentHashMap<String, Core_ChangeIndex>();
+	
+	/**
+	 * Global static secondary index map, by cache name.
+	 * As the cache itself is shared across instances of the same name.
+	 */
+	protected volatile static Map<String, Core_StructIndex> globalStructIndexMap = new ConcurrentHashMap<String, Core_StructIndex>();
+	
+	/**
+	 * Global static object lock stripes, by cache name.
+	 * As the cache itself is shared across instances of the same name.
+	 */
+	protected volatile static Map<String, Object[]> globalObjectLocksMap = new ConcurrentHashMap<String, Object[]>();
+	
 	//--------------------------------------------------------------------------
 	//
 	// Local cache
@@ -122,6 +146,40 @@ public class StructCache_DataObjectMap extends Core_DataObjectMap_struct {
 		return valueMap().asMap();
 	}
 	
+	/**
+	 * @return Object lock stripes, shared globally by the cache name.
+	 */
+	protected Object[] objectLocks() {
+		return globalObjectLocksMap.computeIfAbsent(cacheName(), (name) -> newObjectLocks());
+	}
+	
+	/**
+	 * @return Key index, shared globally by the cache name. Note that cache evictions
+	 *         are not reflected in the index, and are lazily removed on random selection,
+	 *         or iteration.
+	 */
+	protected Core_KeyIndex keyIndex() {
+		return globalKeyIndexMap.computeIfAbsent(cacheName(), (name) -> new Core_KeyIndex());
+	}
+	
+	/**
+	 * @return Change index, shared globally by the cache name. Note that cache evictions
+	 *         are not recorded as changes, as the evicted object is not removed.
+	 */
+	protected Core_ChangeIndex changeIndex() {
+		return globalChangeIndexMap.computeIfAbsent(cacheName(), (name) -> new Core_ChangeIndex());
+	}
+	
+	/**
+	 * @return Secondary index, shared globally by the cache name. Note that cache evictions
+	 *         are not reflected in the index, and are lazily removed on query.
+	 */
+	protected Core_StructIndex structIndex() {
+		Core_StructIndex ret = globalStructIndexMap.computeIfAbsent(cacheName(),
+			(name) -> newStructIndex());
+		return ret.isEmpty() ? null : ret;
+	}
+	
 	//--------------------------------------------------------------------------
 	//
 	// Backend system setup / teardown / maintenance (DStackCommon)
@@ -167,6 +225,10 @@ public class StructCache_DataObjectMap extends Core_DataObjectMap_struct {
 	@Override
 	public void systemDestroy() {
 		globalCacheMap.remove(cacheName());
+		globalKeyIndexMap.remove(cacheName());
+		globalChangeIndexMap.remove(cacheName());
+		globalStructIndexMap.remove(cacheName());
+		globalObjectLocksMap.remove(cacheName());
 		_valueMap = null;
 	}
 	
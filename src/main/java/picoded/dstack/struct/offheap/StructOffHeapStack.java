@@ -0,0 +1,58 @@
+package picoded.dstack.struct.offheap;
+
+import picoded.core.struct.GenericConvertMap;
+import picoded.dstack.core.*;
+
+/**
+ * [Internal use only]
+ * 
+ * StructOffHeap configuration based stack provider, supporting KeyValueMap and KeyLongMap only.
+ * 
+ * All data structures of the stack share a single off heap memory budget, configured by
+ * `maxMemory` in bytes (0 for no limit). With `slabSize` and `segments` as optional tuning.
+ **/
+public class StructOffHeapStack extends CoreStack {
+	
+	/**
+	 * Shared memory budget, of all the data structures in this stack
+	 */
+	protected Core_OffHeapStore.MemoryBudget budget = null;
+	
+	/**
+	 * Constructor with configuration map
+	 */
+	public StructOffHeapStack(GenericConvertMap<String, Object> inConfig) {
+		super(inConfig);
+		budget = new Core_OffHeapStore.MemoryBudget(inConfig.getLong("maxMemory", 0));
+	}
+	
+	/**
+	 * @return a new off heap store, using the shared memory budget
+	 */
+	protected Core_OffHeapStore newStore() {
+		return new Core_OffHeapStore(budget, //
+			config.getInt("slabSize", Core_OffHeapStore.DEFAULT_SLAB_SIZE), //
+			config.getInt("segments", Core_OffHeapStore.DEFAULT_SEGMENTS) //
+		);
+	}
+	
+	/**
+	 * Initilize and return the requested data structure with the given name or type if its supported
+	 * 
+	 * @param  name  name of the datastructure to initialize
+	 * @param  type  implmentation type (KeyValueMap / KeyLongMap / DataObjectMap / FileWorkspaceMap)
+	 * 
+	 * @return initialized data structure if type is supported
+	 */
+	protected Core_DataStructure initDataStructure(String name, String type) {
+		// Initialize for the respective type
+		if (type.equalsIgnoreCase("KeyValueMap")) {
+			return new StructOffHeap_KeyValueMap(newStore());
+		}
+		if (type.equalsIgnoreCase("KeyLongMap")) {
+			return new StructOffHeap_KeyLongMap(newStore());
+		}
+		// No valid type, return null
+		return null;
+	}
+}
@@ -0,0 +1,300 @@
+package picoded.dstack.struct.offheap;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import picoded.dstack.core.Core_KeyLongMap;
+import picoded.dstack.core.Core_OffHeapStore;
+import picoded.core.conv.GenericConvert;
+import picoded.core.struct.MutablePair;
+
+/**
+ * Off heap implementation of KeyLongMap data structure.
+ *
+ * Built ontop of the Core_KeyLongMap implementation.
+ *
+ * Keys are stored as UTF-8 bytes, and values as 8 bytes (with their expiry) within a
+ * Core_OffHeapStore. Incremental operations are done as a single atomic update
+ * of the entry in place, without any retry loop. Entries are lost on restart.
+ **/
+public class StructOffHeap_KeyLongMap extends Core_KeyLongMap {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Constructor
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Off heap store used
+	 **/
+	protected Core_OffHeapStore store;
+	
+	/**
+	 * Constructor, with its own store without a memory limit
+	 **/
+	public StructOffHeap_KeyLongMap() {
+		this(new Core_OffHeapStore());
+	}
+	
+	/**
+	 * Constructor, with the given store
+	 *
+	 * @param  inStore  off heap store to use
+	 **/
+	public StructOffHeap_KeyLongMap(Core_OffHeapStore inStore) {
+		super();
+		store = inStore;
+	}
+	
+	/**
+	 * @return the key as bytes
+	 **/
+	protected static byte[] keyBytes(Object key) {
+		if (key == null) {
+			throw new IllegalArgumentException("key cannot be null");
+		}
+		return key.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @return the value as bytes
+	 **/
+	protected static byte[] valueBytes(long value) {
+		return ByteBuffer.allocate(8).putLong(0, value).array();
+	}
+	
+	/**
+	 * @return the value of the bytes
+	 **/
+	protected static long value(byte[] data) {
+		return ByteBuffer.wrap(data).getLong(0);
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// KeySet support implementation
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Search using the value, all the relevent key mappings
+	 *
+	 * @param key, note that null matches ALL
+	 *
+	 * @return array of keys
+	 **/
+	@Override
+	public Set<String> keySet(Long value) {
+		// Value is matched against the stored bytes, without decoding every entry
+		Set<String> ret = new HashSet<String>();
+		byte[] match = (value != null) ? valueBytes(value) : null;
+		store.forEachKey(match, System.currentTimeMillis(), (key) -> {
+			ret.add(new String(key, StandardCharsets.UTF_8));
+		});
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Fundamental set/get value (core)
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * [Internal use, to be extended in future implementation]
+	 * Sets the value, with validation
+	 *
+	 * @param key
+	 * @param value, null means removal
+	 * @param expire timestamp, 0 means not timestamp
+	 *
+	 * @return null
+	 **/
+	public Long setValueRaw(String key, Long value, long expire) {
+		if (key == null || key.isEmpty()) {
+			return null;
+		}
+		if (value == null) {
+			store.remove(keyBytes(key));
+		} else {
+			store.put(keyBytes(key), valueBytes(value), expire);
+		}
+		return null;
+	}
+	
+	/**
+	 * [Internal use, to be extended in future implementation]
+	 *
+	 * Returns the value and expiry, with validation against the current timestamp
+	 *
+	 * @param key as String
+	 * @param now timestamp, 0 = no timestamp so skip timestamp checks
+	 *
+	 * @return Long value, and expiry pair
+	 **/
+	public MutablePair<Long, Long> getValueExpiryRaw(String key, long now) {
+		if (key == null) {
+			return null;
+		}
+		Core_OffHeapStore.Entry entry = store.get(keyBytes(key), now);
+		if (entry == null) {
+			return null;
+		}
+		return new MutablePair<Long, Long>(value(entry.value), entry.expiry);
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Incremental operations
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Atomically adds the delta to the value (0 if it does not exist)
+	 *
+	 * @param key param find the meta key
+	 * @param delta value to add
+	 *
+	 * @return  the previous value, and the updated value
+	 **/
+	protected long[] add(Object key, Object delta) {
+		byte[] rawKey = keyBytes(key);
+		long change = GenericConvert.toLong(delta);
+		long[] ret = new long[2];
+		store.compute(rawKey, System.currentTimeMillis(), (entry) -> {
+			ret[0] = (entry != null) ? value(entry.value) : 0L;
+			ret[1] = ret[0] + change;
+			return new Core_OffHeapStore.Entry(rawKey, valueBytes(ret[1]),
+				(entry != null) ? entry.expiry : 0);
+		});
+		return ret;
+	}
+	
+	/**
+	 * Returns the value, given the key
+	 *
+	 * @param key param find the meta key
+	 * @param delta value to add
+	 *
+	 * @return  value of the given key after adding
+	 **/
+	@Override
+	public Long addAndGet(Object key, Object delta) {
+		return add(key, delta)[1];
+	}
+	
+	/**
+	 * Returns the value, given the key. Then apply the delta change
+	 *
+	 * @param key param find the meta key
+	 * @param delta value to add
+	 *
+	 * @return  value of the given key, note that it returns 0 if there wasnt a previous value set
+	 **/
+	@Override
+	public Long getAndAdd(Object key, Object delta) {
+		return add(key, delta)[0];
+	}
+	
+	/**
+	 * Stores (and overwrites if needed) key, value pair
+	 *
+	 * Important note: It does not return the previously stored value
+	 *
+	 * @param key as String
+	 * @param expect as Long
+	 * @param update as Long
+	 *
+	 * @return true if successful
+	 **/
+	@Override
+	public boolean weakCompareAndSet(String key, Long expect, Long update) {
+		byte[] rawKey = keyBytes(key);
+		boolean[] result = new boolean[] { false };
+		store.compute(rawKey, System.currentTimeMillis(), (entry) -> {
+			// Value does not exists (0 is considered as not exists)
+			if (entry == null) {
+				if (expect != null && expect.longValue() != 0L) {
+					return null;
+				}
+			} else if (expect == null || expect.longValue() != value(entry.value)) {
+				return entry;
+			}
+			result[0] = true;
+			if (update == null) {
+				return null;
+			}
+			return new Core_OffHeapStore.Entry(rawKey, valueBytes(update),
+				(entry != null) ? entry.expiry : 0);
+		});
+		return result[0];
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Expiration and lifespan handling (core)
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * [Internal use, to be extended in future implementation]
+	 * Sets the expire time stamp value, raw without validation
+	 *
+	 * @param key as String
+	 * @param time timestamp in seconds, 0 means NO expire
+	 *
+	 * @return long
+	 **/
+	public void setExpiryRaw(String key, long time) {
+		// Does nothing if empty
+		store.compute(keyBytes(key), 0, (entry) -> {
+			if (entry == null) {
+				return null;
+			}
+			return new Core_OffHeapStore.Entry(entry.key, entry.value, time);
+		});
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Backend system setup / teardown / maintenance (DStackCommon)
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Sets up the backend storage. If needed.
+	 * The SQL equivalent would be "CREATE TABLE {TABLENAME} IF NOT EXISTS"
+	 **/
+	@Override
+	public void systemSetup() {
+		//clear();
+	}
+	
+	/**
+	 * Destroy, Teardown and delete the backend storage. If needed
+	 * The SQL equivalent would be "DROP TABLE {TABLENAME}"
+	 **/
+	@Override
+	public void systemDestroy() {
+		clear();
+	}
+	
+	/**
+	 * Perform maintenance, mainly removing of expired data if applicable
+	 **/
+	@Override
+	public void maintenance() {
+		store.removeExpired(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Removes all data, without tearing down setup (releasing its off heap memory)
+	 **/
+	@Override
+	public void clear() {
+		store.clear();
+	}
+}
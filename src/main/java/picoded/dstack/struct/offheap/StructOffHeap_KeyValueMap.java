@@ -0,0 +1,188 @@
+package picoded.dstack.struct.offheap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import picoded.dstack.core.Core_KeyValueMap;
+import picoded.dstack.core.Core_OffHeapStore;
+import picoded.core.struct.MutablePair;
+
+/**
+ * Off heap implementation of KeyValueMap data structure.
+ *
+ * Built ontop of the Core_KeyValueMap implementation.
+ *
+ * Keys and values are stored as UTF-8 bytes (with their expiry) within a Core_OffHeapStore.
+ * Which keeps large numbers of entries (such as sessions and tokens) out of the java heap,
+ * at the cost of encoding / decoding on each call. Entries are lost on restart.
+ **/
+public class StructOffHeap_KeyValueMap extends Core_KeyValueMap {
+	
+	//--------------------------------------------------------------------------
+	//
+	// Constructor
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Off heap store used
+	 **/
+	protected Core_OffHeapStore store;
+	
+	/**
+	 * Constructor, with its own store without a memory limit
+	 **/
+	public StructOffHeap_KeyValueMap() {
+		this(new Core_OffHeapStore());
+	}
+	
+	/**
+	 * Constructor, with the given store
+	 *
+	 * @param  inStore  off heap store to use
+	 **/
+	public StructOffHeap_KeyValueMap(Core_OffHeapStore inStore) {
+		super();
+		store = inStore;
+	}
+	
+	/**
+	 * @return the key (or value) as bytes
+	 **/
+	protected static byte[] bytes(String str) {
+		return str.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @return the bytes as a string
+	 **/
+	protected static String string(byte[] data) {
+		return new String(data, StandardCharsets.UTF_8);
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// KeySet support implementation
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Search using the value, all the relevent key mappings
+	 *
+	 * @param key, note that null matches ALL
+	 *
+	 * @return array of keys
+	 **/
+	@Override
+	public Set<String> keySet(String value) {
+		// Value is matched against the stored bytes, without decoding every entry
+		Set<String> ret = new HashSet<String>();
+		byte[] match = (value != null) ? bytes(value) : null;
+		store.forEachKey(match, System.currentTimeMillis(), (key) -> ret.add(string(key)));
+		return ret;
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Fundemental set/get value (core)
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * [Internal use, to be extended in future implementation]
+	 * Sets the value, with validation
+	 *
+	 * @param key
+	 * @param value, null means removal
+	 * @param expire timestamp in milliseconds, 0 means NO expire
+	 *
+	 * @return null
+	 **/
+	public String setValueRaw(String key, String value, long expire) {
+		if (value == null) {
+			store.remove(bytes(key));
+		} else {
+			store.put(bytes(key), bytes(value), expire);
+		}
+		return null;
+	}
+	
+	/**
+	 * [Internal use, to be extended in future implementation]
+	 *
+	 * Returns the value and expiry, with validation against the current timestamp
+	 *
+	 * @param key as String
+	 * @param now timestamp, 0 = no timestamp so skip timestamp checks
+	 *
+	 * @return String value, and expiry pair
+	 **/
+	public MutablePair<String, Long> getValueExpiryRaw(String key, long now) {
+		Core_OffHeapStore.Entry entry = store.get(bytes(key), now);
+		if (entry == null) {
+			return null;
+		}
+		return new MutablePair<String, Long>(string(entry.value), entry.expiry);
+	}
+	
+	/**
+	 * [Internal use, to be extended in future implementation]
+	 * Sets the expire time stamp value, raw without validation
+	 *
+	 * @param key as String
+	 * @param expire timestamp in seconds, 0 means NO expire
+	 *
+	 * @return
+	 **/
+	public void setExpiryRaw(String key, long time) {
+		// Does nothing if empty
+		store.compute(bytes(key), 0, (entry) -> {
+			if (entry == null) {
+				return null;
+			}
+			return new Core_OffHeapStore.Entry(entry.key, entry.value, time);
+		});
+	}
+	
+	//--------------------------------------------------------------------------
+	//
+	// Backend system setup / teardown / maintenance (DStackCommon)
+	//
+	//--------------------------------------------------------------------------
+	
+	/**
+	 * Sets up the backend storage. If needed.
+	 * The SQL equivalent would be "CREATE TABLE {TABLENAME} IF NOT EXISTS"
+	 **/
+	@Override
+	public void systemSetup() {
+		//clear();
+	}
+	
+	/**
+	 * Destroy, Teardown and delete the backend storage. If needed
+	 * The SQL equivalent would be "DROP TABLE {TABLENAME}"
+	 **/
+	@Override
+	public void systemDestroy() {
+		clear();
+	}
+	
+	/**
+	 * Perform maintenance, mainly removing of expired data if applicable
+	 **/
+	@Override
+	public void maintenance() {
+		store.removeExpired(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Removes all data, without tearing down setup (releasing its off heap memory)
+	 **/
+	@Override
+	public void clear() {
+		store.clear();
+	}
+	
+}
@@ -1,11 +1,9 @@
 package picoded.dstack.struct.simple;
 
 // Java imports
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 // Picoded imports
 import picoded.core.conv.ConvertJSON;
@@ -18,6 +16,20 @@ import picoded.dstack.core.*;
  * This is done via a minimal implementation via internal data structures.
  *
  * Built ontop of the Core_DataObjectMap_struct implementation.
+ *
+ * Each object is updated with an atomic compute on the ConcurrentHashMap, within its object
+ * lock stripe (together with its index and change feed updates). Where reads are lock free,
+ * and updates of different objects run concurrently. Stored value maps are copy on write,
+ * and never modified once stored.
+ * Including their nested values, which are handed out to DataObject without a deep copy
+ * (see Core_CopyOnWrite). As such, the following consistency guarantees apply
+ *
+ * + Updates of a single object are atomic, and concurrent updates to the same object
+ *   are applied one after another (without any lost keys)
+ * + Reads of a single object always see a complete (non torn) version of it
+ * + Queries, keySet, and other multi object reads are weakly consistent. They may or may not
+ *   reflect updates made during the iteration, and objects are not read as a single snapshot.
+ * + clear() is not atomic against concurrent writes, which may be retained
  **/
 public class StructSimple_DataObjectMap extends Core_DataObjectMap_struct {
 	
@@ -30,7 +42,7 @@ public class StructSimple_DataObjectMap extends Core_DataObjectMap_struct {
 	/**
 	 * Stores the key to value map
 	 **/
-	protected Map<String, Map<String, Object>> valueMap = new ConcurrentHashMap<String, Map<String, Object>>();
+	protected ConcurrentHashMap<String, Map<String, Object>> valueMap = new ConcurrentHashMap<String, Map<String, Object>>();
 	
 	/**
 	 * @return Storage map used centrally for all operations
@@ -39,11 +51,6 @@ public class StructSimple_DataObjectMap extends Core_DataObjectMap_struct {
 		return valueMap;
 	}
 	
-	/**
-	 * Read write lock
-	 **/
-	protected ReentrantReadWriteLock accessLock = new ReentrantReadWriteLock();
-	
 	//--------------------------------------------------------------------------
 	//
 	// Backend system setup / teardown / maintenance (DStackCommon)
@@ -66,19 +73,6 @@ public class StructSimple_DataObjectMap extends Core_DataObjectMap_struct {
 		clear();
 	}
 	
-	/**
-	 * Removes all data, without tearing down setup
-	 **/
-	@Override
-	public void clear() {
-		try {
-			accessLock.writeLock().lock();
-			super.clear();
-		} finally {
-			accessLock.writeLock().unlock();
-		}
-	}
-	
 	//--------------------------------------------------------------------------
 	//
 	// Internal functions, used by DataObject
@@ -86,75 +80,44 @@ public class StructSimple_DataObjectMap extends Core_DataObjectMap_struct {
 	//--------------------------------------------------------------------------
 	
 	/**
-	 * [Internal use, to be extended in future implementation]
-	 *
-	 * Removes the complete remote data map, for DataObject.
-	 * This is used to nuke an entire object
+	 * Get a read only DataObject, wrapping the stored value map directly (without any copy).
+	 * As stored value maps are never modified once stored.
 	 *
-	 * @param  ObjectID to remove
+	 * @param  object GUID to fetch
 	 *
-	 * @return  nothing
-	 **/
-	public void DataObjectRemoteDataMap_remove(String oid) {
-		try {
-			accessLock.writeLock().lock();
-			super.DataObjectRemoteDataMap_remove(oid);
-		} finally {
-			accessLock.writeLock().unlock();
-		}
-	}
-	
-	/**
-	 * Gets the complete remote data map, for DataObject.
-	 * 
-	 * @param  ObjectID to get
-	 * 
-	 * @return null if not exists
+	 * @return the read only DataObject, null if not exists
 	 **/
-	public Map<String, Object> DataObjectRemoteDataMap_get(String oid) {
-		try {
-			accessLock.readLock().lock();
-			return super.DataObjectRemoteDataMap_get(oid);
-		} finally {
-			accessLock.readLock().unlock();
+	@Override
+	public DataObject getReadOnly(String oid) {
+		// Blob pointers needs to be dereferenced, on a copy of the stored value
+		if (getBlobStore() != null || oid == null) {
+			return super.getReadOnly(oid);
 		}
-	}
-	
-	/**
-	 * Updates the actual backend storage of DataObject
-	 * either partially (if supported / used), or completely
-	 **/
-	public void DataObjectRemoteDataMap_update(String oid, Map<String, Object> fullMap,
-		Set<String> keys) {
-		try {
-			accessLock.writeLock().lock();
-			super.DataObjectRemoteDataMap_update(oid, fullMap, keys);
-		} finally {
-			accessLock.writeLock().unlock();
+		Map<String, Object> storedValue = valueMap.get(oid);
+		if (storedValue == null) {
+			return null;
 		}
+		return new Core_ReadOnlyDataObject(oid, storedValue);
 	}
 	
-	//--------------------------------------------------------------------------
-	//
-	// KeySet support
-	//
-	//--------------------------------------------------------------------------
-	
 	/**
-	 * Get and returns all the GUID's, note that due to its
-	 * potential of returning a large data set, production use
-	 * should be avoided.
-	 *
-	 * @return set of keys
+	 * Stores the updated values, as a new copy of the stored value map,
+	 * via an atomic compute for the object.
+	 * 
+	 * @param  ObjectID to update
+	 * @param  fullMap of values to apply update (after blob offloading)
+	 * @param  keys of parameters to update
 	 **/
 	@Override
-	public Set<String> keySet() {
-		try {
-			accessLock.readLock().lock();
-			return super.keySet();
-		} finally {
-			accessLock.readLock().unlock();
-		}
+	protected void backendMapUpdate(String oid, Map<String, Object> fullMap, Set<String> keys) {
+		valueMap.compute(oid, (key, storedValue) -> {
+			Map<String, Object> newValue = _newBlankStorageMap();
+			if (storedValue != null) {
+				newValue.putAll(storedValue);
+			}
+			applyValues(newValue, fullMap, keys);
+			return newValue;
+		});
 	}
 	
 }
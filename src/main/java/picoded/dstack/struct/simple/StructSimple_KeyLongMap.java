@@ -1,14 +1,30 @@
 package picoded.dstack.struct.simple;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 import picoded.dstack.core.Core_KeyLongMap;
+import picoded.dstack.core.Core_TimingWheel;
+import picoded.core.conv.GenericConvert;
 import picoded.core.struct.MutablePair;
 
+/**
+ * Reference implementation of KeyLongMap data structure.
+ * This is done via a minimal implementation via internal data structures.
+ *
+ * Built ontop of the Core_KeyLongMap implementation.
+ *
+ * Each key is stored as a single cell, of an AtomicLong value and its expiry. Where
+ * addAndGet, getAndAdd and compareAndSet are done directly on the cell atomics, without
+ * any global lock (or retry loop). Setting a value updates the key cell in place, so that
+ * concurrent atomics on the cell are never lost. Cells are only removed (when the key is
+ * removed, or expired) within a compute of the key, which retires the cell first. Where
+ * atomics skip retired cells, and any atomic already in flight on a retired cell is
+ * ordered before its removal. Expiry is tracked using a hierarchical timing wheel.
+ **/
 public class StructSimple_KeyLongMap extends Core_KeyLongMap {
 	
 	//--------------------------------------------------------------------------
@@ -18,19 +34,93 @@ public class StructSimple_KeyLongMap extends Core_KeyLongMap {
 	//--------------------------------------------------------------------------
 	
 	/**
-	 * Stores the key to long map
+	 * A single value cell, with its expiry timestamp (0 means no expiry)
 	 **/
-	protected ConcurrentMap<String, Long> longMap = new ConcurrentHashMap<String, Long>();
+	protected static class Cell {
+		protected final AtomicLong value;
+		protected volatile long expiry;
+		
+		/**
+		 * Set (within a compute of the key) when the cell is removed from the cell map
+		 **/
+		protected volatile boolean retired = false;
+		
+		protected Cell(long value, long expiry) {
+			this.value = new AtomicLong(value);
+			this.expiry = (expiry > 0) ? expiry : 0;
+		}
+		
+		/**
+		 * @return true if the cell is still valid at the given timestamp
+		 **/
+		protected boolean isValid(long now) {
+			long exp = expiry;
+			return exp == 0 || exp >= now;
+		}
+	}
+	
+	/**
+	 * Stores the key to value cell map
+	 **/
+	protected ConcurrentHashMap<String, Cell> cellMap = new ConcurrentHashMap<String, Cell>();
+	
+	/**
+	 * Expiry timing wheel, of keys with an expiry
+	 **/
+	protected Core_TimingWheel expiryWheel = new Core_TimingWheel();
+	
+	/**
+	 * Returns the valid cell of the key, null if it does not exist (or expired)
+	 *
+	 * @param key as String
+	 * @param now timestamp, 0 = no timestamp so skip timestamp checks
+	 *
+	 * @return cell if valid
+	 **/
+	protected Cell validCell(String key, long now) {
+		Cell cell = cellMap.get(key);
+		if (cell == null || cell.retired || (now > 0 && !cell.isValid(now))) {
+			return null;
+		}
+		return cell;
+	}
 	
 	/**
-	 * Stores the expire timestamp
+	 * Retires the cell, and returns null for its removal. To be called within a compute of the key
+	 *
+	 * @param cell to retire
+	 *
+	 * @return null
 	 **/
-	protected ConcurrentMap<String, Long> expireMap = new ConcurrentHashMap<String, Long>();
+	protected static Cell retire(Cell cell) {
+		if (cell != null) {
+			cell.retired = true;
+		}
+		return null;
+	}
 	
 	/**
-	 * Read write lock
+	 * Returns the valid cell of the key, replacing it with a new 0 value cell
+	 * (without expiry) if it does not exist, or has expired.
+	 *
+	 * @param key as String
+	 *
+	 * @return cell to update
 	 **/
-	protected ReentrantReadWriteLock accessLock = new ReentrantReadWriteLock();
+	protected Cell counterCell(String key) {
+		long now = System.currentTimeMillis();
+		Cell cell = validCell(key, now);
+		if (cell != null) {
+			return cell;
+		}
+		return cellMap.compute(key, (k, current) -> {
+			if (current != null && current.isValid(now)) {
+				return current;
+			}
+			retire(current);
+			return new Cell(0, 0);
+		});
+	}
 	
 	//--------------------------------------------------------------------------
 	//
@@ -41,44 +131,25 @@ public class StructSimple_KeyLongMap extends Core_KeyLongMap {
 	/**
 	 * Search using the value, all the relevent key mappings
 	 *
-	 * Handles re-entrant lock where applicable
-	 *
 	 * @param key, note that null matches ALL
 	 *
 	 * @return array of keys
 	 **/
 	@Override
 	public Set<String> keySet(Long value) {
-		try {
-			accessLock.readLock().lock();
-			
-			long now = System.currentTimeMillis();
-			Set<String> ret = new HashSet<String>();
-			
-			// The keyset to check against
-			Set<String> valuekeySet = longMap.keySet();
-			
-			// Iterate and get
-			for (String key : valuekeySet) {
-				
-				// Get the value pair, if it has a valid value
-				MutablePair<Long, Long> pair = getValueExpiryRaw_noLocking(key, now);
-				if (pair == null) {
-					continue;
-				}
-				
-				// Validate the rawValue
-				Long rawValue = pair.getLeft();
-				if (rawValue != null && (value == null || rawValue.equals(value))) {
-					ret.add(key);
-				}
+		long now = System.currentTimeMillis();
+		Set<String> ret = new HashSet<String>();
+		
+		// Iterate and get
+		for (Map.Entry<String, Cell> mapEntry : cellMap.entrySet()) {
+			Cell cell = mapEntry.getValue();
+			if (cell.isValid(now) && (value == null || cell.value.get() == value.longValue())) {
+				ret.add(mapEntry.getKey());
 			}
-			
-			// Return the full keyset
-			return ret;
-		} finally {
-			accessLock.readLock().unlock();
 		}
+		
+		// Return the full keyset
+		return ret;
 	}
 	
 	//--------------------------------------------------------------------------
@@ -91,8 +162,6 @@ public class StructSimple_KeyLongMap extends Core_KeyLongMap {
 	 * [Internal use, to be extended in future implementation]
 	 * Sets the value, with validation
 	 *
-	 * Handles re-entrant lock where applicable
-	 *
 	 * @param key
 	 * @param value, null means removal
 	 * @param expire timestamp, 0 means not timestamp
@@ -100,26 +169,27 @@ public class StructSimple_KeyLongMap extends Core_KeyLongMap {
 	 * @return null
 	 **/
 	public Long setValueRaw(String key, Long value, long expire) {
-		try {
-			accessLock.writeLock().lock();
-			
-			if (key == null || key.isEmpty()) {
-				return null;
-			}
-			if (value == null) {
-				longMap.remove(key);
-				expireMap.remove(key);
-			} else {
-				longMap.put(key, value);
-			}
-			setExpiryRaw(key, expire);
+		if (key == null || key.isEmpty()) {
 			return null;
-		} catch (Exception e) {
-			e.printStackTrace();
+		}
+		if (value == null) {
+			cellMap.compute(key, (k, current) -> retire(current));
 			return null;
-		} finally {
-			accessLock.writeLock().unlock();
 		}
+		
+		// Updates the existing cell in place, so concurrent atomics on it are not lost
+		cellMap.compute(key, (k, current) -> {
+			if (current == null) {
+				return new Cell(value.longValue(), expire);
+			}
+			current.value.set(value.longValue());
+			current.expiry = (expire > 0) ? expire : 0;
+			return current;
+		});
+		if (expire > 0) {
+			expiryWheel.schedule(key, expire);
+		}
+		return null;
 	}
 	
 	/**
@@ -127,53 +197,150 @@ public class StructSimple_KeyLongMap extends Core_KeyLongMap {
 	 *
 	 * Returns the value and expiry, with validation against the current timestamp
 	 *
-	 * Handles re-entrant lock where applicable
-	 *
 	 * @param key as String
 	 * @param now timestamp, 0 = no timestamp so skip timestamp checks
 	 *
-	 * @return String value, and expiry pair
+	 * @return Long value, and expiry pair
 	 **/
-	protected MutablePair<Long, Long> getValueExpiryRaw_noLocking(String key, long now) {
-		Long val = longMap.get(key);
-		if (val == null) {
+	public MutablePair<Long, Long> getValueExpiryRaw(String key, long now) {
+		if (key == null) {
 			return null;
 		}
-		
-		// Get the expire object
-		Long expireObj = expireMap.get(key);
-		if (expireObj == null) {
-			expireObj = 0L;
-		}
-		
-		// Note: 0 = no timestamp, hence valid value
-		long expiry = expireObj.longValue();
-		if (expiry != 0 && expiry < now) {
+		Cell cell = validCell(key, now);
+		if (cell == null) {
 			return null;
 		}
-		
-		// Return the expirary pair
-		return new MutablePair<Long, Long>(val, expiry);
+		return new MutablePair<Long, Long>(cell.value.get(), cell.expiry);
 	}
 	
+	//--------------------------------------------------------------------------
+	//
+	// Incremental operations
+	//
+	//--------------------------------------------------------------------------
+	
 	/**
-	 * [Internal use, to be extended in future implementation]
-	 * Returns the value, with validation
+	 * Atomically adds the delta to the value (0 if it does not exist), and return the result
+	 *
+	 * @param key param find the meta key
+	 * @param delta value to add
+	 *
+	 * @return  value of the given key after adding
+	 **/
+	@Override
+	public Long addAndGet(Object key, Object delta) {
+		if (key == null) {
+			throw new IllegalArgumentException("key cannot be null in addAndGet");
+		}
+		long change = GenericConvert.toLong(delta);
+		return counterCell(key.toString()).value.addAndGet(change);
+	}
+	
+	/**
+	 * Atomically adds the delta to the value (0 if it does not exist), and return the previous value
+	 *
+	 * @param key param find the meta key
+	 * @param delta value to add
+	 *
+	 * @return  value of the given key, note that it returns 0 if there wasnt a previous value set
+	 **/
+	@Override
+	public Long getAndAdd(Object key, Object delta) {
+		if (key == null) {
+			throw new IllegalArgumentException("key cannot be null in getAndAdd");
+		}
+		long change = GenericConvert.toLong(delta);
+		return counterCell(key.toString()).value.getAndAdd(change);
+	}
+	
+	/**
+	 * Increment the value of the key and return the updated value.
+	 *
+	 * @param key to retrieve
+	 * @return Long
+	 */
+	@Override
+	public Long incrementAndGet(Object key) {
+		return addAndGet(key, 1L);
+	}
+	
+	/**
+	 * Return the current value of the key and increment by 1
+	 *
+	 * @param key to retrieve
+	 * @return Long
+	 */
+	@Override
+	public Long getAndIncrement(Object key) {
+		return getAndAdd(key, 1L);
+	}
+	
+	/**
+	 * Decrement the value of the key and return the updated value.
 	 *
-	 * Handles re-entrant lock where applicable
+	 * @param key to retrieve
+	 * @return Long
+	 */
+	@Override
+	public Long decrementAndGet(Object key) {
+		return addAndGet(key, -1L);
+	}
+	
+	/**
+	 * Return the current value of the key and decrement by 1
+	 *
+	 * @param key to retrieve
+	 * @return Long
+	 */
+	@Override
+	public Long getAndDecrement(Object key) {
+		return getAndAdd(key, -1L);
+	}
+	
+	/**
+	 * Atomically sets the value to update, if the current value is the expected value.
+	 * Where a key which does not exist (or expired) is matched by a null, or 0, expected value.
 	 *
 	 * @param key as String
-	 * @param now timestamp
+	 * @param expect as Long
+	 * @param update as Long, null means removal
 	 *
-	 * @return Long value
+	 * @return true if successful
 	 **/
-	public MutablePair<Long, Long> getValueExpiryRaw(String key, long now) {
-		try {
-			accessLock.readLock().lock();
-			return getValueExpiryRaw_noLocking(key, now);
-		} finally {
-			accessLock.readLock().unlock();
+	public boolean compareAndSet(String key, Long expect, Long update) {
+		long now = System.currentTimeMillis();
+		
+		// Value exists, compare and set on the cell directly
+		Cell cell = validCell(key, now);
+		if (cell != null && update != null) {
+			return expect != null && cell.value.compareAndSet(expect.longValue(), update.longValue());
 		}
+		
+		// Value does not exist (or is to be removed), update the key atomically
+		boolean[] result = new boolean[] { false };
+		cellMap.compute(key, (k, current) -> {
+			// Value does not exists (0 is considered as not exists)
+			if (current == null || !current.isValid(now)) {
+				if (expect != null && expect.longValue() != 0L) {
+					return current;
+				}
+				result[0] = true;
+				retire(current);
+				return (update != null) ? new Cell(update.longValue(), 0) : null;
+			}
+			
+			// Value exists, and is either to be removed, or was set concurrently
+			if (expect == null) {
+				return current;
+			}
+			if (update == null) {
+				result[0] = (current.value.get() == expect.longValue());
+				return result[0] ? retire(current) : current;
+			}
+			result[0] = current.value.compareAndSet(expect.longValue(), update.longValue());
+			return current;
+		});
+		return result[0];
 	}
 	
 	/**
@@ -189,33 +356,7 @@ public class StructSimple_KeyLongMap extends Core_KeyLongMap {
 	 **/
 	@Override
 	public boolean weakCompareAndSet(String key, Long expect, Long update) {
-		try {
-			accessLock.writeLock().lock();
-			
-			// Retrieve existing value and expiry
-			long now = System.currentTimeMillis();
-			MutablePair<Long, Long> pair = getValueExpiryRaw_noLocking(key, now);
-			
-			// Value does not exists (0 is considered as not exists)
-			// Update value and return success
-			if (pair == null && (expect == null || expect == 0L)) {
-				longMap.put(key, update);
-				return true;
-			}
-			
-			// Value exists and equivalent to expected value
-			// Update value and return success
-			if (pair.getLeft().equals(expect)) {
-				longMap.put(key, update);
-				return true;
-			}
-			
-			// Operation fail, return failure
-			return false;
-			
-		} finally {
-			accessLock.writeLock().unlock();
-		}
+		return compareAndSet(key, expect, update);
 	}
 	
 	//--------------------------------------------------------------------------
@@ -228,57 +369,35 @@ public class StructSimple_KeyLongMap extends Core_KeyLongMap {
 	 * [Internal use, to be extended in future implementation]
 	 * Returns the expire time stamp value, raw without validation
 	 *
-	 * Handles re-entrant lock where applicable
-	 *
 	 * @param key as String
 	 *
 	 * @return long
 	 **/
 	public long getExpiryRaw(String key) {
-		try {
-			accessLock.readLock().lock();
-			
-			// no value fails
-			if (longMap.get(key) == null) {
-				return -1;
-			}
-			
-			// Expire value?
-			Long expireObj = expireMap.get(key);
-			if (expireObj == null) {
-				return 0;
-			}
-			return expireObj.longValue();
-		} finally {
-			accessLock.readLock().unlock();
+		Cell cell = validCell(key, 0);
+		if (cell == null) {
+			return -1;
 		}
+		return cell.expiry;
 	}
 	
 	/**
 	 * [Internal use, to be extended in future implementation]
 	 * Sets the expire time stamp value, raw without validation
 	 *
-	 * Handles re-entrant lock where applicable
-	 *
 	 * @param key as String
 	 * @param time timestamp in seconds, 0 means NO expire
 	 *
 	 * @return long
 	 **/
 	public void setExpiryRaw(String key, long time) {
-		try {
-			accessLock.writeLock().lock();
-			
-			// Does nothing if empty
-			if (time <= 0 || longMap.get(key) == null) {
-				expireMap.remove(key);
-				return;
-			}
-			
-			// Set expire value
-			expireMap.put(key, time);
-		} finally {
-			accessLock.writeLock().unlock();
+		// Does nothing if empty
+		Cell cell = cellMap.computeIfPresent(key, (k, current) -> {
+			current.expiry = (time > 0) ? time : 0;
+			return current;
+		});
+		if (cell != null && time > 0) {
+			expiryWheel.schedule(key, time);
 		}
 	}
 	
@@ -309,51 +428,38 @@ public class StructSimple_KeyLongMap extends Core_KeyLongMap {
 	/**
 	 * Perform maintenance, mainly removing of expired data if applicable
 	 *
-	 * Handles re-entrant lock where applicable
+	 * Only the keys which are due in the expiry wheel are checked, where keys which had
+	 * their expiry changed (or removed) since it was scheduled are skipped.
 	 **/
 	@Override
 	public void maintenance() {
-		try {
-			accessLock.writeLock().lock();
-			
-			// The time to check against
-			long now = System.currentTimeMillis();
-			
-			// not iterated directly due to remove()
-			Set<String> expireKeySet = expireMap.keySet();
-			
-			// The keyset to check against
-			String[] expireKeyArray = expireKeySet.toArray(new String[expireKeySet.size()]);
-			
-			// Iterate and evict
-			for (String key : expireKeyArray) {
-				Long timeObj = expireMap.get(key);
-				//				long time = (timeObj != null) ? timeObj.longValue() : 0;
-				long time = timeObj.longValue();
-				// expired? kick it
-				if (time < now && time > 0) {
-					longMap.remove(key);
-					expireMap.remove(key);
-				}
+		long now = System.currentTimeMillis();
+		for (Core_TimingWheel.Timer timer : expiryWheel.advance(now)) {
+			Cell cell = cellMap.get(timer.key);
+			if (cell == null || cell.expiry != timer.deadline) {
+				continue;
+			}
+			if (cell.isValid(now)) {
+				// Expires on the current millisecond, check again on the next maintenance
+				expiryWheel.schedule(timer.key, timer.deadline);
+			} else {
+				// Expiry is checked again within the compute, as it may be concurrently set
+				cellMap.compute(timer.key, (k, current) -> {
+					if (current != cell || current.isValid(now)) {
+						return current;
+					}
+					return retire(current);
+				});
 			}
-		} finally {
-			accessLock.writeLock().unlock();
 		}
 	}
 	
 	/**
 	 * Removes all data, without tearing down setup
-	 *
-	 * Handles re-entrant lock where applicable
 	 **/
 	@Override
 	public void clear() {
-		try {
-			accessLock.writeLock().lock();
-			longMap.clear();
-			expireMap.clear();
-		} finally {
-			accessLock.writeLock().unlock();
-		}
+		cellMap.clear();
+		expiryWheel.clear();
 	}
 }
@@ -1,13 +1,14 @@
 package picoded.dstack.struct.simple;
 
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import picoded.dstack.KeyValueMap;
 import picoded.dstack.core.Core_KeyValueMap;
+import picoded.dstack.core.Core_TimingWheel;
 import picoded.core.struct.GenericConvertMap;
 import picoded.core.struct.MutablePair;
 import picoded.core.struct.GenericConvertHashMap;
@@ -17,6 +18,13 @@ import picoded.core.struct.GenericConvertHashMap;
  * This is done via a minimal implementation via internal data structures.
  *
  * Built ontop of the Core_KeyValueMap implementation.
+ *
+ * Each value and its expiry is stored as a single immutable entry, in a single map.
+ * Where reads are lock free, and writes are atomic per key. Expiry is tracked using a
+ * hierarchical timing wheel, so that maintenance only touches the entries which are due.
+ *
+ * A reverse index (of value to keys) is maintained within the same atomic write,
+ * for keySet(value) lookups. This can be disabled via the `valueIndex` config.
  **/
 public class StructSimple_KeyValueMap extends Core_KeyValueMap {
 	
@@ -27,19 +35,83 @@ public class StructSimple_KeyValueMap extends Core_KeyValueMap {
 	//--------------------------------------------------------------------------
 	
 	/**
-	 * Stores the key to value map
+	 * A single value, with its expiry timestamp (0 means no expiry)
+	 **/
+	protected static class Entry {
+		protected final String value;
+		protected final long expiry;
+		
+		protected Entry(String value, long expiry) {
+			this.value = value;
+			this.expiry = (expiry > 0) ? expiry : 0;
+		}
+		
+		/**
+		 * @return true if the entry is still valid at the given timestamp
+		 **/
+		protected boolean isValid(long now) {
+			return expiry == 0 || expiry >= now;
+		}
+	}
+	
+	/**
+	 * Stores the key to value entry map
+	 **/
+	protected ConcurrentHashMap<String, Entry> valueMap = new ConcurrentHashMap<String, Entry>();
+	
+	/**
+	 * Expiry timing wheel, of keys with an expiry
+	 **/
+	protected Core_TimingWheel expiryWheel = new Core_TimingWheel();
+	
+	/**
+	 * Reverse index, of value to keys (which may include expired keys, till maintenance)
+	 **/
+	protected ConcurrentHashMap<String, Set<String>> reverseIndex = new ConcurrentHashMap<String, Set<String>>();
+	
+	/**
+	 * Memoized `valueIndex` config, as the index cannot be toggled once used
 	 **/
-	protected ConcurrentMap<String, String> valueMap = new ConcurrentHashMap<String, String>();
+	protected volatile Boolean _valueIndex = null;
 	
 	/**
-	 * Stores the expire timestamp
+	 * @return true, if the reverse index is enabled (via the `valueIndex` config, default true)
 	 **/
-	protected ConcurrentMap<String, Long> expireMap = new ConcurrentHashMap<String, Long>();
+	protected boolean valueIndex() {
+		if (_valueIndex == null) {
+			_valueIndex = configMap().getBoolean("valueIndex", true);
+		}
+		return _valueIndex;
+	}
 	
 	/**
-	 * Read write lock
+	 * Updates the reverse index, for a change of the key entry.
+	 * This is to be called within the atomic compute of the key.
+	 *
+	 * @param  key       which changed
+	 * @param  oldEntry  previous entry, can be null
+	 * @param  newEntry  new entry, null if removed
 	 **/
-	protected ReentrantReadWriteLock accessLock = new ReentrantReadWriteLock();
+	protected void reindex(String key, Entry oldEntry, Entry newEntry) {
+		String oldValue = (oldEntry != null) ? oldEntry.value : null;
+		String newValue = (newEntry != null) ? newEntry.value : null;
+		if (!valueIndex() || Objects.equals(oldValue, newValue)) {
+			return;
+		}
+		if (newValue != null) {
+			reverseIndex.compute(newValue, (value, keys) -> {
+				Set<String> ret = (keys != null) ? keys : ConcurrentHashMap.newKeySet();
+				ret.add(key);
+				return ret;
+			});
+		}
+		if (oldValue != null) {
+			reverseIndex.computeIfPresent(oldValue, (value, keys) -> {
+				keys.remove(key);
+				return keys.isEmpty() ? null : keys;
+			});
+		}
+	}
 	
 	//--------------------------------------------------------------------------
 	//
@@ -50,44 +122,39 @@ public class StructSimple_KeyValueMap extends Core_KeyValueMap {
 	/**
 	 * Search using the value, all the relevent key mappings
 	 *
-	 * Handles re-entrant lock where applicable
-	 *
 	 * @param key, note that null matches ALL
 	 *
 	 * @return array of keys
 	 **/
 	@Override
 	public Set<String> keySet(String value) {
-		try {
-			accessLock.readLock().lock();
-			
-			long now = System.currentTimeMillis();
-			Set<String> ret = new HashSet<String>();
-			
-			// The keyset to check against
-			Set<String> valuekeySet = valueMap.keySet();
-			
-			// Iterate and get
-			for (String key : valuekeySet) {
-				
-				// Get the value pair, if it has a valid value
-				MutablePair<String, Long> pair = getValueExpiryRaw_noLocking(key, now);
-				if (pair == null) {
-					continue;
-				}
-				
-				// Validate the rawValue
-				String rawValue = pair.getLeft();
-				if (rawValue != null && (value == null || rawValue.equals(value))) {
-					ret.add(key);
+		long now = System.currentTimeMillis();
+		Set<String> ret = new HashSet<String>();
+		
+		// Lookup the reverse index, validating each key against its current entry
+		if (value != null && valueIndex()) {
+			Set<String> keys = reverseIndex.get(value);
+			if (keys != null) {
+				for (String key : keys) {
+					Entry entry = valueMap.get(key);
+					if (entry != null && entry.isValid(now) && entry.value.equals(value)) {
+						ret.add(key);
+					}
 				}
 			}
-			
-			// Return the full keyset
 			return ret;
-		} finally {
-			accessLock.readLock().unlock();
 		}
+		
+		// Iterate and get
+		for (Map.Entry<String, Entry> mapEntry : valueMap.entrySet()) {
+			Entry entry = mapEntry.getValue();
+			if (entry.isValid(now) && (value == null || entry.value.equals(value))) {
+				ret.add(mapEntry.getKey());
+			}
+		}
+		
+		// Return the full keyset
+		return ret;
 	}
 	
 	//--------------------------------------------------------------------------
@@ -100,8 +167,6 @@ public class StructSimple_KeyValueMap extends Core_KeyValueMap {
 	 * [Internal use, to be extended in future implementation]
 	 * Sets the value, with validation
 	 *
-	 * Handles re-entrant lock where applicable
-	 *
 	 * @param key
 	 * @param value, null means removal
 	 * @param expire timestamp in milliseconds, 0 means NO expire
@@ -109,19 +174,15 @@ public class StructSimple_KeyValueMap extends Core_KeyValueMap {
 	 * @return null
 	 **/
 	public String setValueRaw(String key, String value, long expire) {
-		try {
-			accessLock.writeLock().lock();
-			if (value == null) {
-				valueMap.remove(key);
-				expireMap.remove(key);
-			} else {
-				valueMap.put(key, value);
-			}
-			setExpiryRaw(key, expire);
-			return null;
-		} finally {
-			accessLock.writeLock().unlock();
+		Entry newEntry = (value != null) ? new Entry(value, expire) : null;
+		valueMap.compute(key, (k, oldEntry) -> {
+			reindex(key, oldEntry, newEntry);
+			return newEntry;
+		});
+		if (newEntry != null && expire > 0) {
+			expiryWheel.schedule(key, expire);
 		}
+		return null;
 	}
 	
 	/**
@@ -129,81 +190,33 @@ public class StructSimple_KeyValueMap extends Core_KeyValueMap {
 	 *
 	 * Returns the value and expiry, with validation against the current timestamp
 	 *
-	 * Handles re-entrant lock where applicable
-	 *
-	 * @param key as String
-	 * @param now timestamp, 0 = no timestamp so skip timestamp checks
-	 *
-	 * @return String value, and expiry pair
-	 **/
-	protected MutablePair<String, Long> getValueExpiryRaw_noLocking(String key, long now) {
-		String val = valueMap.get(key);
-		if (val == null) {
-			return null;
-		}
-		
-		// Get the expire object
-		Long expireObj = expireMap.get(key);
-		if (expireObj == null) {
-			expireObj = 0L;
-		}
-		
-		// Note: 0 = no timestamp, hence valid value
-		long expiry = expireObj.longValue();
-		if (expiry != 0 && expiry < now) {
-			return null;
-		}
-		
-		// Return the expirary pair
-		return new MutablePair<String, Long>(val, expiry);
-	}
-	
-	/**
-	 * [Internal use, to be extended in future implementation]
-	 *
-	 * Returns the value and expiry, with validation against the current timestamp
-	 *
-	 * Handles re-entrant lock where applicable
-	 *
 	 * @param key as String
 	 * @param now timestamp, 0 = no timestamp so skip timestamp checks
 	 *
 	 * @return String value, and expiry pair
 	 **/
 	public MutablePair<String, Long> getValueExpiryRaw(String key, long now) {
-		try {
-			accessLock.readLock().lock();
-			return getValueExpiryRaw_noLocking(key, now);
-		} finally {
-			accessLock.readLock().unlock();
+		Entry entry = valueMap.get(key);
+		if (entry == null || !entry.isValid(now)) {
+			return null;
 		}
+		return new MutablePair<String, Long>(entry.value, entry.expiry);
 	}
 	
 	/**
 	 * [Internal use, to be extended in future implementation]
 	 * Sets the expire time stamp value, raw without validation
 	 *
-	 * Handles re-entrant lock where applicable
-	 *
 	 * @param key as String
 	 * @param expire timestamp in seconds, 0 means NO expire
 	 *
-	 * @return 
+	 * @return
 	 **/
 	public void setExpiryRaw(String key, long time) {
-		try {
-			accessLock.writeLock().lock();
-			
-			// Does nothing if empty
-			if (time <= 0 || valueMap.get(key) == null) {
-				expireMap.remove(key);
-				return;
-			}
-			
-			// Set expire value
-			expireMap.put(key, time);
-		} finally {
-			accessLock.writeLock().unlock();
+		// Does nothing if empty
+		Entry updated = valueMap.computeIfPresent(key, (k, entry) -> new Entry(entry.value, time));
+		if (updated != null && time > 0) {
+			expiryWheel.schedule(key, time);
 		}
 	}
 	
@@ -234,52 +247,40 @@ public class StructSimple_KeyValueMap extends Core_KeyValueMap {
 	/**
 	 * Perform maintenance, mainly removing of expired data if applicable
 	 *
-	 * Handles re-entrant lock where applicable
+	 * Only the keys which are due in the expiry wheel are checked, where keys which had
+	 * their expiry changed (or removed) since it was scheduled are skipped.
 	 **/
 	@Override
 	public void maintenance() {
-		try {
-			accessLock.writeLock().lock();
-			
-			// The time to check against
-			long now = System.currentTimeMillis();
-			
-			// not iterated directly due to remove()
-			Set<String> expireKeySet = expireMap.keySet();
-			
-			// The keyset to check against
-			String[] expireKeyArray = expireKeySet.toArray(new String[expireKeySet.size()]);
-			
-			// Iterate and evict
-			for (String key : expireKeyArray) {
-				Long timeObj = expireMap.get(key);
-				//				long time = (timeObj != null) ? timeObj.longValue() : 0;
-				long time = timeObj.longValue();
-				// expired? kick it
-				if (time < now && time > 0) {
-					valueMap.remove(key);
-					expireMap.remove(key);
-				}
+		long now = System.currentTimeMillis();
+		for (Core_TimingWheel.Timer timer : expiryWheel.advance(now)) {
+			Entry entry = valueMap.get(timer.key);
+			if (entry == null || entry.expiry != timer.deadline) {
+				continue;
+			}
+			if (entry.isValid(now)) {
+				// Expires on the current millisecond, check again on the next maintenance
+				expiryWheel.schedule(timer.key, timer.deadline);
+			} else {
+				valueMap.computeIfPresent(timer.key, (key, current) -> {
+					if (current != entry) {
+						return current;
+					}
+					reindex(key, entry, null);
+					return null;
+				});
 			}
-		} finally {
-			accessLock.writeLock().unlock();
 		}
 	}
 	
 	/**
 	 * Removes all data, without tearing down setup
-	 *
-	 * Handles re-entrant lock where applicable
 	 **/
 	@Override
 	public void clear() {
-		try {
-			accessLock.writeLock().lock();
-			valueMap.clear();
-			expireMap.clear();
-		} finally {
-			accessLock.writeLock().unlock();
-		}
+		valueMap.clear();
+		reverseIndex.clear();
+		expiryWheel.clear();
 	}
 	
 }
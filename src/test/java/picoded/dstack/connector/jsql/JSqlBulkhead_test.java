@@ -0,0 +1,115 @@
+package picoded.dstack.connector.jsql;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+///
+/// Test case for JSqlBulkhead, and the statement timeout per operation type
+///
+public class JSqlBulkhead_test {
+	
+	/// The JSql connection used
+	protected JSql jsqlObj = null;
+	
+	@Before
+	public void systemSetup() {
+		jsqlObj = new JSql_Sqlite();
+	}
+	
+	@After
+	public void systemDestroy() {
+		if (jsqlObj != null) {
+			jsqlObj.close();
+		}
+		jsqlObj = null;
+	}
+	
+	@Test
+	public void statementTimeoutConfig() {
+		assertEquals(0, jsqlObj.getStatementTimeout(JSqlOperationType.QUERY));
+		jsqlObj.setStatementTimeout(JSqlOperationType.QUERY, 30);
+		assertEquals(30, jsqlObj.getStatementTimeout(JSqlOperationType.QUERY));
+		assertEquals(0, jsqlObj.getStatementTimeout(JSqlOperationType.WRITE));
+		
+		// Statements should still work with the timeout applied
+		jsqlObj.setStatementTimeout(JSqlOperationType.POINT_GET, 5);
+		JSqlResult r = jsqlObj.withOperationType(JSqlOperationType.POINT_GET,
+			() -> jsqlObj.query("SELECT 1 AS one"));
+		assertEquals(1, r.rowCount());
+	}
+	
+	@Test
+	public void statementTimeoutApplied() {
+		// Records the query timeout of each statement, after the timeout is applied
+		List<Integer> appliedTimeouts = Collections.synchronizedList(new ArrayList<Integer>());
+		jsqlObj.close();
+		jsqlObj = new JSql_Sqlite() {
+			@Override
+			protected void applyStatementTimeout(Statement stmt) throws SQLException {
+				super.applyStatementTimeout(stmt);
+				appliedTimeouts.add(stmt.getQueryTimeout());
+			}
+		};
+		jsqlObj.setStatementTimeout(JSqlOperationType.POINT_GET, 5);
+		jsqlObj.setStatementTimeout(JSqlOperationType.QUERY, 7);
+		
+		// Statements within the operation type, and without any
+		jsqlObj.withOperationType(JSqlOperationType.POINT_GET, () -> jsqlObj.query("SELECT 1 AS one"));
+		jsqlObj.withOperationType(JSqlOperationType.QUERY, () -> jsqlObj.query("SELECT 1 AS one"));
+		jsqlObj.withOperationType(JSqlOperationType.WRITE, () -> jsqlObj.query("SELECT 1 AS one"));
+		jsqlObj.query("SELECT 1 AS one");
+		assertEquals(Arrays.asList(5, 7, 0, 0), appliedTimeouts);
+	}
+	
+	@Test
+	public void unlimitedBulkhead() {
+		JSqlBulkhead bulkhead = new JSqlBulkhead("unlimited");
+		assertEquals(-1, bulkhead.availableSlots());
+		assertEquals("hello", bulkhead.call(jsqlObj, JSqlOperationType.QUERY, () -> "hello"));
+	}
+	
+	@Test
+	public void fullBulkheadFailsFast() throws Exception {
+		JSqlBulkhead bulkhead = new JSqlBulkhead("limited", 1, 0);
+		assertEquals(1, bulkhead.availableSlots());
+		
+		// Hold the only slot in another thread
+		CountDownLatch holding = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread holder = new Thread(() -> {
+			bulkhead.run(jsqlObj, JSqlOperationType.QUERY, () -> {
+				holding.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		});
+		holder.start();
+		holding.await();
+		
+		// Bulkhead is full, this should fail fast
+		try {
+			bulkhead.call(jsqlObj, JSqlOperationType.QUERY, () -> "fail");
+			fail("Expected JSqlBulkheadFullException");
+		} catch (JSqlBulkheadFullException e) {
+			// expected
+		}
+		
+		// Release, and the slot should be usable again
+		release.countDown();
+		holder.join();
+		assertEquals(1, bulkhead.availableSlots());
+		assertEquals("pass", bulkhead.call(jsqlObj, JSqlOperationType.QUERY, () -> "pass"));
+	}
+	
+}
@@ -0,0 +1,163 @@
+package picoded.dstack.connector.jsql;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+///
+/// Test case for JSqlGroupCommit leadership hand off, and interrupt handling
+///
+public class JSqlGroupCommit_test {
+	
+	/// Flush calls made, as "thread name:row count"
+	List<String> flushedBy = Collections.synchronizedList(new ArrayList<String>());
+	
+	/// First flush call is held, till released
+	CountDownLatch firstFlush = new CountDownLatch(1);
+	CountDownLatch releaseFirst = new CountDownLatch(1);
+	
+	/// Group commit with the given window and batch size, which holds its first flush
+	public JSqlGroupCommit holdingGroupCommit(long window, int maxBatchSize) {
+		return new JSqlGroupCommit(window, maxBatchSize, (uniqueList, insertList) -> {
+			flushedBy.add(Thread.currentThread().getName() + ":" + uniqueList.size());
+			if (firstFlush.getCount() > 0) {
+				firstFlush.countDown();
+				try {
+					releaseFirst.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+	}
+	
+	/// Waits till the condition is true, checked within the group commit monitor
+	public void waitFor(JSqlGroupCommit commit, BooleanSupplier condition) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (System.currentTimeMillis() < deadline) {
+			synchronized (commit) {
+				if (condition.getAsBoolean()) {
+					return;
+				}
+			}
+			Thread.sleep(1);
+		}
+		fail("Timed out waiting for group commit state");
+	}
+	
+	/// Rows left over, are led by the next row added, instead of the current leader
+	@Test
+	public void leadershipHandOff() throws Exception {
+		JSqlGroupCommit commit = holdingGroupCommit(10000, 2);
+		
+		// Leader of the first batch
+		Thread leaderA = new Thread(() -> commit.upsert(new Object[] { 1 }, new Object[] { 1 }), "a");
+		leaderA.start();
+		waitFor(commit, () -> commit.hasLeader);
+		
+		// Fill the batch, with a row left over (the monitor is held so both join the window)
+		List<CompletableFuture<Boolean>> futures = Collections
+			.synchronizedList(new ArrayList<CompletableFuture<Boolean>>());
+		synchronized (commit) {
+			futures.add(commit.upsert(new Object[] { 2 }, new Object[] { 2 }));
+			futures.add(commit.upsert(new Object[] { 3 }, new Object[] { 3 }));
+		}
+		firstFlush.await(10, TimeUnit.SECONDS);
+		
+		// Next row added during the flush, leads the left over row
+		Thread leaderB = new Thread(() -> futures.add(commit.upsert(new Object[] { 4 },
+			new Object[] { 4 })), "b");
+		leaderB.start();
+		waitFor(commit, () -> commit.nextBatchSeq == 2);
+		
+		releaseFirst.countDown();
+		leaderA.join(10000);
+		leaderB.join(10000);
+		assertEquals(Arrays.asList("a:2", "b:2"), flushedBy);
+		for (CompletableFuture<Boolean> future : futures) {
+			assertTrue(future.get(10, TimeUnit.SECONDS));
+		}
+	}
+	
+	/// An interrupted leader, still flushes its batch after the earlier batch
+	@Test
+	public void interruptedLeaderStillFlushes() throws Exception {
+		JSqlGroupCommit commit = holdingGroupCommit(10000, 1);
+		
+		// First batch, which is held
+		Thread leaderA = new Thread(() -> commit.upsert(new Object[] { 1 }, new Object[] { 1 }), "a");
+		leaderA.start();
+		firstFlush.await(10, TimeUnit.SECONDS);
+		
+		// Second batch leader, interrupted while waiting for the first batch
+		AtomicBoolean result = new AtomicBoolean(false);
+		AtomicBoolean interruptKept = new AtomicBoolean(false);
+		Thread leaderB = new Thread(() -> {
+			result.set(commit.upsertAndWait(new Object[] { 2 }, new Object[] { 2 }));
+			interruptKept.set(Thread.currentThread().isInterrupted());
+		}, "b");
+		leaderB.start();
+		waitFor(commit, () -> commit.nextBatchSeq == 2);
+		leaderB.interrupt();
+		Thread.sleep(50);
+		
+		releaseFirst.countDown();
+		leaderA.join(10000);
+		leaderB.join(10000);
+		assertTrue(result.get());
+		assertTrue(interruptKept.get());
+		assertEquals(Arrays.asList("a:1", "b:1"), flushedBy);
+	}
+	
+	/// An error thrown by the flush, still completes every waiting row future
+	@Test
+	public void flushErrorCompletesFutures() throws Exception {
+		JSqlGroupCommit commit = new JSqlGroupCommit(10000, 2, (uniqueList, insertList) -> {
+			throw new OutOfMemoryError("flush error");
+		});
+		
+		// Leader of the batch, which gets the error
+		List<CompletableFuture<Boolean>> futures = Collections
+			.synchronizedList(new ArrayList<CompletableFuture<Boolean>>());
+		AtomicBoolean leaderError = new AtomicBoolean(false);
+		Thread leader = new Thread(() -> {
+			try {
+				futures.add(commit.upsert(new Object[] { 1 }, new Object[] { 1 }));
+			} catch (OutOfMemoryError e) {
+				leaderError.set(true);
+			}
+		}, "a");
+		leader.start();
+		waitFor(commit, () -> commit.hasLeader);
+		
+		// Fills the batch, with a row left over (the monitor is held so both join the window)
+		synchronized (commit) {
+			futures.add(commit.upsert(new Object[] { 2 }, new Object[] { 2 }));
+			futures.add(commit.upsert(new Object[] { 3 }, new Object[] { 3 }));
+		}
+		leader.join(10000);
+		assertTrue(leaderError.get());
+		
+		// Every row future (including the row left over) is completed, with the error
+		assertEquals(2, futures.size());
+		for (CompletableFuture<Boolean> future : futures) {
+			try {
+				future.get(10, TimeUnit.SECONDS);
+				fail("Expected the flush error");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof OutOfMemoryError);
+			}
+		}
+		assertFalse(commit.hasLeader);
+	}
+}
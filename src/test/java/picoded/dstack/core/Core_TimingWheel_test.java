@@ -0,0 +1,144 @@
+package picoded.dstack.core;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+///
+/// Test case for Core_TimingWheel, its level cascade, overflow, skip ahead and stale timers
+///
+public class Core_TimingWheel_test {
+	
+	/// Start timestamp of each test, on a tick boundary. Which is ahead of the current time,
+	/// as an empty wheel skips ahead to the current time when a timer is scheduled
+	long start = (System.currentTimeMillis() / 1000 + 3600) * 1000;
+	
+	/// Keys of the timers
+	public List<String> keys(List<Core_TimingWheel.Timer> timers) {
+		List<String> ret = new ArrayList<String>();
+		for (Core_TimingWheel.Timer timer : timers) {
+			ret.add(timer.key);
+		}
+		return ret;
+	}
+	
+	/// Timers are only returned once their deadline is reached, rounded up to the tick
+	@Test
+	public void dueOnDeadline() {
+		Core_TimingWheel wheel = new Core_TimingWheel(10);
+		wheel.advance(start);
+		wheel.schedule("a", start + 100);
+		wheel.schedule("b", start + 105);
+		
+		assertEquals(0, wheel.advance(start + 99).size());
+		assertEquals(2, wheel.size());
+		assertEquals(Arrays.asList("a"), keys(wheel.advance(start + 100)));
+		assertEquals(0, wheel.advance(start + 105).size());
+		assertEquals(Arrays.asList("b"), keys(wheel.advance(start + 110)));
+		assertEquals(0, wheel.size());
+	}
+	
+	/// Timers in the higher levels, cascade down and are returned on their tick
+	@Test
+	public void cascadeAcrossLevels() {
+		Core_TimingWheel wheel = new Core_TimingWheel(1);
+		wheel.advance(start);
+		
+		// Deadlines across level 0 to 3 (64, 4096, 262144 ticks per slot)
+		long[] offsets = new long[] { 10, 100, 5000, 300000, 20000000 };
+		for (long offset : offsets) {
+			wheel.schedule("t" + offset, start + offset);
+		}
+		
+		// Each timer is returned on (and not before) its deadline
+		for (long offset : offsets) {
+			assertEquals(0, wheel.advance(start + offset - 1).size());
+			assertEquals(Arrays.asList("t" + offset), keys(wheel.advance(start + offset)));
+		}
+		assertEquals(0, wheel.size());
+	}
+	
+	/// Timers beyond the range of the wheel, are held in the overflow list till in range
+	@Test
+	public void overflowBeyondRange() {
+		Core_TimingWheel wheel = new Core_TimingWheel(1);
+		wheel.advance(start);
+		
+		long far = start + (1L << 37) + 12345;
+		wheel.schedule("far", far);
+		wheel.schedule("near", start + 50);
+		assertEquals(1, wheel.overflowList.size());
+		
+		assertEquals(Arrays.asList("near"), keys(wheel.advance(start + 50)));
+		assertEquals(0, wheel.advance(far - 1).size());
+		assertEquals(Arrays.asList("far"), keys(wheel.advance(far)));
+	}
+	
+	/// Long idle gaps, skip ahead across empty levels instead of every tick
+	@Test(timeout = 10000)
+	public void skipAheadIdleGap() {
+		Core_TimingWheel wheel = new Core_TimingWheel(1);
+		wheel.advance(start);
+		
+		// A timer a year away, with a small tick size
+		long yearMillis = 365L * 24 * 3600 * 1000;
+		wheel.schedule("year", start + yearMillis);
+		for (int day = 1; day < 365; ++day) {
+			assertEquals(0, wheel.advance(start + day * 24L * 3600 * 1000).size());
+		}
+		assertEquals(Arrays.asList("year"), keys(wheel.advance(start + yearMillis)));
+		
+		// Empty wheel, skips ahead to the current time
+		wheel.schedule("now", System.currentTimeMillis() - 1);
+		assertEquals(Arrays.asList("now"), keys(wheel.advance(System.currentTimeMillis())));
+	}
+	
+	/// Rescheduled keys, only return their latest timer
+	@Test
+	public void staleTimersDiscarded() {
+		Core_TimingWheel wheel = new Core_TimingWheel(1);
+		wheel.advance(start);
+		
+		// Expiry extended, and then shortened
+		wheel.schedule("a", start + 10);
+		wheel.schedule("a", start + 20);
+		wheel.schedule("b", start + 30);
+		wheel.schedule("b", start + 15);
+		
+		assertEquals(0, wheel.advance(start + 10).size());
+		assertEquals(Arrays.asList("b"), keys(wheel.advance(start + 15)));
+		assertEquals(Arrays.asList("a"), keys(wheel.advance(start + 20)));
+		assertEquals(0, wheel.advance(start + 30).size());
+		assertEquals(0, wheel.size());
+	}
+	
+	/// Repeated refreshes of the same keys, are compacted
+	@Test
+	public void staleTimersCompacted() {
+		Core_TimingWheel wheel = new Core_TimingWheel(1);
+		wheel.advance(start);
+		
+		for (int refresh = 0; refresh < 100; ++refresh) {
+			for (int key = 0; key < 100; ++key) {
+				wheel.schedule("k" + key, start + 1000 + refresh * 100 + key);
+			}
+		}
+		
+		// Bounded by the keys tracked, and not the number of refreshes
+		assertTrue(wheel.size() <= 100 + Core_TimingWheel.COMPACT_THRESHOLD * 2);
+		
+		// Only the latest timer of each key is returned
+		Set<String> due = new HashSet<String>();
+		for (Core_TimingWheel.Timer timer : wheel.advance(start + 20000)) {
+			assertTrue(due.add(timer.key));
+			assertTrue(timer.deadline >= start + 1000 + 99 * 100);
+		}
+		assertEquals(100, due.size());
+		assertEquals(0, wheel.size());
+	}
+}
@@ -0,0 +1,16 @@
+package picoded.dstack.jsql;
+
+import picoded.core.conv.ConvertJSON;
+import picoded.core.struct.GenericConvertHashMap;
+import picoded.dstack.core.CoreStack;
+
+public class JSqlStack_H2_test extends JSqlStack_test {
+	
+	/// JSqlStack, with the H2 backend
+	public CoreStack implementationConstructor() {
+		GenericConvertHashMap<String, Object> config = new GenericConvertHashMap<String, Object>();
+		config.put("db", ConvertJSON.toMap("{ \"type\" : \"h2\" }"));
+		return new JSqlStack(config);
+	}
+	
+}
@@ -10,6 +10,11 @@ public class JSqlTestConnection {
 		return new JSql_Sqlite();
 	}
 	
+	/// H2 (in memory) connection
+	public static JSql h2() {
+		return new JSql_H2();
+	}
+	
 	/// MYSQL connection
 	public static JSql mysql() {
 		return new JSql_Mysql(JSqlTestConfig.MYSQL_HOST(), JSqlTestConfig.MYSQL_PORT(),
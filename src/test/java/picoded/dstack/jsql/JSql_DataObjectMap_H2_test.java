@@ -0,0 +1,12 @@
+package picoded.dstack.jsql;
+
+import picoded.dstack.connector.jsql.JSql;
+
+/// JSql_DataObjectMap test suite, run against the H2 backend
+public class JSql_DataObjectMap_H2_test extends JSql_DataObjectMap_test {
+	
+	/// H2 connection to test against
+	public JSql jsqlConnection() {
+		return JSqlTestConnection.h2();
+	}
+}
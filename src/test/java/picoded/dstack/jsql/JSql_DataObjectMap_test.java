@@ -1,14 +1,24 @@
 package picoded.dstack.jsql;
 
 // Target test class
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 // Test Case include
 import org.junit.After;
@@ -17,6 +27,9 @@ import org.junit.Test;
 
 // Test depends
 import picoded.dstack.*;
+import picoded.dstack.core.Core_BinaryCodec;
+import picoded.dstack.core.Core_DataObject;
+import picoded.dstack.core.Core_LazyValue;
 import picoded.dstack.jsql.*;
 import picoded.dstack.connector.jsql.*;
 import picoded.dstack.struct.simple.*;
@@ -38,4 +51,257 @@ public class JSql_DataObjectMap_test extends StructSimple_DataObjectMap_test {
 		return new JSql_DataObjectMap(jsqlConnection(), JSqlTestConfig.randomTablePrefix());
 	}
 	
+	/// Paging keySet, and looselyIterateObjectID, with a small page size
+	@Test
+	public void keySetPagingTest() throws Exception {
+		((JSql_DataObjectMap) mtObj).keySetPageSize = 3;
+		
+		Set<String> expected = new HashSet<String>();
+		for (int i = 0; i < 10; ++i) {
+			HashMap<String, Object> objMap = new HashMap<String, Object>();
+			objMap.put("num", i);
+			expected.add(mtObj.newEntry(objMap)._oid());
+		}
+		
+		// Iteration across pages, count and exists queries
+		Set<String> keySet = mtObj.keySet();
+		assertEquals(10, keySet.size());
+		assertEquals(expected, new HashSet<String>(keySet));
+		for (String oid : expected) {
+			assertTrue(keySet.contains(oid));
+		}
+		assertFalse(keySet.contains("not-an-oid"));
+		
+		// Loose iteration across pages
+		Set<String> iterated = new HashSet<String>();
+		String oid = mtObj.looselyIterateObjectID(null);
+		while (oid != null) {
+			assertTrue(iterated.add(oid));
+			oid = mtObj.looselyIterateObjectID(oid);
+		}
+		assertEquals(expected, iterated);
+		
+		// Interleaved loose iterations, do not affect each other
+		String first = mtObj.looselyIterateObjectID(null);
+		String second = mtObj.looselyIterateObjectID(first);
+		assertEquals(second, mtObj.looselyIterateObjectID(first));
+		assertNotNull(mtObj.looselyIterateObjectID(second));
+		assertEquals(second, mtObj.looselyIterateObjectID(first));
+		
+		// Concurrent loose iterations on different threads, each iterate all objects
+		List<Set<String>> results = Collections.synchronizedList(new ArrayList<Set<String>>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; ++t) {
+			Thread thread = new Thread(() -> {
+				Set<String> res = new HashSet<String>();
+				String next = mtObj.looselyIterateObjectID(null);
+				while (next != null) {
+					res.add(next);
+					next = mtObj.looselyIterateObjectID(next);
+				}
+				results.add(res);
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(4, results.size());
+		for (Set<String> res : results) {
+			assertEquals(expected, res);
+		}
+	}
+	
+	/// Random samples, after a large pKy range is removed (gap retries, and ">=" seek fallback)
+	@Test
+	public void randomSampleSparseTest() {
+		JSql_DataObjectMap map = (JSql_DataObjectMap) mtObj;
+		
+		// Objects with a large gap in the middle of the pKy range
+		List<String> oids = new ArrayList<String>();
+		for (int i = 0; i < 200; ++i) {
+			HashMap<String, Object> objMap = new HashMap<String, Object>();
+			objMap.put("num", i);
+			oids.add(mtObj.newEntry(objMap)._oid());
+		}
+		Set<String> remaining = new HashSet<String>();
+		for (int i = 0; i < oids.size(); ++i) {
+			if (i < 10 || i >= 190) {
+				remaining.add(oids.get(i));
+			} else {
+				mtObj.remove(oids.get(i));
+			}
+		}
+		
+		// Gap retries, and then with the ">=" seek fallback only
+		for (int retries : new int[] { 4, 0 }) {
+			map.randomSeekRetries = retries;
+			for (int round = 0; round < 5; ++round) {
+				String[] sample = mtObj.randomSample(15);
+				assertEquals(15, sample.length);
+				assertEquals(15, new HashSet<String>(Arrays.asList(sample)).size());
+				assertTrue(remaining.containsAll(Arrays.asList(sample)));
+			}
+			
+			// Sample larger then the map (but not its pKy range), returns everything
+			String[] sample = mtObj.randomSample(50);
+			assertEquals(remaining, new HashSet<String>(Arrays.asList(sample)));
+			assertEquals(20, sample.length);
+		}
+	}
+	
+	/// Large text and binary values, are only loaded on first access
+	@Test
+	public void lazyLoadLargeValuesTest() {
+		mtObj.configMap().put("lazyLoadThreshold", 16);
+		
+		StringBuilder longStr = new StringBuilder();
+		for (int i = 0; i < 100; ++i) {
+			longStr.append("lazy");
+		}
+		byte[] longBin = new byte[100];
+		for (int i = 0; i < longBin.length; ++i) {
+			longBin[i] = (byte) i;
+		}
+		
+		DataObject obj = mtObj.newEntry();
+		obj.put("small", "tiny");
+		obj.put("text", longStr.toString());
+		obj.put("bin", longBin);
+		obj.saveDelta();
+		
+		// Only large values are lazy
+		Map<String, Object> remote = ((JSql_DataObjectMap) mtObj).DataObjectRemoteDataMap_get(obj
+			._oid());
+		assertEquals("tiny", remote.get("small"));
+		assertTrue(remote.get("text") instanceof Core_LazyValue);
+		assertTrue(remote.get("bin") instanceof Core_LazyValue);
+		
+		// Listing the keys, does not load the lazy values
+		int[] loadCount = new int[] { 0 };
+		remote.put("text", new Core_LazyValue(() -> {
+			++loadCount[0];
+			return longStr.toString();
+		}, longStr.length()));
+		DataObject listed = new Core_DataObject(mtObj, obj._oid(), remote, true);
+		assertTrue(listed.keySet().contains("text"));
+		assertTrue(listed.keySet().contains("bin"));
+		assertEquals(0, loadCount[0]);
+		assertEquals(longStr.toString(), listed.get("text"));
+		assertEquals(1, loadCount[0]);
+		
+		// And loaded on access
+		DataObject loaded = mtObj.get(obj._oid());
+		assertEquals("tiny", loaded.get("small"));
+		assertEquals(longStr.toString(), loaded.get("text"));
+		assertArrayEquals(longBin, (byte[]) loaded.get("bin"));
+	}
+	
+	/// Nested values are stored packed, while older JSON values remain readable
+	@Test
+	public void packedNestedValueTest() {
+		Map<String, Object> nested = new HashMap<String, Object>();
+		nested.put("str", "hello");
+		nested.put("int", 42);
+		nested.put("long", 1234567890123L);
+		nested.put("double", 1.5);
+		nested.put("bool", true);
+		nested.put("null", null);
+		nested.put("bigInt", new BigInteger("123456789012345678901234567890"));
+		nested.put("bigDec", new BigDecimal("-12345678901234567890.000000000000001"));
+		List<Object> list = new ArrayList<Object>();
+		for (int i = 0; i < 5; ++i) {
+			Map<String, Object> item = new HashMap<String, Object>();
+			item.put("idx", -i);
+			item.put("str", "hello");
+			list.add(item);
+		}
+		nested.put("list", list);
+		
+		// Codec round trip
+		assertEquals(nested, Core_BinaryCodec.decode(Core_BinaryCodec.encode(nested)));
+		
+		// Null map keys are rejected, instead of being stored as "null"
+		Map<String, Object> nullKey = new HashMap<String, Object>();
+		nullKey.put(null, "value");
+		try {
+			Core_BinaryCodec.encode(Collections.singletonList(nullKey));
+			fail("Expected null map keys to be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		
+		// Packed storage round trip
+		DataObject obj = mtObj.newEntry();
+		obj.put("nested", nested);
+		obj.saveDelta();
+		assertEquals(nested, mtObj.get(obj._oid()).get("nested"));
+		
+		// JSON storage, written with packed encoding disabled, is still readable
+		DataObject jsonObj = mtObj.newEntry();
+		try {
+			mtObj.configMap().put("packedEncoding", false);
+			jsonObj.put("nested", list);
+			jsonObj.saveDelta();
+		} finally {
+			mtObj.configMap().remove("packedEncoding");
+		}
+		List<Object> jsonList = (List<Object>) mtObj.get(jsonObj._oid()).get("nested");
+		assertEquals(5, jsonList.size());
+		assertEquals("hello", ((Map<String, Object>) jsonList.get(0)).get("str"));
+		
+		// Packed values preserve their number types, while JSON values only preserve the number
+		Map<String, Object> packedNested = (Map<String, Object>) mtObj.get(obj._oid()).get("nested");
+		Map<String, Object> packedItem = (Map<String, Object>) ((List<Object>) packedNested
+			.get("list")).get(2);
+		assertEquals(Integer.valueOf(-2), packedItem.get("idx"));
+		assertEquals(-2, ((Number) ((Map<String, Object>) jsonList.get(2)).get("idx")).intValue());
+	}
+	
+	/// Query explanation, with the generated SQL and inferred key types
+	@Test
+	public void explainSqlTest() {
+		HashMap<String, Object> objMap = new HashMap<String, Object>();
+		objMap.put("num", 1);
+		objMap.put("str_val", "hello");
+		mtObj.newEntry(objMap);
+		
+		Map<String, Object> explain = mtObj.explain("num > ? AND str_val = ?", new Object[] { 0,
+			"hello" }, null, -1, -1);
+		assertEquals("sql", explain.get("strategy"));
+		assertTrue(explain.get("sql").toString().startsWith("SELECT"));
+		assertNotNull(explain.get("args"));
+		assertEquals("STRING", ((Map<String, Object>) explain.get("keyTypes")).get("str_val"));
+		assertEquals(1, ((Number) explain.get("resultCount")).intValue());
+	}
+	
+	/// Configured nested paths are flattened, and queryable
+	@Test
+	public void flattenNestedPathTest() {
+		mtObj.configMap().put("flattenPaths", new String[] { "address.city" });
+		
+		String[] cities = new String[] { "Singapore", "Tokyo", "Singapore" };
+		for (String city : cities) {
+			Map<String, Object> address = new HashMap<String, Object>();
+			address.put("city", city);
+			HashMap<String, Object> objMap = new HashMap<String, Object>();
+			objMap.put("address", address);
+			mtObj.newEntry(objMap);
+		}
+		
+		// Query by the nested path
+		DataObject[] qRes = mtObj.query("address.city = ?", new Object[] { "Singapore" });
+		assertEquals(2, qRes.length);
+		
+		// Flattened rows are not part of the object
+		assertFalse(mtObj.get(qRes[0]._oid()).containsKey("address.city"));
+		assertFalse(mtObj.getKeyNames().contains("address.city"));
+		
+		// Removing the nested value, removes the flattened row
+		DataObject obj = mtObj.get(qRes[0]._oid());
+		obj.put("address", new HashMap<String, Object>());
+		obj.saveDelta();
+		assertEquals(1, mtObj.query("address.city = ?", new Object[] { "Singapore" }).length);
+	}
 }
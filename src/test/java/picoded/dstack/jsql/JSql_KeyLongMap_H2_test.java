@@ -0,0 +1,12 @@
+package picoded.dstack.jsql;
+
+import picoded.dstack.connector.jsql.JSql;
+
+/// JSql_KeyLongMap test suite, run against the H2 backend
+public class JSql_KeyLongMap_H2_test extends JSql_KeyLongMap_test {
+	
+	/// H2 connection to test against
+	public JSql jsqlConnection() {
+		return JSqlTestConnection.h2();
+	}
+}
@@ -0,0 +1,12 @@
+package picoded.dstack.jsql;
+
+import picoded.dstack.connector.jsql.JSql;
+
+/// JSql_KeyValueMap test suite, run against the H2 backend
+public class JSql_KeyValueMap_H2_test extends JSql_KeyValueMap_test {
+	
+	/// H2 connection to test against
+	public JSql jsqlConnection() {
+		return JSqlTestConnection.h2();
+	}
+}
@@ -0,0 +1,51 @@
+package picoded.dstack.jsql;
+
+// Target test class
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Test Case include
+import org.junit.Test;
+
+// Test depends
+import picoded.dstack.KeyValueMap;
+
+/// JSql_KeyValueMap test suite, with group commit enabled
+public class JSql_KeyValueMap_groupCommit_test extends JSql_KeyValueMap_test {
+	
+	/// Impomentation constructor for SQL, with group commit
+	public KeyValueMap implementationConstructor() {
+		JSql_KeyValueMap ret = new JSql_KeyValueMap(jsqlConnection(),
+			JSqlTestConfig.randomTablePrefix());
+		ret.enableGroupCommit(2, 16);
+		return ret;
+	}
+	
+	/// Multiple threads writing concurrently, should all be commited
+	@Test
+	public void concurrentGroupCommit() throws Exception {
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; ++t) {
+			final int tid = t;
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 10; ++i) {
+					testObj.putValue("t" + tid + "-" + i, "v" + i);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		// Validate all the writes
+		for (int t = 0; t < 8; ++t) {
+			for (int i = 0; i < 10; ++i) {
+				assertEquals("v" + i, testObj.getValue("t" + t + "-" + i));
+			}
+		}
+	}
+}
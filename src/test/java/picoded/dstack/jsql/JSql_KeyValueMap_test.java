@@ -1,5 +1,14 @@
 package picoded.dstack.jsql;
 
+// Target test class
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+// Test Case include
+import org.junit.Test;
+
 import picoded.dstack.KeyValueMap;
 import picoded.dstack.connector.jsql.JSql;
 import picoded.dstack.struct.simple.StructSimple_KeyValueMap_test;
@@ -19,4 +28,50 @@ public class JSql_KeyValueMap_test extends StructSimple_KeyValueMap_test {
 	public KeyValueMap implementationConstructor() {
 		return new JSql_KeyValueMap(jsqlConnection(), JSqlTestConfig.randomTablePrefix());
 	}
+	
+	/// Value hash lookup, with the backfill of rows written without a hash
+	@Test
+	public void valueHashBackfillTest() {
+		JSql_KeyValueMap kvMap = (JSql_KeyValueMap) testObj;
+		for (int i = 0; i < 5; ++i) {
+			kvMap.putValue("key" + i, (i % 2 == 0) ? "even" : "odd");
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("key0", "key2", "key4")), kvMap
+			.keySet("even"));
+		
+		// Simulate rows from before the hash column was added
+		kvMap.sqlObj.update("UPDATE " + kvMap.sqlTableName + " SET kHs=NULL");
+		kvMap.valueHashComplete = false;
+		assertEquals(new HashSet<String>(Arrays.asList("key1", "key3")), kvMap.keySet("odd"));
+		
+		// Backfill in bounded batches
+		assertEquals(2, kvMap.backfillValueHash(2));
+		assertEquals(2, kvMap.backfillValueHash(2));
+		assertEquals(1, kvMap.backfillValueHash(2));
+		assertEquals(0, kvMap.backfillValueHash(2));
+		assertFalse(kvMap.hasPendingValueHash());
+		assertEquals(new HashSet<String>(Arrays.asList("key1", "key3")), kvMap.keySet("odd"));
+		assertEquals(new HashSet<String>(), kvMap.keySet("none"));
+	}
+	
+	/// Expired values are purged in bounded batches
+	@Test
+	public void batchedExpiryPurgeTest() {
+		JSql_KeyValueMap kvMap = (JSql_KeyValueMap) testObj;
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 5; ++i) {
+			kvMap.putWithExpiry("expired" + i, "value", now - 1000);
+		}
+		kvMap.putWithExpiry("valid", "value", now + 100000);
+		kvMap.putValue("forever", "value");
+		
+		kvMap.configMap().put("purgeBatchSize", 2);
+		assertEquals(5, kvMap.purgeExpired());
+		assertEquals(3, kvMap.expiryPurge.lastBatches());
+		assertTrue(kvMap.expiryPurge.lastComplete());
+		
+		assertEquals(0, kvMap.purgeExpired());
+		assertEquals("value", kvMap.getValue("valid"));
+		assertEquals("value", kvMap.getValue("forever"));
+	}
 }
@@ -0,0 +1,146 @@
+package picoded.dstack.jsql;
+
+// Test system include
+import static org.junit.Assert.*;
+import org.junit.*;
+import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+
+// Java includes
+import java.util.*;
+
+// Test depends
+import picoded.core.conv.ConvertJSON;
+import picoded.core.conv.GUID;
+import picoded.dstack.*;
+import picoded.dstack.core.Core_BinaryCodec;
+import picoded.dstack.connector.jsql.*;
+
+/// Packed binary codec, against the JSON storage path, for nested values
+public class JSql_PackedValue_perf extends AbstractBenchmark {
+	
+	/// Test object
+	public DataObjectMap mtObj = null;
+	
+	// To override for implementation
+	//-----------------------------------------------------
+	
+	/// Note that this SQL connector constructor
+	/// is to be overriden for the various backend
+	/// specific test cases
+	public JSql jsqlConnection() {
+		return JSqlTestConnection.sqlite();
+	}
+	
+	/// Impomentation constructor for SQL
+	public DataObjectMap implementationConstructor() {
+		return new JSql_DataObjectMap(jsqlConnection(), JSqlTestConfig.randomTablePrefix());
+	}
+	
+	// Setup and sanity test
+	//-----------------------------------------------------
+	@Before
+	public void setUp() {
+		mtObj = implementationConstructor();
+		mtObj.systemSetup();
+		
+		prepareTestObjects();
+	}
+	
+	@After
+	public void tearDown() {
+		if (mtObj != null) {
+			mtObj.systemDestroy();
+		}
+		mtObj = null;
+	}
+	
+	// Performance benchmark setup
+	//-----------------------------------------------------
+	
+	/// Number of nested items
+	public int nestedItems = 200;
+	
+	/// Nested list of maps, with repeated keys
+	List<Object> nestedList = null;
+	
+	/// Encoded forms of the nested list
+	String nestedJson = null;
+	byte[] nestedPacked = null;
+	
+	/// Prepare the nested test value
+	public void prepareTestObjects() {
+		nestedList = new ArrayList<Object>();
+		for (int i = 0; i < nestedItems; ++i) {
+			Map<String, Object> item = new HashMap<String, Object>();
+			item.put("id", GUID.base58());
+			item.put("index", i);
+			item.put("score", i * 1.5);
+			item.put("tags", Arrays.asList("alpha", "beta", "gamma"));
+			nestedList.add(item);
+		}
+		nestedJson = ConvertJSON.fromObject(nestedList);
+		nestedPacked = Core_BinaryCodec.encode(nestedList);
+		assertTrue(nestedPacked.length < nestedJson.length());
+	}
+	
+	/// Configurable iteration sets count
+	public int iterationCount = 100;
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void jsonEncodePerf() throws Exception {
+		for (int i = 0; i < iterationCount; ++i) {
+			ConvertJSON.fromObject(nestedList);
+		}
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void packedEncodePerf() throws Exception {
+		for (int i = 0; i < iterationCount; ++i) {
+			Core_BinaryCodec.encode(nestedList);
+		}
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void jsonDecodePerf() throws Exception {
+		for (int i = 0; i < iterationCount; ++i) {
+			ConvertJSON.toObject(nestedJson);
+		}
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void packedDecodePerf() throws Exception {
+		for (int i = 0; i < iterationCount; ++i) {
+			Core_BinaryCodec.decode(nestedPacked);
+		}
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void jsonStoragePerf() throws Exception {
+		mtObj.configMap().put("packedEncoding", false);
+		storageRoundTrip();
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void packedStoragePerf() throws Exception {
+		mtObj.configMap().put("packedEncoding", true);
+		storageRoundTrip();
+	}
+	
+	/// Write and read back the nested value
+	public void storageRoundTrip() {
+		for (int i = 0; i < iterationCount; ++i) {
+			DataObject obj = mtObj.newEntry();
+			obj.put("nested", nestedList);
+			obj.saveDelta();
+			assertNotNull(mtObj.get(obj._oid()).get("nested"));
+		}
+	}
+	
+}
@@ -8,7 +8,9 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 // Test Case include
 import org.junit.After;
@@ -32,4 +34,25 @@ public class StructCache_DataObjectMap_test extends StructSimple_DataObjectMap_t
 		return map;
 	}
 	
+	/// Stored value maps are replaced on update, and never modified in place
+	@Test
+	public void storedValueNotModifiedTest() {
+		DataObject obj = mtObj.newEntry();
+		obj.put("num", 1);
+		obj.put("str", "a");
+		obj.saveDelta();
+		
+		StructCache_DataObjectMap map = (StructCache_DataObjectMap) mtObj;
+		Map<String, Object> stored = map.backendMap().get(obj._oid());
+		Map<String, Object> before = new HashMap<String, Object>(stored);
+		
+		obj.put("num", 2);
+		obj.put("str", null);
+		obj.saveDelta();
+		
+		assertEquals(before, stored);
+		assertEquals(2, ((Number) map.backendMap().get(obj._oid()).get("num")).intValue());
+		assertFalse(map.backendMap().get(obj._oid()).containsKey("str"));
+	}
+	
 }
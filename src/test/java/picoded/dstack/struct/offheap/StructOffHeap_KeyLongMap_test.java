@@ -0,0 +1,84 @@
+package picoded.dstack.struct.offheap;
+
+// Test system include
+import static org.junit.Assert.*;
+import org.junit.*;
+
+// Java includes
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Test depends
+import picoded.dstack.*;
+import picoded.dstack.struct.simple.*;
+
+public class StructOffHeap_KeyLongMap_test extends StructSimple_KeyLongMap_test {
+	
+	// To override for implementation
+	//-----------------------------------------------------
+	
+	/// Impomentation constructor
+	public KeyLongMap implementationConstructor() {
+		return new StructOffHeap_KeyLongMap();
+	}
+	
+	/// Incremental operations are a single atomic update, of the entry in place
+	public boolean nativeAtomicAdd() {
+		return true;
+	}
+	
+	// Off heap specific test
+	//-----------------------------------------------------
+	
+	/// Concurrent reads during writes, only ever see complete values
+	@Test
+	public void concurrentReadDuringWriteTest() throws Exception {
+		for (int i = 0; i < 100; ++i) {
+			testObj.put("key-" + i, 0L);
+		}
+		
+		// Writers moving all values up together, while readers check them
+		AtomicBoolean done = new AtomicBoolean(false);
+		AtomicBoolean invalid = new AtomicBoolean(false);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; ++t) {
+			Thread reader = new Thread(() -> {
+				while (!done.get()) {
+					for (int i = 0; i < 100; ++i) {
+						Long value = testObj.getValue("key-" + i);
+						if (value == null || value < 0 || value > 2000L) {
+							invalid.set(true);
+						}
+					}
+				}
+			});
+			threads.add(reader);
+			reader.start();
+		}
+		for (int t = 0; t < 2; ++t) {
+			Thread writer = new Thread(() -> {
+				for (int n = 0; n < 1000; ++n) {
+					for (int i = 0; i < 100; ++i) {
+						testObj.incrementAndGet("key-" + i);
+					}
+				}
+			});
+			threads.add(writer);
+			writer.start();
+		}
+		for (int t = 4; t < threads.size(); ++t) {
+			threads.get(t).join();
+		}
+		done.set(true);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		assertFalse(invalid.get());
+		for (int i = 0; i < 100; ++i) {
+			assertEquals(2000L, testObj.getValue("key-" + i).longValue());
+		}
+	}
+	
+}
@@ -0,0 +1,121 @@
+package picoded.dstack.struct.offheap;
+
+// Test system include
+import static org.junit.Assert.*;
+import org.junit.*;
+import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+
+// Java includes
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+// Test depends
+import picoded.dstack.*;
+import picoded.dstack.struct.simple.*;
+
+/// Heap footprint and GC pause benchmark, of a large KeyValueMap of session like entries.
+/// Comparing the off heap implementation against StructSimple, where each test prints
+/// the retained heap after loading, and the p99 / max GC pause during a churn of updates.
+public class StructOffHeap_KeyValueMap_perf extends AbstractBenchmark {
+	
+	// Performance benchmark setup
+	//-----------------------------------------------------
+	
+	/// Number of entries to load
+	public int entryCount = 2000000;
+	
+	/// Number of updates, after loading
+	public int churnCount = 4000000;
+	
+	/// GC pauses recorded, in milliseconds
+	List<Long> gcPauses = Collections.synchronizedList(new ArrayList<Long>());
+	
+	/// GC notification listener, recording each pause
+	NotificationListener gcListener = (Notification notification, Object handback) -> {
+		if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification
+			.getType())) {
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+				.from((CompositeData) notification.getUserData());
+			gcPauses.add(info.getGcInfo().getDuration());
+		}
+	};
+	
+	@Before
+	public void setUp() {
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			((NotificationEmitter) gc).addNotificationListener(gcListener, null, null);
+		}
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			((NotificationEmitter) gc).removeNotificationListener(gcListener);
+		}
+	}
+	
+	/// @return heap used in bytes, after a full GC
+	public long usedHeap() throws Exception {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	/// Loads the entries, churns updates, and print the heap footprint and GC pauses
+	public void heapAndPauseLoad(String label, KeyValueMap map) throws Exception {
+		long baseHeap = usedHeap();
+		
+		// Load the session like entries, with expiry
+		long expiry = System.currentTimeMillis() + 3600 * 1000;
+		for (int i = 0; i < entryCount; ++i) {
+			map.putWithExpiry("session-" + i, "token-" + UUID.randomUUID(), expiry);
+		}
+		long loadedHeap = usedHeap() - baseHeap;
+		
+		// Churn updates, recording the GC pauses
+		gcPauses.clear();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < churnCount; ++i) {
+			String key = "session-" + random.nextInt(entryCount);
+			if (random.nextInt(10) < 8) {
+				assertNotNull(map.getValue(key));
+			} else {
+				map.putWithExpiry(key, "token-" + UUID.randomUUID(), expiry);
+			}
+		}
+		
+		// Pause statistics
+		List<Long> pauses = new ArrayList<Long>(gcPauses);
+		Collections.sort(pauses);
+		long p99 = pauses.isEmpty() ? 0 : pauses.get((int) Math.ceil(pauses.size() * 0.99) - 1);
+		long max = pauses.isEmpty() ? 0 : pauses.get(pauses.size() - 1);
+		System.out.println(label + " : retained heap " + (loadedHeap / (1024 * 1024)) + " MB, "
+			+ pauses.size() + " GC pauses, p99 " + p99 + " ms, max " + max + " ms");
+		
+		map.systemDestroy();
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 1, warmupRounds = 0)
+	@Test
+	public void structSimple_heapAndPause() throws Exception {
+		heapAndPauseLoad("StructSimple", new StructSimple_KeyValueMap());
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 1, warmupRounds = 0)
+	@Test
+	public void structOffHeap_heapAndPause() throws Exception {
+		heapAndPauseLoad("StructOffHeap", new StructOffHeap_KeyValueMap());
+	}
+	
+}
@@ -0,0 +1,81 @@
+package picoded.dstack.struct.offheap;
+
+// Target test class
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Test Case include
+import org.junit.Test;
+
+// Test depends
+import picoded.dstack.*;
+import picoded.dstack.core.*;
+import picoded.dstack.struct.simple.*;
+
+public class StructOffHeap_KeyValueMap_test extends StructSimple_KeyValueMap_test {
+	
+	// To override for implementation
+	//-----------------------------------------------------
+	
+	/// Impomentation constructor, with small slabs, to exercise compaction
+	public KeyValueMap implementationConstructor() {
+		return new StructOffHeap_KeyValueMap(new Core_OffHeapStore(
+			new Core_OffHeapStore.MemoryBudget(0), 4096, 4));
+	}
+	
+	// Off heap specific test
+	//-----------------------------------------------------
+	
+	@Test
+	public void overwriteAndCompactionTest() throws Exception {
+		// Overwrite with varying value sizes, so that slabs are compacted and reused
+		for (int round = 0; round < 20; ++round) {
+			for (int i = 0; i < 500; ++i) {
+				StringBuilder value = new StringBuilder("value-" + round);
+				for (int n = 0; n < (i + round) % 7; ++n) {
+					value.append("-padding");
+				}
+				testObj.putValue("key-" + i, value.toString());
+			}
+		}
+		for (int i = 0; i < 500; ++i) {
+			assertTrue(testObj.getValue("key-" + i).startsWith("value-19"));
+		}
+		
+		// Remove half, and check the rest
+		for (int i = 0; i < 500; i += 2) {
+			testObj.remove("key-" + i);
+		}
+		assertEquals(250, testObj.keySet().size());
+		assertNull(testObj.getValue("key-0"));
+		assertTrue(testObj.getValue("key-1").startsWith("value-19"));
+	}
+	
+	@Test
+	public void memoryLimitTest() throws Exception {
+		Core_OffHeapStore.MemoryBudget budget = new Core_OffHeapStore.MemoryBudget(64 * 1024);
+		KeyValueMap limitedMap = new StructOffHeap_KeyValueMap(new Core_OffHeapStore(budget, 4096, 1));
+		
+		// Fill up till the limit
+		int written = 0;
+		try {
+			for (; written < 10000; ++written) {
+				limitedMap.putValue("key-" + written, "some-session-value-" + written);
+			}
+			fail("Expected the memory limit to be exceeded");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		assertTrue(budget.usedMemory() <= budget.maxMemory());
+		assertEquals("some-session-value-0", limitedMap.getValue("key-0"));
+		
+		// Overwriting existing keys (of the same size) still works, and clear releases the memory
+		limitedMap.putValue("key-0", "some-session-value-X");
+		assertEquals("some-session-value-X", limitedMap.getValue("key-0"));
+		limitedMap.clear();
+		assertEquals(0, budget.usedMemory());
+	}
+	
+}
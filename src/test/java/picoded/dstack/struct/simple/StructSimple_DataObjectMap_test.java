@@ -5,6 +5,9 @@ import static org.junit.Assert.*;
 import org.junit.*;
 
 // Java includes
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.*;
 
 // External lib includes
@@ -14,6 +17,12 @@ import org.apache.commons.lang3.RandomUtils;
 import picoded.core.conv.GUID;
 import picoded.core.struct.CaseInsensitiveHashMap;
 import picoded.dstack.*;
+import picoded.dstack.core.Core_ColumnarSnapshotReader;
+import picoded.dstack.core.Core_ColumnarSnapshotWriter;
+import picoded.dstack.core.Core_DataObjectMap;
+import picoded.dstack.core.Core_TimeOrderedID;
+import picoded.dstack.stack.Stack_DataObjectMap;
+import picoded.dstack.struct.cache.StructCache_DataObjectMap;
 import picoded.dstack.struct.simple.*;
 
 // DataObjectMap base test class
@@ -202,6 +211,42 @@ public class StructSimple_DataObjectMap_test {
 		assertEquals(5, mtObj.queryCount("num > ?", new Object[] { 2 }));
 	}
 	
+	/// Page and total count, in a single query
+	@Test
+	public void indexBasedTest_queryPage() {
+		indexBasedTestSetup();
+		
+		DataObjectPage page = null;
+		assertNotNull(page = mtObj.queryPage("num > ?", new Object[] { 2 }, "num ASC", 2, 2));
+		assertEquals(2, page.size());
+		assertEquals(5, page.getTotalCount());
+		assertEquals("program", page.getObjects()[0].get("str_val"));
+		assertEquals("in", page.getObjects()[1].get("str_val"));
+		
+		// Out of range page, still has the total count
+		assertNotNull(page = mtObj.queryPage("num > ?", new Object[] { 2 }, "num ASC", 10, 2));
+		assertEquals(0, page.size());
+		assertEquals(5, page.getTotalCount());
+		
+		// No where clause, nor limit
+		assertNotNull(page = mtObj.queryPage(null, null, null, -1, -1));
+		assertEquals(7, page.size());
+		assertEquals(7, page.getTotalCount());
+	}
+	
+	/// Query explanation, with the query result count
+	@Test
+	public void indexBasedTest_explain() {
+		indexBasedTestSetup();
+		
+		Map<String, Object> explain = null;
+		assertNotNull(explain = mtObj.explain("num > ?", new Object[] { 2 }, "num ASC", 0, 2));
+		assertNotNull(explain.get("backend"));
+		assertNotNull(explain.get("strategy"));
+		assertNotNull(explain.get("executeTime"));
+		assertEquals(2, ((Number) explain.get("resultCount")).intValue());
+	}
+	
 	/// String based query test
 	@Test
 	public void indexBasedTest_string() {
@@ -686,4 +731,447 @@ public class StructSimple_DataObjectMap_test {
 		assertNotNull(mtObj.randomObject());
 		assertNotNull(mtObj.looselyIterateObject(null));
 	}
+	
+	@Test
+	public void randomSampleTest() {
+		assertEquals(0, mtObj.randomSample(5).length);
+		
+		// Setup some objects
+		HashSet<String> idSet = new HashSet<String>();
+		for (int i = 0; i < 20; ++i) {
+			DataObject obj = mtObj.newEntry();
+			obj.put("num", i);
+			obj.saveDelta();
+			idSet.add(obj._oid());
+		}
+		
+		// Partial sample, should be distinct and valid ids
+		String[] sample = mtObj.randomSample(5);
+		assertEquals(5, sample.length);
+		assertEquals(5, new HashSet<String>(Arrays.asList(sample)).size());
+		assertTrue(idSet.containsAll(Arrays.asList(sample)));
+		
+		// Sample larger then the map, returns everything
+		sample = mtObj.randomSample(50);
+		assertEquals(20, sample.length);
+		assertEquals(idSet, new HashSet<String>(Arrays.asList(sample)));
+		
+		// Removed objects, should not be sampled
+		String removed = sample[0];
+		mtObj.remove(removed);
+		for (int i = 0; i < 10; ++i) {
+			assertNotEquals(removed, mtObj.randomObjectID());
+		}
+		assertFalse(Arrays.asList(mtObj.randomSample(50)).contains(removed));
+	}
+	
+	@Test
+	public void blobStoreOffloadTest() {
+		// Blob store is configured on the backend layers, not the stack itself
+		if (mtObj instanceof Stack_DataObjectMap) {
+			return;
+		}
+		StructSimple_FileWorkspaceMap blobStore = new StructSimple_FileWorkspaceMap();
+		blobStore.systemSetup();
+		((Core_DataObjectMap) mtObj).setBlobStore(blobStore, 64);
+		
+		// Setup oversized values
+		StringBuilder longStr = new StringBuilder();
+		for (int i = 0; i < 50; ++i) {
+			longStr.append("blob");
+		}
+		byte[] longBin = new byte[100];
+		for (int i = 0; i < longBin.length; ++i) {
+			longBin[i] = (byte) i;
+		}
+		List<Object> longList = new ArrayList<Object>();
+		for (int i = 0; i < 50; ++i) {
+			longList.add("item" + i);
+		}
+		
+		DataObject obj = mtObj.newEntry();
+		obj.put("small", "tiny");
+		obj.put("text", longStr.toString());
+		obj.put("bin", longBin);
+		obj.put("list", longList);
+		obj.put("nested", Collections.singletonMap("hello", "world"));
+		obj.saveDelta();
+		String oid = obj._oid();
+		
+		// Offloaded, and dereferenced on read
+		assertTrue(blobStore.get(oid, true).fileExist("text.blob"));
+		assertTrue(blobStore.get(oid, true).fileExist("list.blob"));
+		assertFalse(blobStore.get(oid, true).fileExist("nested.blob"));
+		DataObject loaded = mtObj.get(oid);
+		assertEquals("tiny", loaded.get("small"));
+		assertEquals(longStr.toString(), loaded.get("text"));
+		assertArrayEquals(longBin, (byte[]) loaded.get("bin"));
+		assertEquals(longList, loaded.get("list"));
+		
+		// No longer oversized, removes the blob
+		loaded.put("text", "short");
+		loaded.put("list", Arrays.asList("item"));
+		loaded.saveDelta();
+		assertFalse(blobStore.get(oid, true).fileExist("text.blob"));
+		assertFalse(blobStore.get(oid, true).fileExist("list.blob"));
+		assertTrue(blobStore.get(oid, true).fileExist("bin.blob"));
+		assertEquals("short", mtObj.get(oid).get("text"));
+		assertEquals(Arrays.asList("item"), mtObj.get(oid).get("list"));
+		
+		// User maps cannot spoof a blob pointer
+		loaded = mtObj.get(oid);
+		loaded.put("text", Collections.singletonMap(Core_DataObjectMap.BLOB_REF, "bin.blob"));
+		try {
+			loaded.saveDelta();
+			fail("Expected the reserved blob pointer key to be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		assertEquals("short", mtObj.get(oid).get("text"));
+		assertArrayEquals(longBin, (byte[]) mtObj.get(oid).get("bin"));
+		
+		// Removal of the object, removes its blobs
+		mtObj.remove(oid);
+		assertNull(blobStore.get(oid));
+	}
+	
+	@Test
+	public void changedSinceTest() {
+		assertEquals(0, mtObj.changedSince(0, -1, null).size());
+		
+		// Setup some objects
+		HashSet<String> idSet = new HashSet<String>();
+		for (int i = 0; i < 5; ++i) {
+			DataObject obj = mtObj.newEntry();
+			obj.put("num", i);
+			obj.saveDelta();
+			idSet.add(obj._oid());
+		}
+		
+		// Remove one of them, which should be a tombstone
+		String removed = idSet.iterator().next();
+		mtObj.remove(removed);
+		
+		// Full change feed
+		List<DataObjectChange> changes = mtObj.changedSince(0, -1, null);
+		assertEquals(5, changes.size());
+		HashSet<String> changedSet = new HashSet<String>();
+		for (DataObjectChange change : changes) {
+			changedSet.add(change.getObjectID());
+			assertEquals(change.getObjectID().equals(removed), change.isRemoved());
+		}
+		assertEquals(idSet, changedSet);
+		
+		// Paging through the change feed with the cursor, in update order
+		List<DataObjectChange> paged = new ArrayList<DataObjectChange>();
+		String cursor = null;
+		while (true) {
+			List<DataObjectChange> page = mtObj.changedSince(0, 2, cursor);
+			if (page.size() <= 0) {
+				break;
+			}
+			assertTrue(page.size() <= 2);
+			paged.addAll(page);
+			cursor = page.get(page.size() - 1).getCursor();
+		}
+		assertEquals(5, paged.size());
+		for (int i = 1; i < paged.size(); ++i) {
+			assertTrue(DataObjectChange.ORDER.compare(paged.get(i - 1), paged.get(i)) < 0);
+		}
+		
+		// Nothing changed in the future
+		assertEquals(0, mtObj.changedSince(System.currentTimeMillis() + 60000, -1, null).size());
+	}
+	
+	@Test
+	public void looselyIterateObjectIDTest() {
+		assertNull(mtObj.looselyIterateObjectID(null));
+		
+		// Setup some objects
+		HashSet<String> idSet = new HashSet<String>();
+		for (int i = 0; i < 20; ++i) {
+			DataObject obj = mtObj.newEntry();
+			obj.put("num", i);
+			obj.saveDelta();
+			idSet.add(obj._oid());
+		}
+		
+		// Iterate everything, each id exactly once
+		HashSet<String> iterated = new HashSet<String>();
+		String oid = mtObj.looselyIterateObjectID(null);
+		while (oid != null) {
+			assertTrue(iterated.add(oid));
+			oid = mtObj.looselyIterateObjectID(oid);
+		}
+		assertEquals(idSet, iterated);
+		
+		// Removing the current object mid iteration, continues with the rest
+		String first = mtObj.looselyIterateObjectID(null);
+		mtObj.remove(first);
+		idSet.remove(first);
+		iterated.clear();
+		oid = mtObj.looselyIterateObjectID(first);
+		while (oid != null) {
+			assertTrue(iterated.add(oid));
+			oid = mtObj.looselyIterateObjectID(oid);
+		}
+		assertEquals(idSet, iterated);
+	}
+	
+	/// Time ordered object ID generator
+	@Test
+	public void timeOrderedObjectIDTest() {
+		// Fixed length, and sorted by time
+		String prev = null;
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 100; ++i) {
+			String oid = Core_TimeOrderedID.generate(now + i);
+			assertEquals(22, oid.length());
+			assertEquals(now + i, Core_TimeOrderedID.timestampOf(oid));
+			if (prev != null) {
+				assertTrue(prev.compareTo(oid) < 0);
+			}
+			prev = oid;
+		}
+		
+		// Configured on the map itself
+		mtObj.configMap().put("oidGenerator", "timeOrdered");
+		long before = System.currentTimeMillis();
+		DataObject obj = mtObj.newEntry();
+		obj.put("hello", "world");
+		obj.saveDelta();
+		long oidTime = Core_TimeOrderedID.timestampOf(obj._oid());
+		assertTrue(oidTime >= before && oidTime <= System.currentTimeMillis());
+		assertEquals("world", mtObj.get(obj._oid()).get("hello"));
+	}
+	
+	/// Columnar snapshot export, and its query reader
+	@Test
+	public void columnarSnapshotTest() throws IOException {
+		indexBasedTestSetup();
+		
+		File file = File.createTempFile("dstack-snapshot", ".bin");
+		try {
+			((Core_DataObjectMap) mtObj).exportSnapshot(new FileOutputStream(file));
+			Core_ColumnarSnapshotReader reader = new Core_ColumnarSnapshotReader(file);
+			assertEquals(7, reader.getRowCount());
+			assertTrue(reader.getColumnNames().contains("num"));
+			assertTrue(reader.getColumnNames().contains("str_val"));
+			
+			// Query with column pruning
+			List<Map<String, Object>> rows = reader.query("str_val = ?", new Object[] { "this" },
+				Arrays.asList("num"));
+			assertEquals(2, rows.size());
+			Set<Integer> nums = new HashSet<Integer>();
+			for (Map<String, Object> row : rows) {
+				assertNotNull(row.get("_oid"));
+				assertNull(row.get("str_val"));
+				nums.add(((Number) row.get("num")).intValue());
+			}
+			assertEquals(new HashSet<Integer>(Arrays.asList(1, 7)), nums);
+			
+			// Row group skipping, with 2 rows per group
+			Core_ColumnarSnapshotWriter writer = new Core_ColumnarSnapshotWriter(new FileOutputStream(
+				file), 2);
+			String[] tags = new String[] { "x", "y", null, null, "x", null };
+			for (int i = 0; i < tags.length; ++i) {
+				Map<String, Object> row = new HashMap<String, Object>();
+				row.put("num", i + 1);
+				row.put("tag", tags[i]);
+				writer.writeRow(String.valueOf((char) ('a' + i)), row);
+			}
+			writer.close();
+			reader = new Core_ColumnarSnapshotReader(file);
+			
+			rows = reader.query("num > ?", new Object[] { 4 }, null);
+			assertEquals(2, rows.size());
+			assertEquals(2, reader.getLastChunksSkipped());
+			assertEquals(1, reader.getLastChunksScanned());
+			
+			rows = reader.query("tag = ? AND num < ?", new Object[] { "y", 6 }, null);
+			assertEquals(1, rows.size());
+			assertEquals("b", rows.get(0).get("_oid"));
+			assertEquals(2, reader.getLastChunksSkipped());
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/// Secondary index based queries, kept in sync across updates and removals
+	@Test
+	public void secondaryIndexTest() {
+		mtObj.configMap().put("index", new String[] { "str_val" });
+		mtObj.configMap().put("sortedIndex", new String[] { "num" });
+		indexBasedTestSetup();
+		
+		// Equality, and range queries
+		assertEquals(2, mtObj.query("str_val = ?", new Object[] { "this" }).length);
+		assertEquals(2, mtObj.queryCount("num > ? AND num < ?", new Object[] { 2, 5 }));
+		
+		// Updated object
+		DataObject[] qRes = mtObj.query("str_val = ?", new Object[] { "hello" });
+		assertEquals(1, qRes.length);
+		qRes[0].put("str_val", "this");
+		qRes[0].put("num", 10);
+		qRes[0].saveDelta();
+		assertEquals(0, mtObj.query("str_val = ?", new Object[] { "hello" }).length);
+		assertEquals(3, mtObj.query("str_val = ?", new Object[] { "this" }).length);
+		assertEquals(1, mtObj.queryCount("num > ? AND num < ?", new Object[] { 2, 5 }));
+		assertEquals(1, mtObj.queryCount("num >= ? AND str_val = ?", new Object[] { 10, "this" }));
+		
+		// Removed object
+		mtObj.remove(qRes[0]._oid());
+		assertEquals(2, mtObj.query("str_val = ?", new Object[] { "this" }).length);
+		assertEquals(0, mtObj.queryCount("num >= ?", new Object[] { 10 }));
+		
+		// Ordered, with limit
+		qRes = mtObj.query(null, null, "num DESC", 0, 2);
+		assertEquals(2, qRes.length);
+		assertEquals(7, qRes[0].get("num"));
+		assertEquals(6, qRes[1].get("num"));
+		qRes = mtObj.query("str_val = ?", new Object[] { "this" }, "num DESC", 1, 1);
+		assertEquals(1, qRes.length);
+		assertEquals(1, qRes[0].get("num"));
+		
+		// Explained index usage
+		if (mtObj instanceof StructSimple_DataObjectMap || mtObj instanceof StructCache_DataObjectMap) {
+			Map<String, Object> explain = mtObj.explain("str_val = ? AND num > ?", new Object[] {
+				"this", 0 }, null, -1, -1);
+			assertEquals("index", explain.get("strategy"));
+			assertEquals(2, ((Number) explain.get("rowsExamined")).intValue());
+			assertEquals(2, ((Number) explain.get("resultCount")).intValue());
+		}
+	}
+	
+	/// Asserts the ordered query with a limit, matches the full ordered query
+	public void assertOrderedLimitMatchesFull(String orderBy) {
+		DataObject[] full = mtObj.query(null, null, orderBy);
+		DataObject[] limited = mtObj.query(null, null, orderBy, 0, full.length);
+		assertEquals(10, full.length);
+		assertEquals(full.length, limited.length);
+		for (int i = 0; i < full.length; ++i) {
+			assertEquals(full[i]._oid(), limited[i]._oid());
+		}
+	}
+	
+	/// Ordered queries on a sorted index, with objects lacking the sort key
+	@Test
+	public void secondaryIndexMissingSortKeyTest() {
+		mtObj.configMap().put("sortedIndex", new String[] { "num" });
+		indexBasedTestSetup();
+		
+		// Objects without the sort key
+		for (int i = 0; i < 3; ++i) {
+			DataObject obj = mtObj.newEntry();
+			obj.put("str_val", "nosort-" + i);
+			obj.saveDelta();
+		}
+		
+		// Ordered limited query, should match the full (unlimited) ordered query
+		assertOrderedLimitMatchesFull("num ASC");
+		assertOrderedLimitMatchesFull("num DESC");
+		
+		// Including objects which are later given the sort key
+		DataObject updated = mtObj.query("str_val = ?", new Object[] { "nosort-0" })[0];
+		updated.put("num", -1);
+		updated.saveDelta();
+		assertOrderedLimitMatchesFull("num ASC");
+		assertOrderedLimitMatchesFull("num DESC");
+	}
+	
+	/// Nested values are copy on write, where changes are only stored once put back
+	@Test
+	@SuppressWarnings("unchecked")
+	public void copyOnWriteNestedValueTest() {
+		Map<String, Object> inner = new HashMap<String, Object>();
+		inner.put("a", 1);
+		Map<String, Object> deep = new HashMap<String, Object>();
+		deep.put("b", 1);
+		inner.put("deep", deep);
+		
+		DataObject obj = mtObj.newEntry();
+		obj.put("nested", inner);
+		obj.put("list", new ArrayList<Object>(Arrays.asList(1, 2)));
+		obj.saveDelta();
+		String oid = obj._oid();
+		
+		// Changes to the original map after saving, are not stored
+		inner.put("a", 99);
+		DataObject read = mtObj.get(oid);
+		Map<String, Object> nested = (Map<String, Object>) read.get("nested");
+		assertEquals(1, ((Number) nested.get("a")).intValue());
+		
+		// Changes which are not put back, are not visible elsewhere
+		nested.put("a", 2);
+		((Map<String, Object>) nested.get("deep")).put("b", 2);
+		assertEquals(2, ((Number) ((Map<String, Object>) nested.get("deep")).get("b")).intValue());
+		assertEquals(1, ((Number) ((Map<String, Object>) read.get("nested")).get("a")).intValue());
+		assertEquals(1, ((Number) ((Map<String, Object>) mtObj.get(oid).get("nested")).get("a"))
+			.intValue());
+		
+		// Till its put back, and saved
+		read.put("nested", nested);
+		read.saveDelta();
+		Map<String, Object> stored = (Map<String, Object>) mtObj.get(oid).get("nested");
+		assertEquals(2, ((Number) stored.get("a")).intValue());
+		assertEquals(2, ((Number) ((Map<String, Object>) stored.get("deep")).get("b")).intValue());
+		
+		// Lists
+		List<Object> list = (List<Object>) read.get("list");
+		list.add(3);
+		assertEquals(2, ((List<Object>) mtObj.get(oid).get("list")).size());
+		read.put("list", list);
+		read.saveDelta();
+		assertEquals(3, ((List<Object>) mtObj.get(oid).get("list")).size());
+	}
+	
+	/// Read only DataObjects, with unmodifiable nested values
+	@Test
+	@SuppressWarnings("unchecked")
+	public void readOnlyDataObjectTest() {
+		indexBasedTestSetup();
+		Map<String, Object> nested = new HashMap<String, Object>();
+		nested.put("a", 1);
+		DataObject obj = mtObj.newEntry();
+		obj.put("nested", nested);
+		obj.put("str_val", "nested");
+		obj.saveDelta();
+		
+		// Get with values, and keys
+		DataObject readOnly = mtObj.getReadOnly(obj._oid());
+		assertNotNull(readOnly);
+		assertEquals(obj._oid(), readOnly._oid());
+		assertEquals("nested", readOnly.get("str_val"));
+		assertTrue(readOnly.keySet().contains("nested"));
+		assertTrue(readOnly.keySet().contains("_oid"));
+		assertEquals(1, ((Number) ((Map<String, Object>) readOnly.get("nested")).get("a")).intValue());
+		assertNull(mtObj.getReadOnly(GUID.base58()));
+		
+		// Mutators throw
+		try {
+			readOnly.put("str_val", "changed");
+			fail("Expected an UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+		try {
+			((Map<String, Object>) readOnly.get("nested")).put("a", 2);
+			fail("Expected an UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+		try {
+			readOnly.saveDelta();
+			fail("Expected an UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+		assertEquals("nested", mtObj.get(obj._oid()).get("str_val"));
+		
+		// Query
+		DataObject[] qRes = mtObj.queryReadOnly("str_val = ?", new Object[] { "this" }, "num ASC");
+		assertEquals(2, qRes.length);
+		assertEquals(1, qRes[0].get("num"));
+		assertEquals(7, qRes[1].get("num"));
+	}
 }
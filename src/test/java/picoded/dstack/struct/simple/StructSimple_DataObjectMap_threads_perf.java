@@ -0,0 +1,150 @@
+package picoded.dstack.struct.simple;
+
+// Test system include
+import static org.junit.Assert.*;
+import org.junit.*;
+import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+
+// Java includes
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Test depends
+import picoded.dstack.*;
+
+/// Multi threaded throughput benchmark of DataObjectMap, with a mixed read / write / query load.
+/// Each test does the same total number of operations, split across its threads.
+/// So with linear scaling, the time taken should decrease with thread count.
+public class StructSimple_DataObjectMap_threads_perf extends AbstractBenchmark {
+	
+	/// Test object
+	public DataObjectMap mtObj = null;
+	
+	// To override for implementation
+	//-----------------------------------------------------
+	public DataObjectMap implementationConstructor() {
+		return new StructSimple_DataObjectMap();
+	}
+	
+	// Setup and sanity test
+	//-----------------------------------------------------
+	@Before
+	public void setUp() {
+		mtObj = implementationConstructor();
+		mtObj.systemSetup();
+		
+		prepareTestObjects();
+	}
+	
+	@After
+	public void tearDown() {
+		if (mtObj != null) {
+			mtObj.systemDestroy();
+		}
+		mtObj = null;
+	}
+	
+	// Performance benchmark setup
+	//-----------------------------------------------------
+	
+	/// Number of objects to prepare
+	public int objectCount = 1000;
+	
+	/// Total number of operations, across all threads
+	public int operationCount = 200000;
+	
+	/// Object ID's of the prepared objects
+	String[] oids = null;
+	
+	/// Prepare the test objects
+	public void prepareTestObjects() {
+		oids = new String[objectCount];
+		for (int i = 0; i < objectCount; ++i) {
+			Map<String, Object> objMap = new HashMap<String, Object>();
+			objMap.put("num", i);
+			objMap.put("str_val", "value-" + i);
+			oids[i] = mtObj.newEntry(objMap)._oid();
+		}
+	}
+	
+	/// Mixed load of a single thread, of 90% get, 9% update, and 1% query
+	public void mixedLoad(int operations) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < operations; ++i) {
+			String oid = oids[random.nextInt(oids.length)];
+			int op = random.nextInt(100);
+			if (op < 90) {
+				assertNotNull(mtObj.get(oid));
+			} else if (op < 99) {
+				DataObject obj = mtObj.get(oid);
+				obj.put("num", random.nextInt(objectCount));
+				obj.saveDelta();
+			} else {
+				mtObj.query("num < ?", new Object[] { 10 });
+			}
+		}
+	}
+	
+	/// Runs the mixed load, across the given number of threads.
+	/// Failures within the threads are collected, and asserted on the main thread.
+	public void threadedLoad(int threadCount) throws Exception {
+		List<Thread> threads = new ArrayList<Thread>();
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		int operations = operationCount / threadCount;
+		for (int t = 0; t < threadCount; ++t) {
+			Thread thread = new Thread(() -> {
+				try {
+					mixedLoad(operations);
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (!failures.isEmpty()) {
+			throw new AssertionError("Failed in " + failures.size() + " thread(s)", failures.get(0));
+		}
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void mixedLoad_1thread() throws Exception {
+		threadedLoad(1);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void mixedLoad_2threads() throws Exception {
+		threadedLoad(2);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void mixedLoad_4threads() throws Exception {
+		threadedLoad(4);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void mixedLoad_8threads() throws Exception {
+		threadedLoad(8);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void mixedLoad_16threads() throws Exception {
+		threadedLoad(16);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void mixedLoad_32threads() throws Exception {
+		threadedLoad(32);
+	}
+	
+}
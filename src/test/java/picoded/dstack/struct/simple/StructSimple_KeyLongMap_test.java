@@ -7,8 +7,10 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 
 // Test Case include
 import org.junit.After;
@@ -32,6 +34,12 @@ public class StructSimple_KeyLongMap_test {
 		return new StructSimple_KeyLongMap();
 	}
 	
+	/// Only implementations with native atomic operations, are tested with concurrent adds.
+	/// Other backends fall back to a limited number of weakCompareAndSet retries
+	public boolean nativeAtomicAdd() {
+		return (testObj instanceof StructSimple_KeyLongMap);
+	}
+	
 	// Setup and sanity test
 	//-----------------------------------------------------
 	@Before
@@ -203,6 +211,29 @@ public class StructSimple_KeyLongMap_test {
 		assertEquals(3L, testObj.getValue("getAndDecrement").longValue());
 	}
 	
+	@Test
+	public void concurrentAddAndGetTest() throws Exception {
+		if (!nativeAtomicAdd()) {
+			return;
+		}
+		
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; ++t) {
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 1000; ++i) {
+					testObj.incrementAndGet("hot");
+					testObj.getAndAdd("hot", 2L);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(8 * 1000 * 3L, testObj.getValue("hot").longValue());
+	}
+	
 	@Test
 	public void SLOW_testColumnExpiration() throws Exception {
 		// set column expiration time to current time + 1 secs.
@@ -0,0 +1,182 @@
+package picoded.dstack.struct.simple;
+
+// Test system include
+import static org.junit.Assert.*;
+import org.junit.*;
+import com.carrotsearch.junitbenchmarks.AbstractBenchmark;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+
+// Java includes
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Test depends
+import picoded.dstack.*;
+
+/// Multi threaded contention benchmark of KeyLongMap addAndGet, on a single (hot) key, and on many keys.
+/// Each test does the same total number of operations, split across its threads.
+/// So with linear scaling, the time taken should decrease with thread count.
+public class StructSimple_KeyLongMap_threads_perf extends AbstractBenchmark {
+	
+	/// Test object
+	public KeyLongMap mtObj = null;
+	
+	// To override for implementation
+	//-----------------------------------------------------
+	public KeyLongMap implementationConstructor() {
+		return new StructSimple_KeyLongMap();
+	}
+	
+	// Setup and sanity test
+	//-----------------------------------------------------
+	@Before
+	public void setUp() {
+		mtObj = implementationConstructor();
+		mtObj.systemSetup();
+	}
+	
+	@After
+	public void tearDown() {
+		if (mtObj != null) {
+			mtObj.systemDestroy();
+		}
+		mtObj = null;
+	}
+	
+	// Performance benchmark setup
+	//-----------------------------------------------------
+	
+	/// Number of keys, for the many keys load
+	public int keyCount = 1000;
+	
+	/// Total number of operations, across all threads
+	public int operationCount = 1000000;
+	
+	/// Increments a single key, for the given number of operations
+	public void singleKeyLoad(int operations) {
+		for (int i = 0; i < operations; ++i) {
+			mtObj.addAndGet("hot", 1L);
+		}
+	}
+	
+	/// Increments random keys, for the given number of operations
+	public void manyKeysLoad(int operations) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < operations; ++i) {
+			mtObj.addAndGet("key-" + random.nextInt(keyCount), 1L);
+		}
+	}
+	
+	/// Runs the load across the given number of threads, and validates the total
+	public void threadedLoad(int threadCount, boolean singleKey) throws Exception {
+		List<Thread> threads = new ArrayList<Thread>();
+		int operations = operationCount / threadCount;
+		for (int t = 0; t < threadCount; ++t) {
+			Thread thread = new Thread(() -> {
+				if (singleKey) {
+					singleKeyLoad(operations);
+				} else {
+					manyKeysLoad(operations);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		// Validate that no increment was lost
+		long total = 0;
+		for (String key : mtObj.keySet()) {
+			total += mtObj.getValue(key);
+		}
+		assertEquals((long) operations * threadCount, total);
+		mtObj.clear();
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void singleKey_1thread() throws Exception {
+		threadedLoad(1, true);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void singleKey_2threads() throws Exception {
+		threadedLoad(2, true);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void singleKey_4threads() throws Exception {
+		threadedLoad(4, true);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void singleKey_8threads() throws Exception {
+		threadedLoad(8, true);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void singleKey_16threads() throws Exception {
+		threadedLoad(16, true);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void singleKey_32threads() throws Exception {
+		threadedLoad(32, true);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void singleKey_64threads() throws Exception {
+		threadedLoad(64, true);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void manyKeys_1thread() throws Exception {
+		threadedLoad(1, false);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void manyKeys_2threads() throws Exception {
+		threadedLoad(2, false);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void manyKeys_4threads() throws Exception {
+		threadedLoad(4, false);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void manyKeys_8threads() throws Exception {
+		threadedLoad(8, false);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void manyKeys_16threads() throws Exception {
+		threadedLoad(16, false);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void manyKeys_32threads() throws Exception {
+		threadedLoad(32, false);
+	}
+	
+	@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 1)
+	@Test
+	public void manyKeys_64threads() throws Exception {
+		threadedLoad(64, false);
+	}
+	
+}
@@ -127,6 +127,27 @@ public class StructSimple_KeyValueMap_test {
 			testObj.keySet("world"));
 	}
 	
+	@Test
+	public void keySetValueChangesTest() throws Exception {
+		long now = System.currentTimeMillis();
+		testObj.put("a", "world");
+		testObj.put("b", "world");
+		testObj.put("c", "world");
+		testObj.putWithExpiry("d", "world", now - 1000);
+		
+		// Changed, removed, and expired keys are excluded
+		testObj.put("b", "sparta");
+		testObj.remove("c");
+		assertEquals(new HashSet<String>(Arrays.asList("a")), testObj.keySet("world"));
+		assertEquals(new HashSet<String>(Arrays.asList("b")), testObj.keySet("sparta"));
+		
+		// Including after maintenance, and changed back
+		testObj.maintenance();
+		testObj.put("b", "world");
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b")), testObj.keySet("world"));
+		assertEquals(new HashSet<String>(), testObj.keySet("sparta"));
+	}
+	
 	@Test
 	public void SLOW_testColumnExpiration() throws Exception {
 		// set column expiration time to current time + 1 secs.
@@ -143,6 +164,25 @@ public class StructSimple_KeyValueMap_test {
 		assertEquals(null, testObj.get("yes"));
 	}
 	
+	@Test
+	public void maintenanceExpiryTest() throws Exception {
+		long now = System.currentTimeMillis();
+		testObj.putWithExpiry("expired", "value", now - 1000);
+		testObj.putWithExpiry("refreshed", "value", now - 1000);
+		testObj.setExpiry("refreshed", now + 100000);
+		testObj.putWithExpiry("valid", "value", now + 100000);
+		testObj.putValue("forever", "value");
+		
+		testObj.maintenance();
+		
+		assertNull(testObj.getValue("expired"));
+		assertEquals("value", testObj.getValue("refreshed"));
+		assertEquals("value", testObj.getValue("valid"));
+		assertEquals("value", testObj.getValue("forever"));
+		assertEquals(new HashSet<String>(Arrays.asList("refreshed", "valid", "forever")), testObj
+			.keySet("value"));
+	}
+	
 	// CRUD operations
 	//-----------------------------------------------------
 	